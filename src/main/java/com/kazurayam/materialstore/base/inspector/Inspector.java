@@ -2,12 +2,15 @@ package com.kazurayam.materialstore.base.inspector;
 
 import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
 import com.kazurayam.materialstore.base.report.MaterialProductGroupReporter;
+import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
 
 public abstract class Inspector {
 
@@ -32,4 +35,34 @@ public abstract class Inspector {
 
     public abstract Path report(MaterialList materialList) throws MaterialstoreException;
 
+    /**
+     * reduce, diff and report the MaterialProductGroups of the JobNames concurrently,
+     * then update the index.html of the store once.
+     * The JobNames are independent of each other; each is processed as
+     * #reduceAndSort(MaterialProductGroup) then #report(MaterialProductGroup, Double) do.
+     *
+     * @param supplier makes the MaterialProductGroup of a JobName to be reduced
+     * @return the report files by the JobNames, in the order given
+     */
+    public abstract Map<JobName, Path> reportAll(Collection<JobName> jobNames,
+                                                 MaterialProductGroupSupplier supplier,
+                                                 Double threshold) throws MaterialstoreException;
+
+    /**
+     * @param parallelism the maximum number of the JobNames processed at once by #reportAll
+     */
+    public abstract void setParallelism(int parallelism);
+
+    /**
+     * @param bytes the memory budget of the decoded images shared by all the JobNames processed
+     *              at once by #reportAll, so that an image is decoded once per run and the
+     *              decoded images take no more than the budget altogether; 0 (default) not to cache
+     */
+    public abstract void setDecodedImageCacheBudget(long bytes);
+
+    @FunctionalInterface
+    public interface MaterialProductGroupSupplier {
+        MaterialProductGroup get(JobName jobName) throws MaterialstoreException;
+    }
+
 }
@@ -3,16 +3,30 @@ package com.kazurayam.materialstore.base.inspector;
 import com.kazurayam.materialstore.base.reduce.DiffingMPGProcessor;
 import com.kazurayam.materialstore.base.reduce.MPGProcessor;
 import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.differ.DecodedImageCache;
+import com.kazurayam.materialstore.base.report.IndexCreator;
 import com.kazurayam.materialstore.base.report.MaterialListReporterImpl;
 import com.kazurayam.materialstore.base.report.MaterialProductGroupReporter;
 import com.kazurayam.materialstore.base.report.MaterialProductGroupReporterImpl;
+import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class InspectorImpl extends Inspector {
 
@@ -21,6 +35,14 @@ public class InspectorImpl extends Inspector {
 
     private SortKeys sortKeys;
 
+    /*
+     * Half the processors by default: the image differs compare the tiles of an image
+     * in parallel on the common ForkJoinPool, which is sized to the processors as well.
+     */
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private long decodedImageCacheBudget = 0;
+
     public InspectorImpl(Store store) {
         this.store = store;
         this.reducer = new DiffingMPGProcessor.Builder(store).build();
@@ -39,14 +61,98 @@ public class InspectorImpl extends Inspector {
         this.sortKeys = sortKeys;
     }
 
+    @Override
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public void setDecodedImageCacheBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative: " + bytes);
+        }
+        this.decodedImageCacheBudget = bytes;
+    }
+
     @Override
     public MaterialProductGroup reduceAndSort(MaterialProductGroup input) throws MaterialstoreException {
+        return reduceAndSort(input, reducer);
+    }
+
+    private MaterialProductGroup reduceAndSort(MaterialProductGroup input, MPGProcessor processor)
+            throws MaterialstoreException {
         MaterialProductGroup tmp = new MaterialProductGroup(input);
-        tmp = reducer.process(tmp);
+        tmp = processor.process(tmp);
         tmp.order(sortKeys);
         return tmp;
     }
 
+    @Override
+    public Map<JobName, Path> reportAll(Collection<JobName> jobNames,
+                                        MaterialProductGroupSupplier supplier,
+                                        Double threshold) throws MaterialstoreException {
+        Objects.requireNonNull(jobNames);
+        Objects.requireNonNull(supplier);
+        Objects.requireNonNull(threshold);
+        List<JobName> distinct = new ArrayList<>(new LinkedHashSet<>(jobNames));
+        Map<JobName, Path> reports = new LinkedHashMap<>();
+        if (distinct.isEmpty()) {
+            return reports;
+        }
+        // one budget for all the JobNames, not one for each
+        final DecodedImageCache decodedImageCache = (decodedImageCacheBudget > 0)
+                ? new DecodedImageCache(decodedImageCacheBudget) : null;
+        int nThreads = Math.min(parallelism, distinct.size());
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "Inspector-reportAll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<JobName, Future<Path>> futures = new LinkedHashMap<>();
+        try {
+            for (JobName jobName : distinct) {
+                futures.put(jobName, executor.submit(() -> {
+                    MaterialProductGroup mpg = supplier.get(jobName);
+                    // the Differs keep state while diffing; a processor per JobName
+                    DiffingMPGProcessor.Builder builder = new DiffingMPGProcessor.Builder(store);
+                    if (decodedImageCache != null) {
+                        builder.decodedImageCache(decodedImageCache);
+                    }
+                    MPGProcessor processor = builder.build();
+                    MaterialProductGroup reduced = reduceAndSort(mpg, processor);
+                    return report(reduced, threshold);
+                }));
+            }
+            for (Map.Entry<JobName, Future<Path>> entry : futures.entrySet()) {
+                reports.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaterialstoreException) {
+                throw (MaterialstoreException) e.getCause();
+            }
+            throw new MaterialstoreException(e.getCause());
+        } finally {
+            // stops the other JobNames if one failed
+            futures.values().forEach(future -> future.cancel(true));
+            executor.shutdownNow();
+            if (decodedImageCache != null) {
+                decodedImageCache.clear();
+            }
+        }
+        try {
+            new IndexCreator(store).update(reports.values().toArray(new Path[0]));
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return reports;
+    }
+
     @Override
     public String resolveReportFileName(MaterialList materialList) {
         return store.resolveReportFileName(materialList.getJobName(),
@@ -0,0 +1,96 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+
+import java.time.Duration;
+
+/**
+ * reclaims the orphans: the files in the "objects" directories of the store which no "index"
+ * refers to. They are left behind by a crash between writing an object file and the "index",
+ * by an interrupted import, or by an aborted diff. The files in the sidecar directories
+ * "thumbnails", "fragments" and "signatures" of the Materials no longer in the "index",
+ * and the temporary files ("*.tmp") left behind by the writes crashed, are reclaimed as well.
+ * <p>
+ * The OrphanCollector marks the IDs recorded in the "index" of a JobTimestamp, and then sweeps
+ * the object files and the sidecar files of the other IDs. It goes through the JobTimestamps of the store in a pass,
+ * a few JobTimestamps at once; #collect(Duration) runs a part of the pass within a time slice
+ * and the next call resumes where it left off. So it can work in background on a live store.
+ * <p>
+ * An object file is reclaimed only when it and its "index" have not been modified for the grace
+ * period (1 hour as default), so that a Material being written is not mistaken for an orphan.
+ * Likewise a temporary file is reclaimed only when it has not been modified for the grace period.
+ */
+public abstract class OrphanCollector {
+
+    public static OrphanCollector newInstance(Store store) {
+        return new OrphanCollectorImpl(store);
+    }
+
+    /**
+     * run a whole pass over the store
+     */
+    public abstract Result collect() throws MaterialstoreException;
+
+    /**
+     * run the pass in progress, or a new pass, until the time slice is used up
+     * or the pass is completed. At least a few JobTimestamps are processed at each call.
+     */
+    public abstract Result collect(Duration timeSlice) throws MaterialstoreException;
+
+    /**
+     * @return true if no pass is in progress
+     */
+    public abstract boolean isPassCompleted();
+
+    /**
+     * @param parallelism the maximum number of the JobTimestamps processed at once. 4 as default.
+     */
+    public abstract void setParallelism(int parallelism);
+
+    /**
+     * @param gracePeriod the files modified in the period are never reclaimed
+     */
+    public abstract void setGracePeriod(Duration gracePeriod);
+
+    /**
+     * what a call to #collect() did
+     */
+    public static final class Result {
+
+        private final int jobTimestampsScanned;
+        private final int orphansDeleted;
+        private final long bytesReclaimed;
+        private final boolean passCompleted;
+
+        Result(int jobTimestampsScanned, int orphansDeleted, long bytesReclaimed, boolean passCompleted) {
+            this.jobTimestampsScanned = jobTimestampsScanned;
+            this.orphansDeleted = orphansDeleted;
+            this.bytesReclaimed = bytesReclaimed;
+            this.passCompleted = passCompleted;
+        }
+
+        public int getJobTimestampsScanned() {
+            return jobTimestampsScanned;
+        }
+
+        public int getOrphansDeleted() {
+            return orphansDeleted;
+        }
+
+        public long getBytesReclaimed() {
+            return bytesReclaimed;
+        }
+
+        public boolean isPassCompleted() {
+            return passCompleted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{\"jobTimestampsScanned\":%d, \"orphansDeleted\":%d, " +
+                            "\"bytesReclaimed\":%d, \"passCompleted\":%s}",
+                    jobTimestampsScanned, orphansDeleted, bytesReclaimed, passCompleted);
+        }
+    }
+}
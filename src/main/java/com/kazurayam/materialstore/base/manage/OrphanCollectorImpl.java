@@ -0,0 +1,313 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Jobber;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+public final class OrphanCollectorImpl extends OrphanCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrphanCollectorImpl.class);
+
+    // as Index#getIndexFile(Path) names it
+    private static final String INDEX_FILE_NAME = "index";
+
+    // <sha1 hash id>.<FileType.extension>
+    private static final Pattern OBJECT_FILE_NAME = Pattern.compile("^[0-9a-fA-F]{40}\\.[^.]+$");
+
+    // the sidecar directories of a JobTimestamp, as ThumbnailGenerator, FragmentCache and TileSignature name them
+    private static final String[] SIDECAR_DIR_NAMES = { "thumbnails", "fragments", "signatures" };
+
+    // <sha1 hash id of the Material>.<anything>
+    private static final Pattern SIDECAR_FILE_NAME = Pattern.compile("^[0-9a-fA-F]{40}\\..+$");
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    static final Duration DEFAULT_GRACE_PERIOD = Duration.ofHours(1);
+
+    private final Store store;
+    private int parallelism = StoreCleanerImpl.DEFAULT_PARALLELISM;
+    private Duration gracePeriod = DEFAULT_GRACE_PERIOD;
+
+    // the JobTimestamp directories yet to be processed in the pass in progress
+    private final Deque<Path> pending = new ArrayDeque<>();
+    private boolean inPass = false;
+
+    // the temporary files deleted in the store root as the pass was started; not reported yet
+    private long[] rootSwept = new long[] { 0, 0 };
+
+    public OrphanCollectorImpl(Store store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public void setGracePeriod(Duration gracePeriod) {
+        Objects.requireNonNull(gracePeriod);
+        if (gracePeriod.isNegative()) {
+            throw new IllegalArgumentException("gracePeriod must not be negative: " + gracePeriod);
+        }
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Override
+    public synchronized boolean isPassCompleted() {
+        return !inPass;
+    }
+
+    @Override
+    public synchronized Result collect() throws MaterialstoreException {
+        if (!inPass) {
+            startPass();
+        }
+        return run(null);
+    }
+
+    @Override
+    public synchronized Result collect(Duration timeSlice) throws MaterialstoreException {
+        Objects.requireNonNull(timeSlice);
+        if (!inPass) {
+            startPass();
+        }
+        return run(System.nanoTime() + timeSlice.toNanos());
+    }
+
+    private void startPass() throws MaterialstoreException {
+        pending.clear();
+        final long cutoffMillis = System.currentTimeMillis() - gracePeriod.toMillis();
+        long[] swept = new long[] { 0, 0 };
+        try {
+            sweepTempFiles(store.getRoot(), cutoffMillis, swept);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        for (JobName jobName : store.findAllJobNames()) {
+            Path jobNameDir = store.getRoot().resolve(jobName.toString());
+            try {
+                sweepTempFiles(jobNameDir, cutoffMillis, swept);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+            try {
+                for (JobTimestamp jt : store.findAllJobTimestamps(jobName)) {
+                    pending.add(jobNameDir.resolve(jt.toString()));
+                }
+            } catch (JobNameNotFoundException e) {
+                // the JobName was deleted since listed
+                logger.debug(e.getMessage());
+            }
+        }
+        rootSwept = swept;
+        inPass = true;
+        logger.debug(String.format("#startPass %d JobTimestamps to scan", pending.size()));
+    }
+
+    /*
+     * process the JobTimestamps pending, as many at once as the parallelism, until the deadline
+     *
+     * @param deadlineNanos null to process all
+     */
+    private Result run(Long deadlineNanos) throws MaterialstoreException {
+        final long cutoffMillis = System.currentTimeMillis() - gracePeriod.toMillis();
+        int scanned = 0;
+        int deleted = (int) rootSwept[0];
+        long bytes = rootSwept[1];
+        rootSwept = new long[] { 0, 0 };
+        do {
+            List<Callable<long[]>> tasks = new ArrayList<>();
+            while (tasks.size() < parallelism && !pending.isEmpty()) {
+                Path dir = pending.poll();
+                tasks.add(() -> {
+                    long[] r = collectOrphans(dir, cutoffMillis);
+                    // only the object files are added to the usage as they are written
+                    if (r[2] > 0) {
+                        store.getUsage().add(new JobName(dir.getParent().getFileName().toString()),
+                                new JobTimestamp(dir.getFileName().toString()), -r[2]);
+                    }
+                    return r;
+                });
+            }
+            for (long[] r : ParallelTasks.run(tasks, parallelism, "OrphanCollector")) {
+                deleted += (int) r[0];
+                bytes += r[1];
+            }
+            scanned += tasks.size();
+        } while (!pending.isEmpty()
+                && (deadlineNanos == null || System.nanoTime() - deadlineNanos < 0));
+        if (pending.isEmpty()) {
+            inPass = false;
+        }
+        Result result = new Result(scanned, deleted, bytes, !inPass);
+        logger.debug("#collect " + result);
+        return result;
+    }
+
+    /*
+     * sweep the temporary files left behind, then mark the IDs in the "index" of the JobTimestamp,
+     * and sweep the object files and the sidecar files of the other IDs
+     *
+     * @return the number of the files deleted, their bytes, and the bytes of the object files among them
+     */
+    private static long[] collectOrphans(Path jobTimestampDir, long cutoffMillis) throws MaterialstoreException {
+        Path objectsDir = jobTimestampDir.resolve(Jobber.getOBJECTS_DIR_NAME());
+        Path indexFile = jobTimestampDir.resolve(INDEX_FILE_NAME);
+        try {
+            long[] result = new long[] { 0, 0, 0 };
+            sweepTempFiles(objectsDir, cutoffMillis, result);
+            for (String sidecar : SIDECAR_DIR_NAMES) {
+                sweepTempFiles(jobTimestampDir.resolve(sidecar), cutoffMillis, result);
+            }
+            BasicFileAttributes indexAttrs = readAttributes(indexFile);
+            if (indexAttrs == null) {
+                // no "index" yet; the JobTimestamp may be being created or imported
+                BasicFileAttributes dirAttrs = readAttributes(objectsDir);
+                if (dirAttrs == null || dirAttrs.lastModifiedTime().toMillis() > cutoffMillis
+                        || Files.getLastModifiedTime(jobTimestampDir).toMillis() > cutoffMillis) {
+                    return result;
+                }
+            } else if (indexAttrs.lastModifiedTime().toMillis() > cutoffMillis) {
+                // written recently; leave it for the next pass
+                return result;
+            }
+            Set<String> marked = (indexAttrs != null) ? readIDs(indexFile) : new HashSet<>();
+            Map<Path, Long> orphans = new LinkedHashMap<>();
+            findOrphans(objectsDir, OBJECT_FILE_NAME, marked, cutoffMillis, orphans);
+            for (String sidecar : SIDECAR_DIR_NAMES) {
+                findOrphans(jobTimestampDir.resolve(sidecar), SIDECAR_FILE_NAME, marked, cutoffMillis, orphans);
+            }
+            if (orphans.isEmpty()) {
+                return result;
+            }
+            // the "index" may have been updated while sweeping; if so, leave it for the next pass
+            BasicFileAttributes recheck = readAttributes(indexFile);
+            if (!sameModification(indexAttrs, recheck)) {
+                return result;
+            }
+            for (Map.Entry<Path, Long> orphan : orphans.entrySet()) {
+                if (Files.deleteIfExists(orphan.getKey())) {
+                    result[0] += 1;
+                    result[1] += orphan.getValue();
+                    if (orphan.getKey().getParent().equals(objectsDir)) {
+                        result[2] += orphan.getValue();
+                    }
+                }
+            }
+            logger.debug(String.format("#collectOrphans deleted %d files in %s", result[0], jobTimestampDir));
+            return result;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /*
+     * put the files in the directory named after an ID not marked, and not modified since the cutoff,
+     * into the orphans
+     */
+    private static void findOrphans(Path dir, Pattern fileName, Set<String> marked, long cutoffMillis,
+                                    Map<Path, Long> orphans) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!fileName.matcher(name).matches() || name.endsWith(TEMP_FILE_SUFFIX)
+                        || marked.contains(name.substring(0, 40).toLowerCase())) {
+                    continue;
+                }
+                BasicFileAttributes attrs = readAttributes(file);
+                if (attrs != null && attrs.isRegularFile()
+                        && attrs.lastModifiedTime().toMillis() <= cutoffMillis) {
+                    orphans.put(file, attrs.size());
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no such sidecar
+        }
+    }
+
+    /*
+     * delete the temporary files in the directory not modified since the cutoff; those of a write
+     * which crashed or was killed, as a write renames or deletes its temporary file as it finishes
+     */
+    private static void sweepTempFiles(Path dir, long cutoffMillis, long[] result) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + TEMP_FILE_SUFFIX)) {
+            for (Path file : stream) {
+                BasicFileAttributes attrs = readAttributes(file);
+                if (attrs != null && attrs.isRegularFile()
+                        && attrs.lastModifiedTime().toMillis() <= cutoffMillis
+                        && Files.deleteIfExists(file)) {
+                    result[0] += 1;
+                    result[1] += attrs.size();
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no such directory
+        }
+    }
+
+    /*
+     * the IDs in the first column of the "index" lines; the metadata are not parsed
+     */
+    private static Set<String> readIDs(Path indexFile) throws IOException {
+        Set<String> ids = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    ids.add(line.substring(0, tab).toLowerCase());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static boolean sameModification(BasicFileAttributes a, BasicFileAttributes b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.lastModifiedTime().equals(b.lastModifiedTime()) && a.size() == b.size();
+    }
+
+    /*
+     * @return null if the file is not there
+     */
+    private static BasicFileAttributes readAttributes(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
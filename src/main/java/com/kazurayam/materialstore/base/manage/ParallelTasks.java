@@ -0,0 +1,74 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * runs the file I/O tasks of the store management on a bounded number of threads,
+ * so that a network file system is not flooded with requests
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {}
+
+    /**
+     * @return the results in the order of the tasks
+     */
+    static <T> List<T> run(List<Callable<T>> tasks, int parallelism, String threadName)
+            throws MaterialstoreException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.isEmpty()) {
+            return results;
+        }
+        if (parallelism <= 1 || tasks.size() == 1) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+        int nThreads = Math.min(parallelism, tasks.size());
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<T>> futures = new ArrayList<>();
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaterialstoreException) {
+                throw (MaterialstoreException) e.getCause();
+            }
+            throw new MaterialstoreException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T call(Callable<T> task) throws MaterialstoreException {
+        try {
+            return task.call();
+        } catch (MaterialstoreException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialLocator;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+/**
+ * the graph of the JobTimestamps in a JobName, in which a JobTimestamp with the diffs made by
+ * Inspector refers to the JobTimestamps of the left and the right Materials of the diffs.
+ * <p>
+ * The graph is built in a single pass over the "index" files of the JobTimestamps; of each line
+ * only the ones with "category":"diff" are parsed. The edges are cached in the sidecar file
+ * ".refgraph" in the JobName directory, with the lastModified and the size of each "index" file,
+ * so that the "index" files not modified since are not read again.
+ * <p>
+ * A diff may be stored in the JobTimestamp of its left or right Material. Such a self-reference
+ * is no edge, but the JobTimestamp has a diff all the same: it is differentiating, as
+ * Store#hasDifferentiatingIndexEntry tells.
+ */
+final class ReferenceGraph {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceGraph.class);
+
+    static final String FILE_NAME = ".refgraph";
+
+    // as Index#getIndexFile(Path) names it
+    private static final String INDEX_FILE_NAME = "index";
+
+    private final Path jobNameDir;
+    // sorted in reverse order; the latest comes first
+    private final List<JobTimestamp> nodes;
+    private final Map<JobTimestamp, Entry> entries;
+    private int indexesRead = 0;
+
+    private ReferenceGraph(Path jobNameDir, List<JobTimestamp> nodes, Map<JobTimestamp, Entry> entries) {
+        this.jobNameDir = jobNameDir;
+        this.nodes = nodes;
+        this.entries = entries;
+    }
+
+    /**
+     * build the graph of the JobName, reading the "index" files modified since cached
+     *
+     * @param parallelism the maximum number of the "index" files read at once
+     */
+    static ReferenceGraph build(Store store, JobName jobName, int parallelism)
+            throws MaterialstoreException, JobNameNotFoundException {
+        Objects.requireNonNull(store);
+        Objects.requireNonNull(jobName);
+        List<JobTimestamp> nodes = new ArrayList<>(store.findAllJobTimestamps(jobName));
+        nodes.sort(Collections.reverseOrder());
+        Path jobNameDir = store.getRoot().resolve(jobName.toString());
+        Map<JobTimestamp, Entry> cached = load(jobNameDir.resolve(FILE_NAME));
+        List<Callable<Entry>> tasks = new ArrayList<>();
+        for (JobTimestamp jt : nodes) {
+            Entry entry = cached.get(jt);
+            Path indexFile = jobNameDir.resolve(jt.toString()).resolve(INDEX_FILE_NAME);
+            tasks.add(() -> read(jt, indexFile, entry));
+        }
+        List<Entry> results = ParallelTasks.run(tasks, parallelism, "ReferenceGraph");
+        Map<JobTimestamp, Entry> entries = new HashMap<>();
+        int indexesRead = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Entry entry = results.get(i);
+            if (entry != cached.get(nodes.get(i))) {
+                indexesRead += 1;
+            }
+            entries.put(nodes.get(i), entry);
+        }
+        ReferenceGraph graph = new ReferenceGraph(jobNameDir, nodes, entries);
+        graph.indexesRead = indexesRead;
+        logger.debug(String.format("#build %s: %d JobTimestamps, %d index files read",
+                jobName, nodes.size(), indexesRead));
+        return graph;
+    }
+
+    /**
+     * @return all the JobTimestamps in the JobName, the latest first
+     */
+    List<JobTimestamp> getJobTimestamps() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @return the number of the "index" files read to build the graph; the others were cached
+     */
+    int getIndexesRead() {
+        return indexesRead;
+    }
+
+    /**
+     * @return the JobTimestamps referred to by the diffs in the JobTimestamp, the latest first
+     */
+    List<JobTimestamp> getReferredBy(JobTimestamp jobTimestamp) {
+        Entry entry = entries.get(jobTimestamp);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        List<JobTimestamp> list = new ArrayList<>(entry.referred);
+        list.sort(Collections.reverseOrder());
+        return list;
+    }
+
+    /**
+     * @return the JobTimestamps which contain any diff, the latest first;
+     * including the ones whose diffs refer to themselves only
+     */
+    List<JobTimestamp> getDifferentiatingJobTimestamps() {
+        List<JobTimestamp> list = new ArrayList<>();
+        for (JobTimestamp jt : nodes) {
+            if (entries.get(jt).hasDiff) {
+                list.add(jt);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the JobTimestamps given and all the JobTimestamps reachable from them
+     * following the references of the diffs
+     */
+    Set<JobTimestamp> reachableFrom(Collection<JobTimestamp> roots) {
+        Set<JobTimestamp> reached = new HashSet<>();
+        Deque<JobTimestamp> queue = new ArrayDeque<>();
+        for (JobTimestamp root : roots) {
+            if (reached.add(root)) {
+                queue.add(root);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Entry entry = entries.get(queue.poll());
+            if (entry != null) {
+                for (JobTimestamp referred : entry.referred) {
+                    if (reached.add(referred)) {
+                        queue.add(referred);
+                    }
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * forget the JobTimestamps deleted, and write the graph into the ".refgraph" file
+     */
+    void save(Collection<JobTimestamp> deleted) throws MaterialstoreException {
+        nodes.removeAll(deleted);
+        for (JobTimestamp jt : deleted) {
+            entries.remove(jt);
+        }
+        Path file = jobNameDir.resolve(FILE_NAME);
+        Path tmp = jobNameDir.resolve(FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (JobTimestamp jt : nodes) {
+                    Entry entry = entries.get(jt);
+                    List<String> referred = new ArrayList<>();
+                    for (JobTimestamp r : entry.referred) {
+                        referred.add(r.toString());
+                    }
+                    bw.write(String.format("%s\t%d\t%d\t%s\t%s", jt, entry.lastModified, entry.size,
+                            entry.hasDiff ? "d" : "-", String.join(",", referred)));
+                    bw.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /*
+     * @param cached the entry in the ".refgraph" file, or null
+     * @return the entry cached if the "index" file is not modified since
+     */
+    private static Entry read(JobTimestamp jobTimestamp, Path indexFile, Entry cached)
+            throws MaterialstoreException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(indexFile, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return new Entry(-1L, -1L, false, Collections.emptySet());
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (cached != null && cached.lastModified == lastModified && cached.size == attrs.size()) {
+            return cached;
+        }
+        Set<JobTimestamp> referred = new TreeSet<>();
+        boolean hasDiff = false;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // the metadata of a diff is parsed; the others are not
+                if (!line.contains("\"category\"")) {
+                    continue;
+                }
+                String[] items = line.split("\t", 3);
+                if (items.length < 3) {
+                    continue;
+                }
+                try {
+                    JsonObject metadata = JsonParser.parseString(items[2]).getAsJsonObject();
+                    JsonElement category = metadata.get("category");
+                    if (category != null && "diff".equals(category.getAsString())) {
+                        hasDiff |= addReferred(referred, metadata.get("left"));
+                        hasDiff |= addReferred(referred, metadata.get("right"));
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn(String.format("#read ignored an invalid line in %s: %s", indexFile, line));
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        // a diff stored in the JobTimestamp of its left or right is no edge
+        referred.remove(jobTimestamp);
+        return new Entry(lastModified, attrs.size(), hasDiff, referred);
+    }
+
+    /*
+     * @return true if the locator is there
+     */
+    private static boolean addReferred(Set<JobTimestamp> referred, JsonElement locator) {
+        if (locator == null) {
+            return false;
+        }
+        referred.add(MaterialLocator.parse(locator.getAsString()).getJobTimestamp());
+        return true;
+    }
+
+    private static Map<JobTimestamp, Entry> load(Path file) throws MaterialstoreException {
+        Map<JobTimestamp, Entry> cached = new HashMap<>();
+        if (!Files.exists(file)) {
+            return cached;
+        }
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] items = line.split("\t", -1);
+                if (items.length == 4) {
+                    // written without the flag of diffs; the "index" is read again
+                    continue;
+                }
+                if (items.length != 5 || !JobTimestamp.isValid(items[0])) {
+                    logger.warn(String.format("#load ignored an invalid line: %s", line));
+                    continue;
+                }
+                try {
+                    Set<JobTimestamp> referred = new TreeSet<>();
+                    if (!items[4].isEmpty()) {
+                        for (String s : items[4].split(",")) {
+                            referred.add(new JobTimestamp(s));
+                        }
+                    }
+                    cached.put(new JobTimestamp(items[0]),
+                            new Entry(Long.parseLong(items[1]), Long.parseLong(items[2]),
+                                    items[3].equals("d"), referred));
+                } catch (IllegalArgumentException e) {
+                    logger.warn(String.format("#load ignored an invalid line: %s", line));
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return cached;
+    }
+
+    /*
+     * the out-going edges of a JobTimestamp, with the attributes of the "index" file read
+     */
+    private static final class Entry {
+        private final long lastModified;
+        private final long size;
+        // true if the "index" has any diff, even if referring to the JobTimestamp itself only
+        private final boolean hasDiff;
+        private final Set<JobTimestamp> referred;
+
+        private Entry(long lastModified, long size, boolean hasDiff, Set<JobTimestamp> referred) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.hasDiff = hasDiff;
+            this.referred = referred;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * keeps a Store within the limits of a RetentionPolicy by evicting JobTimestamps.
+ * <p>
+ * The bytes are taken from the usage of the Store (see Store#getUsage()), which is kept up to date
+ * as Materials are written and JobTimestamps are deleted; the store is not walked over again.
+ * The JobTimestamps are evicted the least valuable first: the oldest of the JobTimestamps which
+ * are neither the latest of the JobName nor referred to by the diffs of a JobTimestamp kept.
+ * A JobTimestamp referred to becomes eligible once all the JobTimestamps referring to it are evicted.
+ * <p>
+ * The limits are applied in the order of maxAge, maxBytesPerJobName and maxTotalBytes.
+ * #plan() tells what would be evicted without deleting anything; #execute() deletes them.
+ */
+public abstract class RetentionEngine {
+
+    public static RetentionEngine newInstance(Store store, RetentionPolicy policy) {
+        return new RetentionEngineImpl(store, policy);
+    }
+
+    /**
+     * the dry-run
+     */
+    public abstract Plan plan() throws MaterialstoreException;
+
+    /**
+     * make a plan, and evict the JobTimestamps in it
+     */
+    public abstract Plan execute() throws MaterialstoreException;
+
+    /**
+     * @param parallelism the maximum number of the "index" files read, and of the
+     *                    JobTimestamp directories deleted, at once. 4 as default.
+     */
+    public abstract void setParallelism(int parallelism);
+
+    /**
+     * why a JobTimestamp is evicted
+     */
+    public enum Reason {
+        AGE,
+        JOB_QUOTA,
+        TOTAL_QUOTA
+    }
+
+    /**
+     * a JobTimestamp to be evicted
+     */
+    public static final class Eviction {
+
+        private final JobName jobName;
+        private final JobTimestamp jobTimestamp;
+        private final long bytes;
+        private final Reason reason;
+
+        Eviction(JobName jobName, JobTimestamp jobTimestamp, long bytes, Reason reason) {
+            this.jobName = jobName;
+            this.jobTimestamp = jobTimestamp;
+            this.bytes = bytes;
+            this.reason = reason;
+        }
+
+        public JobName getJobName() {
+            return jobName;
+        }
+
+        public JobTimestamp getJobTimestamp() {
+            return jobTimestamp;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{\"jobName\":\"%s\", \"jobTimestamp\":\"%s\", \"bytes\":%d, \"reason\":\"%s\"}",
+                    jobName, jobTimestamp, bytes, reason);
+        }
+    }
+
+    /**
+     * the JobTimestamps to be evicted in the order chosen, and the bytes of the store before and after
+     */
+    public static final class Plan {
+
+        private final List<Eviction> evictions;
+        private final long bytesBefore;
+        private final long bytesAfter;
+        private final boolean satisfied;
+
+        Plan(List<Eviction> evictions, long bytesBefore, long bytesAfter, boolean satisfied) {
+            Objects.requireNonNull(evictions);
+            this.evictions = Collections.unmodifiableList(new ArrayList<>(evictions));
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.satisfied = satisfied;
+        }
+
+        public List<Eviction> getEvictions() {
+            return evictions;
+        }
+
+        public long getBytesBefore() {
+            return bytesBefore;
+        }
+
+        public long getBytesAfter() {
+            return bytesAfter;
+        }
+
+        public long getBytesReclaimed() {
+            return bytesBefore - bytesAfter;
+        }
+
+        /**
+         * @return false if the limits are not satisfied even after the evictions,
+         * as the JobTimestamps left are all protected
+         */
+        public boolean isSatisfied() {
+            return satisfied;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("{\"bytesBefore\":%d, \"bytesAfter\":%d, \"satisfied\":%s, \"evictions\":[",
+                    bytesBefore, bytesAfter, satisfied));
+            for (int i = 0; i < evictions.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(evictions.get(i).toString());
+            }
+            sb.append("]}");
+            return sb.toString();
+        }
+    }
+}
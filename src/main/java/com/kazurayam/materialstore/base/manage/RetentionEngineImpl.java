@@ -0,0 +1,201 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.StoreUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+public final class RetentionEngineImpl extends RetentionEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionEngineImpl.class);
+
+    private final Store store;
+    private final RetentionPolicy policy;
+    private int parallelism = StoreCleanerImpl.DEFAULT_PARALLELISM;
+
+    public RetentionEngineImpl(Store store, RetentionPolicy policy) {
+        Objects.requireNonNull(store);
+        Objects.requireNonNull(policy);
+        this.store = store;
+        this.policy = policy;
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public Plan plan() throws MaterialstoreException {
+        return makePlan(new LinkedHashMap<>());
+    }
+
+    @Override
+    public Plan execute() throws MaterialstoreException {
+        Map<JobName, ReferenceGraph> graphs = new LinkedHashMap<>();
+        Plan plan = makePlan(graphs);
+        Map<JobName, List<JobTimestamp>> byJobName = new LinkedHashMap<>();
+        for (Eviction eviction : plan.getEvictions()) {
+            byJobName.computeIfAbsent(eviction.getJobName(), k -> new ArrayList<>())
+                    .add(eviction.getJobTimestamp());
+        }
+        for (Map.Entry<JobName, List<JobTimestamp>> entry : byJobName.entrySet()) {
+            StoreCleanerImpl.deleteJobTimestamps(store, entry.getKey(), entry.getValue(), parallelism);
+            graphs.get(entry.getKey()).save(entry.getValue());
+        }
+        logger.info("#execute " + plan.getEvictions().size() + " JobTimestamps evicted, "
+                + plan.getBytesReclaimed() + " bytes reclaimed");
+        return plan;
+    }
+
+    /*
+     * @param graphs to be filled with the ReferenceGraph of each JobName
+     */
+    private Plan makePlan(Map<JobName, ReferenceGraph> graphs) throws MaterialstoreException {
+        StoreUsage usage = store.getUsage();
+        // take in the JobTimestamps written or deleted by other processes
+        usage.refresh();
+        List<JobState> states = new ArrayList<>();
+        long total = 0L;
+        for (JobName jobName : usage.getJobNames()) {
+            ReferenceGraph graph;
+            try {
+                graph = ReferenceGraph.build(store, jobName, parallelism);
+            } catch (JobNameNotFoundException e) {
+                // the JobName was deleted since listed
+                logger.debug(e.getMessage());
+                continue;
+            }
+            graphs.put(jobName, graph);
+            JobState state = new JobState(jobName, graph, usage.getJobTimestamps(jobName),
+                    policy.getKeepLatest());
+            states.add(state);
+            total += state.bytes;
+        }
+        final long bytesBefore = total;
+        List<Eviction> evictions = new ArrayList<>();
+        // (1) the JobTimestamps too old
+        if (policy.getMaxAge() != null) {
+            JobTimestamp cutoff = JobTimestamp.now().minusSeconds(policy.getMaxAge().getSeconds());
+            for (JobState state : states) {
+                while (!state.eligible.isEmpty() && state.eligible.first().compareTo(cutoff) < 0) {
+                    total -= state.evict(state.eligible.first(), Reason.AGE, evictions);
+                }
+            }
+        }
+        // (2) the JobNames over the quota
+        if (policy.getMaxBytesPerJobName() > 0) {
+            for (JobState state : states) {
+                while (state.bytes > policy.getMaxBytesPerJobName() && !state.eligible.isEmpty()) {
+                    total -= state.evict(state.eligible.first(), Reason.JOB_QUOTA, evictions);
+                }
+            }
+        }
+        // (3) the store over the quota; the oldest across the JobNames first
+        if (policy.getMaxTotalBytes() > 0) {
+            while (total > policy.getMaxTotalBytes()) {
+                JobState oldest = null;
+                for (JobState state : states) {
+                    if (!state.eligible.isEmpty() && (oldest == null ||
+                            state.eligible.first().compareTo(oldest.eligible.first()) < 0)) {
+                        oldest = state;
+                    }
+                }
+                if (oldest == null) {
+                    break;
+                }
+                total -= oldest.evict(oldest.eligible.first(), Reason.TOTAL_QUOTA, evictions);
+            }
+        }
+        boolean satisfied = policy.getMaxTotalBytes() == 0 || total <= policy.getMaxTotalBytes();
+        if (policy.getMaxBytesPerJobName() > 0) {
+            for (JobState state : states) {
+                if (state.bytes > policy.getMaxBytesPerJobName()) {
+                    satisfied = false;
+                }
+            }
+        }
+        Plan plan = new Plan(evictions, bytesBefore, total, satisfied);
+        logger.debug("#makePlan " + plan);
+        return plan;
+    }
+
+    /*
+     * the JobTimestamps of a JobName which may be evicted, and how many of the JobTimestamps
+     * kept refer to each
+     */
+    private static final class JobState {
+
+        private final JobName jobName;
+        private final ReferenceGraph graph;
+        private final Map<JobTimestamp, Long> bytesOf;
+        private final Set<JobTimestamp> protectedOnes = new HashSet<>();
+        private final Map<JobTimestamp, Integer> referrers = new HashMap<>();
+        // the oldest first
+        private final TreeSet<JobTimestamp> eligible = new TreeSet<>();
+        private long bytes = 0L;
+
+        private JobState(JobName jobName, ReferenceGraph graph, Map<JobTimestamp, Long> bytesOf,
+                         int keepLatest) {
+            this.jobName = jobName;
+            this.graph = graph;
+            this.bytesOf = bytesOf;
+            for (long b : bytesOf.values()) {
+                bytes += b;
+            }
+            List<JobTimestamp> jobTimestamps = graph.getJobTimestamps();
+            for (int i = 0; i < jobTimestamps.size() && i < keepLatest; i++) {
+                protectedOnes.add(jobTimestamps.get(i));
+            }
+            for (JobTimestamp jt : jobTimestamps) {
+                for (JobTimestamp referred : graph.getReferredBy(jt)) {
+                    referrers.merge(referred, 1, Integer::sum);
+                }
+            }
+            for (JobTimestamp jt : jobTimestamps) {
+                if (isEligible(jt)) {
+                    eligible.add(jt);
+                }
+            }
+        }
+
+        private boolean isEligible(JobTimestamp jt) {
+            return !protectedOnes.contains(jt) && referrers.getOrDefault(jt, 0) == 0;
+        }
+
+        /*
+         * @return the bytes reclaimed
+         */
+        private long evict(JobTimestamp jt, Reason reason, List<Eviction> evictions) {
+            eligible.remove(jt);
+            long b = bytesOf.getOrDefault(jt, 0L);
+            bytes -= b;
+            evictions.add(new Eviction(jobName, jt, b, reason));
+            // the JobTimestamps referred to by no one else become eligible
+            for (JobTimestamp referred : graph.getReferredBy(jt)) {
+                int count = referrers.merge(referred, -1, Integer::sum);
+                if (count == 0 && isEligible(referred) && bytesOf.containsKey(referred)) {
+                    eligible.add(referred);
+                }
+            }
+            return b;
+        }
+    }
+}
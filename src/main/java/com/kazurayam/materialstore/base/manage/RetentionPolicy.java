@@ -0,0 +1,126 @@
+package com.kazurayam.materialstore.base.manage;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * The limits which RetentionEngine keeps a Store within.
+ * <ul>
+ * <li>maxAge: the JobTimestamps older than this are evicted</li>
+ * <li>maxBytesPerJobName: the bytes of a JobName are kept at most this</li>
+ * <li>maxTotalBytes: the bytes of the whole store are kept at most this</li>
+ * </ul>
+ * A limit not set is unlimited. Whatever the limits, the latest JobTimestamps of each JobName
+ * (1 as default) and the JobTimestamps referred to by the diffs of the others are never evicted;
+ * so the limits may not be satisfied.
+ */
+public final class RetentionPolicy {
+
+    private final long maxTotalBytes;
+    private final long maxBytesPerJobName;
+    private final Duration maxAge;
+    private final int keepLatest;
+
+    private RetentionPolicy(Builder builder) {
+        this.maxTotalBytes = builder.maxTotalBytes;
+        this.maxBytesPerJobName = builder.maxBytesPerJobName;
+        this.maxAge = builder.maxAge;
+        this.keepLatest = builder.keepLatest;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the bytes of the whole store kept at most; 0 for unlimited
+     */
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /**
+     * @return the bytes of a JobName kept at most; 0 for unlimited
+     */
+    public long getMaxBytesPerJobName() {
+        return maxBytesPerJobName;
+    }
+
+    /**
+     * @return the age of the JobTimestamps kept at most; null for unlimited
+     */
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return the number of the latest JobTimestamps of each JobName never evicted
+     */
+    public int getKeepLatest() {
+        return keepLatest;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RetentionPolicy{maxTotalBytes=%d, maxBytesPerJobName=%d, maxAge=%s, keepLatest=%d}",
+                maxTotalBytes, maxBytesPerJobName, maxAge, keepLatest);
+    }
+
+    /**
+     *
+     */
+    public static class Builder {
+        private long maxTotalBytes = 0;
+        private long maxBytesPerJobName = 0;
+        private Duration maxAge = null;
+        private int keepLatest = 1;
+
+        public Builder() {}
+
+        /**
+         * @param bytes the bytes of the whole store kept at most; 0 for unlimited
+         */
+        public Builder maxTotalBytes(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes must not be negative: " + bytes);
+            }
+            this.maxTotalBytes = bytes;
+            return this;
+        }
+
+        /**
+         * @param bytes the bytes of a JobName kept at most; 0 for unlimited
+         */
+        public Builder maxBytesPerJobName(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes must not be negative: " + bytes);
+            }
+            this.maxBytesPerJobName = bytes;
+            return this;
+        }
+
+        public Builder maxAge(Duration maxAge) {
+            Objects.requireNonNull(maxAge);
+            if (maxAge.isNegative()) {
+                throw new IllegalArgumentException("maxAge must not be negative: " + maxAge);
+            }
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * @param count the number of the latest JobTimestamps of each JobName never evicted; 1 as default
+         */
+        public Builder keepLatest(int count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("count must be positive: " + count);
+            }
+            this.keepLatest = count;
+            return this;
+        }
+
+        public RetentionPolicy build() {
+            return new RetentionPolicy(this);
+        }
+    }
+}
@@ -53,4 +53,10 @@ public abstract class StoreCleaner {
     public abstract int deleteReportsOlderThan(
             JobName jobName, JobTimestamp olderThan) throws MaterialstoreException;
 
+    /**
+     * @param parallelism the maximum number of the "index" files read, and of the
+     *                    JobTimestamp directories deleted, at once. 4 as default.
+     */
+    public abstract void setParallelism(int parallelism);
+
 }
@@ -9,13 +9,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 public class StoreCleanerImpl extends StoreCleaner {
 
@@ -23,18 +29,33 @@ public class StoreCleanerImpl extends StoreCleaner {
 
     private final Store store;
 
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    // a network file system takes a few requests at once better than many
+    static final int DEFAULT_PARALLELISM = 4;
+
     public StoreCleanerImpl(Store store) {
         Objects.requireNonNull(store);
         this.store = store;
     }
 
+    @Override
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
     @Override
     public void cleanup(JobName jobName) throws MaterialstoreException, JobNameNotFoundException {
-        List<JobTimestamp> diffs = store.findDifferentiatingJobTimestamps(jobName);
+        Objects.requireNonNull(jobName);
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, parallelism);
+        List<JobTimestamp> diffs = graph.getDifferentiatingJobTimestamps();
         if (diffs.size() > 0) {
-            this.cleanup(jobName, diffs.get(0));
+            this.doCleanup(jobName, graph, diffs.get(0));
         } else {
-            this.doCleanup(jobName, store.findLatestJobTimestamp(jobName));
+            this.doCleanup(jobName, graph, findLatest(graph));
         }
     }
 
@@ -43,15 +64,16 @@ public class StoreCleanerImpl extends StoreCleaner {
         Objects.requireNonNull(jobName);
         Objects.requireNonNull(olderThan);
         //logger.info(String.format("[cleanup] jobName=%s, olderThan=%s", jobName, olderThan));
-        List<JobTimestamp> diffs = store.findDifferentiatingJobTimestamps(jobName);
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, parallelism);
+        List<JobTimestamp> diffs = graph.getDifferentiatingJobTimestamps();
         //logger.info(String.format("[cleanup] diffs=%s", diffs));
         if (diffs.size() > 0) {
-            this.doCleanup(jobName, olderThan);
+            this.doCleanup(jobName, graph, olderThan);
         } else {
-            List<JobTimestamp> nonDiffs =
-                    store.findAllJobTimestampsPriorTo(jobName, olderThan);
-            if (nonDiffs.size() > 0) {
-                this.doCleanup(jobName, olderThan);
+            boolean anyPrior = graph.getJobTimestamps().stream()
+                    .anyMatch(jt -> jt.compareTo(olderThan) < 0);
+            if (anyPrior) {
+                this.doCleanup(jobName, graph, olderThan);
             }
         }
     }
@@ -64,51 +86,54 @@ public class StoreCleanerImpl extends StoreCleaner {
                     String.format("numberOfArtifactsToRetain=%d must be > 0",
                     olderThanNth));
         }
-        List<JobTimestamp> diffs = store.findDifferentiatingJobTimestamps(jobName);
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, parallelism);
+        // sorted in reverse order; the latest comes first
+        List<JobTimestamp> diffs = graph.getDifferentiatingJobTimestamps();
         if (diffs.size() > 0) {
-            diffs.sort(Collections.reverseOrder());
             if (diffs.size() < olderThanNth) {
-                this.doCleanup(jobName, diffs.get(diffs.size() - 1));
+                this.doCleanup(jobName, graph, diffs.get(diffs.size() - 1));
             } else {
-                this.doCleanup(jobName, diffs.get(olderThanNth - 1));
+                this.doCleanup(jobName, graph, diffs.get(olderThanNth - 1));
             }
         } else {
-            this.doCleanup(jobName, store.findLatestJobTimestamp(jobName));
+            this.doCleanup(jobName, graph, findLatest(graph));
         }
     }
 
-    private void doCleanup(JobName jobName, JobTimestamp olderThan)
-            throws MaterialstoreException, JobNameNotFoundException {
+    private static JobTimestamp findLatest(ReferenceGraph graph) {
+        List<JobTimestamp> all = graph.getJobTimestamps();
+        return all.isEmpty() ? JobTimestamp.NULL_OBJECT : all.get(0);
+    }
+
+    private void doCleanup(JobName jobName, ReferenceGraph graph, JobTimestamp olderThan)
+            throws MaterialstoreException {
         // identify which JobTimestamp directories to preserve
-        Set<JobTimestamp> preserved = markToBePreserved(jobName, olderThan);
+        Set<JobTimestamp> preserved = markToBePreserved(graph, olderThan);
         // delete unnecessary JobTimestamps
-        for (JobTimestamp jt : store.findAllJobTimestamps(jobName)) {
+        List<JobTimestamp> toBeDeleted = new ArrayList<>();
+        for (JobTimestamp jt : graph.getJobTimestamps()) {
             if (!preserved.contains(jt)) {
-                store.deleteJobTimestamp(jobName, jt);
+                toBeDeleted.add(jt);
             }
         }
+        deleteJobTimestamps(jobName, toBeDeleted);
+        graph.save(toBeDeleted);
         // delete older reports other than the latest
         this.deleteReportsOlderThan(jobName, olderThan);
     }
 
-    private Set<JobTimestamp> markToBePreserved(JobName jobName, JobTimestamp olderThan)
-            throws MaterialstoreException, JobNameNotFoundException {
-        Set<JobTimestamp> marked = new HashSet<>();
-        List<JobTimestamp> all = store.findAllJobTimestamps(jobName);
-        all.sort(Collections.reverseOrder());
-        for (JobTimestamp jt : all) {
+    /*
+     * retain the JobTimestamps newer than the "olderThan" value, and the ones which the
+     * diffs in them refer to, directly or indirectly
+     */
+    private static Set<JobTimestamp> markToBePreserved(ReferenceGraph graph, JobTimestamp olderThan) {
+        List<JobTimestamp> roots = new ArrayList<>();
+        for (JobTimestamp jt : graph.getJobTimestamps()) {
             if (jt.compareTo(olderThan) >= 0) {
-                // retain the JobTimestamp newer than the "olderThan" value
-                marked.add(jt);
-                if (store.hasDifferentiatingIndexEntry(jobName, jt)) {
-                    // if the jt is a differentiating one, add 2 more JobTimestamps
-                    // which are referred by the jt
-                    List<JobTimestamp> referred = store.findJobTimestampsReferredBy(jobName, jt);
-                    marked.addAll(referred);
-                }
+                roots.add(jt);
             }
         }
-        return marked;
+        return graph.reachableFrom(roots);
     }
 
     @Override
@@ -118,15 +143,97 @@ public class StoreCleanerImpl extends StoreCleaner {
         Objects.requireNonNull(jobName);
         Objects.requireNonNull(olderThan);
 
-        // identify the JobTimestamp directories to be deleted
-        Set<JobTimestamp> toBeDeleted = store.markOlderThan(jobName, olderThan);
+        // identify the JobTimestamp directories to be deleted, as Store#markOlderThan does
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, parallelism);
+        Set<JobTimestamp> toBeDeleted = new HashSet<>();
+        for (JobTimestamp jt : graph.getJobTimestamps()) {
+            if (jt.compareTo(olderThan) < 0) {
+                toBeDeleted.add(jt);
+                toBeDeleted.addAll(graph.getReferredBy(jt));
+            }
+        }
         // now delete files/directories
-        int countDeletedJT = 0;
-        for (JobTimestamp jt : toBeDeleted) {
-            store.deleteJobTimestamp(jobName, jt);
-            countDeletedJT += 1;
+        deleteJobTimestamps(jobName, toBeDeleted);
+        graph.save(toBeDeleted);
+        return toBeDeleted.size();
+    }
+
+    /*
+     * delete the JobTimestamp directories, at most as many at once as the parallelism
+     */
+    private void deleteJobTimestamps(JobName jobName, Collection<JobTimestamp> jobTimestamps)
+            throws MaterialstoreException {
+        deleteJobTimestamps(store, jobName, jobTimestamps, parallelism);
+    }
+
+    /*
+     * delete the JobTimestamp directories, and remove them from the usage of the store
+     */
+    static void deleteJobTimestamps(Store store, JobName jobName,
+                                    Collection<JobTimestamp> jobTimestamps, int parallelism)
+            throws MaterialstoreException {
+        Path jobNameDir = store.getRoot().resolve(jobName.toString());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (JobTimestamp jt : jobTimestamps) {
+            Path dir = jobNameDir.resolve(jt.toString());
+            tasks.add(() -> {
+                deleteDirectory(dir);
+                return null;
+            });
+        }
+        ParallelTasks.run(tasks, parallelism, "StoreCleaner");
+        for (JobTimestamp jt : jobTimestamps) {
+            store.getUsage().remove(jobName, jt);
+        }
+        logger.debug(String.format("#deleteJobTimestamps deleted %d JobTimestamps of %s",
+                jobTimestamps.size(), jobName));
+    }
+
+    /*
+     * delete the directory recursively; a file gone already is no matter
+     */
+    private static void deleteDirectory(Path dir) throws MaterialstoreException {
+        if (!Files.exists(dir)) {
+            return;
         }
-        return countDeletedJT;
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                    if (e != null && !(e instanceof NoSuchFileException)) {
+                        throw e;
+                    }
+                    Files.deleteIfExists(d);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /*
+     * the directory of the pages of a sharded report, as MaterialProductGroupReporterImpl#reportSharded names it
+     */
+    private static Path pagesDirOf(Path report) {
+        String name = report.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String title = (dot > 0) ? name.substring(0, dot) : name;
+        return report.resolveSibling("." + title + "-pages");
     }
 
     @Override
@@ -145,6 +252,7 @@ public class StoreCleanerImpl extends StoreCleaner {
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
+                deleteDirectory(pagesDirOf(report));
             }
         }
         return count;
@@ -8,12 +8,43 @@ import com.kazurayam.materialstore.core.Store;
 
 /**
  * StoreExport class helps export files from a local store into a remote store.
+ * The manifest of each JobTimestamp is cached in a ".manifest" file in both stores,
+ * so that the files not modified since the last export are not hashed again.
  */
 public abstract class StoreExport {
 
+    private int parallelism = StoreCleanerImpl.DEFAULT_PARALLELISM;
+    private boolean verify = true;
+
     public abstract void exportReports(JobName jobName) throws MaterialstoreException, JobNameNotFoundException;
     public abstract void exportReports(JobName jobName, JobTimestamp newerThanOrEqualTo) throws MaterialstoreException, JobNameNotFoundException;
 
+    /**
+     * @param parallelism the maximum number of the files copied at once. 4 as default.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param verify if true, every file copied is verified against the SHA1 in the manifest
+     *               of the source before it is put in place. true as default.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
     public static StoreExport newInstance(Store fromLocal, Store toRemote) {
         return new StoreExportImpl(fromLocal, toRemote);
     }
@@ -5,16 +5,15 @@ import com.kazurayam.materialstore.core.JobNameNotFoundException;
 import com.kazurayam.materialstore.core.JobTimestamp;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Store;
-import com.kazurayam.materialstore.util.CopyDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Objects;
-import java.util.Set;
 
 public class StoreExportImpl extends StoreExport {
 
+    private static final Logger logger = LoggerFactory.getLogger(StoreExportImpl.class);
+
     private final Store local;
     private final Store remote;
 
@@ -47,57 +46,10 @@ public class StoreExportImpl extends StoreExport {
             throws MaterialstoreException, JobNameNotFoundException {
         Objects.requireNonNull(jobName);
         Objects.requireNonNull(newerThanOrEqualTo);
-        exportJobTimestamps(jobName, newerThanOrEqualTo);
-        exportReportFiles(jobName, newerThanOrEqualTo);
-    }
-
-
-    private void exportJobTimestamps(JobName jobName, JobTimestamp newerThanOrEqualTo)
-            throws MaterialstoreException, JobNameNotFoundException {
-        Set<JobTimestamp> marked =
-                local.markNewerThanOrEqualTo(jobName, newerThanOrEqualTo);
-        for (JobTimestamp jt : marked) {
-            Path source = local.getPathOf(jobName, jt);
-            if (source != null) {
-                Path target =
-                        remote.getRoot().resolve(jobName.toString()).resolve(jt.toString());
-                try {
-                    if (!Files.exists(target)) {
-                        Files.createDirectories(target);
-                    }
-                    // If a file is already existing in the remote store,
-                    // we will skip copying it.
-                    // It is to shorten the processing time.
-                    Files.walkFileTree(source,
-                            new CopyDir(source, target,
-                                    CopyDir.Option.SKIP_IF_EXISTING));
-                } catch (IOException e) {
-                    throw new MaterialstoreException(e);
-                }
-            }
-        }
-    }
-
-
-    private void exportReportFiles(JobName jobName, JobTimestamp newerThanOrEqualTo)
-            throws MaterialstoreException, JobNameNotFoundException {
-        Set<JobTimestamp> marked =
-                local.markNewerThanOrEqualTo(jobName, newerThanOrEqualTo);
-        for (JobTimestamp jt : marked) {
-            Path source = local.getRoot().resolve(
-                    local.resolveReportFileName(jobName, jt));
-            Path target = remote.getRoot().resolve(
-                    remote.resolveReportFileName(jobName, jt));
-            if (Files.exists(source)) {
-                try {
-                    Files.walkFileTree(source,
-                            new CopyDir(source, target,
-                                    CopyDir.Option.SKIP_IF_EXISTING));
-                } catch (IOException e) {
-                    throw new MaterialstoreException(e);
-                }
-            }
-        }
+        // only the files which the remote store lacks are copied
+        int count = new StoreSync(local, remote, getParallelism(), isVerify())
+                .sync(jobName, newerThanOrEqualTo);
+        logger.debug(String.format("#exportReports copied %d files of %s", count, jobName));
     }
 
 }
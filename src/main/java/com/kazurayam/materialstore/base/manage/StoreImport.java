@@ -7,13 +7,44 @@ import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Store;
 
 /**
- * StoreImport class helps import files from a remote store into a local store
+ * StoreImport class helps import files from a remote store into a local store.
+ * The manifest of each JobTimestamp is cached in a ".manifest" file in both stores,
+ * unless the remote store is not writable; then it is hashed at every import.
  */
 public abstract class StoreImport {
 
+    private int parallelism = StoreCleanerImpl.DEFAULT_PARALLELISM;
+    private boolean verify = true;
+
     public abstract void importReports(JobName jobName) throws MaterialstoreException, JobNameNotFoundException;
     public abstract void importReports(JobName jobName, JobTimestamp newerThanOrEqualTo) throws MaterialstoreException, JobNameNotFoundException;
 
+    /**
+     * @param parallelism the maximum number of the files copied at once. 4 as default.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param verify if true, every file copied is verified against the SHA1 in the manifest
+     *               of the source before it is put in place. true as default.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
     public static StoreImport newInstance(Store fromRemote, Store toLocal) {
         return new StoreImportImpl(fromRemote, toLocal);
     }
@@ -5,16 +5,15 @@ import com.kazurayam.materialstore.core.JobNameNotFoundException;
 import com.kazurayam.materialstore.core.JobTimestamp;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Store;
-import com.kazurayam.materialstore.util.CopyDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Objects;
-import java.util.Set;
 
 public class StoreImportImpl extends StoreImport {
 
+    private static final Logger logger = LoggerFactory.getLogger(StoreImportImpl.class);
+
     private final Store remote;
     private final Store local;
 
@@ -40,55 +39,10 @@ public class StoreImportImpl extends StoreImport {
             throws MaterialstoreException, JobNameNotFoundException {
         Objects.requireNonNull(jobName);
         Objects.requireNonNull(newerThanOrEqualTo);
-        importJobTimestamps(jobName, newerThanOrEqualTo);
-        importReportFiles(jobName, newerThanOrEqualTo);
-    }
-
-    private void importJobTimestamps(JobName jobName, JobTimestamp newerThanOrEqualTo)
-            throws MaterialstoreException, JobNameNotFoundException {
-        Set<JobTimestamp> marked =
-                remote.markNewerThanOrEqualTo(jobName, newerThanOrEqualTo);
-        for (JobTimestamp jt : marked) {
-            Path source = remote.getPathOf(jobName, jt);
-            if (source != null) {
-                Path target =
-                        local.getRoot().resolve(jobName.toString()).resolve(jt.toString());
-                try {
-                    if (!Files.exists(target)) {
-                        Files.createDirectories(target);
-                    }
-                    // If a file is already existing in the local store,
-                    // we will skip copying it.
-                    // It is to shorten the processing time.
-                    Files.walkFileTree(source,
-                            new CopyDir(source, target,
-                                    CopyDir.Option.SKIP_IF_EXISTING));
-                } catch (IOException e) {
-                    throw new MaterialstoreException(e);
-                }
-            }
-        }
-    }
-
-    private void importReportFiles(JobName jobName, JobTimestamp newerThanOrEqualTo)
-            throws MaterialstoreException, JobNameNotFoundException {
-        Set<JobTimestamp> marked =
-                remote.markNewerThanOrEqualTo(jobName, newerThanOrEqualTo);
-        for (JobTimestamp jt : marked) {
-            Path source = remote.getRoot().resolve(
-                    remote.resolveReportFileName(jobName, jt));
-            Path target = local.getRoot().resolve(
-                    local.resolveReportFileName(jobName, jt));
-            if (Files.exists(source)) {
-                try {
-                    Files.walkFileTree(source,
-                            new CopyDir(source, target,
-                                    CopyDir.Option.SKIP_IF_EXISTING));
-                } catch (IOException e) {
-                    throw new MaterialstoreException(e);
-                }
-            }
-        }
+        // only the files which the local store lacks are copied
+        int count = new StoreSync(remote, local, getParallelism(), isVerify())
+                .sync(jobName, newerThanOrEqualTo);
+        logger.debug(String.format("#importReports copied %d files of %s", count, jobName));
     }
 
 }
@@ -0,0 +1,356 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.Jobber;
+import com.kazurayam.materialstore.core.MaterialIO;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * the files in a JobTimestamp directory, with the size and the SHA1 of each.
+ * <p>
+ * The SHA1 of an object file is taken from its name, as it is named after the content;
+ * only the other files ("index", thumbnails, etc) are hashed. The manifest is cached in the
+ * sidecar file ".manifest" in the JobTimestamp directory, with the lastModified of each sub-directory
+ * and of each file not named after the content. While the JobTimestamp directory has the same entries
+ * and none of them is modified, the cache is used without walking over the directory; so a manifest
+ * of a remote store costs a few requests only.
+ */
+final class StoreManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreManifest.class);
+
+    static final String FILE_NAME = ".manifest";
+
+    // <sha1 hash id>.<FileType.extension> in the "objects" directory
+    private static final Pattern OBJECT_FILE_PATH =
+            Pattern.compile("^" + Jobber.getOBJECTS_DIR_NAME() + "/([0-9a-fA-F]{40})\\.[^./]+$");
+
+    private final Path dir;
+    private final Map<String, Entry> entries;
+    private final Map<String, Long> directories;
+    private final boolean cached;
+
+    private StoreManifest(Path dir, Map<String, Entry> entries, Map<String, Long> directories, boolean cached) {
+        this.dir = dir;
+        this.entries = entries;
+        this.directories = directories;
+        this.cached = cached;
+    }
+
+    /**
+     * The manifest scanned is saved into the ".manifest" file if the directory is writable;
+     * if not, or if the save fails, the manifest is used all the same and scanned again next time.
+     *
+     * @param jobTimestampDir may not be there; then the manifest is empty
+     */
+    static StoreManifest of(Path jobTimestampDir) throws MaterialstoreException {
+        if (!Files.isDirectory(jobTimestampDir)) {
+            return new StoreManifest(jobTimestampDir, new TreeMap<>(), new TreeMap<>(), false);
+        }
+        try {
+            StoreManifest manifest = load(jobTimestampDir);
+            if (manifest != null && manifest.isUpToDate()) {
+                return manifest;
+            }
+            manifest = scan(jobTimestampDir);
+            if (Files.isWritable(jobTimestampDir)) {
+                try {
+                    manifest.save();
+                } catch (IOException e) {
+                    logger.warn(String.format("#of failed to save the manifest of %s", jobTimestampDir), e);
+                }
+            } else {
+                logger.debug(String.format("#of does not save the manifest of %s, not writable", jobTimestampDir));
+            }
+            return manifest;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * @return the entries keyed by the path relative to the JobTimestamp directory, with "/" as the separator
+     */
+    Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * @return true if taken from the ".manifest" file without walking over the directory
+     */
+    boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * record the files written into the directory as they are in the manifest of the source,
+     * without walking over the directory again. The lastModified are taken as they are now,
+     * as the directory is written by no one else during the sync.
+     */
+    void update(Collection<Entry> written) throws MaterialstoreException {
+        try {
+            for (Entry entry : written) {
+                long lastModified = -1L;
+                if (!entry.isObject()) {
+                    lastModified = Files.getLastModifiedTime(resolve(entry.path)).toMillis();
+                }
+                entries.put(entry.path, new Entry(entry.path, entry.size, entry.sha1, lastModified));
+                String parent = parentOf(entry.path);
+                while (!parent.equals(".")) {
+                    directories.put(parent, -1L);
+                    parent = parentOf(parent);
+                }
+            }
+            for (Map.Entry<String, Long> d : directories.entrySet()) {
+                d.setValue(Files.getLastModifiedTime(resolve(d.getKey())).toMillis());
+            }
+            save();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * @return the entry of the file in the directory as it is now, hashed
+     */
+    Entry entryOf(String path) throws MaterialstoreException {
+        Path file = resolve(path);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Entry(path, attrs.size(), MaterialIO.hashJDK(file), attrs.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    private boolean isUpToDate() throws IOException {
+        // the JobTimestamp directory itself is modified by saving the manifest; so its entries are compared
+        Set<String> names = new TreeSet<>();
+        for (String path : directories.keySet()) {
+            names.add(path.split("/")[0]);
+        }
+        for (String path : entries.keySet()) {
+            names.add(path.split("/")[0]);
+        }
+        Set<String> listed = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(".")) {
+                    listed.add(name);
+                }
+            }
+        }
+        if (!listed.equals(names)) {
+            return false;
+        }
+        for (Map.Entry<String, Long> d : directories.entrySet()) {
+            if (!sameLastModified(resolve(d.getKey()), d.getValue(), -1L)) {
+                return false;
+            }
+        }
+        for (Entry entry : entries.values()) {
+            if (!entry.isObject() && !sameLastModified(resolve(entry.path), entry.lastModified, entry.size)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * @param size -1 not to compare the size
+     */
+    private static boolean sameLastModified(Path p, long lastModified, long size) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return attrs.lastModifiedTime().toMillis() == lastModified && (size < 0 || attrs.size() == size);
+    }
+
+    private static StoreManifest scan(Path jobTimestampDir) throws IOException, MaterialstoreException {
+        final Map<String, Entry> entries = new TreeMap<>();
+        final Map<String, Long> directories = new TreeMap<>();
+        Files.walkFileTree(jobTimestampDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                String path = relativize(jobTimestampDir, d);
+                if (!path.equals(".")) {
+                    if (d.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    directories.put(path, attrs.lastModifiedTime().toMillis());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String path = relativize(jobTimestampDir, file);
+                if (file.getFileName().toString().startsWith(".") || !attrs.isRegularFile()) {
+                    // the sidecar files and the files being written
+                    return FileVisitResult.CONTINUE;
+                }
+                Matcher m = OBJECT_FILE_PATH.matcher(path);
+                if (m.matches()) {
+                    entries.put(path, new Entry(path, attrs.size(), m.group(1).toLowerCase(), -1L));
+                } else {
+                    try {
+                        entries.put(path, new Entry(path, attrs.size(), MaterialIO.hashJDK(file),
+                                attrs.lastModifiedTime().toMillis()));
+                    } catch (MaterialstoreException e) {
+                        logger.warn(String.format("#scan failed to hash %s", file), e);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+        return new StoreManifest(jobTimestampDir, entries, directories, false);
+    }
+
+    private static StoreManifest load(Path jobTimestampDir) throws IOException {
+        Path file = jobTimestampDir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Map<String, Entry> entries = new TreeMap<>();
+        Map<String, Long> directories = new TreeMap<>();
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] items = line.split("\t", -1);
+                try {
+                    if (items.length == 3 && items[0].equals("d")) {
+                        directories.put(items[1], Long.parseLong(items[2]));
+                    } else if (items.length == 5 && items[0].equals("f")) {
+                        entries.put(items[1], new Entry(items[1], Long.parseLong(items[2]), items[3],
+                                Long.parseLong(items[4])));
+                    } else {
+                        logger.warn(String.format("#load found an invalid line in %s: %s", file, line));
+                        return null;
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warn(String.format("#load found an invalid line in %s: %s", file, line));
+                    return null;
+                }
+            }
+        }
+        return new StoreManifest(jobTimestampDir, entries, directories, true);
+    }
+
+    private void save() throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        Path tmp = dir.resolve(FILE_NAME + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> d : directories.entrySet()) {
+                bw.write(String.format("d\t%s\t%d", d.getKey(), d.getValue()));
+                bw.newLine();
+            }
+            for (Entry entry : entries.values()) {
+                bw.write(String.format("f\t%s\t%d\t%s\t%d", entry.path, entry.size, entry.sha1, entry.lastModified));
+                bw.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    Path resolve(String path) {
+        Path p = dir;
+        if (!path.equals(".")) {
+            for (String name : path.split("/")) {
+                p = p.resolve(name);
+            }
+        }
+        return p;
+    }
+
+    private static String relativize(Path base, Path p) {
+        Path rel = base.relativize(p);
+        if (rel.toString().isEmpty()) {
+            return ".";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Path name : rel) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name.toString());
+        }
+        return sb.toString();
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return (slash < 0) ? "." : path.substring(0, slash);
+    }
+
+    /**
+     * a file in the JobTimestamp directory
+     */
+    static final class Entry {
+        private final String path;
+        private final long size;
+        private final String sha1;
+        // -1 for an object file, which is never modified
+        private final long lastModified;
+
+        private Entry(String path, long size, String sha1, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.sha1 = sha1;
+            this.lastModified = lastModified;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getSha1() {
+            return sha1;
+        }
+
+        boolean isObject() {
+            return OBJECT_FILE_PATH.matcher(path).matches();
+        }
+
+        boolean sameContent(Entry other) {
+            return other != null && size == other.size && sha1.equals(other.sha1);
+        }
+    }
+}
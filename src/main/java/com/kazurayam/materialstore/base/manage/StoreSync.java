@@ -0,0 +1,256 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialIO;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * copies the JobTimestamps of a JobName, and the reports of them, from a Store to another;
+ * shared by StoreExport and StoreImport.
+ * <p>
+ * The StoreManifest of each JobTimestamp on both sides is compared, and only the files missing
+ * or different on the target are copied, at most as many at once as the parallelism. A file is
+ * copied into a temporary file, verified against the SHA1 in the manifest of the source
+ * (the ID of an object file) unless told not to, and then moved to its place. The "index" files are copied after
+ * the object files, so that a sync interrupted does not leave an "index" referring to the object
+ * files not there. If the target has an "index" of the JobTimestamp different from the source's,
+ * i.e. both sides wrote into the JobTimestamp, the lines of the source are merged into it.
+ * <p>
+ * The manifests are cached in the ".manifest" files on both sides, so that a JobTimestamp
+ * not modified since is not walked over again; except in a source not writable, whose
+ * manifests are scanned at every sync.
+ */
+final class StoreSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreSync.class);
+
+    // as Index#getIndexFile(Path) names it
+    private static final String INDEX_FILE_NAME = "index";
+
+    private final Store source;
+    private final Store target;
+    private final int parallelism;
+    private final boolean verify;
+
+    StoreSync(Store source, Store target, int parallelism, boolean verify) {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(target);
+        this.source = source;
+        this.target = target;
+        this.parallelism = parallelism;
+        this.verify = verify;
+    }
+
+    /**
+     * @return the number of the files copied
+     */
+    int sync(JobName jobName, JobTimestamp newerThanOrEqualTo)
+            throws MaterialstoreException, JobNameNotFoundException {
+        Objects.requireNonNull(jobName);
+        Objects.requireNonNull(newerThanOrEqualTo);
+        List<JobTimestamp> marked = new ArrayList<>(
+                source.markNewerThanOrEqualTo(jobName, newerThanOrEqualTo));
+        int count = syncJobTimestamps(jobName, marked);
+        count += syncReportFiles(jobName, marked);
+        logger.debug(String.format("#sync copied %d files of %d JobTimestamps of %s",
+                count, marked.size(), jobName));
+        return count;
+    }
+
+    private int syncJobTimestamps(JobName jobName, List<JobTimestamp> marked) throws MaterialstoreException {
+        // the manifests of both sides, as many at once as the parallelism
+        List<Callable<StoreManifest[]>> manifestTasks = new ArrayList<>();
+        for (JobTimestamp jt : marked) {
+            manifestTasks.add(() -> new StoreManifest[] {
+                    StoreManifest.of(jobTimestampDirOf(source, jobName, jt)),
+                    StoreManifest.of(jobTimestampDirOf(target, jobName, jt))
+            });
+        }
+        List<StoreManifest[]> manifests = ParallelTasks.run(manifestTasks, parallelism, "StoreSync");
+        // the files missing or different on the target
+        List<List<StoreManifest.Entry>> differences = new ArrayList<>();
+        // the JobTimestamps whose "index" is merged into the target's
+        Set<Integer> merged = new HashSet<>();
+        List<Callable<Void>> objects = new ArrayList<>();
+        List<Callable<Void>> indexes = new ArrayList<>();
+        Set<Path> directories = new LinkedHashSet<>();
+        for (StoreManifest[] pair : manifests) {
+            StoreManifest from = pair[0];
+            StoreManifest to = pair[1];
+            directories.add(to.resolve("."));
+            List<StoreManifest.Entry> difference = new ArrayList<>();
+            for (Map.Entry<String, StoreManifest.Entry> e : from.getEntries().entrySet()) {
+                StoreManifest.Entry entry = e.getValue();
+                if (entry.sameContent(to.getEntries().get(e.getKey()))) {
+                    continue;
+                }
+                difference.add(entry);
+                Path sourceFile = from.resolve(entry.getPath());
+                Path targetFile = to.resolve(entry.getPath());
+                directories.add(targetFile.getParent());
+                if (entry.getPath().equals(INDEX_FILE_NAME) && to.getEntries().containsKey(INDEX_FILE_NAME)) {
+                    merged.add(differences.size());
+                    indexes.add(() -> {
+                        mergeIndex(sourceFile, targetFile);
+                        return null;
+                    });
+                    continue;
+                }
+                Callable<Void> task = () -> {
+                    copy(sourceFile, targetFile, entry);
+                    return null;
+                };
+                if (entry.getPath().equals(INDEX_FILE_NAME)) {
+                    indexes.add(task);
+                } else {
+                    objects.add(task);
+                }
+            }
+            differences.add(difference);
+        }
+        try {
+            for (Path dir : directories) {
+                Files.createDirectories(dir);
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        ParallelTasks.run(objects, parallelism, "StoreSync");
+        ParallelTasks.run(indexes, parallelism, "StoreSync");
+        // record the files copied into the manifests of the target
+        for (int i = 0; i < marked.size(); i++) {
+            List<StoreManifest.Entry> difference = differences.get(i);
+            if (difference.isEmpty()) {
+                continue;
+            }
+            StoreManifest to = manifests.get(i)[1];
+            if (merged.contains(i)) {
+                // the "index" merged is as neither side had it
+                for (int j = 0; j < difference.size(); j++) {
+                    if (difference.get(j).getPath().equals(INDEX_FILE_NAME)) {
+                        difference.set(j, to.entryOf(INDEX_FILE_NAME));
+                    }
+                }
+            }
+            long bytes = 0L;
+            for (StoreManifest.Entry entry : difference) {
+                StoreManifest.Entry replaced = to.getEntries().get(entry.getPath());
+                bytes += entry.getSize() - ((replaced != null) ? replaced.getSize() : 0L);
+            }
+            to.update(difference);
+            target.getUsage().add(jobName, marked.get(i), bytes);
+        }
+        return objects.size() + indexes.size();
+    }
+
+    private int syncReportFiles(JobName jobName, List<JobTimestamp> marked) throws MaterialstoreException {
+        int count = 0;
+        for (JobTimestamp jt : marked) {
+            Path sourceFile = source.getRoot().resolve(source.resolveReportFileName(jobName, jt));
+            Path targetFile = target.getRoot().resolve(target.resolveReportFileName(jobName, jt));
+            // If a report is already existing in the target store, we will skip copying it.
+            if (Files.exists(sourceFile) && !Files.exists(targetFile)) {
+                copy(sourceFile, targetFile, null);
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * add the lines of the source "index" to the target "index", as both sides wrote into the JobTimestamp.
+     * A line with the same FileType and Metadata as a line of the target, but of another ID, is skipped
+     * with a warning; the target keeps its Material, and the object file copied becomes an orphan.
+     */
+    private void mergeIndex(Path sourceFile, Path targetFile) throws MaterialstoreException {
+        Path tmp = targetFile.resolveSibling("." + targetFile.getFileName() + ".tmp");
+        try {
+            Set<String> lines = new LinkedHashSet<>();
+            Set<String> descriptions = new HashSet<>();
+            for (String line : Files.readAllLines(targetFile, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                    descriptions.add(line.substring(line.indexOf('\t') + 1));
+                }
+            }
+            int added = 0;
+            for (String line : Files.readAllLines(sourceFile, StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || lines.contains(line)) {
+                    continue;
+                }
+                String description = line.substring(line.indexOf('\t') + 1);
+                if (!descriptions.add(description)) {
+                    logger.warn(String.format("#mergeIndex skipped a line of %s as %s has another Material of " +
+                            "the same metadata: %s", sourceFile, targetFile, line));
+                    continue;
+                }
+                lines.add(line);
+                added += 1;
+            }
+            if (added == 0) {
+                return;
+            }
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, targetFile, StandardCopyOption.REPLACE_EXISTING);
+            logger.debug(String.format("#mergeIndex added %d lines of %s into %s", added, sourceFile, targetFile));
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                logger.warn(String.format("#mergeIndex failed to delete %s", tmp), e);
+            }
+        }
+    }
+
+    /*
+     * @param entry the entry of the source file in the manifest, to verify the copy against; or null
+     */
+    private void copy(Path sourceFile, Path targetFile, StoreManifest.Entry entry) throws MaterialstoreException {
+        Path tmp = targetFile.resolveSibling("." + targetFile.getFileName() + ".tmp");
+        try {
+            Files.copy(sourceFile, tmp, StandardCopyOption.REPLACE_EXISTING);
+            if (entry != null && verify) {
+                String sha1 = MaterialIO.hashJDK(tmp);
+                if (!sha1.equalsIgnoreCase(entry.getSha1())) {
+                    throw new MaterialstoreException(String.format(
+                            "%s was copied into %s but its SHA1 %s does not match %s",
+                            sourceFile, targetFile, sha1, entry.getSha1()));
+                }
+            }
+            Files.move(tmp, targetFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                logger.warn(String.format("#copy failed to delete %s", tmp), e);
+            }
+        }
+    }
+
+    private static Path jobTimestampDirOf(Store store, JobName jobName, JobTimestamp jobTimestamp) {
+        return store.getRoot().resolve(jobName.toString()).resolve(jobTimestamp.toString());
+    }
+}
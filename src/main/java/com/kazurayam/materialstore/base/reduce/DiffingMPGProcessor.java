@@ -1,35 +1,80 @@
 package com.kazurayam.materialstore.base.reduce;
 
+import com.kazurayam.materialstore.base.reduce.differ.DecodedImageCache;
+import com.kazurayam.materialstore.base.reduce.differ.DiffCache;
 import com.kazurayam.materialstore.base.reduce.differ.Differ;
+import com.kazurayam.materialstore.base.reduce.differ.DifferUtil;
 import com.kazurayam.materialstore.base.reduce.differ.ImageDiffStuffer;
 import com.kazurayam.materialstore.base.reduce.differ.TextDifferToHTML;
+import com.kazurayam.materialstore.base.reduce.differ.VerdictPolicy;
 import com.kazurayam.materialstore.base.reduce.differ.VoidDiffer;
 import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProductComparator;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.FileTypeUtil;
 import com.kazurayam.materialstore.core.IFileType;
+import com.kazurayam.materialstore.core.Jobber;
 import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialLocator;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public final class DiffingMPGProcessor implements MPGProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(DiffingMPGProcessor.class);
+    public static final int DEFAULT_PIPELINE_CAPACITY = 8;
+    private static final long PIPELINE_POLL_MILLIS = 50;
+
+    /**
+     * a priority of diffing which puts first the MaterialProducts likely to exceed the threshold:
+     * the ones with either side missing, then the ones of which left and right differ.
+     * The identical ones, which never exceed, come last.
+     */
+    public static final Comparator<MaterialProduct> CHANGED_FIRST =
+            Comparator.comparingInt(DiffingMPGProcessor::rankOfChange);
     private final Store store;
     private final Map<IFileType, Differ> differs;
+    private final DiffCache diffCache;
+    private final long decodedImageCacheBudget;
+    // shared with other processors; not cleared by this
+    private final DecodedImageCache sharedDecodedImageCache;
+    private final boolean verdictFirst;
+    private final long timeBudgetMillis;
+    private final int pipelineCapacity;
+    private volatile DecodedImageCache.Statistics decodedImageCacheStatistics = null;
 
     private DiffingMPGProcessor(Builder builder) {
         this.store = builder.store;
         this.differs = builder.differs;
+        this.diffCache = builder.diffCache;
+        this.decodedImageCacheBudget = builder.decodedImageCacheBudget;
+        this.sharedDecodedImageCache = builder.sharedDecodedImageCache;
+        this.verdictFirst = builder.verdictFirst;
+        this.timeBudgetMillis = builder.timeBudgetMillis;
+        this.pipelineCapacity = builder.pipelineCapacity;
     }
 
     // implements MPGProcessor
@@ -39,10 +84,11 @@ public final class DiffingMPGProcessor implements MPGProcessor {
         logger.debug(String.format("#process mpg.getCountTotal()=%d", source.getCountTotal()));
 
         final List<MaterialProduct> stuffedMaterialProductList = new ArrayList<>();
-        for (MaterialProduct input : source) {
-            // do make difference and memorize it
-            logger.info(String.format("#process %s", input.toString()));
-            stuffedMaterialProductList.add(stuffDiffByDiffer(input));
+        try {
+            stuffAll(source, source, stuffedMaterialProductList::add);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
         }
         logger.debug(String.format("#process stuffedMaterialProductList.size()=%d", stuffedMaterialProductList.size()));
         // create a new MaterialProductGroup object with diff info stuffed
@@ -51,7 +97,193 @@ public final class DiffingMPGProcessor implements MPGProcessor {
         return result;
     }
 
-    private MaterialProduct stuffDiffByDiffer(final MaterialProduct materialProduct)
+    /**
+     * the pipelined variation of #process(MaterialProductGroup). The MaterialProducts are put
+     * in the order of the SortKeys first, as MaterialProductGroup#order(SortKeys) does, then
+     * diffed one by one in a background thread and handed over to the sink in that order
+     * while the next ones are being diffed. At most "pipelineCapacity" diffed MaterialProducts
+     * wait for the sink; the diffing thread blocks until the sink catches up.
+     * <p>
+     * So the sink, e.g. a reporter rendering the HTML fragment of each MaterialProduct,
+     * can start writing as soon as the first diff is done, and need not hold the whole
+     * report in memory. The Differs are not thread-safe, so the diffs are made in a single thread.
+     *
+     * @return the same MaterialProductGroup as #process(MaterialProductGroup) followed by
+     * MaterialProductGroup#order(SortKeys) returns
+     */
+    public MaterialProductGroup process(MaterialProductGroup source,
+                                        SortKeys sortKeys,
+                                        MaterialProductSink sink) throws MaterialstoreException {
+        return process(source, sortKeys, null, sink);
+    }
+
+    /**
+     * the same as #process(MaterialProductGroup, SortKeys, MaterialProductSink) except that the
+     * MaterialProducts are diffed, and handed over to the sink, in the order of the priority,
+     * e.g. CHANGED_FIRST. The index given to the sink is still the position in the order of the
+     * SortKeys, and so is the order of the MaterialProducts in the result.
+     *
+     * @param priority null to diff in the order of the SortKeys
+     */
+    public MaterialProductGroup process(MaterialProductGroup source,
+                                        SortKeys sortKeys,
+                                        Comparator<MaterialProduct> priority,
+                                        MaterialProductSink sink) throws MaterialstoreException {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(sortKeys);
+        Objects.requireNonNull(sink);
+        logger.debug(String.format("#process mpg.getCountTotal()=%d, pipelineCapacity=%d",
+                source.getCountTotal(), pipelineCapacity));
+        // the order is settled before diffing, as it depends on the metadata only
+        final List<MaterialProduct> inputs = new ArrayList<>();
+        source.forEach(inputs::add);
+        inputs.sort(new MaterialProductComparator(sortKeys));
+        final List<Integer> diffOrder = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            diffOrder.add(i);
+        }
+        if (priority != null) {
+            diffOrder.sort(Comparator.comparing(inputs::get, priority));
+        }
+        final List<MaterialProduct> prioritized = new ArrayList<>();
+        diffOrder.forEach(i -> prioritized.add(inputs.get(i)));
+
+        final BlockingQueue<Indexed> queue = new ArrayBlockingQueue<>(pipelineCapacity);
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DiffingMPGProcessor-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final MaterialProduct[] stuffedMaterialProducts = new MaterialProduct[inputs.size()];
+        final Future<?> diffing = executor.submit(() -> {
+            final int[] position = { 0 };
+            stuffAll(source, prioritized,
+                    stuffed -> queue.put(new Indexed(diffOrder.get(position[0]++), stuffed)));
+            return null;
+        });
+        try {
+            while (true) {
+                Indexed indexed = queue.poll(PIPELINE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (indexed != null) {
+                    // the sink sees the MaterialProduct annotated as it will be in the result
+                    indexed.stuffed.annotate(source.getIgnoreMetadataKeys(), source.getIdentifyMetadataValues());
+                    sink.accept(indexed.index, indexed.stuffed);
+                    stuffedMaterialProducts[indexed.index] = indexed.stuffed;
+                } else if (diffing.isDone() && queue.isEmpty()) {
+                    diffing.get();   // throws if the diffing failed
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaterialstoreException) {
+                throw (MaterialstoreException) e.getCause();
+            }
+            throw new MaterialstoreException(e.getCause());
+        } finally {
+            // stops the diffing if the sink failed
+            diffing.cancel(true);
+            executor.shutdownNow();
+        }
+        final List<MaterialProduct> stuffedMaterialProductList = new ArrayList<>(Arrays.asList(stuffedMaterialProducts));
+        logger.debug(String.format("#process stuffedMaterialProductList.size()=%d", stuffedMaterialProductList.size()));
+        MaterialProductGroup result = new MaterialProductGroup(source, stuffedMaterialProductList);
+        result.setReadyToReport(true);
+        return result;
+    }
+
+    private static final class Indexed {
+        private final int index;
+        private final MaterialProduct stuffed;
+        Indexed(int index, MaterialProduct stuffed) {
+            this.index = index;
+            this.stuffed = stuffed;
+        }
+    }
+
+    /*
+     * diff the inputs one by one with the DecodedImageCache of this run, then save the DiffCache
+     */
+    private void stuffAll(MaterialProductGroup source,
+                          Iterable<MaterialProduct> inputs,
+                          StuffedConsumer consumer)
+            throws MaterialstoreException, InterruptedException {
+        final VerdictPolicy verdictPolicy = verdictFirst
+                ? VerdictPolicy.builder(source.getThreshold()).timeBudgetMillis(timeBudgetMillis).build()
+                : null;
+        // the decoded images are shared by the comparisons of this run only, unless given to share
+        final DecodedImageCache decodedImageCache = (sharedDecodedImageCache != null)
+                ? sharedDecodedImageCache
+                : (decodedImageCacheBudget > 0) ? new DecodedImageCache(decodedImageCacheBudget) : null;
+        final Set<ImageDiffStuffer> imageDiffers = findImageDiffers();
+        imageDiffers.forEach(d -> d.setDecodedImageCache(decodedImageCache));
+        try {
+            for (MaterialProduct input : inputs) {
+                // do make difference and memorize it
+                logger.info(String.format("#process %s", input.toString()));
+                consumer.accept(stuffDiffByDiffer(input, verdictPolicy));
+            }
+        } finally {
+            imageDiffers.forEach(d -> d.setDecodedImageCache(null));
+            if (decodedImageCache != null) {
+                decodedImageCacheStatistics = decodedImageCache.getStatistics();
+                logger.info(String.format("#process %s", decodedImageCache));
+                if (decodedImageCache != sharedDecodedImageCache) {
+                    decodedImageCache.clear();
+                }
+            }
+        }
+        if (diffCache != null) {
+            diffCache.save();
+            logger.info(String.format("#process %s", diffCache));
+        }
+    }
+
+    private interface StuffedConsumer {
+        void accept(MaterialProduct stuffed) throws InterruptedException;
+    }
+
+    /**
+     * make the full diffs of the MaterialProducts which were given up in the verdict first mode
+     * (see VerdictPolicy#isPartial(MaterialProduct)); the others are kept as they are.
+     * The placeholders of the partial diffs are removed from the store.
+     */
+    public MaterialProductGroup completePartialDiffs(MaterialProductGroup source)
+            throws MaterialstoreException {
+        Objects.requireNonNull(source);
+        final List<MaterialProduct> completed = new ArrayList<>();
+        int count = 0;
+        for (MaterialProduct input : source) {
+            if (VerdictPolicy.isPartial(input)) {
+                MaterialProduct full = stuffDiffByDiffer(input, null);
+                completed.add(full);
+                count += 1;
+                // the placeholder is of no use once the full diff is there
+                Material placeholder = input.getDiff();
+                if (!VerdictPolicy.isPartial(full) && !placeholder.equals(full.getDiff())) {
+                    store.getJobber(placeholder.getJobName(), placeholder.getJobTimestamp())
+                            .remove(placeholder);
+                }
+            } else {
+                completed.add(input);
+            }
+        }
+        logger.info(String.format("#completePartialDiffs completed %d partial diffs", count));
+        if (diffCache != null) {
+            diffCache.save();
+        }
+        MaterialProductGroup result = new MaterialProductGroup(source, completed);
+        result.setReadyToReport(true);
+        return result;
+    }
+
+    /*
+     * @param verdictPolicy null to make the full diff
+     */
+    private MaterialProduct stuffDiffByDiffer(final MaterialProduct materialProduct,
+                                              final VerdictPolicy verdictPolicy)
             throws MaterialstoreException {
         IFileType fileType;
         if (materialProduct.getLeft().equals(Material.NULL_OBJECT)) {
@@ -66,10 +298,107 @@ public final class DiffingMPGProcessor implements MPGProcessor {
             fileType = materialProduct.getRight().getIndexEntry().getFileType();
         }
         Differ differ = differs.get(fileType);
-        MaterialProduct result = differ.stuffDiff(materialProduct);
+        if (diffCache == null || !isCacheable(materialProduct)) {
+            return stuff(differ, materialProduct, verdictPolicy);
+        }
+        DiffCache.Key key = new DiffCache.Key(
+                materialProduct.getLeft().getID(),
+                materialProduct.getRight().getID(),
+                differ.getClass().getName(),
+                materialProduct.getWithDiffColor().toRGB(),
+                differ.getDiffOptions());
+        DiffCache.Entry cached = diffCache.get(key);
+        if (cached != null) {
+            return linkCachedDiff(materialProduct, cached);
+        }
+        MaterialProduct result = stuff(differ, materialProduct, verdictPolicy);
+        // VoidDiffer gives no "ratio"; such diffs are not worth caching.
+        // A partial diff is not the diff of the 2 contents
+        if (result.getDiff() != null && !VerdictPolicy.isPartial(result) &&
+                result.getDiff().getMetadata().containsKey("ratio") &&
+                result.getDiffRatio() != null) {
+            diffCache.put(key, result.getDiff(), result.getDiffRatio());
+        }
         return result;
     }
 
+    private static MaterialProduct stuff(Differ differ, MaterialProduct materialProduct,
+                                         VerdictPolicy verdictPolicy) throws MaterialstoreException {
+        return (verdictPolicy != null)
+                ? differ.stuffVerdict(materialProduct, verdictPolicy)
+                : differ.stuffDiff(materialProduct);
+    }
+
+    /*
+     * Only the MaterialProducts with both of the left and the right Materials
+     * present are cacheable, as the diff is a function of the 2 contents.
+     */
+    private static boolean isCacheable(MaterialProduct materialProduct) {
+        Material left = materialProduct.getLeft();
+        Material right = materialProduct.getRight();
+        return !left.equals(Material.NULL_OBJECT) && !left.isEmpty() &&
+                !right.equals(Material.NULL_OBJECT) && !right.isEmpty() &&
+                // identical pairs are resolved by the Differ without diffing
+                !left.getID().equals(right.getID());
+    }
+
+    /*
+     * link the diff object found in the DiffCache into the reduced JobTimestamp
+     * with the "left" and "right" metadata of this MaterialProduct,
+     * so that StoreCleaner can follow the references as usual.
+     */
+    private MaterialProduct linkCachedDiff(MaterialProduct materialProduct,
+                                           DiffCache.Entry cached)
+            throws MaterialstoreException {
+        Metadata.Builder mb = Metadata.builder()
+                .put("category", "diff")
+                .put("ratio", DifferUtil.formatDiffRatioAsString(cached.getDiffRatio()))
+                .put("left", new MaterialLocator(materialProduct.getLeft()).toString())
+                .put("right", new MaterialLocator(materialProduct.getRight()).toString());
+        if (!cached.getRegions().isEmpty()) {
+            mb.put("regions", cached.getRegions());
+        }
+        Metadata diffMetadata = mb.build();
+        Jobber jobber = store.getJobber(
+                materialProduct.getJobName(), materialProduct.getReducedTimestamp());
+        Material diffMaterial = jobber.link(cached.toMaterial(store), diffMetadata,
+                Jobber.DuplicationHandling.CONTINUE);
+        logger.debug(String.format("#linkCachedDiff reused %s", cached));
+        MaterialProduct result = new MaterialProduct.Builder(materialProduct).build();
+        result.setDiff(diffMaterial);
+        result.setDiffRatio(cached.getDiffRatio());
+        return result;
+    }
+
+    private static int rankOfChange(MaterialProduct materialProduct) {
+        Material left = materialProduct.getLeft();
+        Material right = materialProduct.getRight();
+        if (left.equals(Material.NULL_OBJECT) || left.isEmpty() ||
+                right.equals(Material.NULL_OBJECT) || right.isEmpty()) {
+            return 0;
+        }
+        return left.getID().equals(right.getID()) ? 2 : 1;
+    }
+
+    private Set<ImageDiffStuffer> findImageDiffers() {
+        Set<ImageDiffStuffer> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Differ differ : differs.values()) {
+            if (differ instanceof ImageDiffStuffer) {
+                found.add((ImageDiffStuffer) differ);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the statistics of the DecodedImageCache of the last #process() call,
+     * or null if the cache is disabled or nothing has been processed yet.
+     * The statistics of a shared cache include those of the other processors.
+     */
+    public DecodedImageCache.Statistics getDecodedImageCacheStatistics() {
+        return decodedImageCacheStatistics;
+    }
+
     public boolean hasDiffer(FileType fileType) {
         return differs.containsKey(fileType);
     }
@@ -82,6 +411,13 @@ public final class DiffingMPGProcessor implements MPGProcessor {
         private final Store store;
         private final Map<IFileType, Differ> differs;
         private Color diffColor = Color.RED;
+        private DiffCache diffCache = null;
+        private ImageDiffStuffer.Artifact imageDiffArtifact = ImageDiffStuffer.Artifact.MARKED_PNG;
+        private long decodedImageCacheBudget = 0;
+        private DecodedImageCache sharedDecodedImageCache = null;
+        private boolean verdictFirst = false;
+        private long timeBudgetMillis = 0;
+        private int pipelineCapacity = DEFAULT_PIPELINE_CAPACITY;
 
         public Builder(Store store) {
             Objects.requireNonNull(store);
@@ -99,13 +435,92 @@ public final class DiffingMPGProcessor implements MPGProcessor {
             return this;
         }
 
+        /**
+         * enable the content-addressed DiffCache so that a diff of the same
+         * pair of left and right contents is reused instead of recomputed
+         */
+        public Builder diffCache(DiffCache diffCache) {
+            Objects.requireNonNull(diffCache);
+            this.diffCache = diffCache;
+            return this;
+        }
+
+        /**
+         * choose the format of the diff of images. CHANGE_MASK stores a compact mask
+         * of the differing pixels instead of a full-resolution marked PNG.
+         */
+        public Builder imageDiffArtifact(ImageDiffStuffer.Artifact artifact) {
+            Objects.requireNonNull(artifact);
+            this.imageDiffArtifact = artifact;
+            return this;
+        }
+
+        /**
+         * the memory budget in bytes of the DecodedImageCache used within a #process() call,
+         * so that an image compared with several counterparts is decoded only once.
+         * 0 (default) disables the cache.
+         */
+        public Builder decodedImageCacheBudget(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes must not be negative: " + bytes);
+            }
+            this.decodedImageCacheBudget = bytes;
+            return this;
+        }
+
+        /**
+         * a DecodedImageCache shared with other processors running at the same time,
+         * e.g. one per JobName, so that they stay within a single memory budget altogether.
+         * It is used in place of the one per #process() call of #decodedImageCacheBudget(long),
+         * and is not cleared by the processor; the caller discards it when all are done.
+         */
+        public Builder decodedImageCache(DecodedImageCache shared) {
+            Objects.requireNonNull(shared);
+            this.sharedDecodedImageCache = shared;
+            return this;
+        }
+
+        /**
+         * the "verdict first" mode; see VerdictPolicy. The Differs stop as soon as the diff ratio
+         * of a MaterialProduct provably exceeds the threshold of the MaterialProductGroup,
+         * and stuff a partial diff. The full diffs can be made later by #completePartialDiffs.
+         */
+        public Builder verdictFirst(boolean verdictFirst) {
+            this.verdictFirst = verdictFirst;
+            return this;
+        }
+
+        /**
+         * the time budget per MaterialProduct in the verdict first mode; 0 (default) for unlimited
+         */
+        public Builder timeBudgetMillis(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("millis must not be negative: " + millis);
+            }
+            this.timeBudgetMillis = millis;
+            return this;
+        }
+
+        /**
+         * the number of the diffed MaterialProducts which may wait for the sink of
+         * #process(MaterialProductGroup, SortKeys, MaterialProductSink) before the diffing pauses
+         */
+        public Builder pipelineCapacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            this.pipelineCapacity = capacity;
+            return this;
+        }
+
         public DiffingMPGProcessor build() {
             final Differ textDiffer = new TextDifferToHTML(store);
             for (IFileType ft : FileTypeUtil.getFileTypesDiffableAsText()) {
                 differs.put(ft, textDiffer);
             }
             //
-            final Differ imageDiffer = new ImageDiffStuffer(this.store);
+            final ImageDiffStuffer imageDiffer = new ImageDiffStuffer(this.store);
+            imageDiffer.setArtifact(imageDiffArtifact);
             for (IFileType ft : FileTypeUtil.getFileTypesDiffableAsImage()) {
                 differs.put(ft, imageDiffer);
             }
@@ -2,6 +2,7 @@ package com.kazurayam.materialstore.base.reduce;
 
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.kazurayam.materialstore.core.DiffColor;
 import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
 import com.kazurayam.materialstore.base.reduce.zipper.MaterialProductComparator;
@@ -12,6 +13,7 @@ import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
 import com.kazurayam.materialstore.core.MaterialIO;
 import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.QueryOnMetadata;
 import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.TemplateReadySortable;
@@ -22,6 +24,8 @@ import com.kazurayam.materialstore.util.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -231,6 +235,14 @@ public final class MaterialProductGroup
         return filtered.size();
     }
 
+    /**
+     * the MaterialProducts exceeding the threshold but checked as ignorable in the report.
+     * All the MaterialProducts are unchecked until the report is viewed; so none.
+     */
+    public int getCountIgnorable() {
+        return 0;
+    }
+
     public long getCountTotal() { return this.materialProductList.size(); }
 
     public String getLabelLeft() { return this.labelLeft; }
@@ -319,85 +331,19 @@ public final class MaterialProductGroup
 
     String toVariableJson(SortKeys sortKeys,
                           boolean withMaterialProductList) {
-        //TODO sortKeys is not yet used
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"jobName\":\"");
-        sb.append(this.getJobName().toString());
-        sb.append("\"");
-        sb.append(",");
-        //sb.append("\"resultTimestamp\":\"");
-        //sb.append(this.resultTimestamp.toString());
-        //sb.append("\"");
-        //sb.append(",");
-        sb.append("\"threshold\":");
-        sb.append(this.getThreshold());
-        sb.append(",");
-        sb.append("\"isReadyToReport\":");
-        sb.append(this.isReadyToReport());
-        sb.append(",");
-        sb.append("\"ignoreMetadataKeys\":");
-        sb.append(this.getIgnoreMetadataKeys().toJson());
-        sb.append(",");
-        sb.append("\"materialList0\":{");
-        sb.append("\"jobTimestamp\":\"");
-        sb.append(materialList0.getJobTimestamp().toString());
-        sb.append("\"");
-        sb.append(",");
-        sb.append("\"queryOnMetadata\":");
-        sb.append(materialList0.getQueryOnMetadata().toJson());
-        sb.append(",");
-        sb.append("\"size\":");
-        sb.append(materialList0.size());
-        sb.append("}");
-        sb.append(",");
-        sb.append("\"materialList1\":{");
-        sb.append("\"jobTimestamp\":\"");
-        sb.append(materialList1.getJobTimestamp().toString());
-        sb.append("\"");
-        sb.append(",");
-        sb.append("\"queryOnMetadata\":");
-        sb.append(materialList1.getQueryOnMetadata().toJson());
-        sb.append(",");
-        sb.append("\"size\":");
-        sb.append(materialList1.size());
-        sb.append("}");
-        if (withMaterialProductList) {
-            sb.append(",");
-            int count = 0;
-            sb.append("\"materialProductList\":");
-            sb.append("[");
-            for (MaterialProduct mProduct : materialProductList) {
-                if (count > 0) {
-                    sb.append(",");
-                }
-                sb.append(
-                        mProduct.toVariableJson(
-                                sortKeys
-                        ));
-                count += 1;
-            }
-            sb.append("]");
+        StringWriter sw = new StringWriter();
+        JsonWriter jw = new JsonWriter(sw);
+        try {
+            MaterialProductGroupJsonWriter.writeGroup(jw, this, size(), getCountWarning(),
+                    withMaterialProductList
+                            ? (w, index) -> MaterialProductGroupJsonWriter.writeProduct(
+                                    w, materialProductList.get(index), sortKeys)
+                            : null);
+            jw.flush();
+        } catch (IOException | MaterialstoreException e) {
+            throw new IllegalStateException(e);
         }
-        sb.append(",");
-        sb.append("\"countWarning\":");
-        sb.append(getCountWarning());
-        sb.append(",");
-        sb.append("\"countIgnorable\":");
-        sb.append(0);
-        sb.append(",");
-        sb.append("\"countTotal\":");
-        sb.append(getCountTotal());
-        sb.append(",");
-        sb.append("\"labelLeft\":\"");
-        sb.append(getLabelLeft());
-        sb.append("\"");
-        sb.append(",");
-        sb.append("\"labelRight\":\"");
-        sb.append(getLabelRight());
-        sb.append("\"");
-        sb.append("}");
-        return sb.toString();
+        return sw.toString();
     }
 
     @Override
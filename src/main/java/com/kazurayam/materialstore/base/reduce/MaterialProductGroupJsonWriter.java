@@ -0,0 +1,190 @@
+package com.kazurayam.materialstore.base.reduce;
+
+import com.google.gson.stream.JsonWriter;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.SortKeys;
+import com.kazurayam.materialstore.core.metadata.MetadataAttribute;
+import com.kazurayam.materialstore.core.metadata.SemanticVersionMatcherResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * writes the JSON of a MaterialProductGroup into a streaming JsonWriter.
+ * MaterialProductGroup#toJson() and the model embedded in the reports are both written by this,
+ * so that they have the same properties.
+ */
+public final class MaterialProductGroupJsonWriter {
+
+    private MaterialProductGroupJsonWriter() {}
+
+    /**
+     * writes the JSON of the MaterialProduct of an index in the group
+     */
+    public interface ProductWriter {
+        void write(JsonWriter jw, int index) throws IOException, MaterialstoreException;
+    }
+
+    /**
+     * @param mpg the group of which the properties other than the MaterialProducts are written
+     * @param countTotal the number of the MaterialProducts written
+     * @param countWarning the number of the MaterialProducts written which exceed the threshold
+     * @param products null not to write the "materialProductList"
+     */
+    public static void writeGroup(JsonWriter jw, MaterialProductGroup mpg,
+                                  int countTotal, int countWarning, ProductWriter products)
+            throws IOException, MaterialstoreException {
+        jw.beginObject();
+        jw.name("jobName").value(mpg.getJobName().toString());
+        jw.name("threshold").value(mpg.getThreshold());
+        jw.name("isReadyToReport").value(mpg.isReadyToReport());
+        jw.name("ignoreMetadataKeys").beginArray();
+        List<String> keys = new ArrayList<>(mpg.getIgnoreMetadataKeys().keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            jw.value(key);
+        }
+        jw.endArray();
+        jw.name("materialList0");
+        writeListSummary(jw, mpg.getMaterialListLeft());
+        jw.name("materialList1");
+        writeListSummary(jw, mpg.getMaterialListRight());
+        if (products != null) {
+            jw.name("materialProductList").beginArray();
+            for (int i = 0; i < countTotal; i++) {
+                products.write(jw, i);
+            }
+            jw.endArray();
+        }
+        jw.name("countWarning").value(countWarning);
+        jw.name("countIgnorable").value(mpg.getCountIgnorable());
+        jw.name("countTotal").value(countTotal);
+        jw.name("labelLeft").value(mpg.getLabelLeft());
+        jw.name("labelRight").value(mpg.getLabelRight());
+        jw.endObject();
+    }
+
+    private static void writeListSummary(JsonWriter jw, MaterialList materialList) throws IOException {
+        jw.beginObject();
+        jw.name("jobTimestamp").value(materialList.getJobTimestamp().toString());
+        jw.name("queryOnMetadata");
+        writeQuery(jw, materialList.getQueryOnMetadata(), new SortKeys());
+        jw.name("size").value(materialList.size());
+        jw.endObject();
+    }
+
+    public static void writeProduct(JsonWriter jw, MaterialProduct mProduct, SortKeys sortKeys)
+            throws IOException, MaterialstoreException {
+        jw.beginObject();
+        // "checked" is used by the JavaScript in the report
+        jw.name("checked").value(false);
+        jw.name("isBachelor").value(mProduct.isBachelor());
+        jw.name("diffRatio").value(mProduct.getDiffRatio());
+        jw.name("fileTypeExtension").value(mProduct.getFileTypeExtension());
+        jw.name("fileTypeIsDiffable").value(mProduct.getFileTypeDiffability().isDiffable());
+        jw.name("queryOnMetadata");
+        writeQuery(jw, mProduct.getQueryOnMetadata(), sortKeys);
+        jw.name("identification").value(mProduct.getQueryIdentification(sortKeys).toString());
+        jw.name("left");
+        writeMaterial(jw, mProduct.getLeft(), sortKeys);
+        jw.name("right");
+        writeMaterial(jw, mProduct.getRight(), sortKeys);
+        jw.name("withDiffColor").value(mProduct.getWithDiffColor().toRGB());
+        jw.name("diff");
+        writeMaterial(jw, mProduct.getDiff(), sortKeys);
+        jw.endObject();
+    }
+
+    private static void writeQuery(JsonWriter jw, QueryOnMetadata query, SortKeys sortKeys) throws IOException {
+        jw.beginObject();
+        for (String key : orderKeys(query.keySet(), sortKeys, Comparator.naturalOrder())) {
+            jw.name(key).value(query.getAsString(key));
+        }
+        jw.endObject();
+    }
+
+    private static void writeMaterial(JsonWriter jw, Material material, SortKeys sortKeys)
+            throws IOException, MaterialstoreException {
+        Metadata metadata = material.getIndexEntry().getMetadata();
+        jw.beginObject();
+        jw.name("jobName").value(material.getJobName().toString());
+        jw.name("jobTimestamp").value(material.getJobTimestamp().toString());
+        jw.name("id").value(material.getIndexEntry().getID().toString());
+        jw.name("fileType").value(material.getIndexEntry().getFileType().getExtension());
+        jw.name("metadata");
+        writeMetadata(jw, metadata);
+        jw.name("identification").value(metadata.getMetadataIdentification(sortKeys).toString());
+        if (metadata.toURL() != null) {
+            jw.name("metadataURL").value(metadata.toURLAsString());
+        }
+        jw.name("relativeUrl").value(material.getRelativeURL());
+        jw.name("diffability").value(material.getDiffability().toString());
+        jw.endObject();
+    }
+
+    private static void writeMetadata(JsonWriter jw, Metadata metadata) throws IOException {
+        jw.beginObject();
+        for (String key : orderKeys(metadata.keySet(), new SortKeys(), String.CASE_INSENSITIVE_ORDER)) {
+            MetadataAttribute attribute = metadata.getMetadataAttribute(key);
+            jw.name(key).beginObject();
+            jw.name("key").value(attribute.getKey());
+            jw.name("value").value(attribute.getValue());
+            if (attribute.isIgnoredByKey()) {
+                jw.name("ignoredByKey").value(true);
+            }
+            if (attribute.isIdentifiedByValue()) {
+                jw.name("identifiedByValue").value(true);
+            }
+            if (attribute.isMatchedByAster()) {
+                jw.name("matchedByAster").value(true);
+            }
+            if (attribute.isMatchedIndividually()) {
+                jw.name("matchedIndividually").value(true);
+            }
+            if (attribute.isPaired()) {
+                jw.name("paired").value(true);
+            }
+            SemanticVersionMatcherResult result = attribute.getSemanticVersionMatcherResult();
+            if (result != null) {
+                jw.name("semanticVersionMatcherResult").beginObject();
+                jw.name("matched").value(result.matched());
+                jw.name("fragments").beginArray();
+                for (String fragment : result.fragments()) {
+                    jw.value((fragment != null) ? fragment : "");
+                }
+                jw.endArray();
+                jw.endObject();
+            }
+            jw.endObject();
+        }
+        jw.endObject();
+    }
+
+    /**
+     * the keys nominated by the SortKeys come first, the others follow in the given order
+     */
+    public static List<String> orderKeys(Collection<String> keys, SortKeys sortKeys, Comparator<String> order) {
+        Set<String> rest = new HashSet<>(keys);
+        List<String> ordered = new ArrayList<>();
+        for (String key : sortKeys) {
+            if (rest.remove(key)) {
+                ordered.add(key);
+            }
+        }
+        List<String> others = new ArrayList<>(rest);
+        others.sort(order);
+        ordered.addAll(others);
+        return ordered;
+    }
+}
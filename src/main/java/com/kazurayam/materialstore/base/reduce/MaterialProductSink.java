@@ -0,0 +1,18 @@
+package com.kazurayam.materialstore.base.reduce;
+
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+/**
+ * receives the MaterialProducts out of DiffingMPGProcessor#process(MaterialProductGroup, SortKeys, MaterialProductSink)
+ * one by one, as soon as each of them is diffed.
+ */
+public interface MaterialProductSink {
+
+    /**
+     * @param index the position of the MaterialProduct in the MaterialProductGroup ordered by the SortKeys
+     * @param stuffed the MaterialProduct with the diff stuffed
+     */
+    void accept(int index, MaterialProduct stuffed) throws MaterialstoreException;
+
+}
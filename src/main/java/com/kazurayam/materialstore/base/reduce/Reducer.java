@@ -1,14 +1,24 @@
 package com.kazurayam.materialstore.base.reduce;
 
+import com.kazurayam.materialstore.core.IFileType;
+import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobNameNotFoundException;
 import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.util.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiFunction;
 
@@ -116,4 +126,191 @@ public final class Reducer {
         return reducedMPG;
     }
 
+
+    public static List<MaterialProductGroup> chronosSeries(Store store,
+                                                           JobName jobName,
+                                                           int window)
+            throws MaterialstoreException, JobNameNotFoundException {
+        return chronosSeries(store, jobName, window, QueryOnMetadata.ANY);
+    }
+
+    public static List<MaterialProductGroup> chronosSeries(Store store,
+                                                           JobName jobName,
+                                                           int window,
+                                                           QueryOnMetadata query)
+            throws MaterialstoreException, JobNameNotFoundException {
+        BiFunction<MaterialList, MaterialList, MaterialProductGroup> func =
+                (MaterialList left, MaterialList right) ->
+                        MaterialProductGroup.builder(left,right).build();
+        return chronosSeries(store, jobName, window, query, func);
+    }
+
+    /**
+     * does the same as calling #chronos(Store, MaterialList) for each of the latest "window"
+     * JobTimestamps of the JobName, but walks the timeline of the JobName only once.
+     * <p>
+     * #chronos calls Store#reflect, which selects the MaterialList of every JobTimestamp prior to
+     * the current one, so N calls of #chronos load the indexes N x N times. Here the MaterialList
+     * of each JobTimestamp is selected once, and is used both as the right side of a
+     * MaterialProductGroup and as the left side of the next one. The Materials of a MaterialList
+     * are indexed by the FileType and the Metadata, so that finding the previous similar
+     * MaterialList costs in proportion to the number of Materials, not to its square.
+     * <p>
+     * The Materials with the "category":"diff" metadata, which the previous runs stuffed into the
+     * JobTimestamps, are not the subject of comparison, so they are left out.
+     * <p>
+     * To reuse the diff results as well, process the returned MaterialProductGroups with a single
+     * DiffingMPGProcessor built with a DiffCache; the Materials unchanged between two adjacent
+     * JobTimestamps are found identical without being diffed, so the total cost of diffing is in
+     * proportion to the number of changes.
+     *
+     * @param window the number of the latest JobTimestamps to make MaterialProductGroups of
+     * @param query selects the Materials to compare in each JobTimestamp
+     * @return the MaterialProductGroups in chronological order; the last one has the latest
+     * JobTimestamp as the right side. Fewer than "window" if the JobName has fewer JobTimestamps
+     */
+    public static List<MaterialProductGroup> chronosSeries(Store store,
+                                                           JobName jobName,
+                                                           int window,
+                                                           QueryOnMetadata query,
+                                                           BiFunction<MaterialList, MaterialList, MaterialProductGroup> func)
+            throws MaterialstoreException, JobNameNotFoundException {
+        Objects.requireNonNull(store);
+        Objects.requireNonNull(jobName);
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(func);
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        logger.info("[chronosSeries] jobName=" + jobName + ", window=" + window + ", store=" + store);
+
+        // the latest comes first
+        List<JobTimestamp> allJobTimestamps = store.findAllJobTimestamps(jobName);
+        List<SimilarityIndex> timeline = new ArrayList<>();
+        List<MaterialProductGroup> series = new ArrayList<>();
+        int next = 0;   // the position in allJobTimestamps to load next
+        int current = 0;   // the position in timeline of the current MaterialList
+        while (series.size() < window) {
+            // make sure the current MaterialList is loaded
+            while (timeline.size() <= current && next < allJobTimestamps.size()) {
+                next = load(store, jobName, query, allJobTimestamps, next, timeline);
+            }
+            if (timeline.size() <= current) {
+                break;
+            }
+            SimilarityIndex currentIndex = timeline.get(current);
+            // look for the nearest previous MaterialList similar to the current one,
+            // loading older JobTimestamps only as far as required
+            MaterialList previousMaterialList = MaterialList.NULL_OBJECT;
+            int candidate = current + 1;
+            while (true) {
+                while (timeline.size() <= candidate && next < allJobTimestamps.size()) {
+                    next = load(store, jobName, query, allJobTimestamps, next, timeline);
+                }
+                if (timeline.size() <= candidate) {
+                    break;
+                }
+                MaterialList collected = timeline.get(candidate).collect(currentIndex.materialList);
+                if (collected.size() > 0) {
+                    previousMaterialList = collected;
+                    break;
+                }
+                candidate += 1;
+            }
+            logger.info("[chronosSeries] current=" + currentIndex.materialList.getJobTimestamp() +
+                    ", previous=" + previousMaterialList.getJobTimestamp());
+            MaterialProductGroup reducedMPG = func.apply(previousMaterialList, currentIndex.materialList);
+            if (reducedMPG.size() != currentIndex.materialList.size()) {
+                logger.warn("[chronosSeries] reducedMPG.size() is not equal to currentMaterialList.size() at " +
+                        currentIndex.materialList.getJobTimestamp());
+            }
+            series.add(reducedMPG);
+            current += 1;
+        }
+        Collections.reverse(series);
+        logger.info("[chronosSeries] loaded " + timeline.size() + " of " + allJobTimestamps.size() +
+                " JobTimestamps to make " + series.size() + " MaterialProductGroups");
+        return series;
+    }
+
+    /*
+     * select the MaterialList of allJobTimestamps[position] and append it to the timeline unless
+     * it is empty, as Store#reflect skips the JobTimestamps without any Material selected.
+     * @return the position to load next
+     */
+    private static int load(Store store, JobName jobName, QueryOnMetadata query,
+                            List<JobTimestamp> allJobTimestamps, int position,
+                            List<SimilarityIndex> timeline) throws MaterialstoreException {
+        JobTimestamp jobTimestamp = allJobTimestamps.get(position);
+        MaterialList selected = store.select(jobName, jobTimestamp, query);
+        MaterialList materialList = new MaterialList(jobName, jobTimestamp, query);
+        for (Material material : selected) {
+            if (!material.getMetadata().containsCategoryDiff()) {
+                materialList.add(material);
+            }
+        }
+        if (materialList.size() > 0) {
+            timeline.add(new SimilarityIndex(materialList));
+        }
+        return position + 1;
+    }
+
+    /*
+     * a MaterialList with its Materials grouped by FileType and Metadata,
+     * which is what Material#isSimilarTo(Material) compares
+     */
+    private static final class SimilarityIndex {
+
+        private final MaterialList materialList;
+        private final Map<SimilarityKey, List<Material>> groups = new HashMap<>();
+
+        SimilarityIndex(MaterialList materialList) {
+            this.materialList = materialList;
+            for (Material material : materialList) {
+                groups.computeIfAbsent(new SimilarityKey(material), k -> new ArrayList<>())
+                        .add(material);
+            }
+        }
+
+        /*
+         * does the same as StoreImpl#collect(baseList, targetList) with this as the target
+         */
+        MaterialList collect(MaterialList baseList) {
+            MaterialList collection = new MaterialList(materialList.getJobName(),
+                    materialList.getJobTimestamp(), materialList.getQueryOnMetadata());
+            for (Material base : baseList) {
+                List<Material> found = groups.get(new SimilarityKey(base));
+                if (found != null) {
+                    collection.add(found);
+                }
+            }
+            return collection;
+        }
+    }
+
+    private static final class SimilarityKey {
+
+        private final IFileType fileType;
+        private final Metadata metadata;
+
+        SimilarityKey(Material material) {
+            this.fileType = material.getIndexEntry().getFileType();
+            this.metadata = material.getIndexEntry().getMetadata();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SimilarityKey)) {
+                return false;
+            }
+            SimilarityKey other = (SimilarityKey) obj;
+            return fileType.equals(other.fileType) && metadata.equals(other.metadata);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fileType.hashCode() + metadata.hashCode();
+        }
+    }
+
 }
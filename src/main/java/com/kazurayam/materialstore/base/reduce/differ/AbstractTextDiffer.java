@@ -15,13 +15,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
 
@@ -43,12 +50,21 @@ public abstract class AbstractTextDiffer implements Differ {
         this.charset = chs;
     }
 
+    @Override
+    public String getDiffOptions() {
+        return "charset=" + charset.name();
+    }
+
     @Override
     public MaterialProduct stuffDiff(MaterialProduct mProduct) throws MaterialstoreException {
         Objects.requireNonNull(mProduct);
         Objects.requireNonNull(mProduct.getLeft());
         Objects.requireNonNull(mProduct.getRight());
 
+        if (isIdentical(mProduct)) {
+            return stuffIdenticalDiff(store, mProduct, FileType.HTML, Material.loadIdenticalHtml());
+        }
+
         Material left = mProduct.getLeft();
         Material right = mProduct.getRight();
 
@@ -67,16 +83,19 @@ public abstract class AbstractTextDiffer implements Differ {
             throw new IllegalStateException("should not fall down here");
         }
 
+        if (isToBeStreamed(left, right, charset)) {
+            return stuffDiffStreaming(mProduct, left, right);
+        }
+
         // generate the diff Material
-        TextDiffContent textDiffContent = makeTextDiffContent(store, left, right, charset);
+        return writeDiff(mProduct, left, right, makeTextDiffContent(store, left, right, charset));
+    }
+
+    private MaterialProduct writeDiff(MaterialProduct mProduct, Material left, Material right,
+                                      TextDiffContent textDiffContent) throws MaterialstoreException {
         Double diffRatio = textDiffContent.getDiffRatio();
         byte[] diffData = toByteArray(textDiffContent.getContent());
-        Metadata diffMetadata = Metadata.builder()
-                .put("category", "diff")
-                .put("ratio", DifferUtil.formatDiffRatioAsString(diffRatio))
-                .put("left", new MaterialLocator(left).toString())
-                .put("right", new MaterialLocator(right).toString())
-                .build();
+        Metadata diffMetadata = makeDiffMetadata(left, right, diffRatio);
         // write the diff Material into the store
         Material diffMaterial =
                 store.write(mProduct.getJobName(), mProduct.getReducedTimestamp(),
@@ -89,11 +108,162 @@ public abstract class AbstractTextDiffer implements Differ {
         return result;
     }
 
+    /**
+     * The lower bound of the diff ratio is computed out of the lines counted as multisets,
+     * which costs much less than the diff itself. If it exceeds the threshold, the diff is not made
+     * and a placeholder HTML is stuffed; otherwise the diff is made of the lines already read.
+     * The time budget is checked before the diff is started; a diff in progress is not interrupted.
+     */
+    @Override
+    public MaterialProduct stuffVerdict(MaterialProduct mProduct, VerdictPolicy policy)
+            throws MaterialstoreException {
+        Objects.requireNonNull(mProduct);
+        Objects.requireNonNull(policy);
+        Material left = mProduct.getLeft();
+        Material right = mProduct.getRight();
+        if (isIdentical(mProduct) ||
+                !left.getDiffability().equals(FileTypeDiffability.AS_TEXT) ||
+                !right.getDiffability().equals(FileTypeDiffability.AS_TEXT)) {
+            return stuffDiff(mProduct);
+        }
+        VerdictPolicy.Monitor monitor = policy.start();
+        if (isToBeStreamed(left, right, charset)) {
+            double lowerBound;
+            try {
+                lowerBound = LineHashDiff.lowerBoundOfDiffRatio(
+                        LineHashDiff.hashLines(left.toPath()), LineHashDiff.hashLines(right.toPath()));
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+            if (!monitor.checkLowerBound(lowerBound)) {
+                return stuffPartialDiff(mProduct, policy, monitor);
+            }
+            return stuffDiffStreaming(mProduct, left, right);
+        }
+        List<String> leftLines = readAllLines(readMaterial(store, left, charset));
+        List<String> rightLines = readAllLines(readMaterial(store, right, charset));
+        if (!monitor.checkLowerBound(lowerBoundOfDiffRatio(leftLines, rightLines))) {
+            return stuffPartialDiff(mProduct, policy, monitor);
+        }
+        return writeDiff(mProduct, left, right, makeTextDiffContent(store, left, right, leftLines, rightLines));
+    }
+
+    private MaterialProduct stuffPartialDiff(MaterialProduct mProduct, VerdictPolicy policy,
+                                             VerdictPolicy.Monitor monitor) throws MaterialstoreException {
+        Double diffRatio = monitor.getBoundOfDiffRatio();
+        return stuffPartialDiff(store, mProduct, mProduct.getLeft(), mProduct.getRight(), FileType.HTML,
+                PartialDiffArtifact.html(monitor.getPartial(), diffRatio, policy.getThreshold()),
+                diffRatio, monitor.getPartial());
+    }
+
+    static double lowerBoundOfDiffRatio(List<String> leftLines, List<String> rightLines) {
+        int longer = Math.max(leftLines.size(), rightLines.size());
+        if (longer == 0) {
+            return 0.0d;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (String line : leftLines) {
+            counts.merge(line, 1, Integer::sum);
+        }
+        int common = 0;
+        for (String line : rightLines) {
+            Integer count = counts.get(line);
+            if (count != null && count > 0) {
+                counts.put(line, count - 1);
+                common++;
+            }
+        }
+        return (1.0d - (double) common / longer) * 100.0d;
+    }
+
+    /*
+     * write the diff into a temporary file in the objects directory, then move it into the store,
+     * so that neither the texts nor the diff are held in memory as a whole
+     */
+    private MaterialProduct stuffDiffStreaming(MaterialProduct mProduct, Material left, Material right)
+            throws MaterialstoreException {
+        Jobber jobber = store.getJobber(mProduct.getJobName(), mProduct.getReducedTimestamp());
+        Path tmp;
+        TextDiffContent textDiffContent;
+        try {
+            tmp = Files.createTempFile(jobber.getObjectsDir(), "diff", ".tmp");
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(tmp), StandardCharsets.UTF_8))) {
+                textDiffContent = writeTextDiffContent(store, left, right, charset, writer);
+            } catch (MaterialstoreException | IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        Double diffRatio = textDiffContent.getDiffRatio();
+        logger.debug(String.format("#stuffDiffStreaming left=%s right=%s diffRatio=%s",
+                left.getID(), right.getID(), diffRatio));
+        Material diffMaterial = jobber.writeFile(tmp, FileType.HTML,
+                makeDiffMetadata(left, right, diffRatio), Jobber.DuplicationHandling.TERMINATE);
+        MaterialProduct result = new MaterialProduct.Builder(mProduct).build();
+        result.setDiff(diffMaterial);
+        result.setDiffRatio(diffRatio);
+        return result;
+    }
+
+    private static Metadata makeDiffMetadata(Material left, Material right, Double diffRatio) {
+        return Metadata.builder()
+                .put("category", "diff")
+                .put("ratio", DifferUtil.formatDiffRatioAsString(diffRatio))
+                .put("left", new MaterialLocator(left).toString())
+                .put("right", new MaterialLocator(right).toString())
+                .build();
+    }
+
+    /**
+     * @return true if the diff of the pair is to be written by
+     * #writeTextDiffContent(Store, Material, Material, Charset, Writer)
+     * instead of #makeTextDiffContent(Store, Material, Material, Charset).
+     * Returns false unless overridden.
+     */
+    protected boolean isToBeStreamed(Material left, Material right, Charset charset)
+            throws MaterialstoreException {
+        return false;
+    }
+
+    /**
+     * write the diff content into the writer, for the pairs of which
+     * #isToBeStreamed(Material, Material, Charset) returns true.
+     * By default the content made by #makeTextDiffContent(Store, Material, Material, Charset)
+     * is written; a subclass overrides this to write without holding the whole content in memory.
+     * @return the statistics of the diff; the content is not used
+     */
+    protected TextDiffContent writeTextDiffContent(Store store,
+                                                   Material left, Material right,
+                                                   Charset charset, Writer writer)
+            throws MaterialstoreException {
+        TextDiffContent textDiffContent = makeTextDiffContent(store, left, right, charset);
+        try {
+            writer.write(textDiffContent.getContent());
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return textDiffContent;
+    }
+
     public abstract TextDiffContent makeTextDiffContent(Store store,
                                                         Material original, Material revised,
                                                         Charset charset)
             throws MaterialstoreException;
 
+    /**
+     * make the diff of the lines which have already been read out of the Materials,
+     * so that the texts are not read and split again.
+     * By default the Materials are read again by #makeTextDiffContent(Store, Material, Material, Charset).
+     */
+    protected TextDiffContent makeTextDiffContent(Store store, Material original, Material revised,
+                                                  List<String> originalLines, List<String> revisedLines)
+            throws MaterialstoreException {
+        return makeTextDiffContent(store, original, revised, charset);
+    }
+
     public static List<String> readAllLines(String longText) throws MaterialstoreException {
         BufferedReader br = new BufferedReader(new StringReader(longText));
         List<String> lines = new ArrayList<>();
@@ -119,7 +289,7 @@ public abstract class AbstractTextDiffer implements Differ {
         Objects.requireNonNull(material);
         Objects.requireNonNull(charset);
         if (!material.equals(Material.NULL_OBJECT)) {
-            Jobber jobber = new Jobber(store, material.getJobName(), material.getJobTimestamp());
+            Jobber jobber = store.getJobber(material.getJobName(), material.getJobTimestamp());
             byte[] data = jobber.read(material.getIndexEntry());
             return new String(data, charset);
         } else {
@@ -0,0 +1,164 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Collects the differing pixels of an image diff into a grid of cells
+ * (cellSize x cellSize pixels each) and turns them into bounding boxes
+ * of the changed regions.
+ * <p>
+ * Every cell remembers the exact bounds of the differing pixels in it.
+ * The cells adjacent to each other (8-connectivity) are merged into a region;
+ * the bounding box of a region is the union of the bounds of its cells.
+ * <p>
+ * An instance may cover a horizontal slice of the image (rows yStart to yEnd)
+ * so that the tiles processed in parallel can collect into their own grids,
+ * which are merged into the grid of the whole image afterwards.
+ * Not thread-safe.
+ */
+final class ChangeGrid {
+
+    static final int DEFAULT_CELL_SIZE = 32;
+
+    private final int width;
+    private final int cellSize;
+    private final int cellsX;
+    private final int cellRowOffset;
+    private final int cellsY;
+    private final int[] minX;
+    private final int[] maxX;
+    private final int[] minY;
+    private final int[] maxY;
+
+    ChangeGrid(int width, int height, int cellSize) {
+        this(width, 0, height, cellSize);
+    }
+
+    ChangeGrid(int width, int yStart, int yEnd, int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        this.width = width;
+        this.cellSize = cellSize;
+        this.cellsX = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.cellRowOffset = yStart / cellSize;
+        this.cellsY = Math.max(1, (Math.max(yEnd, yStart + 1) - 1) / cellSize - cellRowOffset + 1);
+        int n = cellsX * cellsY;
+        minX = new int[n];
+        maxX = new int[n];
+        minY = new int[n];
+        maxY = new int[n];
+        Arrays.fill(minX, -1);
+    }
+
+    int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * mark the pixel at (x, y) as different
+     */
+    void mark(int x, int y) {
+        int i = (y / cellSize - cellRowOffset) * cellsX + x / cellSize;
+        if (minX[i] < 0) {
+            minX[i] = x;
+            maxX[i] = x;
+            minY[i] = y;
+            maxY[i] = y;
+        } else {
+            if (x < minX[i]) minX[i] = x;
+            if (x > maxX[i]) maxX[i] = x;
+            if (y < minY[i]) minY[i] = y;
+            if (y > maxY[i]) maxY[i] = y;
+        }
+    }
+
+    /**
+     * mark the pixels from x0 to x1 (inclusive) on the row y as different
+     */
+    void markRange(int y, int x0, int x1) {
+        for (int cx = x0 / cellSize; cx <= x1 / cellSize; cx++) {
+            mark(Math.max(x0, cx * cellSize), y);
+            mark(Math.min(x1, cx * cellSize + cellSize - 1), y);
+        }
+    }
+
+    boolean isEmpty() {
+        for (int v : minX) {
+            if (v >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * merge the cells of this grid, which may cover a slice, into the other grid
+     */
+    void mergeInto(ChangeGrid other) {
+        if (other.cellSize != cellSize || other.cellsX != cellsX) {
+            throw new IllegalArgumentException("incompatible ChangeGrid");
+        }
+        for (int i = 0; i < minX.length; i++) {
+            if (minX[i] >= 0) {
+                other.mark(minX[i], minY[i]);
+                other.mark(maxX[i], maxY[i]);
+            }
+        }
+    }
+
+    /**
+     * @param maxRegions the maximum number of regions to return.
+     *                   If there are more regions, the largest ones are returned.
+     * @return the bounding boxes of the changed regions, larger ones first
+     */
+    List<Rectangle> toRegions(int maxRegions) {
+        List<Rectangle> regions = new ArrayList<>();
+        boolean[] visited = new boolean[minX.length];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int start = 0; start < minX.length; start++) {
+            if (minX[start] < 0 || visited[start]) {
+                continue;
+            }
+            int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+            int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+            visited[start] = true;
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                x0 = Math.min(x0, minX[i]);
+                y0 = Math.min(y0, minY[i]);
+                x1 = Math.max(x1, maxX[i]);
+                y1 = Math.max(y1, maxY[i]);
+                int cx = i % cellsX;
+                int cy = i / cellsX;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = cx + dx;
+                        int ny = cy + dy;
+                        if (nx < 0 || nx >= cellsX || ny < 0 || ny >= cellsY) {
+                            continue;
+                        }
+                        int n = ny * cellsX + nx;
+                        if (minX[n] >= 0 && !visited[n]) {
+                            visited[n] = true;
+                            queue.add(n);
+                        }
+                    }
+                }
+            }
+            regions.add(new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1));
+        }
+        regions.sort((r1, r2) -> Long.compare(
+                (long) r2.width * r2.height, (long) r1.width * r1.height));
+        if (regions.size() > maxRegions) {
+            return new ArrayList<>(regions.subList(0, maxRegions));
+        }
+        return regions;
+    }
+}
@@ -0,0 +1,311 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact representation of an image diff: the differing pixels of every row
+ * as a list of runs [x0, x1], instead of a full-resolution marked up image.
+ * <p>
+ * When only a small banner changed in a 1920x30000 screenshot, the mask is a few
+ * hundred bytes while the marked PNG is several MB and costs a second to encode.
+ * The marked up image ("overlay") can be rendered out of the left image and the mask
+ * when somebody needs to look at it; see #renderOverlay(BufferedImage).
+ * <p>
+ * Serialized format (".diffmask"): the 4 bytes "MSCM", a version byte, followed by
+ * a deflated stream of: width, height (varint), the diff color (ARGB, 4 bytes), then
+ * for every row the number of runs followed by (x0 - end of the previous run, x1 - x0)
+ * of each run (varint).
+ */
+public final class ChangeMask {
+
+    private static final byte[] MAGIC = "MSCM".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final int width;
+    private final int height;
+    private final int diffRGB;
+    // the runs of the row y are runs[2 * rowIndex[y]] to runs[2 * rowIndex[y + 1]] exclusive
+    private final int[] rowIndex;
+    // pairs of x0 and x1, both inclusive
+    private final int[] runs;
+
+    private ChangeMask(int width, int height, int diffRGB, int[] rowIndex, int[] runs) {
+        this.width = width;
+        this.height = height;
+        this.diffRGB = diffRGB;
+        this.rowIndex = rowIndex;
+        this.runs = runs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Color getDiffColor() {
+        return new Color(diffRGB, true);
+    }
+
+    public int getNumberOfRuns() {
+        return runs.length / 2;
+    }
+
+    /**
+     * @return the number of the differing pixels
+     */
+    public long getDiffSize() {
+        long size = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            size += runs[i + 1] - runs[i] + 1;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return runs.length == 0;
+    }
+
+    public boolean isChanged(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return false;
+        }
+        int lo = rowIndex[y];
+        int hi = rowIndex[y + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (x < runs[2 * mid]) {
+                hi = mid - 1;
+            } else if (x > runs[2 * mid + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * render the marked up image: a copy of the base image (usually the left one)
+     * where the differing pixels are painted with the diff color.
+     * The result is the same as the diff image which TiledImageDiffer produces.
+     */
+    public BufferedImage renderOverlay(BufferedImage base) {
+        Objects.requireNonNull(base);
+        RasterRowReader reader = new RasterRowReader(base);
+        BufferedImage overlay = new BufferedImage(width, height,
+                reader.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) overlay.getRaster().getDataBuffer()).getData();
+        int[] baseRow = new int[reader.getWidth()];
+        int copyWidth = Math.min(width, reader.getWidth());
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            if (y < reader.getHeight()) {
+                reader.readRow(y, baseRow);
+                System.arraycopy(baseRow, 0, data, offset, copyWidth);
+            }
+            // the pixels out of the base image are always covered by the runs
+            for (int r = rowIndex[y]; r < rowIndex[y + 1]; r++) {
+                Arrays.fill(data, offset + runs[2 * r], offset + runs[2 * r + 1] + 1, diffRGB);
+            }
+        }
+        return overlay;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            writeTo(baos);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * The OutputStream is not closed by this method.
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(MAGIC);
+        os.write(VERSION);
+        DeflaterOutputStream dos = new DeflaterOutputStream(os);
+        DataOutputStream out = new DataOutputStream(dos);
+        writeVarInt(out, width);
+        writeVarInt(out, height);
+        out.writeInt(diffRGB);
+        for (int y = 0; y < height; y++) {
+            writeVarInt(out, rowIndex[y + 1] - rowIndex[y]);
+            int prevEnd = 0;
+            for (int r = rowIndex[y]; r < rowIndex[y + 1]; r++) {
+                writeVarInt(out, runs[2 * r] - prevEnd);
+                writeVarInt(out, runs[2 * r + 1] - runs[2 * r]);
+                prevEnd = runs[2 * r + 1];
+            }
+        }
+        out.flush();
+        dos.finish();
+    }
+
+    public static ChangeMask read(Path file) throws MaterialstoreException {
+        Objects.requireNonNull(file);
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
+            return readFrom(is);
+        } catch (IOException e) {
+            throw new MaterialstoreException("failed to read " + file, e);
+        }
+    }
+
+    public static ChangeMask readFrom(InputStream is) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        new DataInputStream(is).readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a ChangeMask");
+        }
+        int version = is.read();
+        if (version != VERSION) {
+            throw new IOException("unsupported ChangeMask version: " + version);
+        }
+        DataInputStream in = new DataInputStream(new InflaterInputStream(is));
+        int width = readVarInt(in);
+        int height = readVarInt(in);
+        int diffRGB = in.readInt();
+        int[] rowIndex = new int[height + 1];
+        IntArray runs = new IntArray();
+        for (int y = 0; y < height; y++) {
+            int numRuns = readVarInt(in);
+            int prevEnd = 0;
+            for (int r = 0; r < numRuns; r++) {
+                int x0 = prevEnd + readVarInt(in);
+                int x1 = x0 + readVarInt(in);
+                if (x1 >= width) {
+                    throw new IOException(String.format("run [%d,%d] at y=%d is out of width %d", x0, x1, y, width));
+                }
+                runs.add(x0);
+                runs.add(x1);
+                prevEnd = x1;
+            }
+            rowIndex[y + 1] = runs.size() / 2;
+        }
+        return new ChangeMask(width, height, diffRGB, rowIndex, runs.toArray());
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * merge the runs recorded for the slices (in the ascending order of rows) into a ChangeMask
+     */
+    static ChangeMask of(int width, int height, Color diffColor, List<Recorder> recorders) {
+        int[] rowIndex = new int[height + 1];
+        IntArray runs = new IntArray();
+        int y = 0;
+        for (Recorder recorder : recorders) {
+            if (recorder == null) {
+                continue;
+            }
+            for (int i = 0; i < recorder.triples.size(); i += 3) {
+                int runY = recorder.triples.get(i);
+                while (y < runY) {
+                    rowIndex[++y] = runs.size() / 2;
+                }
+                runs.add(recorder.triples.get(i + 1));
+                runs.add(recorder.triples.get(i + 2));
+            }
+        }
+        while (y < height) {
+            rowIndex[++y] = runs.size() / 2;
+        }
+        return new ChangeMask(width, height, diffColor.getRGB(), rowIndex, runs.toArray());
+    }
+
+    /**
+     * records the runs of differing pixels of a slice of rows, in the ascending order
+     * of y and x. Not thread-safe; each tile has its own Recorder.
+     */
+    static final class Recorder {
+
+        private final IntArray triples = new IntArray();
+
+        void addRun(int y, int x0, int x1) {
+            triples.add(y);
+            triples.add(x0);
+            triples.add(x1);
+        }
+    }
+
+    /**
+     * a growable array of int, so that the runs are not boxed
+     */
+    private static final class IntArray {
+
+        private int[] data = new int[64];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = value;
+        }
+
+        int get(int index) {
+            return data[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ChangeMask{width=%d, height=%d, runs=%d, diffSize=%d}",
+                width, height, getNumberOfRuns(), getDiffSize());
+    }
+}
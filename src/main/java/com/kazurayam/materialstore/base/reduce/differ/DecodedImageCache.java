@@ -0,0 +1,190 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.ID;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of decoded images keyed by the ID of the Material, bounded by a memory budget.
+ * <p>
+ * In a chronos run the same screenshot is often compared with several counterparts;
+ * without the cache it is read and decoded by ImageIO for every comparison.
+ * Every entry is weighted by the size of its raster in bytes (a 1920x30000 INT_RGB image
+ * weighs 230MB); the least recently used entries are evicted while the total weight
+ * exceeds the budget. An image heavier than the budget is not cached at all.
+ * The budget is to be given explicitly, as only the caller knows how much of the heap
+ * the other work running alongside needs.
+ * <p>
+ * The cache is meant to live as long as a processing run, e.g. DiffingMPGProcessor#process(),
+ * and be discarded afterwards. The cached images are shared, so they must not be modified.
+ * Thread-safe.
+ */
+public final class DecodedImageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DecodedImageCache.class);
+
+    private final long maxBytes;
+    private final LinkedHashMap<ID, BufferedImage> images;
+    private final Statistics statistics;
+    private long totalBytes = 0;
+
+    public DecodedImageCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.images = new LinkedHashMap<>(16, 0.75f, true);
+        this.statistics = new Statistics();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the image of the Material, decoded only if not cached
+     */
+    public BufferedImage get(Material material) throws MaterialstoreException {
+        Objects.requireNonNull(material);
+        return get(material.getID(), material.toPath());
+    }
+
+    public BufferedImage get(ID id, Path imageFile) throws MaterialstoreException {
+        Objects.requireNonNull(id);
+        Objects.requireNonNull(imageFile);
+        synchronized (this) {
+            BufferedImage cached = images.get(id);
+            if (cached != null) {
+                statistics.hits += 1;
+                return cached;
+            }
+            statistics.misses += 1;
+        }
+        // decode out of the lock so that other threads are not blocked
+        BufferedImage image = decode(imageFile);
+        put(id, image);
+        return image;
+    }
+
+    private synchronized void put(ID id, BufferedImage image) {
+        long weight = weigh(image);
+        if (weight > maxBytes) {
+            logger.debug(String.format("#put %s weighs %d bytes, more than the budget %d; not cached",
+                    id, weight, maxBytes));
+            return;
+        }
+        BufferedImage previous = images.put(id, image);
+        if (previous != null) {
+            // decoded concurrently by another thread
+            totalBytes -= weigh(previous);
+        }
+        totalBytes += weight;
+        Iterator<Map.Entry<ID, BufferedImage>> iter = images.entrySet().iterator();
+        while (totalBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<ID, BufferedImage> eldest = iter.next();
+            if (eldest.getKey().equals(id)) {
+                continue;
+            }
+            totalBytes -= weigh(eldest.getValue());
+            iter.remove();
+            statistics.evictions += 1;
+        }
+    }
+
+    private static BufferedImage decode(Path imageFile) throws MaterialstoreException {
+        if (!Files.exists(imageFile)) {
+            throw new MaterialstoreException(imageFile + " is not found");
+        }
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(imageFile))) {
+            BufferedImage image = ImageIO.read(is);
+            if (image == null) {
+                throw new MaterialstoreException("unable to decode " + imageFile);
+            }
+            return image;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * @return the size of the raster data in bytes
+     */
+    static long weigh(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() *
+                DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized Statistics getStatistics() {
+        return statistics.copy();
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        totalBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DecodedImageCache{size=%d, totalBytes=%d, maxBytes=%d, %s}",
+                images.size(), totalBytes, maxBytes, statistics);
+    }
+
+    /**
+     * hit/miss/eviction counters of a DecodedImageCache
+     */
+    public static final class Statistics {
+
+        private long hits = 0;
+        private long misses = 0;
+        private long evictions = 0;
+
+        public long getHits() { return hits; }
+
+        public long getMisses() { return misses; }
+
+        public long getEvictions() { return evictions; }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return (total == 0) ? 0.0d : (double) hits / total;
+        }
+
+        private Statistics copy() {
+            Statistics s = new Statistics();
+            s.hits = this.hits;
+            s.misses = this.misses;
+            s.evictions = this.evictions;
+            return s;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, evictions=%d, hitRate=%.2f",
+                    hits, misses, evictions, getHitRate());
+        }
+    }
+}
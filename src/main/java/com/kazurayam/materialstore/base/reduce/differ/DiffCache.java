@@ -0,0 +1,468 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.FileTypeUtil;
+import com.kazurayam.materialstore.core.ID;
+import com.kazurayam.materialstore.core.IFileType;
+import com.kazurayam.materialstore.core.IndexEntry;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialIO;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A content-addressed cache of diff results.
+ * <p>
+ * A diff is a pure function of the left and right object contents,
+ * the Differ implementation, the diff color and the Differ options.
+ * The left and right contents are identified by their SHA1 hash (ID),
+ * so the cache key is the tuple (leftID, rightID, differ, diffColor, options).
+ * The cached value points to a diff object already present in the store
+ * together with its diffRatio and the changed regions, if any.
+ * <p>
+ * The cache is persisted as a TSV file named ".diffcache" directly under
+ * the store root. Entries are evicted in LRU order when the number of entries
+ * exceeds maxEntries. On saving, the entries which another DiffCache over the same store
+ * has saved since this one was loaded are merged, so that concurrent processes do not
+ * lose their updates. An entry of which diff object file is no longer
+ * found (e.g. the JobTimestamp was deleted by StoreCleaner) is evicted when looked up.
+ */
+public final class DiffCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiffCache.class);
+
+    public static final String FILE_NAME = ".diffcache";
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final Store store;
+    private final Path cacheFile;
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Statistics statistics;
+    private boolean dirty = false;
+    // not to bring back from the file on saving
+    private final Set<Key> removed = new HashSet<>();
+    private boolean cleared = false;
+
+    private DiffCache(Store store, int maxEntries) {
+        this.store = store;
+        this.cacheFile = store.getRoot().resolve(FILE_NAME);
+        this.maxEntries = maxEntries;
+        this.statistics = new Statistics();
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > DiffCache.this.maxEntries) {
+                    statistics.evictions += 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static DiffCache load(Store store) throws MaterialstoreException {
+        return load(store, DEFAULT_MAX_ENTRIES);
+    }
+
+    public static DiffCache load(Store store, int maxEntries) throws MaterialstoreException {
+        Objects.requireNonNull(store);
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        DiffCache cache = new DiffCache(store, maxEntries);
+        cache.deserialize();
+        return cache;
+    }
+
+    public Path getCacheFile() {
+        return cacheFile;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Statistics getStatistics() {
+        return statistics.copy();
+    }
+
+    /**
+     * @return the cached diff Material and its diffRatio, or null if not cached
+     */
+    public synchronized Entry get(Key key) {
+        Objects.requireNonNull(key);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            statistics.misses += 1;
+            return null;
+        }
+        if (!Files.exists(entry.toPath(store))) {
+            // the diff object has been deleted since it was cached
+            entries.remove(key);
+            removed.add(key);
+            dirty = true;
+            statistics.misses += 1;
+            statistics.evictions += 1;
+            logger.debug(String.format("#get evicted a stale entry %s", entry));
+            return null;
+        }
+        statistics.hits += 1;
+        return entry;
+    }
+
+    public synchronized void put(Key key, Material diffMaterial, Double diffRatio) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(diffMaterial);
+        Objects.requireNonNull(diffRatio);
+        String regions = diffMaterial.getMetadata().containsKey("regions")
+                ? diffMaterial.getMetadata().get("regions") : "";
+        entries.put(key, new Entry(diffMaterial.getJobName(), diffMaterial.getJobTimestamp(),
+                diffMaterial.getID(), diffMaterial.getFileType(), diffRatio, regions));
+        dirty = true;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        removed.clear();
+        cleared = true;
+        dirty = true;
+    }
+
+    /**
+     * write the entries into the ".diffcache" file if anything was changed since loaded
+     */
+    public synchronized void save() throws MaterialstoreException {
+        if (!dirty) {
+            return;
+        }
+        // the entries saved by the others since loaded come as less recently used than ours
+        LinkedHashMap<Key, Entry> merged = new LinkedHashMap<>();
+        if (!cleared) {
+            for (Map.Entry<Key, Entry> e : readCacheFile().entrySet()) {
+                if (!entries.containsKey(e.getKey()) && !removed.contains(e.getKey())) {
+                    merged.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        merged.putAll(entries);
+        Iterator<Key> eldest = merged.keySet().iterator();
+        while (merged.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+        // a temporary file of its own, so that concurrent savers do not write into the same file
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(cacheFile.getParent(), FILE_NAME, ".tmp");
+            try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                // from the least recently used to the most recently used
+                for (Map.Entry<Key, Entry> e : merged.entrySet()) {
+                    bw.write(e.getKey().toLine());
+                    bw.write("\t");
+                    bw.write(e.getValue().toLine());
+                    bw.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    logger.warn(String.format("#save failed to delete %s", tmp), e);
+                }
+            }
+        }
+        dirty = false;
+        cleared = false;
+        removed.clear();
+    }
+
+    private void deserialize() throws MaterialstoreException {
+        // in the order from the least recently used
+        entries.putAll(readCacheFile());
+        if (statistics.evictions > 0) {
+            // maxEntries is smaller than before; the file should be rewritten
+            dirty = true;
+        }
+        statistics.evictions = 0;
+    }
+
+    private LinkedHashMap<Key, Entry> readCacheFile() throws MaterialstoreException {
+        LinkedHashMap<Key, Entry> read = new LinkedHashMap<>();
+        if (!Files.exists(cacheFile)) {
+            return read;
+        }
+        try (BufferedReader br = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] items = line.split("\t", -1);
+                if (items.length != Key.NUM_FIELDS + Entry.NUM_FIELDS &&
+                        items.length != Key.NUM_FIELDS + Entry.NUM_FIELDS + 1) {
+                    logger.warn(String.format("#readCacheFile ignored an invalid line: %s", line));
+                    continue;
+                }
+                try {
+                    Key key = Key.parse(items, 0);
+                    Entry entry = Entry.parse(items, Key.NUM_FIELDS);
+                    read.put(key, entry);
+                } catch (IllegalArgumentException e) {
+                    logger.warn(String.format("#readCacheFile ignored an invalid line: %s", line));
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return read;
+    }
+
+    /**
+     * remove the entries of which diff object is no longer found in the store
+     * @return number of entries removed
+     */
+    public synchronized int evictStaleEntries() {
+        int count = 0;
+        Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (!Files.exists(e.getValue().toPath(store))) {
+                iter.remove();
+                removed.add(e.getKey());
+                count += 1;
+            }
+        }
+        if (count > 0) {
+            statistics.evictions += count;
+            dirty = true;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DiffCache{file=%s, size=%d, maxEntries=%d, %s}",
+                cacheFile, entries.size(), maxEntries, statistics);
+    }
+
+    /**
+     * (leftID, rightID, differ, diffColor, options)
+     */
+    public static final class Key {
+
+        static final int NUM_FIELDS = 5;
+
+        private final ID leftID;
+        private final ID rightID;
+        private final String differ;
+        private final String diffColor;
+        private final String options;
+
+        public Key(ID leftID, ID rightID, String differ, String diffColor, String options) {
+            Objects.requireNonNull(leftID);
+            Objects.requireNonNull(rightID);
+            Objects.requireNonNull(differ);
+            Objects.requireNonNull(diffColor);
+            Objects.requireNonNull(options);
+            if (options.contains("\t") || options.contains("\n")) {
+                throw new IllegalArgumentException("options must not contain TAB or NEWLINE: " + options);
+            }
+            this.leftID = leftID;
+            this.rightID = rightID;
+            this.differ = differ;
+            this.diffColor = diffColor;
+            this.options = options;
+        }
+
+        public ID getLeftID() { return leftID; }
+
+        public ID getRightID() { return rightID; }
+
+        public String getDiffer() { return differ; }
+
+        public String getDiffColor() { return diffColor; }
+
+        public String getOptions() { return options; }
+
+        String toLine() {
+            return leftID + "\t" + rightID + "\t" + differ + "\t" + diffColor + "\t" + options;
+        }
+
+        static Key parse(String[] items, int offset) {
+            return new Key(new ID(items[offset]), new ID(items[offset + 1]),
+                    items[offset + 2], items[offset + 3], items[offset + 4]);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return leftID.equals(other.leftID) &&
+                    rightID.equals(other.rightID) &&
+                    differ.equals(other.differ) &&
+                    diffColor.equals(other.diffColor) &&
+                    options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(leftID, rightID, differ, diffColor, options);
+        }
+
+        @Override
+        public String toString() {
+            return toLine().replace("\t", ",");
+        }
+    }
+
+    /**
+     * points to a diff object in the store, with the diffRatio and the regions
+     */
+    public static final class Entry {
+
+        static final int NUM_FIELDS = 5;
+
+        private final JobName jobName;
+        private final JobTimestamp jobTimestamp;
+        private final ID id;
+        private final IFileType fileType;
+        private final Double diffRatio;
+        private final String regions;
+
+        Entry(JobName jobName, JobTimestamp jobTimestamp, ID id, IFileType fileType, Double diffRatio,
+              String regions) {
+            this.jobName = jobName;
+            this.jobTimestamp = jobTimestamp;
+            this.id = id;
+            this.fileType = fileType;
+            this.diffRatio = diffRatio;
+            this.regions = regions;
+        }
+
+        public JobName getJobName() { return jobName; }
+
+        public JobTimestamp getJobTimestamp() { return jobTimestamp; }
+
+        public ID getID() { return id; }
+
+        public IFileType getFileType() { return fileType; }
+
+        public Double getDiffRatio() { return diffRatio; }
+
+        /**
+         * @return the "regions" metadata of the diff, or "" if none
+         */
+        public String getRegions() { return regions; }
+
+        Path toPath(Store store) {
+            return store.getRoot()
+                    .resolve(jobName.toString())
+                    .resolve(jobTimestamp.toString())
+                    .resolve("objects")
+                    .resolve(new MaterialIO(id, fileType).getFileName());
+        }
+
+        /**
+         * @return a Material which points to the cached diff object.
+         * The Metadata is left empty because it will be replaced when linked.
+         */
+        public Material toMaterial(Store store) {
+            IndexEntry indexEntry =
+                    new IndexEntry(new MaterialIO(id, fileType), Metadata.NULL_OBJECT);
+            return new Material(store, jobName, jobTimestamp, indexEntry);
+        }
+
+        String toLine() {
+            return jobName + "\t" + jobTimestamp + "\t" + id + "\t" +
+                    fileType.getExtension() + "\t" + diffRatio +
+                    (regions.isEmpty() ? "" : "\t" + regions);
+        }
+
+        static Entry parse(String[] items, int offset) {
+            IFileType fileType = FileTypeUtil.getByExtension(items[offset + 3]);
+            Double diffRatio;
+            try {
+                diffRatio = Double.valueOf(items[offset + 4]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(e);
+            }
+            // the regions field is optional
+            String regions = (items.length > offset + NUM_FIELDS) ? items[offset + NUM_FIELDS] : "";
+            return new Entry(new JobName(items[offset]), new JobTimestamp(items[offset + 1]),
+                    new ID(items[offset + 2]), fileType, diffRatio, regions);
+        }
+
+        @Override
+        public String toString() {
+            return toLine().replace("\t", ",");
+        }
+    }
+
+    /**
+     * hit/miss/eviction counters of a DiffCache
+     */
+    public static final class Statistics {
+
+        private long hits = 0;
+        private long misses = 0;
+        private long evictions = 0;
+
+        public long getHits() { return hits; }
+
+        public long getMisses() { return misses; }
+
+        public long getEvictions() { return evictions; }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return (total == 0) ? 0.0d : (double) hits / total;
+        }
+
+        private Statistics copy() {
+            Statistics s = new Statistics();
+            s.hits = this.hits;
+            s.misses = this.misses;
+            s.evictions = this.evictions;
+            return s;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, evictions=%d, hitRate=%.2f",
+                    hits, misses, evictions, getHitRate());
+        }
+    }
+
+}
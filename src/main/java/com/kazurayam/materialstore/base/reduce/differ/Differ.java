@@ -5,6 +5,7 @@ import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.Jobber;
 import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialLocator;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.QueryOnMetadata;
@@ -49,7 +50,7 @@ public interface Differ {
         Metadata metadata =
                 Metadata.builder(Collections.singletonMap("category", "NoMaterialFound")).build();
 
-        Jobber jobber = new Jobber(store, mProduct.getJobName(), mProduct.getReducedTimestamp());
+        Jobber jobber = store.getJobber(mProduct.getJobName(), mProduct.getReducedTimestamp());
         MaterialList noMaterialFoundList =
                 jobber.selectMaterials(fileType,
                         QueryOnMetadata.builder(metadata).build());
@@ -76,6 +77,96 @@ public interface Differ {
 
     MaterialProduct stuffDiff(MaterialProduct mProduct) throws MaterialstoreException;
 
+    /*
+     * returns true if both of the left and the right Materials are present and
+     * have the same ID; that is, their contents are byte-identical.
+     */
+    default boolean isIdentical(MaterialProduct mProduct) {
+        Material left = mProduct.getLeft();
+        Material right = mProduct.getRight();
+        return !left.equals(Material.NULL_OBJECT) && !left.isEmpty() &&
+                !right.equals(Material.NULL_OBJECT) && !right.isEmpty() &&
+                left.getID().equals(right.getID());
+    }
+
+    /*
+     * A fast path for a pair of byte-identical Materials.
+     * No need to read, decode and compare the contents; the diffRatio is 0.0.
+     * The diff Material points to a precomputed "Left and right are identical"
+     * artifact, which is written into the objects directory only once
+     * and shared by all the identical MaterialProducts in the JobTimestamp.
+     */
+    default MaterialProduct stuffIdenticalDiff(Store store, MaterialProduct mProduct,
+                                               FileType fileType, byte[] bytes)
+            throws MaterialstoreException {
+        Material left = mProduct.getLeft();
+        Material right = mProduct.getRight();
+        Metadata diffMetadata = Metadata.builder()
+                .put("category", "diff")
+                .put("ratio", DifferUtil.formatDiffRatioAsString(0.0d))
+                .put("left", new MaterialLocator(left).toString())
+                .put("right", new MaterialLocator(right).toString())
+                .build();
+        Jobber jobber = store.getJobber(mProduct.getJobName(), mProduct.getReducedTimestamp());
+        Material diffMaterial =
+                jobber.write(bytes, fileType, diffMetadata, Jobber.DuplicationHandling.CONTINUE);
+        logger.debug(String.format("#stuffIdenticalDiff left and right are identical; id=%s",
+                right.getID()));
+        MaterialProduct result = new MaterialProduct.Builder(mProduct).build();
+        result.setDiff(diffMaterial);
+        result.setDiffRatio(0.0d);
+        return result;
+    }
+
+    /*
+     * The "verdict first" mode; see VerdictPolicy.
+     * A Differ which is able to stop as soon as the diff ratio provably exceeds the threshold,
+     * or when the time budget runs out, overrides this and stuffs a partial diff.
+     * By default the full diff is made.
+     */
+    default MaterialProduct stuffVerdict(MaterialProduct mProduct, VerdictPolicy policy)
+            throws MaterialstoreException {
+        Objects.requireNonNull(policy);
+        return stuffDiff(mProduct);
+    }
+
+    /*
+     * stuff a placeholder diff Material with the "partial" metadata in place of the full diff
+     * which was given up in the verdict first mode.
+     * The diffRatio is the bound of the ratio; see VerdictPolicy.
+     */
+    default MaterialProduct stuffPartialDiff(Store store, MaterialProduct mProduct,
+                                             Material left, Material right,
+                                             FileType fileType, byte[] bytes,
+                                             Double diffRatio, VerdictPolicy.Partial partial)
+            throws MaterialstoreException {
+        Metadata diffMetadata = Metadata.builder()
+                .put("category", "diff")
+                .put("ratio", DifferUtil.formatDiffRatioAsString(diffRatio))
+                .put("left", new MaterialLocator(left).toString())
+                .put("right", new MaterialLocator(right).toString())
+                .put(VerdictPolicy.METADATA_KEY_PARTIAL, partial.name())
+                .build();
+        Jobber jobber = store.getJobber(mProduct.getJobName(), mProduct.getReducedTimestamp());
+        Material diffMaterial =
+                jobber.write(bytes, fileType, diffMetadata, Jobber.DuplicationHandling.CONTINUE);
+        logger.debug(String.format("#stuffPartialDiff %s diffRatio=%s left=%s right=%s",
+                partial, diffRatio, left.getID(), right.getID()));
+        MaterialProduct result = new MaterialProduct.Builder(mProduct).build();
+        result.setDiff(diffMaterial);
+        result.setDiffRatio(diffRatio);
+        return result;
+    }
+
+    /*
+     * returns a String that identifies the settings of this Differ which affect
+     * the diff output (e.g, charset). Used as a part of the key of DiffCache.
+     * Must not contain TAB or NEWLINE characters.
+     */
+    default String getDiffOptions() {
+        return "";
+    }
+
     default byte[] toByteArray(BufferedImage input, FileType fileType)
             throws MaterialstoreException {
         try {
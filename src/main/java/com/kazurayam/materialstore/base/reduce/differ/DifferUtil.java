@@ -1,9 +1,18 @@
 package com.kazurayam.materialstore.base.reduce.differ;
 
+import java.awt.Rectangle;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public final class DifferUtil {
+
+    private static final Pattern REGION_PATTERN =
+            Pattern.compile("\\[\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*(\\d+)\\s*\\]");
+
     private DifferUtil() {
     }
 
@@ -36,4 +45,39 @@ public final class DifferUtil {
         return bdUP.doubleValue();
     }
 
+    /*
+     * [Rectangle(10,20,30,40), Rectangle(0,0,5,5)] -> "[[10,20,30,40],[0,0,5,5]]"
+     *
+     * The value of the "regions" metadata of a diff Material; a JSON array of [x,y,width,height]
+     */
+    public static String formatRegions(List<Rectangle> regions) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < regions.size(); i++) {
+            Rectangle r = regions.get(i);
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("[").append(r.x).append(",").append(r.y).append(",")
+                    .append(r.width).append(",").append(r.height).append("]");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    /*
+     * "[[10,20,30,40],[0,0,5,5]]" -> [Rectangle(10,20,30,40), Rectangle(0,0,5,5)]
+     */
+    public static List<Rectangle> parseRegions(String regions) {
+        List<Rectangle> list = new ArrayList<>();
+        if (regions == null) {
+            return list;
+        }
+        Matcher m = REGION_PATTERN.matcher(regions);
+        while (m.find()) {
+            list.add(new Rectangle(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+                    Integer.parseInt(m.group(3)), Integer.parseInt(m.group(4))));
+        }
+        return list;
+    }
+
 }
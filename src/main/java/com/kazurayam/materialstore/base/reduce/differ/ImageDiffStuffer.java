@@ -3,6 +3,8 @@ package com.kazurayam.materialstore.base.reduce.differ;
 import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.FileTypeDiffability;
+import com.kazurayam.materialstore.core.ID;
+import com.kazurayam.materialstore.core.Jobber;
 import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialLocator;
 import com.kazurayam.materialstore.core.MaterialstoreException;
@@ -16,52 +18,285 @@ import ru.yandex.qatools.ashot.comparison.ImageDiffer;
 import ru.yandex.qatools.ashot.comparison.ImageMarkupPolicy;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 public final class ImageDiffStuffer implements Differ {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageDiffStuffer.class);
 
+    /**
+     * TILED: the in-house TiledImageDiffer, which works on the raster data in parallel
+     * ASHOT: AShot's ImageDiffer
+     */
+    public enum Engine { TILED, ASHOT }
+
+    /**
+     * MARKED_PNG: a full-resolution copy of the left image with the differing pixels painted
+     * CHANGE_MASK: a ChangeMask (".diffmask"), the runs of the differing pixels;
+     *              the marked up image is rendered out of it on demand by #renderOverlay.
+     *              Applicable to the TILED engine only.
+     */
+    public enum Artifact { MARKED_PNG, CHANGE_MASK }
+
+    /**
+     * 1920 x 32768 pixels; a decoded image of this size occupies 240MB of heap.
+     * The full-page screenshots up to this size (1920 x 30000, say) are diffed by TiledImageDiffer
+     * in parallel; the larger ones by StreamingImageDiffer in a single thread, with the bounded memory.
+     */
+    public static final long DEFAULT_STREAMING_THRESHOLD = 1920L * 32768L;
+
+    /**
+     * the number of TileSignatures kept in memory
+     */
+    public static final int SIGNATURE_CACHE_SIZE = 128;
+
     private final Store store;
 
+    private Engine engine = Engine.TILED;
+
+    private int channelTolerance = 0;
+
+    private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
+    private int bandHeight = StreamingImageDiffer.DEFAULT_BAND_HEIGHT;
+
+    private boolean prefilter = false;
+
+    private Artifact artifact = Artifact.MARKED_PNG;
+
+    private DecodedImageCache decodedImageCache = null;
+
+    /*
+     * TileSignatures keyed by the ID of the image Material.
+     * In a chronos series an image is compared with the previous one and the next one,
+     * so its signature is read or computed only once.
+     */
+    private final Map<ID, TileSignature> signatureCache =
+            new LinkedHashMap<ID, TileSignature>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ID, TileSignature> eldest) {
+                    return size() > SIGNATURE_CACHE_SIZE;
+                }
+            };
+
     public ImageDiffStuffer(Store store) {
         Objects.requireNonNull(store);
         this.store = store;
     }
 
+    public void setEngine(Engine engine) {
+        Objects.requireNonNull(engine);
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * applicable to the TILED engine only
+     * @param channelTolerance 0..255
+     */
+    public void setChannelTolerance(int channelTolerance) {
+        if (channelTolerance < 0 || 255 < channelTolerance) {
+            throw new IllegalArgumentException("channelTolerance must be in 0..255: " + channelTolerance);
+        }
+        this.channelTolerance = channelTolerance;
+    }
+
+    /**
+     * The PNG images larger than this number of pixels are diffed in the streaming mode
+     * by StreamingImageDiffer, so that the memory used is bounded.
+     * Long.MAX_VALUE disables the streaming mode.
+     */
+    public void setStreamingThreshold(long pixels) {
+        if (pixels < 0) {
+            throw new IllegalArgumentException("pixels must not be negative: " + pixels);
+        }
+        this.streamingThreshold = pixels;
+    }
+
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * the number of rows read at once in the streaming mode
+     */
+    public void setBandHeight(int bandHeight) {
+        if (bandHeight <= 0) {
+            throw new IllegalArgumentException("bandHeight must be positive: " + bandHeight);
+        }
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * applicable to the TILED engine only.
+     * If true, a TileSignature of each image is computed once and persisted next to the object;
+     * the tiles of which hash is the same on both sides are not compared pixel by pixel.
+     * Worth enabling when the same images are compared repeatedly, e.g. in chronos mode
+     * or by the reruns. False by default.
+     */
+    public void setPrefilter(boolean prefilter) {
+        this.prefilter = prefilter;
+    }
+
+    public boolean isPrefilter() {
+        return prefilter;
+    }
+
+    public void setArtifact(Artifact artifact) {
+        Objects.requireNonNull(artifact);
+        this.artifact = artifact;
+    }
+
+    public Artifact getArtifact() {
+        return artifact;
+    }
+
+    /**
+     * @param decodedImageCache shared by the Differs of a processing run; null to decode every time
+     */
+    public void setDecodedImageCache(DecodedImageCache decodedImageCache) {
+        this.decodedImageCache = decodedImageCache;
+    }
+
+    public DecodedImageCache getDecodedImageCache() {
+        return decodedImageCache;
+    }
+
+    private BufferedImage readImage(Material material) throws MaterialstoreException {
+        DecodedImageCache cache = this.decodedImageCache;
+        if (cache != null) {
+            return cache.get(material);
+        }
+        return readImage(material.toPath());
+    }
+
+    private boolean isToProduceChangeMask() {
+        return engine == Engine.TILED && artifact == Artifact.CHANGE_MASK;
+    }
+
+    @Override
+    public String getDiffOptions() {
+        if (engine == Engine.TILED) {
+            // the settings which may change the diff are all in the key of DiffCache
+            return "engine=" + engine + ",channelTolerance=" + channelTolerance +
+                    ",prefilter=" + prefilter + ",streamingThreshold=" + streamingThreshold +
+                    (isToProduceChangeMask() ? ",artifact=" + artifact : "");
+        } else {
+            return "engine=" + engine;
+        }
+    }
+
     @Override
     public MaterialProduct stuffDiff(MaterialProduct mProduct) throws MaterialstoreException {
+        return stuffDiff(mProduct, null);
+    }
+
+    /**
+     * The TILED engine stops comparing the pixels as soon as the diff ratio provably exceeds
+     * the threshold, or when the time budget runs out; the diff is then a small placeholder PNG.
+     * The ASHOT engine always makes the full diff.
+     */
+    @Override
+    public MaterialProduct stuffVerdict(MaterialProduct mProduct, VerdictPolicy policy)
+            throws MaterialstoreException {
+        Objects.requireNonNull(policy);
+        return stuffDiff(mProduct, policy.start());
+    }
+
+    private MaterialProduct stuffDiff(MaterialProduct mProduct, VerdictPolicy.Monitor monitor)
+            throws MaterialstoreException {
         Objects.requireNonNull(mProduct);
         Objects.requireNonNull(mProduct.getLeft());
         Objects.requireNonNull(mProduct.getRight());
+        if (isIdentical(mProduct)) {
+            return stuffIdenticalDiff(store, mProduct, FileType.PNG, Material.loadIdenticalPng());
+        }
         Material left = mProduct.getLeft();
         Material right = mProduct.getRight();
         Material diffMaterial = null;
         Double diffRatio = 0.0d;
         if (left.getDiffability().equals(FileTypeDiffability.AS_IMAGE) &&
+                right.getDiffability().equals(FileTypeDiffability.AS_IMAGE) &&
+                isToBeStreamed(left, right)) {
+            // Both are gigantic PNG images; diff them band by band
+            return stuffDiffStreaming(mProduct, monitor);
+        } else if (left.getDiffability().equals(FileTypeDiffability.AS_IMAGE) &&
                 right.getDiffability().equals(FileTypeDiffability.AS_IMAGE)) {
             // Both of the left and right Materials are diff-able as image
-            BufferedImage leftImage = readImage(left.toPath());
-            BufferedImage rightImage = readImage(right.toPath());
-            // make a diff image using AShot
-            DiffMarkupPolicy dmp = new ImageMarkupPolicy()
-                            .withDiffColor(mProduct.getWithDiffColor().getColor());
-            ImageDiff imageDiff = new ImageDiffer()
-                    .withDiffMarkupPolicy(dmp)
-                    .makeDiff(leftImage, rightImage);
-            diffRatio = calculateDiffRatioPercent(imageDiff);
+            BufferedImage leftImage = readImage(left);
+            BufferedImage rightImage = readImage(right);
+            BufferedImage diffImage;
+            ChangeMask changeMask = null;
+            String regions = null;
+            if (engine == Engine.TILED) {
+                TiledImageDiffer differ = TiledImageDiffer.builder()
+                        .diffColor(mProduct.getWithDiffColor().getColor())
+                        .channelTolerance(channelTolerance)
+                        .produceDiffImage(!isToProduceChangeMask())
+                        .produceChangeMask(isToProduceChangeMask())
+                        .build();
+                TiledImageDiff tiledImageDiff;
+                if (prefilter) {
+                    tiledImageDiff = differ.makeDiff(leftImage, rightImage,
+                            getSignature(left, leftImage, differ.getTileHeight()),
+                            getSignature(right, rightImage, differ.getTileHeight()),
+                            monitor);
+                } else {
+                    tiledImageDiff = differ.makeDiff(leftImage, rightImage, null, null, monitor);
+                }
+                if (monitor != null && monitor.isAborted()) {
+                    return stuffPartialDiff(mProduct, monitor);
+                }
+                logger.debug(String.format("#stuffDiff %s", tiledImageDiff));
+                diffRatio = tiledImageDiff.getDiffRatioPercent();
+                diffImage = tiledImageDiff.getDiffImage();
+                changeMask = tiledImageDiff.getChangeMask();
+                if (tiledImageDiff.hasDiff()) {
+                    regions = DifferUtil.formatRegions(tiledImageDiff.getChangedRegions());
+                }
+            } else {
+                // make a diff image using AShot
+                DiffMarkupPolicy dmp = new ImageMarkupPolicy()
+                        .withDiffColor(mProduct.getWithDiffColor().getColor());
+                ImageDiff imageDiff = new ImageDiffer()
+                        .withDiffMarkupPolicy(dmp)
+                        .makeDiff(leftImage, rightImage);
+                diffRatio = calculateDiffRatioPercent(imageDiff);
+                diffImage = imageDiff.getDiffImage();
+            }
             // write the diff image into the store
-            Metadata diffMetadata = Metadata.builder()
+            Metadata.Builder mb = Metadata.builder()
                     .put("category", "diff")
                     .put("ratio", DifferUtil.formatDiffRatioAsString(diffRatio))
                     .put("left", new MaterialLocator(left).toString())
-                    .put("right", new MaterialLocator(right).toString())
-                    .build();
-            diffMaterial =
-                    store.write(mProduct.getJobName(), mProduct.getReducedTimestamp(),
-                            right.getFileType(), diffMetadata,
-                            imageDiff.getDiffImage());
+                    .put("right", new MaterialLocator(right).toString());
+            if (regions != null) {
+                mb.put("regions", regions);
+            }
+            Metadata diffMetadata = mb.build();
+            if (changeMask != null) {
+                diffMaterial =
+                        store.write(mProduct.getJobName(), mProduct.getReducedTimestamp(),
+                                FileType.DIFFMASK, diffMetadata,
+                                changeMask.toByteArray());
+            } else {
+                diffMaterial =
+                        store.write(mProduct.getJobName(), mProduct.getReducedTimestamp(),
+                                right.getFileType(), diffMetadata,
+                                diffImage);
+            }
         } else {
             // Either of the left or the right Material is non diff-able as image
             diffRatio = 100.0d;
@@ -83,6 +318,152 @@ public final class ImageDiffStuffer implements Differ {
         return result;
     }
 
+    /*
+     * The streaming mode applies to the TILED engine when both of the left and right
+     * are PNG and the larger one of them has more pixels than the streamingThreshold.
+     * The dimensions are read out of the PNG headers without decoding the pixels.
+     */
+    private boolean isToBeStreamed(Material left, Material right) throws MaterialstoreException {
+        if (engine != Engine.TILED ||
+                !left.getFileType().equals(FileType.PNG) ||
+                !right.getFileType().equals(FileType.PNG)) {
+            return false;
+        }
+        Dimension leftDim = StreamingImageDiffer.readDimension(left.toPath());
+        Dimension rightDim = StreamingImageDiffer.readDimension(right.toPath());
+        long pixels = (long) Math.max(leftDim.width, rightDim.width) *
+                Math.max(leftDim.height, rightDim.height);
+        return pixels > streamingThreshold;
+    }
+
+    private MaterialProduct stuffPartialDiff(MaterialProduct mProduct, VerdictPolicy.Monitor monitor)
+            throws MaterialstoreException {
+        return stuffPartialDiff(store, mProduct, mProduct.getLeft(), mProduct.getRight(), FileType.PNG,
+                PartialDiffArtifact.png(this, mProduct.getWithDiffColor().getColor()),
+                monitor.getBoundOfDiffRatio(), monitor.getPartial());
+    }
+
+    private MaterialProduct stuffDiffStreaming(MaterialProduct mProduct, VerdictPolicy.Monitor monitor)
+            throws MaterialstoreException {
+        Material left = mProduct.getLeft();
+        Material right = mProduct.getRight();
+        Jobber jobber = store.getJobber(mProduct.getJobName(), mProduct.getReducedTimestamp());
+        if (isToProduceChangeMask()) {
+            // no PNG to encode
+            TiledImageDiff streamedDiff = StreamingImageDiffer.builder()
+                    .bandHeight(bandHeight)
+                    .diffColor(mProduct.getWithDiffColor().getColor())
+                    .channelTolerance(channelTolerance)
+                    .produceChangeMask(true)
+                    .build()
+                    .makeDiff(left.toPath(), right.toPath(), null, monitor);
+            if (monitor != null && monitor.isAborted()) {
+                return stuffPartialDiff(mProduct, monitor);
+            }
+            logger.debug(String.format("#stuffDiffStreaming %s", streamedDiff));
+            Material diffMaterial = store.write(mProduct.getJobName(), mProduct.getReducedTimestamp(),
+                    FileType.DIFFMASK, makeDiffMetadata(left, right, streamedDiff),
+                    streamedDiff.getChangeMask().toByteArray());
+            MaterialProduct result = new MaterialProduct.Builder(mProduct).build();
+            result.setDiff(diffMaterial);
+            result.setDiffRatio(streamedDiff.getDiffRatioPercent());
+            return result;
+        }
+        Path tmp;
+        TiledImageDiff streamedDiff;
+        try {
+            tmp = Files.createTempFile(jobber.getObjectsDir(), "diff", ".tmp");
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                streamedDiff = StreamingImageDiffer.builder()
+                        .bandHeight(bandHeight)
+                        .diffColor(mProduct.getWithDiffColor().getColor())
+                        .channelTolerance(channelTolerance)
+                        .build()
+                        .makeDiff(left.toPath(), right.toPath(), os, monitor);
+            } catch (MaterialstoreException | IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            if (monitor != null && monitor.isAborted()) {
+                // the PNG is unfinished
+                Files.deleteIfExists(tmp);
+                return stuffPartialDiff(mProduct, monitor);
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        logger.debug(String.format("#stuffDiffStreaming %s", streamedDiff));
+        Material diffMaterial = jobber.writeFile(tmp, FileType.PNG,
+                makeDiffMetadata(left, right, streamedDiff), Jobber.DuplicationHandling.TERMINATE);
+        MaterialProduct result = new MaterialProduct.Builder(mProduct).build();
+        result.setDiff(diffMaterial);
+        result.setDiffRatio(streamedDiff.getDiffRatioPercent());
+        return result;
+    }
+
+    private static Metadata makeDiffMetadata(Material left, Material right, TiledImageDiff diff) {
+        Metadata.Builder mb = Metadata.builder()
+                .put("category", "diff")
+                .put("ratio", DifferUtil.formatDiffRatioAsString(diff.getDiffRatioPercent()))
+                .put("left", new MaterialLocator(left).toString())
+                .put("right", new MaterialLocator(right).toString());
+        if (diff.hasDiff()) {
+            mb.put("regions", DifferUtil.formatRegions(diff.getChangedRegions()));
+        }
+        return mb.build();
+    }
+
+    /**
+     * render the marked up diff image of a MaterialProduct stuffed by this class.
+     * If the diff is a ChangeMask, the overlay is rendered out of the left image and the mask;
+     * otherwise the diff image is read as is.
+     */
+    public BufferedImage renderOverlay(MaterialProduct mProduct) throws MaterialstoreException {
+        Objects.requireNonNull(mProduct);
+        Material diff = mProduct.getDiff();
+        if (diff == null || diff.equals(Material.NULL_OBJECT)) {
+            throw new MaterialstoreException("the MaterialProduct has no diff: " + mProduct);
+        }
+        if (diff.getFileType().equals(FileType.DIFFMASK)) {
+            ChangeMask changeMask = ChangeMask.read(diff.toPath());
+            return changeMask.renderOverlay(readImage(mProduct.getLeft()));
+        } else {
+            return readImage(diff.toPath());
+        }
+    }
+
+    /*
+     * look up the memory, then the file persisted; compute and persist it if not found
+     */
+    private TileSignature getSignature(Material material, BufferedImage image, int tileHeight) {
+        ID id = material.getID();
+        synchronized (signatureCache) {
+            TileSignature signature = signatureCache.get(id);
+            if (signature != null && signature.getTileHeight() == tileHeight) {
+                return signature;
+            }
+        }
+        Path file = TileSignature.toSignaturePath(material, tileHeight);
+        TileSignature signature = null;
+        try {
+            signature = TileSignature.read(file);
+        } catch (IOException e) {
+            logger.warn(String.format("#getSignature failed to read %s", file), e);
+        }
+        if (signature == null) {
+            signature = TileSignature.of(image, tileHeight);
+            try {
+                signature.write(file);
+            } catch (IOException e) {
+                logger.warn(String.format("#getSignature failed to write %s", file), e);
+            }
+        }
+        synchronized (signatureCache) {
+            signatureCache.put(id, signature);
+        }
+        return signature;
+    }
+
     /**
      * Calculate the ratio of diff-size against the whole page size.
      * <p>
@@ -0,0 +1,429 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A line diff of large texts which works on the hashes of the lines instead of the lines.
+ * <p>
+ * A text is read as a stream and every line is reduced to a 64-bit hash, so that
+ * a file of 1 million lines costs 8MB of heap regardless of the length of the lines.
+ * The hashes are compared as follows:
+ * <ol>
+ * <li>the common prefix and suffix are skipped</li>
+ * <li>a small range is diffed by the classic LCS dynamic programming</li>
+ * <li>a large range is split at the lines which appear exactly once on both sides,
+ *     taking the longest increasing sequence of them as anchors (the "patience" diff),
+ *     and the ranges between the anchors are diffed recursively</li>
+ * <li>a large range without any anchor is regarded replaced as a whole</li>
+ * </ol>
+ * Lines are split at LF, CR or CRLF, as BufferedReader#readLine() does. The charset must encode
+ * LF and CR as the bytes 0x0A and 0x0D, as UTF-8, ISO-8859-x and most of the single-byte charsets do.
+ */
+final class LineHashDiff {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /*
+     * a range of (n x m) lines up to this number of cells is diffed by the LCS table
+     */
+    private static final int MAX_LCS_CELLS = 1 << 18;
+
+    private LineHashDiff() {}
+
+    /**
+     * a range of lines which differ: left[leftStart, leftEnd) is replaced by right[rightStart, rightEnd)
+     */
+    static final class Edit {
+        final int leftStart;
+        final int leftEnd;
+        final int rightStart;
+        final int rightEnd;
+
+        Edit(int leftStart, int leftEnd, int rightStart, int rightEnd) {
+            this.leftStart = leftStart;
+            this.leftEnd = leftEnd;
+            this.rightStart = rightStart;
+            this.rightEnd = rightEnd;
+        }
+
+        int getLeftLength() {
+            return leftEnd - leftStart;
+        }
+
+        int getRightLength() {
+            return rightEnd - rightStart;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Edit{left=[%d,%d), right=[%d,%d)}", leftStart, leftEnd, rightStart, rightEnd);
+        }
+    }
+
+    /**
+     * @return the hashes of the lines of the file
+     */
+    static long[] hashLines(Path file) throws IOException {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            LineReader reader = new LineReader(is);
+            long[] hashes = new long[1024];
+            int count = 0;
+            byte[] line;
+            while ((line = reader.readLine()) != null) {
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                hashes[count++] = hash(line, reader.getLineLength());
+            }
+            return Arrays.copyOf(hashes, count);
+        }
+    }
+
+    static long hash(byte[] bytes, int length) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * The diff ratio is (rows not equal) / (rows), where the rows are at least as many as
+     * the lines of the longer text, and the equal rows are at most as many as the lines
+     * common to both texts counted as multisets. So the ratio is never less than
+     * 1 - (common lines) / (lines of the longer text).
+     * @return the lower bound of the diff ratio in percent, computed in O(n log n)
+     */
+    static double lowerBoundOfDiffRatio(long[] left, long[] right) {
+        int longer = Math.max(left.length, right.length);
+        if (longer == 0) {
+            return 0.0d;
+        }
+        long[] a = left.clone();
+        long[] b = right.clone();
+        Arrays.sort(a);
+        Arrays.sort(b);
+        int common = 0;
+        int p = 0;
+        int q = 0;
+        while (p < a.length && q < b.length) {
+            if (a[p] < b[q]) {
+                p++;
+            } else if (a[p] > b[q]) {
+                q++;
+            } else {
+                common++;
+                p++;
+                q++;
+            }
+        }
+        return (1.0d - (double) common / longer) * 100.0d;
+    }
+
+    /**
+     * @return the edits in the ascending order of the lines
+     */
+    static List<Edit> diff(long[] left, long[] right) {
+        List<Edit> edits = new ArrayList<>();
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] { 0, left.length, 0, right.length });
+        while (!ranges.isEmpty()) {
+            int[] r = ranges.pop();
+            diffRange(left, right, r[0], r[1], r[2], r[3], edits, ranges);
+        }
+        edits.sort((e1, e2) -> (e1.leftStart != e2.leftStart)
+                ? Integer.compare(e1.leftStart, e2.leftStart)
+                : Integer.compare(e1.rightStart, e2.rightStart));
+        return mergeAdjacent(edits);
+    }
+
+    private static void diffRange(long[] a, long[] b, int a0, int a1, int b0, int b1,
+                                  List<Edit> edits, Deque<int[]> ranges) {
+        // skip the common prefix and suffix
+        while (a0 < a1 && b0 < b1 && a[a0] == b[b0]) {
+            a0++;
+            b0++;
+        }
+        while (a0 < a1 && b0 < b1 && a[a1 - 1] == b[b1 - 1]) {
+            a1--;
+            b1--;
+        }
+        if (a0 == a1 && b0 == b1) {
+            return;
+        }
+        if (a0 == a1 || b0 == b1) {
+            edits.add(new Edit(a0, a1, b0, b1));
+            return;
+        }
+        long cells = (long) (a1 - a0) * (b1 - b0);
+        if (cells <= MAX_LCS_CELLS) {
+            diffByLCS(a, b, a0, a1, b0, b1, edits);
+            return;
+        }
+        int[][] anchors = findUniqueAnchors(a, b, a0, a1, b0, b1);
+        if (anchors.length == 0) {
+            edits.add(new Edit(a0, a1, b0, b1));
+            return;
+        }
+        // the ranges between the anchors
+        int prevA = a0;
+        int prevB = b0;
+        for (int[] anchor : anchors) {
+            ranges.push(new int[] { prevA, anchor[0], prevB, anchor[1] });
+            prevA = anchor[0] + 1;
+            prevB = anchor[1] + 1;
+        }
+        ranges.push(new int[] { prevA, a1, prevB, b1 });
+    }
+
+    /*
+     * the classic dynamic programming of the Longest Common Subsequence
+     */
+    private static void diffByLCS(long[] a, long[] b, int a0, int a1, int b0, int b1, List<Edit> edits) {
+        final int n = a1 - a0;
+        final int m = b1 - b0;
+        // lcs[i][j] = length of LCS of a[a0+i..a1) and b[b0+j..b1)
+        final int[] lcs = new int[(n + 1) * (m + 1)];
+        final int w = m + 1;
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                if (a[a0 + i] == b[b0 + j]) {
+                    lcs[i * w + j] = lcs[(i + 1) * w + j + 1] + 1;
+                } else {
+                    lcs[i * w + j] = Math.max(lcs[(i + 1) * w + j], lcs[i * w + j + 1]);
+                }
+            }
+        }
+        int i = 0;
+        int j = 0;
+        int editA = -1;
+        int editB = -1;
+        while (i < n || j < m) {
+            if (i < n && j < m && a[a0 + i] == b[b0 + j]) {
+                if (editA >= 0) {
+                    edits.add(new Edit(a0 + editA, a0 + i, b0 + editB, b0 + j));
+                    editA = -1;
+                }
+                i++;
+                j++;
+                continue;
+            }
+            if (editA < 0) {
+                editA = i;
+                editB = j;
+            }
+            if (j < m && (i == n || lcs[i * w + j + 1] >= lcs[(i + 1) * w + j])) {
+                j++;
+            } else {
+                i++;
+            }
+        }
+        if (editA >= 0) {
+            edits.add(new Edit(a0 + editA, a1, b0 + editB, b1));
+        }
+    }
+
+    /*
+     * @return pairs of [index in a, index in b] of the lines unique on both sides,
+     * the longest sequence increasing in both a and b
+     */
+    private static int[][] findUniqueAnchors(long[] a, long[] b, int a0, int a1, int b0, int b1) {
+        long[][] ua = uniqueLines(a, a0, a1);
+        long[][] ub = uniqueLines(b, b0, b1);
+        long[] hashesA = ua[0];
+        long[] indicesA = ua[1];
+        long[] hashesB = ub[0];
+        long[] indicesB = ub[1];
+        // merge the sorted unique hashes; pairs in the order of a
+        List<int[]> pairs = new ArrayList<>();
+        int p = 0;
+        int q = 0;
+        while (p < hashesA.length && q < hashesB.length) {
+            if (hashesA[p] < hashesB[q]) {
+                p++;
+            } else if (hashesA[p] > hashesB[q]) {
+                q++;
+            } else {
+                pairs.add(new int[] { (int) indicesA[p], (int) indicesB[q] });
+                p++;
+                q++;
+            }
+        }
+        if (pairs.isEmpty()) {
+            return new int[0][];
+        }
+        pairs.sort((x, y) -> Integer.compare(x[0], y[0]));
+        // the longest increasing subsequence of the indices in b (patience sorting)
+        int n = pairs.size();
+        int[] tails = new int[n];
+        int[] prev = new int[n];
+        int length = 0;
+        for (int k = 0; k < n; k++) {
+            int bIndex = pairs.get(k)[1];
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < bIndex) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            prev[k] = (lo > 0) ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            if (lo == length) {
+                length++;
+            }
+        }
+        int[][] anchors = new int[length][];
+        for (int k = tails[length - 1], x = length - 1; k >= 0; k = prev[k], x--) {
+            anchors[x] = pairs.get(k);
+        }
+        return anchors;
+    }
+
+    /*
+     * @return [sorted hashes, indices] of the lines which appear only once in the range
+     */
+    private static long[][] uniqueLines(long[] hashes, int from, int to) {
+        int n = to - from;
+        long[] sortedHashes = Arrays.copyOfRange(hashes, from, to);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i;
+        }
+        sortIndicesByHash(sortedHashes, keys);
+        long[] uniqueHashes = new long[n];
+        long[] uniqueIndices = new long[n];
+        int count = 0;
+        int i = 0;
+        while (i < n) {
+            int j = i + 1;
+            while (j < n && sortedHashes[j] == sortedHashes[i]) {
+                j++;
+            }
+            if (j == i + 1) {
+                uniqueHashes[count] = sortedHashes[i];
+                uniqueIndices[count] = from + keys[i];
+                count++;
+            }
+            i = j;
+        }
+        return new long[][] { Arrays.copyOf(uniqueHashes, count), Arrays.copyOf(uniqueIndices, count) };
+    }
+
+    /*
+     * sort the hashes ascending, and the indices along with them (heap sort; no boxing)
+     */
+    private static void sortIndicesByHash(long[] hashes, long[] indices) {
+        int n = hashes.length;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(hashes, indices, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(hashes, indices, 0, end);
+            siftDown(hashes, indices, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] hashes, long[] indices, int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && hashes[child + 1] > hashes[child]) {
+                child++;
+            }
+            if (hashes[i] >= hashes[child]) {
+                return;
+            }
+            swap(hashes, indices, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(long[] hashes, long[] indices, int i, int j) {
+        long h = hashes[i];
+        hashes[i] = hashes[j];
+        hashes[j] = h;
+        long x = indices[i];
+        indices[i] = indices[j];
+        indices[j] = x;
+    }
+
+    private static List<Edit> mergeAdjacent(List<Edit> edits) {
+        List<Edit> merged = new ArrayList<>(edits.size());
+        for (Edit e : edits) {
+            if (!merged.isEmpty()) {
+                Edit last = merged.get(merged.size() - 1);
+                if (last.leftEnd == e.leftStart && last.rightEnd == e.rightStart) {
+                    merged.set(merged.size() - 1,
+                            new Edit(last.leftStart, e.leftEnd, last.rightStart, e.rightEnd));
+                    continue;
+                }
+            }
+            merged.add(e);
+        }
+        return merged;
+    }
+
+    /**
+     * reads lines as bytes, split at LF, CR or CRLF.
+     * The returned buffer is reused; valid up to getLineLength() until the next call.
+     */
+    static final class LineReader {
+
+        private final InputStream is;
+        private byte[] buffer = new byte[256];
+        private int length = 0;
+
+        LineReader(InputStream is) {
+            // mark/reset is required to look ahead the byte after a CR
+            this.is = is.markSupported() ? is : new BufferedInputStream(is);
+        }
+
+        /**
+         * @return null at the end of the stream
+         */
+        byte[] readLine() throws IOException {
+            length = 0;
+            int b;
+            boolean any = false;
+            while ((b = is.read()) >= 0) {
+                any = true;
+                if (b == '\n') {
+                    break;
+                }
+                if (b == '\r') {
+                    is.mark(1);
+                    if (is.read() != '\n') {
+                        is.reset();
+                    }
+                    break;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[length++] = (byte) b;
+            }
+            return any ? buffer : null;
+        }
+
+        int getLineLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * the placeholder contents of the partial diff Materials made in the verdict first mode
+ */
+final class PartialDiffArtifact {
+
+    private static final int PNG_WIDTH = 240;
+    private static final int PNG_HEIGHT = 24;
+
+    private PartialDiffArtifact() {}
+
+    static byte[] html(VerdictPolicy.Partial partial, Double diffRatio, double threshold) {
+        String bound = (partial == VerdictPolicy.Partial.EXCEEDED) ? "at least" : "at most";
+        String html = "<html lang=\"en\">\n<head>\n" +
+                "  <meta charset=\"utf-8\" />\n" +
+                "  <title>partial diff</title>\n" +
+                "</head>\n<body>\n" +
+                "<div id=\"decision\">\n" +
+                "  <h3><span>" + partial.getDescription() + "</span></h3>\n" +
+                "  <p>The diff ratio is " + bound + " " + DifferUtil.formatDiffRatioAsString(diffRatio) +
+                "; the threshold is " + DifferUtil.formatDiffRatioAsString(threshold) + ".</p>\n" +
+                "  <p>The diff was stopped in the verdict first mode. Make the diff again without it " +
+                "to see the full diff.</p>\n" +
+                "</div>\n</body>\n</html>\n";
+        return html.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * a strip of diagonal stripes in the diff color; no text, so that no font is required
+     */
+    static byte[] png(Differ differ, Color diffColor) throws MaterialstoreException {
+        BufferedImage image = new BufferedImage(PNG_WIDTH, PNG_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, PNG_WIDTH, PNG_HEIGHT);
+            g.setColor(diffColor);
+            for (int x = -PNG_HEIGHT; x < PNG_WIDTH; x += 12) {
+                g.fillPolygon(new int[] { x, x + 6, x + 6 + PNG_HEIGHT, x + PNG_HEIGHT },
+                        new int[] { PNG_HEIGHT, PNG_HEIGHT, 0, 0 }, 4);
+            }
+        } finally {
+            g.dispose();
+        }
+        return differ.toByteArray(image, FileType.PNG);
+    }
+}
@@ -0,0 +1,390 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG image row by row out of a file, from the top to the bottom, in a single pass.
+ * <p>
+ * The counterpart of PngStreamWriter. javax.imageio decodes a source region of a PNG
+ * by reading the stream from the top of the image every time; this reader inflates the
+ * IDAT chunks once, keeping only the current row and the previous row (for unfiltering)
+ * in memory.
+ * All of the color types and bit depths are supported, except the interlaced images;
+ * #open returns null for those, and for the files which are not PNG.
+ * The 16-bit samples are reduced to 8 bits.
+ */
+final class PngStreamReader implements Closeable {
+
+    private static final byte[] SIGNATURE =
+            new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGBA = 6;
+
+    private final DataInputStream in;
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int colorType;
+    private final int bytesPerPixel;    // for unfiltering; at least 1
+    private int[] palette = null;       // ARGB
+    private int[] transparent = null;   // the samples of the transparent color of GRAY/RGB
+    private final Inflater inflater = new Inflater();
+    private final IDATInputStream idatChunks = new IDATInputStream();
+    private final InputStream idat;
+    private byte[] row;
+    private byte[] previousRow;
+    private int rowsRead = 0;
+
+    private PngStreamReader(DataInputStream in, int width, int height, int bitDepth, int colorType) {
+        this.in = in;
+        this.width = width;
+        this.height = height;
+        this.bitDepth = bitDepth;
+        this.colorType = colorType;
+        int bitsPerPixel = bitDepth * samplesPerPixel(colorType);
+        this.bytesPerPixel = Math.max(1, bitsPerPixel / 8);
+        int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+        this.row = new byte[rowBytes];
+        this.previousRow = new byte[rowBytes];
+        this.idat = new InflaterInputStream(idatChunks, inflater, 64 * 1024);
+    }
+
+    /**
+     * reads the chunks up to the first IDAT
+     * @return null if the file is not a PNG, or is interlaced
+     */
+    static PngStreamReader open(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        try {
+            byte[] signature = new byte[SIGNATURE.length];
+            if (in.read(signature) != signature.length || !Arrays.equals(signature, SIGNATURE)) {
+                in.close();
+                return null;
+            }
+            PngStreamReader reader = null;
+            while (true) {
+                int length = in.readInt();
+                String type = readType(in);
+                if (type.equals("IDAT")) {
+                    if (reader == null) {
+                        throw new IOException("IHDR is missing in " + file);
+                    }
+                    reader.idatChunks.remaining = length;
+                    return reader;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                in.readInt();    // CRC
+                if (type.equals("IHDR")) {
+                    DataInputStream ihdr = new DataInputStream(new ByteArrayInputStream(data));
+                    int width = ihdr.readInt();
+                    int height = ihdr.readInt();
+                    int bitDepth = ihdr.readUnsignedByte();
+                    int colorType = ihdr.readUnsignedByte();
+                    ihdr.readUnsignedByte();    // compression method
+                    ihdr.readUnsignedByte();    // filter method
+                    int interlace = ihdr.readUnsignedByte();
+                    if (interlace != 0 || samplesPerPixel(colorType) == 0) {
+                        in.close();
+                        return null;
+                    }
+                    reader = new PngStreamReader(in, width, height, bitDepth, colorType);
+                } else if (type.equals("PLTE") && reader != null) {
+                    reader.palette = new int[length / 3];
+                    for (int i = 0; i < reader.palette.length; i++) {
+                        reader.palette[i] = 0xFF000000 | ((data[i * 3] & 0xFF) << 16)
+                                | ((data[i * 3 + 1] & 0xFF) << 8) | (data[i * 3 + 2] & 0xFF);
+                    }
+                } else if (type.equals("tRNS") && reader != null) {
+                    reader.readTransparency(data);
+                } else if (type.equals("IEND")) {
+                    throw new IOException("IDAT is missing in " + file);
+                }
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static String readType(DataInputStream in) throws IOException {
+        byte[] type = new byte[4];
+        in.readFully(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    private static int samplesPerPixel(int colorType) {
+        switch (colorType) {
+            case GRAY:
+            case PALETTE:
+                return 1;
+            case GRAY_ALPHA:
+                return 2;
+            case RGB:
+                return 3;
+            case RGBA:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private void readTransparency(byte[] data) {
+        if (colorType == PALETTE && palette != null) {
+            for (int i = 0; i < data.length && i < palette.length; i++) {
+                palette[i] = ((data[i] & 0xFF) << 24) | (palette[i] & 0x00FFFFFF);
+            }
+        } else if (colorType == GRAY && data.length >= 2) {
+            transparent = new int[] { ((data[0] & 0xFF) << 8) | (data[1] & 0xFF) };
+        } else if (colorType == RGB && data.length >= 6) {
+            transparent = new int[3];
+            for (int i = 0; i < 3; i++) {
+                transparent[i] = ((data[i * 2] & 0xFF) << 8) | (data[i * 2 + 1] & 0xFF);
+            }
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    boolean hasAlpha() {
+        return colorType == GRAY_ALPHA || colorType == RGBA || transparent != null
+                || (colorType == PALETTE && palette != null && hasTranslucentEntry());
+    }
+
+    private boolean hasTranslucentEntry() {
+        for (int argb : palette) {
+            if ((argb >>> 24) != 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * decode the next row
+     * @param dest an array of which length is at least the width of the image;
+     *             filled with ARGB values
+     */
+    void readRow(int[] dest) throws IOException {
+        if (rowsRead >= height) {
+            throw new IllegalStateException("all of " + height + " rows have already been read");
+        }
+        int filter = idat.read();
+        if (filter < 0) {
+            throw new EOFException(String.format("row %d of %d is missing", rowsRead, height));
+        }
+        byte[] swap = previousRow;
+        previousRow = row;
+        row = swap;
+        readFully(row);
+        unfilter(filter);
+        toARGB(dest);
+        rowsRead += 1;
+    }
+
+    private void readFully(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            int n = idat.read(b, off, b.length - off);
+            if (n < 0) {
+                throw new EOFException(String.format("row %d of %d is truncated", rowsRead, height));
+            }
+            off += n;
+        }
+    }
+
+    private void unfilter(int filter) throws IOException {
+        final byte[] cur = row;
+        final byte[] prev = previousRow;
+        final int bpp = bytesPerPixel;
+        final boolean first = (rowsRead == 0);
+        switch (filter) {
+            case 0:     // None
+                break;
+            case 1:     // Sub
+                for (int i = bpp; i < cur.length; i++) {
+                    cur[i] += cur[i - bpp];
+                }
+                break;
+            case 2:     // Up
+                if (!first) {
+                    for (int i = 0; i < cur.length; i++) {
+                        cur[i] += prev[i];
+                    }
+                }
+                break;
+            case 3:     // Average
+                for (int i = 0; i < cur.length; i++) {
+                    int left = (i >= bpp) ? cur[i - bpp] & 0xFF : 0;
+                    int up = first ? 0 : prev[i] & 0xFF;
+                    cur[i] += (byte) ((left + up) >>> 1);
+                }
+                break;
+            case 4:     // Paeth
+                for (int i = 0; i < cur.length; i++) {
+                    int a = (i >= bpp) ? cur[i - bpp] & 0xFF : 0;
+                    int b = first ? 0 : prev[i] & 0xFF;
+                    int c = (i >= bpp && !first) ? prev[i - bpp] & 0xFF : 0;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    cur[i] += (byte) ((pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c);
+                }
+                break;
+            default:
+                throw new IOException(String.format("unknown filter type %d at row %d", filter, rowsRead));
+        }
+    }
+
+    private void toARGB(int[] dest) {
+        final byte[] cur = row;
+        switch (colorType) {
+            case RGB:
+            case RGBA: {
+                final boolean alpha = (colorType == RGBA);
+                final int step = (bitDepth == 16) ? 2 : 1;
+                for (int x = 0, p = 0; x < width; x++) {
+                    int r = cur[p] & 0xFF;
+                    int g = cur[p + step] & 0xFF;
+                    int b = cur[p + step * 2] & 0xFF;
+                    int a = alpha ? cur[p + step * 3] & 0xFF : 0xFF;
+                    if (transparent != null
+                            && sample(p) == transparent[0]
+                            && sample(p + step) == transparent[1]
+                            && sample(p + step * 2) == transparent[2]) {
+                        a = 0;
+                    }
+                    dest[x] = (a << 24) | (r << 16) | (g << 8) | b;
+                    p += step * (alpha ? 4 : 3);
+                }
+                break;
+            }
+            case GRAY_ALPHA: {
+                final int step = (bitDepth == 16) ? 2 : 1;
+                for (int x = 0, p = 0; x < width; x++, p += step * 2) {
+                    int v = cur[p] & 0xFF;
+                    int a = cur[p + step] & 0xFF;
+                    dest[x] = (a << 24) | (v << 16) | (v << 8) | v;
+                }
+                break;
+            }
+            default: {
+                // GRAY and PALETTE, of 1, 2, 4, 8 (and 16 for GRAY) bits
+                if (bitDepth == 16) {
+                    for (int x = 0; x < width; x++) {
+                        int v = cur[x * 2] & 0xFF;
+                        int a = (transparent != null && sample(x * 2) == transparent[0]) ? 0 : 0xFF;
+                        dest[x] = (a << 24) | (v << 16) | (v << 8) | v;
+                    }
+                    break;
+                }
+                final int mask = (1 << bitDepth) - 1;
+                final int perByte = 8 / bitDepth;
+                for (int x = 0; x < width; x++) {
+                    int shift = 8 - bitDepth * (x % perByte + 1);
+                    int index = ((cur[x / perByte] & 0xFF) >>> shift) & mask;
+                    if (colorType == PALETTE) {
+                        dest[x] = (palette != null && index < palette.length) ? palette[index] : 0xFF000000;
+                    } else {
+                        int v = index * 255 / mask;
+                        int a = (transparent != null && index == transparent[0]) ? 0 : 0xFF;
+                        dest[x] = (a << 24) | (v << 16) | (v << 8) | v;
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /*
+     * @return the sample at the offset in the current row, of bitDepth 8 or 16
+     */
+    private int sample(int offset) {
+        return (bitDepth == 16)
+                ? ((row[offset] & 0xFF) << 8) | (row[offset + 1] & 0xFF)
+                : row[offset] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * the data of the consecutive IDAT chunks
+     */
+    private class IDATInputStream extends InputStream {
+        private int remaining = 0;
+        private boolean done = false;
+
+        /*
+         * @return false if no IDAT chunk follows
+         */
+        private boolean nextChunk() throws IOException {
+            while (remaining == 0 && !done) {
+                in.readInt();    // CRC of the previous chunk
+                int length = in.readInt();
+                String type = readType(in);
+                if (type.equals("IDAT")) {
+                    remaining = length;
+                } else {
+                    done = true;
+                }
+            }
+            return !done;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            remaining -= 1;
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("IDAT chunk is truncated");
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
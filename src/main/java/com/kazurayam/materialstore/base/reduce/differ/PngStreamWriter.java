@@ -0,0 +1,189 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes a PNG image row by row into an OutputStream.
+ * <p>
+ * javax.imageio requires the whole image as a RenderedImage to write a PNG.
+ * This writer accepts one row of ARGB pixels at a time so that a gigantic image
+ * can be encoded with the memory proportional to the width of the image.
+ * 8-bit truecolor (RGB) or truecolor with alpha (RGBA), non-interlaced.
+ * Every row is filtered with the "Sub" filter.
+ */
+final class PngStreamWriter implements Closeable {
+
+    private static final byte[] SIGNATURE =
+            new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final boolean hasAlpha;
+    private final int bytesPerPixel;
+    private final byte[] rowBuffer;
+    private final DeflaterOutputStream deflaterOutputStream;
+    private final Deflater deflater;
+    private int rowsWritten = 0;
+    private boolean closed = false;
+
+    PngStreamWriter(OutputStream os, int width, int height, boolean hasAlpha) throws IOException {
+        Objects.requireNonNull(os);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("width=%d and height=%d must be positive", width, height));
+        }
+        this.out = new DataOutputStream(os);
+        this.width = width;
+        this.height = height;
+        this.hasAlpha = hasAlpha;
+        this.bytesPerPixel = hasAlpha ? 4 : 3;
+        this.rowBuffer = new byte[1 + width * bytesPerPixel];
+        out.write(SIGNATURE);
+        writeIHDR();
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.deflaterOutputStream =
+                new DeflaterOutputStream(new IDATChunkOutputStream(), deflater, IDAT_CHUNK_SIZE);
+    }
+
+    private void writeIHDR() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(13);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(width);
+        dos.writeInt(height);
+        dos.writeByte(8);                    // bit depth
+        dos.writeByte(hasAlpha ? 6 : 2);     // color type: truecolor with/without alpha
+        dos.writeByte(0);                    // compression method: deflate
+        dos.writeByte(0);                    // filter method: adaptive
+        dos.writeByte(0);                    // interlace method: none
+        writeChunk("IHDR", baos.toByteArray(), baos.size());
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * @param argb a row of pixels in ARGB; the length must be at least the width
+     */
+    void writeRow(int[] argb) throws IOException {
+        if (rowsWritten >= height) {
+            throw new IllegalStateException("all of " + height + " rows have already been written");
+        }
+        rowBuffer[0] = 1;    // filter type: Sub
+        int prevR = 0, prevG = 0, prevB = 0, prevA = 0;
+        int p = 1;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[x];
+            int r = (pixel >>> 16) & 0xFF;
+            int g = (pixel >>> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            rowBuffer[p++] = (byte) (r - prevR);
+            rowBuffer[p++] = (byte) (g - prevG);
+            rowBuffer[p++] = (byte) (b - prevB);
+            if (hasAlpha) {
+                int a = (pixel >>> 24) & 0xFF;
+                rowBuffer[p++] = (byte) (a - prevA);
+                prevA = a;
+            }
+            prevR = r;
+            prevG = g;
+            prevB = b;
+        }
+        deflaterOutputStream.write(rowBuffer, 0, rowBuffer.length);
+        rowsWritten += 1;
+    }
+
+    int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * give up the image without finishing it; the bytes written so far are not a valid PNG
+     */
+    void abandon() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        deflater.end();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (rowsWritten != height) {
+            deflater.end();
+            throw new IllegalStateException(
+                    String.format("%d rows expected but %d rows were written", height, rowsWritten));
+        }
+        deflaterOutputStream.finish();
+        deflaterOutputStream.flush();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /**
+     * collects the deflated bytes and emits them as IDAT chunks
+     */
+    private class IDATChunkOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Objects;
+
+/**
+ * Reads a row of pixels of a BufferedImage as ARGB int values.
+ * <p>
+ * The common image types (TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR,
+ * TYPE_4BYTE_ABGR and the like, which ImageIO.read() returns for most PNG and JPEG files)
+ * are read directly out of the int[]/byte[] array of the DataBuffer.
+ * Other types fall back to BufferedImage#getRGB(x, y, w, h, ...) which converts
+ * a whole row in bulk.
+ */
+final class RasterRowReader {
+
+    private enum Layout { INT_PACKED, BYTE_INTERLEAVED, GENERIC }
+
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final Layout layout;
+    private final boolean hasAlpha;
+    private int[] intData;
+    private byte[] byteData;
+    private int scanlineStride;
+    private int pixelStride;
+    private int[] bandOffsets;
+    private int dataOffset;
+
+    RasterRowReader(BufferedImage image) {
+        Objects.requireNonNull(image);
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.hasAlpha = image.getColorModel().hasAlpha();
+        this.layout = inspect();
+    }
+
+    private Layout inspect() {
+        Raster raster = image.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return Layout.GENERIC;
+        }
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        ColorModel cm = image.getColorModel();
+        if (db.getNumBanks() != 1 || !cm.getColorSpace().isCS_sRGB() || cm.isAlphaPremultiplied()) {
+            return Layout.GENERIC;
+        }
+        if (db instanceof DataBufferInt
+                && sm instanceof SinglePixelPackedSampleModel
+                && cm instanceof DirectColorModel) {
+            int type = image.getType();
+            if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+                SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+                intData = ((DataBufferInt) db).getData();
+                scanlineStride = sppsm.getScanlineStride();
+                dataOffset = db.getOffset();
+                return Layout.INT_PACKED;
+            }
+        }
+        if (db instanceof DataBufferByte
+                && sm instanceof ComponentSampleModel
+                && cm instanceof ComponentColorModel
+                && (sm.getNumBands() == 3 || sm.getNumBands() == 4)) {
+            for (int size : sm.getSampleSize()) {
+                if (size != 8) {
+                    return Layout.GENERIC;
+                }
+            }
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            byteData = ((DataBufferByte) db).getData();
+            scanlineStride = csm.getScanlineStride();
+            pixelStride = csm.getPixelStride();
+            bandOffsets = csm.getBandOffsets();
+            dataOffset = db.getOffset();
+            return Layout.BYTE_INTERLEAVED;
+        }
+        return Layout.GENERIC;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    /**
+     * @param y the row to read
+     * @param dest an array of which length is at least the width of the image;
+     *             filled with ARGB values
+     */
+    void readRow(int y, int[] dest) {
+        switch (layout) {
+            case INT_PACKED:
+                int base = dataOffset + y * scanlineStride;
+                if (hasAlpha) {
+                    System.arraycopy(intData, base, dest, 0, width);
+                } else {
+                    for (int x = 0; x < width; x++) {
+                        dest[x] = 0xFF000000 | intData[base + x];
+                    }
+                }
+                break;
+            case BYTE_INTERLEAVED:
+                int row = dataOffset + y * scanlineStride;
+                int r = bandOffsets[0];
+                int g = bandOffsets[1];
+                int b = bandOffsets[2];
+                if (bandOffsets.length == 4) {
+                    int a = bandOffsets[3];
+                    for (int x = 0, p = row; x < width; x++, p += pixelStride) {
+                        dest[x] = ((byteData[p + a] & 0xFF) << 24)
+                                | ((byteData[p + r] & 0xFF) << 16)
+                                | ((byteData[p + g] & 0xFF) << 8)
+                                | (byteData[p + b] & 0xFF);
+                    }
+                } else {
+                    for (int x = 0, p = row; x < width; x++, p += pixelStride) {
+                        dest[x] = 0xFF000000
+                                | ((byteData[p + r] & 0xFF) << 16)
+                                | ((byteData[p + g] & 0xFF) << 8)
+                                | (byteData[p + b] & 0xFF);
+                    }
+                }
+                break;
+            default:
+                image.getRGB(0, y, width, 1, dest, 0, width);
+                break;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A bounded-memory image diff engine for gigantic images
+ * such as full-page screenshots of 1920x60000 pixels.
+ * <p>
+ * Both images are read row by row, the rows are compared, and the diff image
+ * is encoded incrementally into a PNG stream by PngStreamWriter.
+ * A PNG file is decoded in a single pass by PngStreamReader, so the peak memory is
+ * proportional to the width instead of the whole image.
+ * <p>
+ * The other images (JPEG, interlaced PNG, etc) are read band by band (bandHeight rows each)
+ * using ImageReader with a source region. Most ImageReaders decode a source region
+ * by reading the stream from the top of the image, so the rows above a band are
+ * decoded again for every band; a larger bandHeight means less re-decoding and more memory.
+ * <p>
+ * The diffSize and the diff ratio are calculated in the same way as TiledImageDiffer.
+ * If told to produce the ChangeMask, the PNG may be omitted altogether.
+ */
+public final class StreamingImageDiffer {
+
+    public static final int DEFAULT_BAND_HEIGHT = 2048;
+
+    private final int bandHeight;
+    private final TiledImageDiffer rowDiffer;
+    private final boolean produceChangeMask;
+    private final Color diffColor;
+
+    private StreamingImageDiffer(Builder builder) {
+        this.bandHeight = builder.bandHeight;
+        this.produceChangeMask = builder.produceChangeMask;
+        this.diffColor = builder.diffColor;
+        this.rowDiffer = TiledImageDiffer.builder()
+                .channelTolerance(builder.channelTolerance)
+                .diffColor(builder.diffColor)
+                .maxRegions(builder.maxRegions)
+                .parallel(false)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    /**
+     * @return the width and height of the image read out of the header; the pixels are not decoded
+     */
+    public static Dimension readDimension(Path imageFile) throws MaterialstoreException {
+        try (BandReader br = new BandReader(imageFile, 1)) {
+            return new Dimension(br.getWidth(), br.getHeight());
+        }
+    }
+
+    /**
+     * compare the 2 image files and write the diff image into the diffOutput in PNG format.
+     * The diffOutput is not closed by this method.
+     * @param diffOutput may be null, then no PNG is written
+     * @return the result, of which getDiffImage() returns null
+     */
+    public TiledImageDiff makeDiff(Path leftFile, Path rightFile, OutputStream diffOutput)
+            throws MaterialstoreException {
+        return makeDiff(leftFile, rightFile, diffOutput, null);
+    }
+
+    /**
+     * @param monitor of the verdict first mode, may be null. Once the monitor is aborted,
+     *                the rest of the rows are not compared and the PNG is left unfinished;
+     *                the result and the diffOutput should be discarded.
+     */
+    TiledImageDiff makeDiff(Path leftFile, Path rightFile, OutputStream diffOutput,
+                            VerdictPolicy.Monitor monitor)
+            throws MaterialstoreException {
+        Objects.requireNonNull(leftFile);
+        Objects.requireNonNull(rightFile);
+        try (BandReader left = new BandReader(leftFile, bandHeight);
+             BandReader right = new BandReader(rightFile, bandHeight)) {
+            final int width = Math.max(left.getWidth(), right.getWidth());
+            final int height = Math.max(left.getHeight(), right.getHeight());
+            final int[] leftRow = new int[left.getWidth()];
+            final int[] rightRow = new int[right.getWidth()];
+            final int[] diffRow = new int[width];
+            final int numBands = (height + bandHeight - 1) / bandHeight;
+            final boolean[] differingBands = new boolean[numBands];
+            final ChangeGrid grid = new ChangeGrid(width, height, ChangeGrid.DEFAULT_CELL_SIZE);
+            final ChangeMask.Recorder recorder = produceChangeMask ? new ChangeMask.Recorder() : null;
+            int diffSize = 0;
+            PngStreamWriter writer = (diffOutput != null)
+                    ? new PngStreamWriter(diffOutput, width, height, left.hasAlpha() || right.hasAlpha())
+                    : null;
+            if (monitor != null) {
+                monitor.begin((long) width * height);
+            }
+            for (int y = 0; y < height; y++) {
+                boolean inLeft = left.readRow(y, leftRow);
+                boolean inRight = right.readRow(y, rightRow);
+                int count = rowDiffer.diffRow(inLeft ? leftRow : null, inRight ? rightRow : null,
+                        width, (writer != null) ? diffRow : null, 0, grid, recorder, y);
+                if (count > 0) {
+                    diffSize += count;
+                    differingBands[y / bandHeight] = true;
+                }
+                if (writer != null) {
+                    writer.writeRow(diffRow);
+                }
+                if (monitor != null && !monitor.record(width, count)) {
+                    if (writer != null) {
+                        writer.abandon();
+                        writer = null;
+                    }
+                    break;
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+            ChangeMask changeMask = produceChangeMask
+                    ? ChangeMask.of(width, height, diffColor, Collections.singletonList(recorder))
+                    : null;
+            return new TiledImageDiff(width, height, diffSize, bandHeight, differingBands, null,
+                    grid.toRegions(rowDiffer.getMaxRegions()), 0, changeMask);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * reads an image file row by row from the top; a PNG in a single pass,
+     * the others one band at a time
+     */
+    private static final class BandReader implements Closeable {
+
+        private final Path file;
+        private final int bandHeight;
+        private final PngStreamReader png;
+        private final ImageInputStream iis;
+        private final ImageReader reader;
+        private final int width;
+        private final int height;
+        private final boolean hasAlpha;
+        private int bandTop = -1;
+        private int bandBottom = -1;
+        private RasterRowReader bandRowReader = null;
+
+        BandReader(Path file, int bandHeight) throws MaterialstoreException {
+            if (!Files.exists(file)) {
+                throw new MaterialstoreException(file + " is not found");
+            }
+            this.file = file;
+            this.bandHeight = bandHeight;
+            try {
+                png = PngStreamReader.open(file);
+                if (png != null) {
+                    iis = null;
+                    reader = null;
+                    width = png.getWidth();
+                    height = png.getHeight();
+                    hasAlpha = png.hasAlpha();
+                    return;
+                }
+                iis = new FileImageInputStream(file.toFile());
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (!readers.hasNext()) {
+                    iis.close();
+                    throw new MaterialstoreException("no ImageReader found for " + file);
+                }
+                reader = readers.next();
+                reader.setInput(iis, false, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                hasAlpha = hasAlpha(reader);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        }
+
+        private static boolean hasAlpha(ImageReader reader) throws IOException {
+            ImageTypeSpecifier raw = reader.getRawImageType(0);
+            if (raw != null) {
+                return raw.getColorModel().hasAlpha();
+            }
+            List<ImageTypeSpecifier> types = new ArrayList<>();
+            reader.getImageTypes(0).forEachRemaining(types::add);
+            return types.size() > 0 && types.get(0).getColorModel().hasAlpha();
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        boolean hasAlpha() {
+            return hasAlpha;
+        }
+
+        /**
+         * @return false if the row is out of the image
+         */
+        boolean readRow(int y, int[] dest) throws IOException {
+            if (y >= height) {
+                return false;
+            }
+            if (png != null) {
+                if (y != png.getRowsRead()) {
+                    throw new IllegalStateException(String.format(
+                            "row %d is requested while the next row of %s is %d", y, file, png.getRowsRead()));
+                }
+                png.readRow(dest);
+                return true;
+            }
+            if (y < bandTop || bandBottom <= y) {
+                loadBand(y);
+            }
+            bandRowReader.readRow(y - bandTop, dest);
+            return true;
+        }
+
+        private void loadBand(int top) throws IOException {
+            int h = Math.min(bandHeight, height - top);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, top, width, h));
+            bandRowReader = null;      // let the previous band be garbage-collected
+            BufferedImage band = reader.read(0, param);
+            if (band == null || band.getHeight() != h) {
+                throw new IOException(String.format("failed to read rows %d-%d of %s", top, top + h, file));
+            }
+            bandRowReader = new RasterRowReader(band);
+            bandTop = top;
+            bandBottom = top + h;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (png != null) {
+                    png.close();
+                } else {
+                    reader.dispose();
+                    iis.close();
+                }
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Builder {
+        private int bandHeight = DEFAULT_BAND_HEIGHT;
+        private int channelTolerance = 0;
+        private Color diffColor = Color.RED;
+        private int maxRegions = TiledImageDiffer.DEFAULT_MAX_REGIONS;
+        private boolean produceChangeMask = false;
+
+        public Builder bandHeight(int bandHeight) {
+            if (bandHeight <= 0) {
+                throw new IllegalArgumentException("bandHeight must be positive: " + bandHeight);
+            }
+            this.bandHeight = bandHeight;
+            return this;
+        }
+
+        public Builder channelTolerance(int channelTolerance) {
+            if (channelTolerance < 0 || 255 < channelTolerance) {
+                throw new IllegalArgumentException("channelTolerance must be in 0..255: " + channelTolerance);
+            }
+            this.channelTolerance = channelTolerance;
+            return this;
+        }
+
+        public Builder diffColor(Color diffColor) {
+            Objects.requireNonNull(diffColor);
+            this.diffColor = diffColor;
+            return this;
+        }
+
+        public Builder maxRegions(int maxRegions) {
+            if (maxRegions < 0) {
+                throw new IllegalArgumentException("maxRegions must not be negative: " + maxRegions);
+            }
+            this.maxRegions = maxRegions;
+            return this;
+        }
+
+        public Builder produceChangeMask(boolean produceChangeMask) {
+            this.produceChangeMask = produceChangeMask;
+            return this;
+        }
+
+        public StreamingImageDiffer build() {
+            return new StreamingImageDiffer(this);
+        }
+    }
+}
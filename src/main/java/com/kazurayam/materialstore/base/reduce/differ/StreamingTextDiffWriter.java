@@ -0,0 +1,266 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.github.difflib.text.DiffRow;
+import com.github.difflib.text.DiffRowGenerator;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * writes the diff of 2 large text files as HTML into a Writer through TextDifferToHTMLTemplate.ftlh,
+ * without holding the texts nor the rows in memory.
+ * <p>
+ * The lines are diffed by LineHashDiff. Then the template is processed with the rows given
+ * as an Iterator, which reads both files once more, in parallel from the top to the bottom,
+ * and makes a row only when the template asks for it. Only the changed
+ * rows and the given number of equal rows around them (context) are given; a run of
+ * equal rows out of the context is collapsed into a single row. The inline diff by word
+ * is computed only for the pairs of changed lines.
+ * The statistics (inserted, deleted, changed, equal) count all the rows including the
+ * collapsed ones, so that the diff ratio is comparable with the one of the full rendering.
+ */
+final class StreamingTextDiffWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingTextDiffWriter.class);
+
+    /*
+     * the inline diff by word of a line longer than this is not computed
+     */
+    static final int MAX_INLINE_DIFF_LINE_LENGTH = 2000;
+
+    private final Store store;
+    private final Charset charset;
+    private final int contextLines;
+    private final DiffRowGenerator generator;
+
+    StreamingTextDiffWriter(Store store, Charset charset, int contextLines) {
+        Objects.requireNonNull(store);
+        Objects.requireNonNull(charset);
+        if (contextLines < 0) {
+            throw new IllegalArgumentException("contextLines must not be negative: " + contextLines);
+        }
+        this.store = store;
+        this.charset = charset;
+        this.contextLines = contextLines;
+        this.generator = TextDifferToHTML.createDiffRowGenerator();
+    }
+
+    /**
+     * @return TextDiffContent with the statistics; the content is empty as it was written into the Writer
+     */
+    TextDiffContent write(Material left, Material right, Writer out) throws MaterialstoreException {
+        try {
+            long[] leftHashes = LineHashDiff.hashLines(left.toPath());
+            long[] rightHashes = LineHashDiff.hashLines(right.toPath());
+            List<LineHashDiff.Edit> edits = LineHashDiff.diff(leftHashes, rightHashes);
+            int inserted = 0;
+            int deleted = 0;
+            int changed = 0;
+            int editedLeftLines = 0;
+            for (LineHashDiff.Edit e : edits) {
+                if (e.getLeftLength() == 0) {
+                    inserted += e.getRightLength();
+                } else if (e.getRightLength() == 0) {
+                    deleted += e.getLeftLength();
+                } else {
+                    changed += Math.max(e.getLeftLength(), e.getRightLength());
+                }
+                editedLeftLines += e.getLeftLength();
+            }
+            int equal = leftHashes.length - editedLeftLines;
+            TextDiffContent stats = new TextDiffContent.Builder("")
+                    .inserted(inserted)
+                    .deleted(deleted)
+                    .changed(changed)
+                    .equal(equal)
+                    .build();
+            logger.debug(String.format("#write left=%d lines, right=%d lines, edits=%d, diffRatio=%s",
+                    leftHashes.length, rightHashes.length, edits.size(), stats.getDiffRatio()));
+            Map<String, Object> model = TextDifferToHTML.makeModel(left, right,
+                    inserted, deleted, changed, equal, stats.getDiffRatio());
+            model.put("contextLines", contextLines);
+            try (InputStream lis = new BufferedInputStream(Files.newInputStream(left.toPath()), 64 * 1024);
+                 InputStream ris = new BufferedInputStream(Files.newInputStream(right.toPath()), 64 * 1024)) {
+                model.put("rows", new RowIterator(new LineHashDiff.LineReader(lis),
+                        new LineHashDiff.LineReader(ris), toRuns(leftHashes.length, edits)));
+                TextDifferToHTML.processTemplate(store, model, out);
+            }
+            out.flush();
+            return stats;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /*
+     * the runs of the rows: the equal rows before each edit, as many as the context at most,
+     * the equal rows collapsed, the equal rows after, and the edit
+     */
+    private List<Run> toRuns(int leftSize, List<LineHashDiff.Edit> edits) {
+        List<Run> runs = new ArrayList<>();
+        int leftPos = 0;
+        for (int k = 0; k < edits.size(); k++) {
+            LineHashDiff.Edit e = edits.get(k);
+            addEqualRuns(runs, e.leftStart - leftPos, k > 0, true);
+            runs.add(new Run(Run.EDIT, Math.max(e.getLeftLength(), e.getRightLength()), e));
+            leftPos = e.leftEnd;
+        }
+        addEqualRuns(runs, leftSize - leftPos, !edits.isEmpty(), false);
+        return runs;
+    }
+
+    /*
+     * @param head whether the first lines are shown as the context of the preceding change
+     * @param tail whether the last lines are shown as the context of the following change
+     */
+    private void addEqualRuns(List<Run> runs, int length, boolean head, boolean tail) {
+        int headLength = head ? Math.min(contextLines, length) : 0;
+        int tailLength = tail ? Math.min(contextLines, length - headLength) : 0;
+        int skipped = length - headLength - tailLength;
+        runs.add(new Run(Run.EQUAL, headLength, null));
+        runs.add(new Run(Run.SKIP, skipped, null));
+        runs.add(new Run(Run.EQUAL, tailLength, null));
+    }
+
+    /**
+     * a run of the rows of the same kind
+     */
+    private static final class Run {
+        static final int EQUAL = 0;
+        static final int SKIP = 1;
+        static final int EDIT = 2;
+        final int kind;
+        final int length;
+        final LineHashDiff.Edit edit;
+
+        Run(int kind, int length, LineHashDiff.Edit edit) {
+            this.kind = kind;
+            this.length = length;
+            this.edit = edit;
+        }
+    }
+
+    /**
+     * reads the left and the right lines in parallel and makes the model of a row at a time.
+     * An IOException is thrown as UncheckedIOException, as Iterator#next does not declare it.
+     */
+    private final class RowIterator implements Iterator<Map<String, Object>> {
+
+        private final LineHashDiff.LineReader leftReader;
+        private final LineHashDiff.LineReader rightReader;
+        private final List<Run> runs;
+        private int runIndex = 0;
+        private int offset = 0;    // in the current run
+        private int index = 1;
+
+        RowIterator(LineHashDiff.LineReader leftReader, LineHashDiff.LineReader rightReader, List<Run> runs) {
+            this.leftReader = leftReader;
+            this.rightReader = rightReader;
+            this.runs = runs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (runIndex < runs.size() && offset >= runs.get(runIndex).length) {
+                runIndex += 1;
+                offset = 0;
+            }
+            return runIndex < runs.size();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Run run = runs.get(runIndex);
+            try {
+                switch (run.kind) {
+                    case Run.SKIP:
+                        offset = run.length;
+                        return nextSkipRow(run.length);
+                    case Run.EQUAL:
+                        offset += 1;
+                        return nextRow(AbstractTextDiffer.CLASS_TD_EQUAL,
+                                Collections.singletonList(readLine(leftReader)),
+                                Collections.singletonList(readLine(rightReader)));
+                    default:
+                        return nextEditRow(run.edit, offset++);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Map<String, Object> nextSkipRow(int skipped) throws IOException {
+            for (int i = 0; i < skipped; i++) {
+                leftReader.readLine();
+                rightReader.readLine();
+            }
+            Map<String, Object> row = new HashMap<>();
+            row.put("index", index);
+            row.put("last", index + skipped - 1);
+            row.put("skipped", skipped);
+            index += skipped;
+            return row;
+        }
+
+        private Map<String, Object> nextEditRow(LineHashDiff.Edit e, int i) throws IOException {
+            String clazz;
+            if (e.getLeftLength() == 0) {
+                clazz = AbstractTextDiffer.CLASS_TD_INSERT;
+            } else if (e.getRightLength() == 0) {
+                clazz = AbstractTextDiffer.CLASS_TD_DELETE;
+            } else {
+                clazz = AbstractTextDiffer.CLASS_TD_CHANGE;
+            }
+            String leftLine = (i < e.getLeftLength()) ? readLine(leftReader) : "";
+            String rightLine = (i < e.getRightLength()) ? readLine(rightReader) : "";
+            if (i < e.getLeftLength() && i < e.getRightLength() &&
+                    leftLine.length() <= MAX_INLINE_DIFF_LINE_LENGTH &&
+                    rightLine.length() <= MAX_INLINE_DIFF_LINE_LENGTH) {
+                DiffRow row = generator.generateDiffRows(
+                        Collections.singletonList(leftLine),
+                        Collections.singletonList(rightLine)).get(0);
+                return nextRow(clazz,
+                        AbstractTextDiffer.splitStringWithOldNewTags(row.getOldLine()),
+                        AbstractTextDiffer.splitStringWithOldNewTags(row.getNewLine()));
+            }
+            return nextRow(clazz,
+                    Collections.singletonList(leftLine), Collections.singletonList(rightLine));
+        }
+
+        private Map<String, Object> nextRow(String clazz, List<String> leftSegments, List<String> rightSegments) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("index", index);
+            row.put("class", clazz);
+            row.put("left_segments", leftSegments);
+            row.put("right_segments", rightSegments);
+            index += 1;
+            return row;
+        }
+
+        private String readLine(LineHashDiff.LineReader reader) throws IOException {
+            byte[] line = reader.readLine();
+            return (line == null) ? "" : new String(line, 0, reader.getLineLength(), charset);
+        }
+    }
+}
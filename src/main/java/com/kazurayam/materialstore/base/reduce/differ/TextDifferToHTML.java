@@ -21,7 +21,9 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,14 +35,30 @@ import java.util.stream.Collectors;
  * <p>
  * uses java-diff-utils on GitHub
  * https://github.com/java-diff-utils/java-diff-utils
- * to make diff of 2 texts
+ * to make diff of 2 texts.
+ * <p>
+ * When either of the texts is as large as the threshold (4MB by default), the texts are
+ * diffed by the hashes of lines and the HTML is written directly into the store,
+ * showing only the changed rows with a few rows of context around them;
+ * see StreamingTextDiffWriter.
  */
 public final class TextDifferToHTML extends AbstractTextDiffer implements Differ, HTMLPrettyPrintingCapable {
 
     private static final Logger logger = LoggerFactory.getLogger(TextDifferToHTML.class);
 
+    /**
+     * 4MB
+     */
+    public static final long DEFAULT_LARGE_FILE_THRESHOLD = 4L * 1024 * 1024;
+
+    public static final int DEFAULT_CONTEXT_LINES = 3;
+
     private boolean prettyPrinting = false;
 
+    private long largeFileThreshold = DEFAULT_LARGE_FILE_THRESHOLD;
+
+    private int contextLines = DEFAULT_CONTEXT_LINES;
+
     public TextDifferToHTML(Store store) {
         super(store);
     }
@@ -61,27 +79,21 @@ public final class TextDifferToHTML extends AbstractTextDiffer implements Differ
                                                final Material right,
                                                Charset charset)
             throws MaterialstoreException {
-        String leftText = readMaterial(store, left, charset);
-        String rightText = readMaterial(store, right, charset);
-
         //build simple lists of the lines of the two text files
-        List<String> leftLines = readAllLines(leftText);
-        List<String> rightLines = readAllLines(rightText);
+        List<String> leftLines = readAllLines(readMaterial(store, left, charset));
+        List<String> rightLines = readAllLines(readMaterial(store, right, charset));
+        return makeTextDiffContent(store, left, right, leftLines, rightLines);
+    }
 
+    @Override
+    protected TextDiffContent makeTextDiffContent(Store store,
+                                                  final Material left,
+                                                  final Material right,
+                                                  List<String> leftLines,
+                                                  List<String> rightLines)
+            throws MaterialstoreException {
         // Compute the difference between two texts and print it in human-readable markup style
-        DiffRowGenerator generator =
-                DiffRowGenerator.create()
-                        .showInlineDiffs(true)
-                        .inlineDiffByWord(true)
-                        .oldTag(f -> OLD_TAG)
-                        .newTag(f -> NEW_TAG)
-                        .lineNormalizer(str ->
-                                str.replaceAll("&lt;", "<")
-                                .replaceAll("&gt;", ">")
-                                .replaceAll("&quot;", "\"")
-                                .replaceAll("&apos;", "'")
-                                .replaceAll("&amp;", "&"))
-                        .build();
+        DiffRowGenerator generator = createDiffRowGenerator();
 
         final List<DiffRow> rows = generator.generateDiffRows(leftLines, rightLines);
 
@@ -111,32 +123,8 @@ public final class TextDifferToHTML extends AbstractTextDiffer implements Differ
                         changedRows.size()
                 ) * 100.0D / rows.size()
         );
-        String ratio = DifferUtil.formatDiffRatioAsString(diffRatio);
-
-
-        Map<String, Object> model = new HashMap<>();
-        model.put("rowsSize", rows.size());
-        model.put("insertedRowsSize", insertedRows.size());
-        model.put("deletedRowsSize", deletedRows.size());
-        model.put("changedRowsSize", changedRows.size());
-        model.put("equalRowsSize", equalRows.size());
-        model.put("ratio", ratio);
-        model.put("style", StyleHelper.loadStyleFromClasspath("/com/kazurayam/materialstore/base/reduce/differ/style.css"));
-        model.put("title", "TextDifferToHTML output");
-        Map<String, String> leftData = new HashMap<String, String>() {{
-            put("relativeURL", left.getRelativeURL());
-            put("fileType", left.getFileType().getExtension());
-            put("metadata", left.getMetadata().toString());
-            put("url", left.getMetadata().toURLAsString());
-        }};
-        Map<String, String> rightData = new HashMap<String, String>() {{
-            put("relativeURL", right.getRelativeURL());
-            put("fileType", right.getFileType().getExtension());
-            put("metadata", right.getMetadata().toString());
-            put("url", right.getMetadata().toURLAsString());
-        }};
-        model.put("leftData", leftData);
-        model.put("rightData", rightData);
+        Map<String, Object> model = makeModel(left, right,
+                insertedRows.size(), deletedRows.size(), changedRows.size(), equalRows.size(), diffRatio);
 
         List<Map<String, Object>> rowsAsModel = new ArrayList<>();
         int count = 1;
@@ -152,11 +140,11 @@ public final class TextDifferToHTML extends AbstractTextDiffer implements Differ
         }
         logger.debug("#makeTextDiffContent rowsAsModel.size()=" + rowsAsModel.size());
         model.put("rows", rowsAsModel);
-        model.put("OLD_TAG", OLD_TAG);
-        model.put("NEW_TAG", NEW_TAG);
 
         // compile the report content
-        String content = makeContentString(model);
+        Writer sw = new StringWriter();
+        processTemplate(store, model, sw);
+        String content = sw.toString();
         if (isPrettyPrintingEnabled()) {
             Document doc = Jsoup.parse(content, "", Parser.htmlParser());
             doc.outputSettings().indentAmount(2);
@@ -171,7 +159,129 @@ public final class TextDifferToHTML extends AbstractTextDiffer implements Differ
                         .build();
     }
 
-    private String makeContentString(Map<String, Object> model)
+    /**
+     * the data model of TextDifferToHTMLTemplate.ftlh except the rows; shared with StreamingTextDiffWriter
+     */
+    static Map<String, Object> makeModel(final Material left, final Material right,
+                                         int inserted, int deleted, int changed, int equal,
+                                         Double diffRatio) throws MaterialstoreException {
+        Map<String, Object> model = new HashMap<>();
+        model.put("rowsSize", inserted + deleted + changed + equal);
+        model.put("insertedRowsSize", inserted);
+        model.put("deletedRowsSize", deleted);
+        model.put("changedRowsSize", changed);
+        model.put("equalRowsSize", equal);
+        model.put("ratio", DifferUtil.formatDiffRatioAsString(diffRatio));
+        model.put("style", StyleHelper.loadStyleFromClasspath("/com/kazurayam/materialstore/base/reduce/differ/style.css"));
+        model.put("title", "TextDifferToHTML output");
+        Map<String, String> leftData = new HashMap<String, String>() {{
+            put("relativeURL", left.getRelativeURL());
+            put("fileType", left.getFileType().getExtension());
+            put("metadata", left.getMetadata().toString());
+            put("url", left.getMetadata().toURLAsString());
+        }};
+        Map<String, String> rightData = new HashMap<String, String>() {{
+            put("relativeURL", right.getRelativeURL());
+            put("fileType", right.getFileType().getExtension());
+            put("metadata", right.getMetadata().toString());
+            put("url", right.getMetadata().toURLAsString());
+        }};
+        model.put("leftData", leftData);
+        model.put("rightData", rightData);
+        model.put("OLD_TAG", OLD_TAG);
+        model.put("NEW_TAG", NEW_TAG);
+        return model;
+    }
+
+    static DiffRowGenerator createDiffRowGenerator() {
+        return DiffRowGenerator.create()
+                .showInlineDiffs(true)
+                .inlineDiffByWord(true)
+                .oldTag(f -> OLD_TAG)
+                .newTag(f -> NEW_TAG)
+                .lineNormalizer(str ->
+                        str.replaceAll("&lt;", "<")
+                                .replaceAll("&gt;", ">")
+                                .replaceAll("&quot;", "\"")
+                                .replaceAll("&apos;", "'")
+                                .replaceAll("&amp;", "&"))
+                .build();
+    }
+
+    /**
+     * A pair of texts either of which is as large as this or larger is diffed
+     * by StreamingTextDiffWriter.
+     */
+    public void setLargeFileThreshold(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative: " + bytes);
+        }
+        this.largeFileThreshold = bytes;
+    }
+
+    public long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+
+    /**
+     * the number of equal rows shown before and after each change of a large text diff
+     */
+    public void setContextLines(int contextLines) {
+        if (contextLines < 0) {
+            throw new IllegalArgumentException("contextLines must not be negative: " + contextLines);
+        }
+        this.contextLines = contextLines;
+    }
+
+    public int getContextLines() {
+        return contextLines;
+    }
+
+    @Override
+    public String getDiffOptions() {
+        StringBuilder sb = new StringBuilder(super.getDiffOptions());
+        if (largeFileThreshold != DEFAULT_LARGE_FILE_THRESHOLD) {
+            sb.append(",largeFileThreshold=").append(largeFileThreshold);
+        }
+        if (contextLines != DEFAULT_CONTEXT_LINES) {
+            sb.append(",contextLines=").append(contextLines);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true if either of the texts is as large as the threshold, and the charset
+     * encodes the line separators as the single bytes of ASCII
+     */
+    @Override
+    protected boolean isToBeStreamed(Material left, Material right, Charset charset)
+            throws MaterialstoreException {
+        if (left.equals(Material.NULL_OBJECT) || right.equals(Material.NULL_OBJECT)) {
+            return false;
+        }
+        if (!Arrays.equals("\r\n".getBytes(charset), new byte[] { '\r', '\n' })) {
+            return false;
+        }
+        try {
+            return Math.max(Files.size(left.toPath()), Files.size(right.toPath())) >= largeFileThreshold;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    @Override
+    protected TextDiffContent writeTextDiffContent(Store store,
+                                                   Material left, Material right,
+                                                   Charset charset, Writer writer)
+            throws MaterialstoreException {
+        return new StreamingTextDiffWriter(store, charset, contextLines).write(left, right, writer);
+    }
+
+    /**
+     * process TextDifferToHTMLTemplate.ftlh with the model into the writer.
+     * The rows in the model may be an Iterator, which is consumed as the rows are written.
+     */
+    static void processTemplate(Store store, Map<String, Object> model, Writer writer)
             throws MaterialstoreException {
         // Configure FreeMarker
         Configuration cfg = FreeMarkerConfigurator.configureFreeMarker(store);
@@ -186,14 +296,11 @@ public final class TextDifferToHTML extends AbstractTextDiffer implements Differ
         }
 
         // Merge data-model with the template
-        Writer sw = new StringWriter();
         try {
-            template.process(model, sw);
+            template.process(model, writer);
         } catch (IOException | TemplateException e) {
             throw new MaterialstoreException(e);
         }
-
-        return sw.toString();
     }
 
 }
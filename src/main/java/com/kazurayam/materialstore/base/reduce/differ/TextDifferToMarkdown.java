@@ -27,13 +27,19 @@ public final class TextDifferToMarkdown extends AbstractTextDiffer implements Di
                                                final Material original,
                                                final Material revised,
                                                Charset charset) throws MaterialstoreException {
-        String originalText = readMaterial(store, original, charset);
-        String revisedText = readMaterial(store, revised, charset);
-
         //build simple lists of the lines of the two text files
-        List<String> originalLines = readAllLines(originalText);
-        List<String> revisedLines = readAllLines(revisedText);
+        List<String> originalLines = readAllLines(readMaterial(store, original, charset));
+        List<String> revisedLines = readAllLines(readMaterial(store, revised, charset));
+        return makeTextDiffContent(store, original, revised, originalLines, revisedLines);
+    }
 
+    @Override
+    protected TextDiffContent makeTextDiffContent(Store store,
+                                                  final Material original,
+                                                  final Material revised,
+                                                  List<String> originalLines,
+                                                  List<String> revisedLines)
+            throws MaterialstoreException {
         // Compute the difference between two texts and print it in human-readable markup style
         DiffRowGenerator generator =
                 DiffRowGenerator.create()
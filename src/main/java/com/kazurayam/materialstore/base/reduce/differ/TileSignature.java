@@ -0,0 +1,186 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.Material;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * A block-wise signature of an image: a 64-bit hash of the pixels of every
+ * row tile (tileHeight rows each).
+ * <p>
+ * TiledImageDiffer compares the signatures of the left and the right images first,
+ * and runs the exact pixel comparison only for the tiles of which hash differs.
+ * The hash is computed over the exact ARGB values (FNV-1a), not a perceptual
+ * approximation, so that a small change is never overlooked and the diff ratio
+ * stays exact. Hashing every pixel costs as much as comparing them once, so a signature
+ * pays off only when it is reused. It is small (8 bytes per tile), and is persisted
+ * in the sidecar directory "&lt;JobName&gt;/&lt;JobTimestamp&gt;/signatures" next to
+ * the "objects" directory, named after the ID of the Material; an image that appears
+ * in several comparisons, in this run or in the later ones, is hashed only once.
+ */
+public final class TileSignature {
+
+    public static final String DIR_NAME = "signatures";
+
+    private static final int MAGIC = 0x54534947;    // "TSIG"
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int width;
+    private final int height;
+    private final int tileHeight;
+    private final long[] hashes;
+
+    private TileSignature(int width, int height, int tileHeight, long[] hashes) {
+        this.width = width;
+        this.height = height;
+        this.tileHeight = tileHeight;
+        this.hashes = hashes;
+    }
+
+    public static TileSignature of(BufferedImage image, int tileHeight) {
+        Objects.requireNonNull(image);
+        if (tileHeight <= 0) {
+            throw new IllegalArgumentException("tileHeight must be positive: " + tileHeight);
+        }
+        final RasterRowReader reader = new RasterRowReader(image);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int numTiles = (height + tileHeight - 1) / tileHeight;
+        final long[] hashes = new long[numTiles];
+        IntStream.range(0, numTiles).parallel().forEach(t -> {
+            int[] row = new int[width];
+            long h = FNV_OFFSET_BASIS;
+            int yEnd = Math.min((t + 1) * tileHeight, height);
+            for (int y = t * tileHeight; y < yEnd; y++) {
+                reader.readRow(y, row);
+                for (int x = 0; x < width; x++) {
+                    h ^= row[x];
+                    h *= FNV_PRIME;
+                }
+            }
+            hashes[t] = h;
+        });
+        return new TileSignature(width, height, tileHeight, hashes);
+    }
+
+    /**
+     * @return the path of the persisted signature of the Material, whether it has been written or not
+     */
+    public static Path toSignaturePath(Material material, int tileHeight) {
+        return material.getStore().getRoot()
+                .resolve(material.getJobName().toString())
+                .resolve(material.getJobTimestamp().toString())
+                .resolve(DIR_NAME)
+                .resolve(material.getID().toString() + "." + tileHeight + ".sig");
+    }
+
+    /**
+     * @return null if the file is not there
+     */
+    static TileSignature read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException(file + " is not a TileSignature");
+            }
+            int width = dis.readInt();
+            int height = dis.readInt();
+            int tileHeight = dis.readInt();
+            long[] hashes = new long[dis.readInt()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = dis.readLong();
+            }
+            return new TileSignature(width, height, tileHeight, hashes);
+        }
+    }
+
+    /**
+     * write into a temporary file first, then move it, so that no one reads a half-written signature
+     */
+    void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(width);
+                dos.writeInt(height);
+                dos.writeInt(tileHeight);
+                dos.writeInt(hashes.length);
+                for (long hash : hashes) {
+                    dos.writeLong(hash);
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getNumberOfTiles() {
+        return hashes.length;
+    }
+
+    public long getHash(int tileIndex) {
+        return hashes[tileIndex];
+    }
+
+    /**
+     * @return true if the tile of this signature and the one of the other are
+     * (almost certainly) the same. Only the tiles fully covered by both images
+     * of the same width are comparable.
+     */
+    boolean isTileSame(TileSignature other, int tileIndex) {
+        if (other == null || other.width != width || other.tileHeight != tileHeight) {
+            return false;
+        }
+        if (tileIndex >= hashes.length || tileIndex >= other.hashes.length) {
+            return false;
+        }
+        int yEnd = (tileIndex + 1) * tileHeight;
+        if (yEnd > height || yEnd > other.height) {
+            // the last tile of a shorter image is partial
+            if (height != other.height) {
+                return false;
+            }
+        }
+        return hashes[tileIndex] == other.hashes[tileIndex];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TileSignature{width=%d, height=%d, tileHeight=%d, tiles=%d}",
+                width, height, tileHeight, hashes.length);
+    }
+}
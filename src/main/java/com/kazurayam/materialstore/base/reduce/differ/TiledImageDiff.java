@@ -0,0 +1,132 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of TiledImageDiffer#makeDiff().
+ * The counterpart of the ImageDiff class of AShot.
+ */
+public final class TiledImageDiff {
+
+    private final int width;
+    private final int height;
+    private final int diffSize;
+    private final int tileHeight;
+    private final boolean[] differingTiles;
+    private final BufferedImage diffImage;
+    private final List<Rectangle> changedRegions;
+    private final int numberOfSkippedTiles;
+    private final ChangeMask changeMask;
+
+    TiledImageDiff(int width, int height, int diffSize, int tileHeight,
+                   boolean[] differingTiles, BufferedImage diffImage,
+                   List<Rectangle> changedRegions, int numberOfSkippedTiles,
+                   ChangeMask changeMask) {
+        this.width = width;
+        this.height = height;
+        this.diffSize = diffSize;
+        this.tileHeight = tileHeight;
+        this.differingTiles = differingTiles;
+        this.diffImage = diffImage;
+        this.changedRegions = Collections.unmodifiableList(changedRegions);
+        this.numberOfSkippedTiles = numberOfSkippedTiles;
+        this.changeMask = changeMask;
+    }
+
+    public boolean hasDiff() {
+        return diffSize > 0;
+    }
+
+    /**
+     * @return the number of pixels that differ
+     */
+    public int getDiffSize() {
+        return diffSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getNumberOfTiles() {
+        return differingTiles.length;
+    }
+
+    public int getNumberOfDifferingTiles() {
+        int count = 0;
+        for (boolean b : differingTiles) {
+            if (b) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    public boolean isTileDiffering(int tileIndex) {
+        return differingTiles[tileIndex];
+    }
+
+    /**
+     * @return the number of tiles which were found the same by the TileSignatures
+     * and therefore were not compared pixel by pixel
+     */
+    public int getNumberOfSkippedTiles() {
+        return numberOfSkippedTiles;
+    }
+
+    /**
+     * @return the bounding boxes of the changed regions, larger ones first.
+     * Empty if there is no difference.
+     */
+    public List<Rectangle> getChangedRegions() {
+        return changedRegions;
+    }
+
+    /**
+     * @return the runs of the differing pixels.
+     * null unless the differ was told to produce the ChangeMask.
+     */
+    public ChangeMask getChangeMask() {
+        return changeMask;
+    }
+
+    /**
+     * @return the image where the differing pixels are painted with the diff color.
+     * null if the TiledImageDiffer was told not to produce the diff image.
+     */
+    public BufferedImage getDiffImage() {
+        return diffImage;
+    }
+
+    /**
+     * Calculate the ratio of diff-size against the whole image size in percent.
+     * <p>
+     * The result is rounded up.  E.g. 0.0001 to 0.01
+     */
+    public Double getDiffRatioPercent() {
+        if (!hasDiff()) {
+            return 0.0;
+        }
+        long area = (long) width * height;
+        Double diffRatio = diffSize * 1.0D / area * 100;
+        return DifferUtil.roundUpTo2DecimalPlaces(diffRatio);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TiledImageDiff{width=%d, height=%d, diffSize=%d, tiles=%d/%d, skipped=%d, regions=%d}",
+                width, height, diffSize, getNumberOfDifferingTiles(), getNumberOfTiles(),
+                numberOfSkippedTiles, changedRegions.size());
+    }
+}
@@ -0,0 +1,390 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * An image diff engine which works directly on the raster data.
+ * <p>
+ * The images are split into tiles of rows (tileHeight rows each) which are
+ * compared in parallel. A pixel is regarded different if any of the A/R/G/B channels
+ * differs more than the channelTolerance. The pixels out of the intersection of the
+ * 2 images are regarded different, as AShot does.
+ * <p>
+ * The diff image is a copy of the left image where the differing pixels are painted
+ * with the diff color. A row without any difference is copied in bulk;
+ * only the rows in differing tiles are marked up pixel by pixel.
+ * <p>
+ * When the TileSignatures of the 2 images are given, the tiles of which hash
+ * is the same on both sides are skipped without the pixel comparison.
+ * <p>
+ * The differing pixels are also collected into the bounding boxes of
+ * the changed regions; see TiledImageDiff#getChangedRegions().
+ * Optionally they are recorded into a ChangeMask, which is a compact alternative
+ * to the diff image.
+ * <p>
+ * Both images are decoded in memory. ImageDiffStuffer hands the images larger than
+ * its streamingThreshold (1920 x 32768 pixels by default) to StreamingImageDiffer instead.
+ */
+public final class TiledImageDiffer {
+
+    public static final int DEFAULT_TILE_HEIGHT = 256;
+
+    public static final int DEFAULT_MAX_REGIONS = 50;
+
+    private final int tileHeight;
+    private final int channelTolerance;
+    private final Color diffColor;
+    private final boolean parallel;
+    private final boolean produceDiffImage;
+    private final int maxRegions;
+    private final boolean produceChangeMask;
+
+    private TiledImageDiffer(Builder builder) {
+        this.tileHeight = builder.tileHeight;
+        this.channelTolerance = builder.channelTolerance;
+        this.diffColor = builder.diffColor;
+        this.parallel = builder.parallel;
+        this.produceDiffImage = builder.produceDiffImage;
+        this.maxRegions = builder.maxRegions;
+        this.produceChangeMask = builder.produceChangeMask;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getChannelTolerance() {
+        return channelTolerance;
+    }
+
+    public int getMaxRegions() {
+        return maxRegions;
+    }
+
+    public TiledImageDiff makeDiff(BufferedImage left, BufferedImage right) {
+        return makeDiff(left, right, null, null);
+    }
+
+    /**
+     * @param leftSignature TileSignature of the left image, may be null
+     * @param rightSignature TileSignature of the right image, may be null
+     */
+    public TiledImageDiff makeDiff(BufferedImage left, BufferedImage right,
+                                   TileSignature leftSignature, TileSignature rightSignature) {
+        return makeDiff(left, right, leftSignature, rightSignature, null);
+    }
+
+    /**
+     * @param monitor of the verdict first mode, may be null. Once the monitor is aborted,
+     *                the rest of the tiles are not compared; the result is incomplete
+     *                and should be discarded.
+     */
+    TiledImageDiff makeDiff(BufferedImage left, BufferedImage right,
+                            TileSignature leftSignature, TileSignature rightSignature,
+                            VerdictPolicy.Monitor monitor) {
+        Objects.requireNonNull(left);
+        Objects.requireNonNull(right);
+        final RasterRowReader leftReader = new RasterRowReader(left);
+        final RasterRowReader rightReader = new RasterRowReader(right);
+        final int width = Math.max(left.getWidth(), right.getWidth());
+        final int height = Math.max(left.getHeight(), right.getHeight());
+        final boolean prefilter = isApplicable(leftSignature, left) &&
+                isApplicable(rightSignature, right);
+        final BufferedImage diffImage;
+        final int[] diffData;
+        if (produceDiffImage) {
+            int type = (leftReader.hasAlpha() || rightReader.hasAlpha())
+                    ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            diffImage = new BufferedImage(width, height, type);
+            diffData = ((DataBufferInt) diffImage.getRaster().getDataBuffer()).getData();
+        } else {
+            diffImage = null;
+            diffData = null;
+        }
+        if (monitor != null) {
+            monitor.begin((long) width * height);
+        }
+        final int numTiles = (height + tileHeight - 1) / tileHeight;
+        final int[] tileDiffSizes = new int[numTiles];
+        final boolean[] skippedTiles = new boolean[numTiles];
+        final ChangeGrid[] grids = new ChangeGrid[numTiles];
+        final ChangeMask.Recorder[] recorders = new ChangeMask.Recorder[numTiles];
+        IntStream tiles = IntStream.range(0, numTiles);
+        if (parallel) {
+            tiles = tiles.parallel();
+        }
+        tiles.forEach(t -> {
+            if (monitor != null && monitor.isAborted()) {
+                return;
+            }
+            if (prefilter && leftSignature.isTileSame(rightSignature, t)) {
+                skippedTiles[t] = true;
+                copyTile(t, leftReader, width, height, diffData);
+                if (monitor != null) {
+                    int rows = Math.min(tileHeight, height - t * tileHeight);
+                    monitor.record((long) rows * width, 0);
+                }
+            } else {
+                int yStart = t * tileHeight;
+                int yEnd = Math.min(yStart + tileHeight, height);
+                grids[t] = new ChangeGrid(width, yStart, yEnd, ChangeGrid.DEFAULT_CELL_SIZE);
+                if (produceChangeMask) {
+                    recorders[t] = new ChangeMask.Recorder();
+                }
+                tileDiffSizes[t] = diffTile(t, leftReader, rightReader, width, height, diffData,
+                        grids[t], recorders[t], monitor);
+            }
+        });
+        int diffSize = 0;
+        int numSkipped = 0;
+        boolean[] differingTiles = new boolean[numTiles];
+        ChangeGrid grid = new ChangeGrid(width, height, ChangeGrid.DEFAULT_CELL_SIZE);
+        for (int t = 0; t < numTiles; t++) {
+            diffSize += tileDiffSizes[t];
+            differingTiles[t] = tileDiffSizes[t] > 0;
+            if (skippedTiles[t]) {
+                numSkipped += 1;
+            } else if (differingTiles[t] && grids[t] != null) {
+                grids[t].mergeInto(grid);
+            }
+        }
+        List<Rectangle> regions = grid.toRegions(maxRegions);
+        ChangeMask changeMask = produceChangeMask
+                ? ChangeMask.of(width, height, diffColor, Arrays.asList(recorders))
+                : null;
+        return new TiledImageDiff(width, height, diffSize, tileHeight, differingTiles, diffImage,
+                regions, numSkipped, changeMask);
+    }
+
+    /*
+     * A TileSignature is usable only if it was made of the image with the same tileHeight
+     */
+    private boolean isApplicable(TileSignature signature, BufferedImage image) {
+        return signature != null &&
+                signature.getTileHeight() == tileHeight &&
+                signature.getWidth() == image.getWidth() &&
+                signature.getHeight() == image.getHeight();
+    }
+
+    /*
+     * copies the rows of the left image in a tile which is known to have no difference
+     */
+    private void copyTile(int tileIndex, RasterRowReader leftReader,
+                          int width, int height, int[] diffData) {
+        if (diffData == null) {
+            return;
+        }
+        final int[] leftRow = new int[width];
+        final int yStart = tileIndex * tileHeight;
+        final int yEnd = Math.min(yStart + tileHeight, height);
+        for (int y = yStart; y < yEnd; y++) {
+            leftReader.readRow(y, leftRow);
+            System.arraycopy(leftRow, 0, diffData, y * width, width);
+        }
+    }
+
+    /*
+     * compares the rows of a tile; returns the number of differing pixels
+     */
+    private int diffTile(int tileIndex,
+                         RasterRowReader leftReader, RasterRowReader rightReader,
+                         int width, int height, int[] diffData,
+                         ChangeGrid grid, ChangeMask.Recorder recorder,
+                         VerdictPolicy.Monitor monitor) {
+        final int[] leftRow = new int[leftReader.getWidth()];
+        final int[] rightRow = new int[rightReader.getWidth()];
+        final int yStart = tileIndex * tileHeight;
+        final int yEnd = Math.min(yStart + tileHeight, height);
+        int count = 0;
+        for (int y = yStart; y < yEnd; y++) {
+            boolean inLeft = y < leftReader.getHeight();
+            boolean inRight = y < rightReader.getHeight();
+            if (inLeft) {
+                leftReader.readRow(y, leftRow);
+            }
+            if (inRight) {
+                rightReader.readRow(y, rightRow);
+            }
+            int rowCount = diffRow(inLeft ? leftRow : null, inRight ? rightRow : null,
+                    width, diffData, y * width, grid, recorder, y);
+            count += rowCount;
+            if (monitor != null && !monitor.record(width, rowCount)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * compares a row of the left image and a row of the right image;
+     * returns the number of differing pixels.
+     * If diffData is not null, the marked up row is written into it at the offset.
+     * If grid is not null, the differing pixels are marked in it at the row y.
+     * If recorder is not null, the runs of the differing pixels are recorded into it.
+     * leftRow or rightRow is null when the row is out of the image.
+     */
+    int diffRow(int[] leftRow, int[] rightRow, int width, int[] diffData, int offset,
+                ChangeGrid grid, ChangeMask.Recorder recorder, int y) {
+        final int diffRGB = diffColor.getRGB();
+        if (leftRow == null || rightRow == null) {
+            // the row is out of either of the images
+            if (diffData != null) {
+                Arrays.fill(diffData, offset, offset + width, diffRGB);
+            }
+            if (grid != null) {
+                grid.markRange(y, 0, width - 1);
+            }
+            if (recorder != null) {
+                recorder.addRun(y, 0, width - 1);
+            }
+            return width;
+        }
+        final int overlapWidth = Math.min(Math.min(leftRow.length, rightRow.length), width);
+        int count = width - overlapWidth;
+        int runStart = -1;
+        for (int x = 0; x < overlapWidth; x++) {
+            if (leftRow[x] != rightRow[x] && isDifferent(leftRow[x], rightRow[x])) {
+                count += 1;
+                if (grid != null) {
+                    grid.mark(x, y);
+                }
+                if (runStart < 0) {
+                    runStart = x;
+                }
+            } else if (runStart >= 0) {
+                if (recorder != null) {
+                    recorder.addRun(y, runStart, x - 1);
+                }
+                runStart = -1;
+            }
+        }
+        if (overlapWidth < width) {
+            // the columns out of either of the images
+            if (grid != null) {
+                grid.markRange(y, overlapWidth, width - 1);
+            }
+            if (runStart < 0) {
+                runStart = overlapWidth;
+            }
+        }
+        if (runStart >= 0 && recorder != null) {
+            recorder.addRun(y, runStart, width - 1);
+        }
+        if (diffData != null) {
+            if (count == 0) {
+                System.arraycopy(leftRow, 0, diffData, offset, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    if (x < overlapWidth) {
+                        diffData[offset + x] = isDifferent(leftRow[x], rightRow[x])
+                                ? diffRGB : leftRow[x];
+                    } else {
+                        diffData[offset + x] = diffRGB;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean isDifferent(int argb1, int argb2) {
+        if (argb1 == argb2) {
+            return false;
+        }
+        if (channelTolerance == 0) {
+            return true;
+        }
+        for (int shift = 0; shift < 32; shift += 8) {
+            int c1 = (argb1 >>> shift) & 0xFF;
+            int c2 = (argb2 >>> shift) & 0xFF;
+            if (Math.abs(c1 - c2) > channelTolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     */
+    public static class Builder {
+        private int tileHeight = DEFAULT_TILE_HEIGHT;
+        private int channelTolerance = 0;
+        private Color diffColor = Color.RED;
+        private boolean parallel = true;
+        private boolean produceDiffImage = true;
+        private int maxRegions = DEFAULT_MAX_REGIONS;
+        private boolean produceChangeMask = false;
+
+        public Builder tileHeight(int tileHeight) {
+            if (tileHeight <= 0) {
+                throw new IllegalArgumentException("tileHeight must be positive: " + tileHeight);
+            }
+            this.tileHeight = tileHeight;
+            return this;
+        }
+
+        /**
+         * @param channelTolerance 0..255; the pixels of which every channel differs
+         *                         within this value are regarded the same
+         */
+        public Builder channelTolerance(int channelTolerance) {
+            if (channelTolerance < 0 || 255 < channelTolerance) {
+                throw new IllegalArgumentException("channelTolerance must be in 0..255: " + channelTolerance);
+            }
+            this.channelTolerance = channelTolerance;
+            return this;
+        }
+
+        public Builder diffColor(Color diffColor) {
+            Objects.requireNonNull(diffColor);
+            this.diffColor = diffColor;
+            return this;
+        }
+
+        public Builder parallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
+        public Builder produceDiffImage(boolean produceDiffImage) {
+            this.produceDiffImage = produceDiffImage;
+            return this;
+        }
+
+        /**
+         * @param maxRegions the maximum number of the changed regions reported;
+         *                   the largest ones are kept
+         */
+        public Builder maxRegions(int maxRegions) {
+            if (maxRegions < 0) {
+                throw new IllegalArgumentException("maxRegions must not be negative: " + maxRegions);
+            }
+            this.maxRegions = maxRegions;
+            return this;
+        }
+
+        /**
+         * @param produceChangeMask if true, TiledImageDiff#getChangeMask() returns the mask
+         */
+        public Builder produceChangeMask(boolean produceChangeMask) {
+            this.produceChangeMask = produceChangeMask;
+            return this;
+        }
+
+        public TiledImageDiffer build() {
+            return new TiledImageDiffer(this);
+        }
+    }
+}
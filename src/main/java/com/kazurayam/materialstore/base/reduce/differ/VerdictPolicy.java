@@ -0,0 +1,241 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.Material;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The criteria of the "verdict first" mode of Differ#stuffVerdict(MaterialProduct, VerdictPolicy).
+ * <p>
+ * When all we want to know is whether the diff ratio of a MaterialProduct exceeds the threshold
+ * of the MaterialProductGroup, it is a waste to count every differing pixel of a radically
+ * different page, and to encode the full diff artifact. In the verdict first mode a Differ
+ * stops as soon as the ratio provably exceeds the threshold, or when the time budget
+ * per MaterialProduct runs out. Such a MaterialProduct is stuffed with a small placeholder
+ * diff Material which has the "partial" metadata (see Partial), and with a diff ratio which
+ * is a bound of the exact one:
+ * <ul>
+ * <li>EXCEEDED: the lower bound, which is greater than the threshold</li>
+ * <li>TIMED_OUT: the upper bound, so that the product is regarded as exceeding unless
+ *     proved otherwise</li>
+ * </ul>
+ * The full diff can be made later on demand by Differ#stuffDiff(MaterialProduct).
+ */
+public final class VerdictPolicy {
+
+    /**
+     * the key of the metadata of a partial diff Material
+     */
+    public static final String METADATA_KEY_PARTIAL = "partial";
+
+    /**
+     * the reason why a diff is partial; the value of the "partial" metadata
+     */
+    public enum Partial {
+        EXCEEDED("exceeds (partial)"),
+        TIMED_OUT("time budget exceeded (partial)");
+
+        private final String description;
+
+        Partial(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final double threshold;
+    private final long timeBudgetMillis;
+
+    private VerdictPolicy(Builder builder) {
+        this.threshold = builder.threshold;
+        this.timeBudgetMillis = builder.timeBudgetMillis;
+    }
+
+    public static Builder builder(double threshold) {
+        return new Builder(threshold);
+    }
+
+    /**
+     * @return the diff ratio in percent; a MaterialProduct of which ratio is greater than this exceeds
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the time budget per MaterialProduct in milliseconds; 0 for unlimited
+     */
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    /**
+     * @return true if the diff Material of the MaterialProduct was made in the verdict first mode
+     * and is not the full diff
+     */
+    public static boolean isPartial(MaterialProduct mProduct) {
+        Objects.requireNonNull(mProduct);
+        Material diff = mProduct.getDiff();
+        return diff != null && !diff.equals(Material.NULL_OBJECT) &&
+                diff.getMetadata().containsKey(METADATA_KEY_PARTIAL);
+    }
+
+    /**
+     * start watching a diff of a MaterialProduct; the time budget counts from now
+     */
+    Monitor start() {
+        long deadline = (timeBudgetMillis > 0)
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis)
+                : Long.MAX_VALUE;
+        return new Monitor(threshold, deadline);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VerdictPolicy{threshold=%.2f, timeBudgetMillis=%d}", threshold, timeBudgetMillis);
+    }
+
+    /**
+     * watches a diff in progress. The Differ tells the total number of units (pixels or rows)
+     * by #begin(long), then records the units checked and the units found different.
+     * Once it returns false, the Differ should stop. Thread-safe.
+     */
+    static final class Monitor {
+
+        private final double threshold;
+        private final long deadline;
+        private final AtomicLong checked = new AtomicLong(0);
+        private final AtomicLong different = new AtomicLong(0);
+        private volatile long total = 0;
+        private volatile Partial partial = null;
+        private volatile double lowerBound = -1.0d;
+
+        Monitor(double threshold, long deadline) {
+            this.threshold = threshold;
+            this.deadline = deadline;
+        }
+
+        void begin(long totalUnits) {
+            this.total = totalUnits;
+        }
+
+        /**
+         * @return false if the diff should be stopped
+         */
+        boolean record(long checkedUnits, long differentUnits) {
+            if (partial != null) {
+                return false;
+            }
+            checked.addAndGet(checkedUnits);
+            long diff = (differentUnits > 0) ? different.addAndGet(differentUnits) : different.get();
+            if (differentUnits > 0 && isExceeding(diff)) {
+                abort(Partial.EXCEEDED);
+                return false;
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                abort(Partial.TIMED_OUT);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return false if the time budget is over
+         */
+        boolean checkTime() {
+            return record(0, 0);
+        }
+
+        /**
+         * stop with the lower bound of the ratio known otherwise, e.g. out of the line counts
+         */
+        boolean checkLowerBound(double lowerBoundPercent) {
+            if (DifferUtil.roundUpTo2DecimalPlaces(lowerBoundPercent) > threshold) {
+                lowerBound = lowerBoundPercent;
+                abort(Partial.EXCEEDED);
+                return false;
+            }
+            return checkTime();
+        }
+
+        /*
+         * the ratio is compared as rounded, as MaterialProductGroup does
+         */
+        private boolean isExceeding(long diff) {
+            if (total <= 0) {
+                return false;
+            }
+            double lower = diff * 100.0D / total;
+            return lower > threshold && DifferUtil.roundUpTo2DecimalPlaces(lower) > threshold;
+        }
+
+        private synchronized void abort(Partial reason) {
+            if (partial == null) {
+                partial = reason;
+            }
+        }
+
+        boolean isAborted() {
+            return partial != null;
+        }
+
+        Partial getPartial() {
+            return partial;
+        }
+
+        /**
+         * @return the bound of the diff ratio to be reported for the partial diff;
+         * the lower bound if EXCEEDED, the upper bound if TIMED_OUT
+         */
+        Double getBoundOfDiffRatio() {
+            if (partial == Partial.EXCEEDED) {
+                if (lowerBound >= 0) {
+                    return DifferUtil.roundUpTo2DecimalPlaces(lowerBound);
+                }
+                return DifferUtil.roundUpTo2DecimalPlaces(different.get() * 100.0D / total);
+            }
+            if (total <= 0) {
+                return 100.0d;
+            }
+            long unchecked = Math.max(0, total - checked.get());
+            return DifferUtil.roundUpTo2DecimalPlaces(
+                    Math.min(total, different.get() + unchecked) * 100.0D / total);
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Builder {
+        private final double threshold;
+        private long timeBudgetMillis = 0;
+
+        public Builder(double threshold) {
+            if (threshold < 0) {
+                throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+            }
+            this.threshold = threshold;
+        }
+
+        /**
+         * @param millis the time budget per MaterialProduct; 0 for unlimited
+         */
+        public Builder timeBudgetMillis(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("millis must not be negative: " + millis);
+            }
+            this.timeBudgetMillis = millis;
+            return this;
+        }
+
+        public VerdictPolicy build() {
+            return new VerdictPolicy(this);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.kazurayam.materialstore.base.reduce.differ;
 
 import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.base.report.FreeMarkerConfigurator;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.Jobber;
 import com.kazurayam.materialstore.core.Material;
@@ -8,11 +9,9 @@ import com.kazurayam.materialstore.core.MaterialLocator;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.Store;
-import freemarker.cache.ClassTemplateLoader;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.TemplateExceptionHandler;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -29,20 +28,9 @@ import java.util.Objects;
 public final class VoidDiffer implements Differ {
 
     private final Store store;
-    private final Configuration cfg;
 
     public VoidDiffer(Store store) {
         this.store = store;
-        // FreeMarker Configuration
-        cfg = new Configuration(Configuration.VERSION_2_3_31);
-        // we will load FreeMarker templates from CLASSPATH
-        cfg.setTemplateLoader(new ClassTemplateLoader(VoidDiffer.class.getClassLoader(), "freemarker_templates"));
-        // Recommended FreeMarker settings
-        cfg.setDefaultEncoding("UTF-8");
-        cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
-        cfg.setLogTemplateExceptions(false);
-        cfg.setWrapUncheckedExceptions(true);
-        cfg.setFallbackOnNullLoopVariable(false);
     }
 
     @Override
@@ -57,6 +45,8 @@ public final class VoidDiffer implements Differ {
         dataModel.put("left", left.toString());
         dataModel.put("right", right.toString());
 
+        // the FreeMarker Configuration shared with the reporters
+        Configuration cfg = FreeMarkerConfigurator.configureFreeMarker(store);
         try {
             // Get the template
             Template template = cfg.getTemplate("com/kazurayam/materialstore/reduce/differ/VoidDifferTemplate.ftlh");
@@ -79,7 +69,7 @@ public final class VoidDiffer implements Differ {
                             .build();
 
             assert store != null;
-            Jobber jobber = new Jobber(store, right.getJobName(), mProduct.getReducedTimestamp());
+            Jobber jobber = store.getJobber(right.getJobName(), mProduct.getReducedTimestamp());
             Material diffMaterial =
                     jobber.write(diffData,
                             FileType.HTML,
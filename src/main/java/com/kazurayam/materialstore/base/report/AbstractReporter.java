@@ -11,6 +11,7 @@ public abstract class AbstractReporter implements HTMLPrettyPrintingCapable {
 
     protected boolean verboseLogging = false;
     protected boolean prettyPrinting = false;
+    protected boolean thumbnails = false;
 
     void enableVerboseLogging(boolean verboseLogging) {
         this.verboseLogging = verboseLogging;
@@ -28,6 +29,17 @@ public abstract class AbstractReporter implements HTMLPrettyPrintingCapable {
     @Override
     public boolean isPrettyPrintingEnabled() { return this.prettyPrinting; }
 
+    /**
+     * if enabled, the thumbnails of the images are generated by ThumbnailGenerator
+     * before the report is compiled, and the report loads a full-resolution image
+     * only when it is opened
+     */
+    public void enableThumbnails(boolean thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    public boolean isThumbnailsEnabled() { return this.thumbnails; }
+
 
     String getTitle(Path file) {
         String fileName = file.getFileName().toString();
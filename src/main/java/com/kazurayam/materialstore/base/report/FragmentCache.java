@@ -0,0 +1,275 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.google.gson.stream.JsonWriter;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialIO;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.SortKeys;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * renders the HTML fragment of a MaterialProduct in a report by MaterialProductFragmentTemplate,
+ * and caches it so that the report of a MaterialProductGroup is compiled again re-rendering
+ * only the MaterialProducts changed since.
+ * <p>
+ * A fragment is rendered with a placeholder in place of the index of the MaterialProduct,
+ * which is replaced as the fragment is put into the report; so a fragment cached is reusable
+ * whatever position the MaterialProduct takes in the new order. The key of a fragment is the
+ * SHA1 of everything the fragment is rendered out of: the version of the templates, the
+ * MaterialProduct as the JSON for model-manager.js has it, its identification by the SortKeys,
+ * the URLs of the thumbnails, whether it exceeds the thresholds, the labels and the title.
+ * So a fragment cached never gets stale.
+ * <p>
+ * The fragments are stored in the sidecar directory "&lt;JobName&gt;/&lt;JobTimestamp&gt;/fragments"
+ * of the diff of the MaterialProduct (of the right or the left if not diffed), and go away
+ * together with the JobTimestamp. A fragment is named "&lt;ID&gt;.&lt;product key&gt;.&lt;key&gt;.html",
+ * where the ID is of the Material it is stored with, so that the OrphanCollector finds the fragments
+ * of the Materials deleted, and the product key identifies the MaterialProduct by its left and
+ * right Materials and its query. Only one fragment of a MaterialProduct is kept: as a fragment
+ * is written, the others of the same product key, rendered with another title, threshold
+ * or templates, are deleted.
+ * If not persistent, the FragmentCache just renders.
+ */
+final class FragmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FragmentCache.class);
+
+    static final String DIR_NAME = "fragments";
+
+    static final String INDEX_PLACEHOLDER = "__materialProductIndex__";
+
+    // the templates which a fragment is rendered out of
+    private static final String[] TEMPLATE_RESOURCES = {
+            "freemarker_templates/com/kazurayam/materialstore/report/MaterialProductFragmentTemplate.ftlh",
+            "freemarker_templates/com/kazurayam/materialstore/report/MaterialProductItemTemplate.ftlh",
+            "freemarker_templates/com/kazurayam/materialstore/filesystem/MetadataTemplate.ftlh"
+    };
+
+    private static volatile String templateVersion = null;
+
+    private final Template fragmentTemplate;
+    private final boolean persistent;
+    private final AtomicInteger hits = new AtomicInteger(0);
+    private final AtomicInteger misses = new AtomicInteger(0);
+
+    FragmentCache(Template fragmentTemplate, boolean persistent) {
+        this.fragmentTemplate = Objects.requireNonNull(fragmentTemplate);
+        this.persistent = persistent;
+    }
+
+    /**
+     * @return the number of the fragments found in the cache
+     */
+    int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of the fragments rendered
+     */
+    int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @param groupModel the properties of the MaterialProductGroup: threshold, labelLeft and labelRight
+     * @param threshold the threshold of the reporter which marks the diffRatio as warning
+     * @return the HTML fragment of the MaterialProduct at the index in the report
+     */
+    String render(MaterialProduct mProduct, int index, Map<String, Object> groupModel,
+                  String title, Double threshold, SortKeys sortKeys) throws MaterialstoreException {
+        Objects.requireNonNull(mProduct);
+        Objects.requireNonNull(groupModel);
+        String html = null;
+        Path file = null;
+        if (persistent) {
+            Material owner = getOwner(mProduct);
+            if (owner != null) {
+                file = owner.getStore().getRoot()
+                        .resolve(owner.getJobName().toString())
+                        .resolve(owner.getJobTimestamp().toString())
+                        .resolve(DIR_NAME)
+                        .resolve(owner.getID() + "." + productKeyOf(mProduct) + "."
+                                + keyOf(mProduct, groupModel, title, threshold, sortKeys) + ".html");
+                html = read(file);
+            }
+        }
+        if (html != null) {
+            hits.incrementAndGet();
+        } else {
+            Map<String, Object> fragmentModel = new HashMap<>();
+            fragmentModel.put("title", title);
+            fragmentModel.put("threshold", threshold);
+            fragmentModel.put("mProductGroup", groupModel);
+            fragmentModel.put("index", INDEX_PLACEHOLDER);
+            fragmentModel.put("mProduct", ReportTemplateModels.of(mProduct, sortKeys));
+            try {
+                Writer sw = new StringWriter();
+                fragmentTemplate.process(fragmentModel, sw);
+                html = sw.toString();
+            } catch (IOException | TemplateException e) {
+                throw new MaterialstoreException(e);
+            }
+            misses.incrementAndGet();
+            if (file != null) {
+                write(file, html);
+                pruneOthers(file);
+            }
+        }
+        return html.replace(INDEX_PLACEHOLDER, String.valueOf(index));
+    }
+
+    /*
+     * the Material in whose JobTimestamp the fragment is stored; null if the MaterialProduct has none
+     */
+    private static Material getOwner(MaterialProduct mProduct) {
+        for (Material material : new Material[]{ mProduct.getDiff(), mProduct.getRight(), mProduct.getLeft() }) {
+            if (material != null && !material.isEmpty()) {
+                return material;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * the SHA1 of the IDs of the left and right Materials and of the query of the MaterialProduct,
+     * which the fragments of the MaterialProduct rendered in different ways share
+     */
+    static String productKeyOf(MaterialProduct mProduct) {
+        String identity = mProduct.getLeft().getID() + "/" + mProduct.getRight().getID() + "/"
+                + mProduct.getQueryOnMetadata().getQueryIdentification(new SortKeys());
+        return MaterialIO.hashJDK(identity.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String keyOf(MaterialProduct mProduct, Map<String, Object> groupModel,
+                        String title, Double threshold, SortKeys sortKeys) throws MaterialstoreException {
+        StringWriter sw = new StringWriter();
+        try {
+            JsonWriter jw = new JsonWriter(sw);
+            jw.beginObject();
+            jw.name("templateVersion").value(getTemplateVersion());
+            jw.name("title").value(title);
+            jw.name("labelLeft").value(String.valueOf(groupModel.get("labelLeft")));
+            jw.name("labelRight").value(String.valueOf(groupModel.get("labelRight")));
+            // the templates compare the diffRatio with the thresholds, but never print them
+            double diffRatio = mProduct.getDiffRatio();
+            jw.name("exceedsGroupThreshold").value(
+                    diffRatio > ((Number) groupModel.get("threshold")).doubleValue());
+            jw.name("exceedsThreshold").value(diffRatio > threshold);
+            jw.name("identification").value(mProduct.getQueryIdentification(sortKeys).toString());
+            jw.name("thumbnails").beginArray();
+            for (Material material : new Material[]{ mProduct.getLeft(), mProduct.getRight(), mProduct.getDiff() }) {
+                jw.value(ThumbnailGenerator.getThumbnailURL(material));
+            }
+            jw.endArray();
+            jw.name("mProduct");
+            MaterialProductGroupJsonDirective.writeProduct(jw, mProduct);
+            jw.endObject();
+            jw.flush();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return MaterialIO.hashJDK(sw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * the SHA1 of the templates, which changes as the library is upgraded with the templates modified
+     */
+    static String getTemplateVersion() throws MaterialstoreException {
+        String version = templateVersion;
+        if (version == null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ClassLoader cl = FragmentCache.class.getClassLoader();
+            for (String resource : TEMPLATE_RESOURCES) {
+                try (InputStream is = cl.getResourceAsStream(resource)) {
+                    if (is == null) {
+                        throw new MaterialstoreException("resource not found: " + resource);
+                    }
+                    is.transferTo(baos);
+                } catch (IOException e) {
+                    throw new MaterialstoreException(e);
+                }
+            }
+            version = MaterialIO.hashJDK(baos.toByteArray());
+            templateVersion = version;
+        }
+        return version;
+    }
+
+    /*
+     * @return null if not cached
+     */
+    private static String read(Path file) throws MaterialstoreException {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /*
+     * delete the other fragments of the same product key than the file
+     */
+    private static void pruneOthers(Path file) {
+        String name = file.getFileName().toString();
+        String glob = name.substring(0, name.indexOf('.', name.indexOf('.') + 1)) + ".*.html";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), glob)) {
+            for (Path other : stream) {
+                if (!other.getFileName().toString().equals(name)) {
+                    Files.deleteIfExists(other);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("failed to prune the fragments of " + file, e);
+        }
+    }
+
+    private static void write(Path file, String html) throws MaterialstoreException {
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            // other processes may be caching the same fragment; the one moved last wins
+            tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(tmp, html.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    logger.warn("failed to delete " + tmp, e);
+                }
+            }
+        }
+    }
+}
@@ -9,10 +9,51 @@ import freemarker.template.Configuration;
 import freemarker.template.TemplateExceptionHandler;
 import freemarker.template.TemplateModelException;
 
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
 public final class FreeMarkerConfigurator {
 
+    /*
+     * The Configuration is shared process-wide per the root directory of the Store,
+     * as the root is the only thing that differs. A Configuration caches the templates
+     * it has compiled, so that the templates are parsed once in a JVM however many
+     * reports are made. A Configuration is thread-safe once configured.
+     */
+    private static final Map<Path, Configuration> CACHE = new ConcurrentHashMap<>();
+
+    private FreeMarkerConfigurator() {}
+
+    /**
+     * @return the Configuration shared among the reporters of the store;
+     * it must not be modified by the caller
+     */
     public static Configuration configureFreeMarker(Store store)
             throws MaterialstoreException {
+        Objects.requireNonNull(store);
+        Path root = store.getRoot().normalize().toAbsolutePath();
+        Configuration cfg = CACHE.get(root);
+        if (cfg == null) {
+            Configuration created = createConfiguration(root);
+            cfg = CACHE.putIfAbsent(root, created);
+            if (cfg == null) {
+                cfg = created;
+            }
+        }
+        return cfg;
+    }
+
+    /**
+     * forget the shared Configurations, together with the templates compiled
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    private static Configuration createConfiguration(Path root)
+            throws MaterialstoreException {
         // create and adjust the configuration singleton
         Configuration cfg = new Configuration(Configuration.VERSION_2_3_31);
         // we will load FreeMarker templates from CLASSPATH
@@ -20,6 +61,9 @@ public final class FreeMarkerConfigurator {
                 MaterialListReporterImpl.class.getClassLoader(),
                 "freemarker_templates"
         ));
+        // the templates in the CLASSPATH never change while the process runs;
+        // no need to check if the compiled ones are up-to-date
+        cfg.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
         // Recommended settings for new projects:
         cfg.setDefaultEncoding("UTF-8");
         cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
@@ -31,9 +75,8 @@ public final class FreeMarkerConfigurator {
         try {
             cfg.setSharedVariable("readAllLines",
                     new ReadAllLinesDirective());
-            cfg.setSharedVariable("store",
-                    store.getRoot().normalize().toAbsolutePath().toString());
-            cfg.setSharedVariable("baseDir", store.getRoot().normalize().toAbsolutePath().toString());
+            cfg.setSharedVariable("store", root.toString());
+            cfg.setSharedVariable("baseDir", root.toString());
             cfg.setSharedVariable("compressToSingleLine",
                     new CompressToSingleLineDirective());
         } catch (TemplateModelException e) {
@@ -2,6 +2,10 @@ package com.kazurayam.materialstore.base.report;
 
 public interface HTMLPrettyPrintingCapable {
 
+    /**
+     * @param prettyPrinting if true, the blank lines and the trailing spaces are removed
+     *                       from the HTML as it is written; the indentation is the templates'
+     */
     void enablePrettyPrinting(boolean prettyPrinting);
 
     boolean isPrettyPrintingEnabled();
@@ -0,0 +1,154 @@
+package com.kazurayam.materialstore.base.report;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * A streaming replacement of the pretty printing by jsoup.
+ * <p>
+ * The templates are indented already; what spoils the HTML generated out of them is
+ * the lines which FreeMarker leaves blank or padded with spaces. This Writer drops
+ * the blank lines and trims the trailing spaces as the HTML passes through,
+ * holding no more than a line in memory. The lines inside &lt;pre&gt; and
+ * &lt;textarea&gt; elements are passed as they are, as the whitespaces there are
+ * significant.
+ */
+final class HTMLTidyingWriter extends FilterWriter {
+
+    private final StringBuilder line = new StringBuilder();
+    private String preservingUntil = null;
+
+    HTMLTidyingWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (c == '\n') {
+            endLine();
+        } else {
+            line.append((char) c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (cbuf[i] == '\n') {
+                line.append(cbuf, start, i - start);
+                endLine();
+                start = i + 1;
+            }
+        }
+        line.append(cbuf, start, end - start);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (str.charAt(i) == '\n') {
+                line.append(str, start, i);
+                endLine();
+                start = i + 1;
+            }
+        }
+        line.append(str, start, end);
+    }
+
+    /**
+     * the incomplete last line is kept until the next line break or #close()
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (line.length() > 0) {
+            emit(false);
+        }
+        out.close();
+    }
+
+    private void endLine() throws IOException {
+        emit(true);
+    }
+
+    private void emit(boolean newline) throws IOException {
+        String s = line.toString();
+        line.setLength(0);
+        if (updatePreserving(s)) {
+            out.write(s);
+        } else {
+            int e = s.length();
+            while (e > 0 && Character.isWhitespace(s.charAt(e - 1))) {
+                e--;
+            }
+            if (e == 0) {
+                return;
+            }
+            out.write(s, 0, e);
+        }
+        if (newline) {
+            out.write('\n');
+        }
+    }
+
+    /*
+     * follow the opening and closing tags of <pre> and <textarea> in the line;
+     * returns true if any part of the line is inside of them
+     */
+    private boolean updatePreserving(String s) {
+        String lower = s.toLowerCase(Locale.ROOT);
+        boolean touched = (preservingUntil != null);
+        int from = 0;
+        while (from < lower.length()) {
+            if (preservingUntil != null) {
+                int i = lower.indexOf(preservingUntil, from);
+                if (i < 0) {
+                    return true;
+                }
+                from = i + preservingUntil.length();
+                preservingUntil = null;
+            } else {
+                int pre = indexOfTag(lower, "<pre", from);
+                int textarea = indexOfTag(lower, "<textarea", from);
+                if (pre < 0 && textarea < 0) {
+                    return touched;
+                }
+                touched = true;
+                if (textarea < 0 || (pre >= 0 && pre < textarea)) {
+                    preservingUntil = "</pre>";
+                    from = pre + 4;
+                } else {
+                    preservingUntil = "</textarea>";
+                    from = textarea + 9;
+                }
+            }
+        }
+        return touched;
+    }
+
+    private static int indexOfTag(String lower, String tag, int from) {
+        int i = lower.indexOf(tag, from);
+        while (i >= 0) {
+            int next = i + tag.length();
+            if (next >= lower.length()) {
+                return i;
+            }
+            char c = lower.charAt(next);
+            if (c == '>' || c == '/' || Character.isWhitespace(c)) {
+                return i;
+            }
+            i = lower.indexOf(tag, next);
+        }
+        return -1;
+    }
+}
@@ -9,32 +9,26 @@ import com.kazurayam.materialstore.core.TemplateReady;
 import com.kazurayam.materialstore.util.JsonUtil;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
-import freemarker.template.TemplateException;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.parser.Parser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * This class creates the `store/index.html` file.
@@ -45,6 +39,8 @@ public class IndexCreator {
     Logger logger = LoggerFactory.getLogger(IndexCreator.class);
 
     private final Store store;
+    static final String INDEX_FILE_NAME = "index.html";
+
     private static String TEMPLATE_PATH =
             "com/kazurayam/materialstore/report/IndexCreatorTemplate.ftlh";
 
@@ -56,20 +52,41 @@ public class IndexCreator {
         this.cfg = FreeMarkerConfigurator.configureFreeMarker(store);
     }
 
+    /**
+     * list the report files in the store root, and write the "index.html".
+     * Each file is looked up once in a single listing of the directory.
+     * The manifest for #update(Path...) is rewritten as well.
+     */
     public Path create() throws MaterialstoreException, IOException {
+        ReportManifest manifest = new ReportManifest(store.getRoot());
+        manifest.rescan();
+        manifest.save();
+        return write(new ReportFileList(store, manifest.toReportFiles()));
+    }
+
+    /**
+     * the same as #create() except that the files are looked up incrementally.
+     * The report files known by the manifest ".reportindex" in the store root are not
+     * looked up again unless given as changed; only the files new to the manifest are.
+     * The files deleted are dropped from the manifest.
+     *
+     * @param changedReports the report files rewritten since the manifest was saved
+     */
+    public Path update(Path... changedReports) throws MaterialstoreException, IOException {
+        ReportManifest manifest = ReportManifest.load(store.getRoot());
+        manifest.refresh(Arrays.asList(changedReports));
+        manifest.save();
+        return write(new ReportFileList(store, manifest.toReportFiles()));
+    }
+
+    private Path write(ReportFileList rfl) throws MaterialstoreException, IOException {
         /* create a data-model */
         Map<String, Object> dataModel = new LinkedHashMap<>();
         dataModel.put("style", StyleHelper.loadStyleFromClasspath());
         dataModel.put("style2", StyleHelper.loadStyleFromClasspath(
                 "/com/kazurayam/materialstore/base/reduce/differ/style.css"));
-        ReportFileList rfl = new ReportFileList(store);
 
-        Map<String, Object> model = Collections.emptyMap();
-        try {
-            model = rfl.toTemplateModel();
-        } catch (Exception e) {
-            logger.warn("rtf.toString(): " + rfl.toString());
-        }
+        Map<String, Object> model = rfl.toTemplateModel();
         dataModel.put("title", makeTitle(model));
         dataModel.put("model", model);
 
@@ -81,32 +98,9 @@ public class IndexCreator {
             throw new MaterialstoreException(e);
         }
 
-        /* Merge data-model with the template */
-        Writer sw = new StringWriter();
-        try {
-            template.process(dataModel, sw);
-            sw.flush();
-            sw.close();
-        } catch (IOException | TemplateException e) {
-            throw new RuntimeException(e);
-        }
-
-        String html;
-
-        /* pretty print the HTML using jsonp if required */
-        Document doc = Jsoup.parse(sw.toString(), "", Parser.htmlParser());
-        doc.outputSettings().indentAmount(2);
-        html = doc.toString();
-
-        Path filePath = store.getRoot().resolve("index.html");
-
-        try {
-            Files.write(filePath,
-                    html.getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            throw new MaterialstoreException(e);
-        }
+        /* Merge data-model with the template, writing the tidied HTML into the file */
+        Path filePath = store.getRoot().resolve(INDEX_FILE_NAME);
+        ReportFileWriter.write(template, dataModel, filePath, true);
 
         return filePath;
     }
@@ -117,23 +111,43 @@ public class IndexCreator {
         return parent.getFileName().toString() + "/index.html";
     }
 
+    static boolean isReportFileName(String fileName) {
+        return fileName.endsWith(".html") && !fileName.equals(INDEX_FILE_NAME);
+    }
+
     static class ReportFileList implements TemplateReady {
         private final Store store;
-        public ReportFileList(Store store) {
+        private final List<ReportFile> files;
+        public ReportFileList(Store store) throws IOException {
+            this(store, scan(store.getRoot()));
+        }
+        ReportFileList(Store store, List<ReportFile> files) {
             this.store = store;
+            List<ReportFile> sorted = new ArrayList<>(files);
+            // sort the report files by the lastModified value in descending order
+            sorted.sort(new ReportFileComparatorByLastModified().reversed());
+            this.files = Collections.unmodifiableList(sorted);
         }
-        public Store getStore() { return this.store; }
-        public List<ReportFile> getFiles() throws IOException {
-            try (Stream<Path> stream = Files.list(store.getRoot())) {
-                return stream
-                        .filter(p -> !Files.isDirectory(p))
-                        .filter(p -> p.getFileName().toString().endsWith(".html"))
-                        .filter(p -> ! p.getFileName().toString().equals("index.html"))
-                        .map(ReportFile::new)
-                        // sort the report files by the lastModified value in descending order
-                        .sorted(new ReportFileComparatorByLastModified().reversed())
-                        .collect(Collectors.toList());
+        /*
+         * a single listing of the directory; the attributes of each file are read once
+         */
+        static List<ReportFile> scan(Path dir) throws IOException {
+            List<ReportFile> list = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.html")) {
+                for (Path p : stream) {
+                    if (isReportFileName(p.getFileName().toString())) {
+                        BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                        if (!attrs.isDirectory()) {
+                            list.add(new ReportFile(p, attrs.lastModifiedTime().toMillis()));
+                        }
+                    }
+                }
             }
+            return list;
+        }
+        public Store getStore() { return this.store; }
+        public List<ReportFile> getFiles() {
+            return files;
         }
         @Override
         public String toString() {
@@ -158,40 +172,62 @@ public class IndexCreator {
                     .append("\"")
                     .append(",")
                     .append("\"files\":[");
-            try {
-                for (int i = 0; i < this.getFiles().size(); i++) {
-                    ReportFile rf = this.getFiles().get(i);
-                    if (i > 0) { sb.append(","); }
-                    sb.append(rf.toJson());
-                }
-            } catch (IOException e) {
-                sb.append("\"")
-                        .append(JsonUtil.escapeAsJsonString(e.getMessage()))
-                        .append("\"");
+            for (int i = 0; i < files.size(); i++) {
+                if (i > 0) { sb.append(","); }
+                sb.append(files.get(i).toJson());
             }
             sb.append("]")
                     .append("}");
             return sb.toString();
         }
+
+        /*
+         * the same as the default implementation, without the round-trip through JSON
+         */
+        @Override
+        public Map<String, Object> toTemplateModel() {
+            List<Map<String, Object>> list = new ArrayList<>(files.size());
+            for (ReportFile rf : files) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("fileName", rf.getFileName());
+                m.put("lastModified", rf.getDateTimeLastModified());
+                list.add(m);
+            }
+            Map<String, Object> model = new LinkedHashMap<>();
+            model.put("store", store.getRoot().toString());
+            model.put("files", list);
+            return model;
+        }
     }
 
     static class ReportFile implements Jsonifiable {
         private final Path path;
-        private final DateTimeFormatter DATE_TIME_FORMATTER = JobTimestamp.FORMATTER;
+        private final long lastModified;
+        private String dateTimeLastModified = null;
+        private static final DateTimeFormatter DATE_TIME_FORMATTER = JobTimestamp.FORMATTER;
         public ReportFile(Path path) {
+            this(path, path.toFile().lastModified());
+        }
+        ReportFile(Path path, long lastModified) {
             this.path = path;
+            this.lastModified = lastModified;
         }
         public String getFileName() {
             return path.getFileName().toString();
         }
+        public long getLastModified() {
+            return lastModified;
+        }
         public String getDateTimeLastModified() {
-            long lastModified = path.toFile().lastModified();
-            ZoneId zone = ZoneId.systemDefault();
-            LocalDateTime ldt =
-                    Instant.ofEpochMilli(lastModified)
-                            .atZone(zone)
-                            .toLocalDateTime();
-            return DATE_TIME_FORMATTER.format(ldt);
+            if (dateTimeLastModified == null) {
+                ZoneId zone = ZoneId.systemDefault();
+                LocalDateTime ldt =
+                        Instant.ofEpochMilli(lastModified)
+                                .atZone(zone)
+                                .toLocalDateTime();
+                dateTimeLastModified = DATE_TIME_FORMATTER.format(ldt);
+            }
+            return dateTimeLastModified;
         }
         @Override
         public String toString() {
@@ -220,11 +256,15 @@ public class IndexCreator {
             return sb.toString();
         }
     }
+
+    /*
+     * compares the lastModified millis; the file names break the ties
+     */
     static class ReportFileComparatorByLastModified implements Comparator<ReportFile> {
         @Override
         public int compare(ReportFile first, ReportFile second) {
-            return first.getDateTimeLastModified()
-                    .compareTo(second.getDateTimeLastModified());
+            int c = Long.compare(first.getLastModified(), second.getLastModified());
+            return (c != 0) ? c : first.getFileName().compareTo(second.getFileName());
         }
     }
 }
@@ -1,26 +1,20 @@
 package com.kazurayam.materialstore.base.report;
 
+import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
-import freemarker.template.TemplateException;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.parser.Parser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -92,6 +86,12 @@ public final class MaterialListReporterImpl extends MaterialListReporter {
         // sort the entries by the specified keys
         materialList.order(sortKeys);
 
+        if (isThumbnailsEnabled()) {
+            List<Material> materials = new ArrayList<>();
+            materialList.forEach(materials::add);
+            new ThumbnailGenerator.Builder().build().generate(materials);
+        }
+
         /* Create a data-model */
         Map<String, Object> dataModel = new HashMap<>();
         dataModel.put("style", StyleHelper.loadStyleFromClasspath());
@@ -101,7 +101,7 @@ public final class MaterialListReporterImpl extends MaterialListReporter {
         dataModel.put("filePath", filePath.toString());
         dataModel.put("store", store.getRoot().normalize().toString());
 
-        dataModel.put("model", materialList.toTemplateModel(sortKeys));
+        dataModel.put("model", ReportTemplateModels.of(materialList, sortKeys));
         dataModel.put("sortKeys", sortKeys.toString());
 
         // for debug
@@ -118,33 +118,7 @@ public final class MaterialListReporterImpl extends MaterialListReporter {
             throw new MaterialstoreException(e);
         }
 
-        /* Merge data-dataModel with the template */
-        Writer sw = new StringWriter();
-        try {
-            template.process(dataModel, sw);
-            sw.flush();
-            sw.close();
-        } catch (IOException | TemplateException e) {
-            throw new MaterialstoreException(e);
-        }
-
-        String html;
-
-        /* pretty print the HTML using jsoup if required */
-        if (isPrettyPrintingEnabled()) {
-            Document doc = Jsoup.parse(sw.toString(), "", Parser.htmlParser());
-            doc.outputSettings().indentAmount(2);
-            html = doc.toString();
-        } else {
-            html = sw.toString();
-        }
-
-        try {
-            Files.write(filePath,
-                    html.getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            throw new MaterialstoreException(e);
-        }
+        /* Merge data-dataModel with the template, writing the HTML into the file */
+        ReportFileWriter.write(template, dataModel, filePath, isPrettyPrintingEnabled());
     }
 }
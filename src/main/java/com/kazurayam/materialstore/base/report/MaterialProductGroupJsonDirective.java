@@ -0,0 +1,116 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.google.gson.stream.JsonWriter;
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroupJsonWriter;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.SortKeys;
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * writes the JSON of a MaterialProductGroup, which the report embeds for model-manager.js,
+ * straight into the output of the template:
+ * <pre>
+ *     const model = &lt;@model /&gt;;
+ * </pre>
+ * The JSON is written by MaterialProductGroupJsonWriter as MaterialProductGroup#toJson() is,
+ * but straight into the output instead of into a String. The strings are escaped to be safe
+ * in a &lt;script&gt;.
+ */
+final class MaterialProductGroupJsonDirective implements TemplateDirectiveModel {
+
+    private final MaterialProductGroup mpg;
+    private final int countTotal;
+    private final int countWarning;
+    private final MaterialProductGroupJsonWriter.ProductWriter products;
+
+    MaterialProductGroupJsonDirective(MaterialProductGroup mpg) {
+        this(mpg, ReportTemplateModels.toList(mpg));
+    }
+
+    /**
+     * @param mProducts a part of the MaterialProducts in the group, e.g. a page of a sharded report
+     */
+    MaterialProductGroupJsonDirective(MaterialProductGroup mpg, List<MaterialProduct> mProducts) {
+        this(mpg, mProducts.size(), ReportTemplateModels.countWarning(mProducts, mpg.getThreshold()),
+                (jw, index) -> writeProduct(jw, mProducts.get(index)));
+    }
+
+    /**
+     * @param products writes the JSON of the MaterialProduct of an index, e.g. the one written beforehand
+     *                 by #writeProduct(JsonWriter, MaterialProduct), so that the MaterialProducts
+     *                 need not be held until the report is written
+     */
+    MaterialProductGroupJsonDirective(MaterialProductGroup mpg, int countTotal, int countWarning,
+                                      MaterialProductGroupJsonWriter.ProductWriter products) {
+        this.mpg = Objects.requireNonNull(mpg);
+        this.countTotal = countTotal;
+        this.countWarning = countWarning;
+        this.products = Objects.requireNonNull(products);
+    }
+
+    @Override
+    public void execute(Environment env,
+                        Map params,
+                        TemplateModel[] loopVars,
+                        TemplateDirectiveBody body) throws TemplateException, IOException {
+        if (!params.isEmpty()) {
+            throw new TemplateModelException(
+                    "This directive doesn't allow parameters.");
+        }
+        if (body != null) {
+            throw new TemplateModelException(
+                    "This directive doesn't allow body.");
+        }
+        try {
+            write(env.getOut());
+        } catch (MaterialstoreException e) {
+            throw new TemplateModelException(e);
+        }
+    }
+
+    /**
+     * @param out is flushed but not closed; it may be the output of the Environment
+     */
+    void write(Writer out) throws IOException, MaterialstoreException {
+        JsonWriter jw = new JsonWriter(out);
+        jw.setHtmlSafe(true);
+        jw.setIndent("  ");
+        MaterialProductGroupJsonWriter.writeGroup(jw, mpg, countTotal, countWarning, products);
+        jw.flush();
+    }
+
+    /**
+     * @return the JSON of a MaterialProduct, as an element of "materialProductList"
+     */
+    static String toJson(MaterialProduct mProduct) throws MaterialstoreException {
+        StringWriter sw = new StringWriter();
+        JsonWriter jw = new JsonWriter(sw);
+        jw.setHtmlSafe(true);
+        try {
+            writeProduct(jw, mProduct);
+            jw.flush();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return sw.toString();
+    }
+
+    static void writeProduct(JsonWriter jw, MaterialProduct mProduct)
+            throws IOException, MaterialstoreException {
+        MaterialProductGroupJsonWriter.writeProduct(jw, mProduct, new SortKeys());
+    }
+}
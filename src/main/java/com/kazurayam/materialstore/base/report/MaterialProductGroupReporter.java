@@ -8,6 +8,19 @@ import java.nio.file.Path;
 
 public abstract class MaterialProductGroupReporter extends AbstractReporter {
 
+    protected boolean fragmentCache = false;
+
+    /**
+     * if enabled, the HTML fragment of each MaterialProduct is cached in the store as it is
+     * rendered, and a report compiled again renders only the MaterialProducts changed since;
+     * the others are reassembled out of the fragments cached
+     */
+    public void enableFragmentCache(boolean fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    public boolean isFragmentCacheEnabled() { return this.fragmentCache; }
+
     /*
      * @param threshold the diffRatio of each MaterialProduct object is compared against
      *                 the threshold. if the diffRatio &gt; the threshold, the MaterialProduct is regarded
@@ -21,6 +34,21 @@ public abstract class MaterialProductGroupReporter extends AbstractReporter {
 
     public abstract Path report(MaterialProductGroup mpg, String fileName) throws MaterialstoreException;
 
+    /**
+     * compile the report in shards for a MaterialProductGroup of thousands of MaterialProducts.
+     * The file at filePath is a lightweight summary: the counts and a sortable table of the
+     * MaterialProducts linked to the pages. The MaterialProducts are detailed in the pages
+     * of pageSize MaterialProducts each, which are written in the directory named
+     * ".&lt;title&gt;-pages" next to the summary. So a browser loads no more than a page at once.
+     * The directory is dot-prefixed so that it is not taken for a JobName, and is deleted
+     * together with the summary by StoreCleaner#deleteReportsOlderThan.
+     */
+    public abstract void reportSharded(MaterialProductGroup mpg, SortKeys sortKeys, int pageSize, Path filePath)
+            throws MaterialstoreException;
+
+    public abstract Path reportSharded(MaterialProductGroup mpg, SortKeys sortKeys, int pageSize, String fileName)
+            throws MaterialstoreException;
+
     public abstract void setThreshold(Double threshold);
 
 }
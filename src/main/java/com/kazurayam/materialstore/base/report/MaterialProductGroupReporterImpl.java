@@ -1,28 +1,33 @@
 package com.kazurayam.materialstore.base.report;
 
+import com.kazurayam.materialstore.base.reduce.DiffingMPGProcessor;
 import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProductComparator;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
-import freemarker.template.TemplateException;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.parser.Parser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * MProductGroupReporterImplMB re-implemented using FreeMarker.
@@ -41,6 +46,16 @@ public final class MaterialProductGroupReporterImpl extends MaterialProductGroup
             "com/kazurayam/materialstore/report/MProductGroupBasicReporterFMTemplate.ftlh";
     // ftlh is a short for "FreeMarker Template Language for HTML"
 
+    private static final String FRAGMENT_TEMPLATE_PATH =
+            "com/kazurayam/materialstore/report/MaterialProductFragmentTemplate.ftlh";
+
+    private static final String SUMMARY_TEMPLATE_PATH =
+            "com/kazurayam/materialstore/report/MaterialProductGroupSummaryTemplate.ftlh";
+
+    // the pages directory is hidden, so that it is not taken for a JobName
+    private static final String PAGES_DIR_PREFIX = ".";
+    private static final String PAGES_DIR_SUFFIX = "-pages";
+
     private final Configuration cfg;
 
     public MaterialProductGroupReporterImpl(Store store) throws MaterialstoreException {
@@ -68,20 +83,12 @@ public final class MaterialProductGroupReporterImpl extends MaterialProductGroup
         }
         /* sort the entries in the mProductGroup as specified by SortKeys */
         mpg.order(sortKeys);
+        if (isThumbnailsEnabled()) {
+            new ThumbnailGenerator.Builder().build().generate(mpg);
+        }
 
-        /* create a data-model */
-        Map<String, Object> dataModel = new HashMap<>();
-        dataModel.put("style", StyleHelper.loadStyleFromClasspath());
-        dataModel.put("accordionCustom",
-                StyleHelper.loadStyleFromClasspath("/com/kazurayam/materialstore/base/report/bootstrap-5-accordion-with-an-inline-checkbox.css"));
-        dataModel.put("js",
-                StyleHelper.loadStyleFromClasspath("/com/kazurayam/materialstore/base/report/model-manager.js"));
-        dataModel.put("title", getTitle(filePath));
-        dataModel.put("store", store.getRoot().normalize().toString());
-        dataModel.put("mProductGroup", mpg.toTemplateModel(sortKeys));
-        dataModel.put("model", mpg.toJson(true));
-        dataModel.put("threshold", threshold);
-        dataModel.put("sortKeys", sortKeys.toString());
+        final String title = getTitle(filePath);
+        final List<MaterialProduct> ordered = ReportTemplateModels.toList(mpg);
 
         // for debug
         if (isVerboseLoggingEnabled()) {
@@ -89,42 +96,403 @@ public final class MaterialProductGroupReporterImpl extends MaterialProductGroup
                     filePath.getParent());
         }
 
-        /* Get the template */
-        Template template;
         try {
-            template = cfg.getTemplate(TEMPLATE_PATH);
+            Path dir = filePath.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Template template = cfg.getTemplate(TEMPLATE_PATH);
+            FragmentCache fragmentCache =
+                    new FragmentCache(cfg.getTemplate(FRAGMENT_TEMPLATE_PATH), isFragmentCacheEnabled());
+            try (ReportFragments fragments = new ReportFragments(dir, title, ordered.size())) {
+                /* the fragments cached are reused; the others are rendered */
+                Map<String, Object> groupModel = createGroupModel(mpg);
+                List<Integer> all = new ArrayList<>();
+                for (int i = 0; i < ordered.size(); i++) {
+                    fragments.put(i, fragmentCache.render(ordered.get(i), i, groupModel,
+                            title, threshold, sortKeys));
+                    all.add(i);
+                }
+                logger.debug(String.format("#report rendered %d fragments, reused %d",
+                        fragmentCache.getMisses(), fragmentCache.getHits()));
+
+                /* create a data-model; the group without the MaterialProducts, they are in the fragments */
+                Map<String, Object> dataModel = createDataModel(title, sortKeys);
+                dataModel.put("mProductGroup", ReportTemplateModels.of(mpg, sortKeys, false));
+                dataModel.put("fragments", fragments.insert(all));
+                dataModel.put("model", new MaterialProductGroupJsonDirective(mpg));
+
+                /* Merge data-model with template, writing the HTML into the file */
+                writeReport(template, dataModel, filePath);
+            }
         } catch (IOException e) {
             throw new MaterialstoreException(e);
         }
+    }
+
+    /**
+     * diff the MaterialProductGroup by the DiffingMPGProcessor and compile the report at the same time.
+     * The HTML fragment of each MaterialProduct is rendered into a temporary file as soon as
+     * its diff is done, while the next ones are being diffed; the report is then written
+     * around the fragments straight into the file. So neither all the diffs nor the whole
+     * HTML are held in memory at once.
+     *
+     * @param source the MaterialProductGroup not yet diffed
+     * @return the MaterialProductGroup diffed, as DiffingMPGProcessor#process(MaterialProductGroup) returns
+     */
+    public MaterialProductGroup processAndReport(MaterialProductGroup source,
+                                                 DiffingMPGProcessor processor,
+                                                 SortKeys sortKeys,
+                                                 Path filePath)
+            throws MaterialstoreException {
+        return processAndReport(source, processor, sortKeys, filePath, -1);
+    }
+
+    /**
+     * the same as #processAndReport(MaterialProductGroup, DiffingMPGProcessor, SortKeys, Path)
+     * except that a report in progress is written into the file at first, before any diff is made,
+     * and is rewritten at the interval while the diffs are made. The report in progress lists
+     * the MaterialProducts diffed and exceeding the threshold first, then the others diffed,
+     * then the ones pending, and reloads itself in the browser. The MaterialProducts likely
+     * to exceed are diffed first (see DiffingMPGProcessor#CHANGED_FIRST).
+     * When all are diffed, the file is replaced by the same report as #report() compiles.
+     *
+     * @param progressIntervalMillis the minimum interval of rewriting the report in progress
+     */
+    public MaterialProductGroup processAndReportProgressively(MaterialProductGroup source,
+                                                              DiffingMPGProcessor processor,
+                                                              SortKeys sortKeys,
+                                                              Path filePath,
+                                                              long progressIntervalMillis)
+            throws MaterialstoreException {
+        if (progressIntervalMillis < 0) {
+            throw new IllegalArgumentException(
+                    "progressIntervalMillis must not be negative: " + progressIntervalMillis);
+        }
+        return processAndReport(source, processor, sortKeys, filePath, progressIntervalMillis);
+    }
+
+    /*
+     * @param progressIntervalMillis negative not to write the report in progress
+     */
+    private MaterialProductGroup processAndReport(MaterialProductGroup source,
+                                                  DiffingMPGProcessor processor,
+                                                  SortKeys sortKeys,
+                                                  Path filePath,
+                                                  long progressIntervalMillis)
+            throws MaterialstoreException {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(processor);
+        Objects.requireNonNull(sortKeys);
+        Objects.requireNonNull(filePath);
+        source.setThreshold(this.threshold);
+        final boolean progressive = progressIntervalMillis >= 0;
+        final String title = getTitle(filePath);
+
+        final Map<String, Object> groupModel = createGroupModel(source);
+
+        // in the order which the result will have
+        final List<MaterialProduct> ordered = new ArrayList<>();
+        source.forEach(ordered::add);
+        ordered.sort(new MaterialProductComparator(sortKeys));
+        // the MaterialProducts diffed are not held; their HTML and JSON are written into the fragments
+        final double[] diffRatios = new double[ordered.size()];
+        // the left and right images are there already; the diffs are downscaled as they are made
+        final ThumbnailGenerator thumbnailGenerator =
+                isThumbnailsEnabled() ? new ThumbnailGenerator.Builder().build() : null;
+        if (thumbnailGenerator != null) {
+            thumbnailGenerator.generate(source);
+        }
 
-        /* Merge data-model with template to generate a HTML document*/
-        Writer sw = new StringWriter();
         try {
-            template.process(dataModel, sw);
-            sw.flush();
-            sw.close();
-        } catch (IOException | TemplateException e) {
+            Path dir = filePath.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Template template = cfg.getTemplate(TEMPLATE_PATH);
+            FragmentCache fragmentCache =
+                    new FragmentCache(cfg.getTemplate(FRAGMENT_TEMPLATE_PATH), isFragmentCacheEnabled());
+            try (ReportFragments fragments = new ReportFragments(dir, title, ordered.size());
+                 ReportFragments models = new ReportFragments(dir, title + "-model", ordered.size())) {
+                final long[] lastWritten = { System.currentTimeMillis() };
+                if (progressive) {
+                    writeProgress(template, source, ordered, diffRatios, fragments, models, sortKeys, filePath,
+                            progressIntervalMillis);
+                }
+                MaterialProductGroup processed = processor.process(source, sortKeys,
+                        progressive ? DiffingMPGProcessor.CHANGED_FIRST : null,
+                        (index, mProduct) -> {
+                            if (thumbnailGenerator != null) {
+                                thumbnailGenerator.generate(Collections.singletonList(mProduct.getDiff()));
+                            }
+                            try {
+                                fragments.put(index, fragmentCache.render(mProduct, index, groupModel,
+                                        title, threshold, sortKeys));
+                                models.put(index, MaterialProductGroupJsonDirective.toJson(mProduct));
+                            } catch (IOException e) {
+                                throw new MaterialstoreException(e);
+                            }
+                            diffRatios[index] = mProduct.getDiffRatio();
+                            long now = System.currentTimeMillis();
+                            if (progressive && now - lastWritten[0] >= progressIntervalMillis) {
+                                writeProgress(template, source, ordered, diffRatios, fragments, models, sortKeys,
+                                        filePath, progressIntervalMillis);
+                                lastWritten[0] = System.currentTimeMillis();
+                            }
+                        });
+
+                /* the group without the MaterialProducts; they are in the fragments */
+                List<Integer> all = new ArrayList<>();
+                int countWarning = 0;
+                for (int i = 0; i < ordered.size(); i++) {
+                    all.add(i);
+                    if (diffRatios[i] > source.getThreshold()) {
+                        countWarning += 1;
+                    }
+                }
+                Map<String, Object> dataModel = createDataModel(title, sortKeys);
+                dataModel.put("mProductGroup",
+                        ReportTemplateModels.of(processed, ordered.size(), countWarning, sortKeys));
+                dataModel.put("fragments", fragments.insert(all));
+                dataModel.put("model", new MaterialProductGroupJsonDirective(processed, ordered.size(), countWarning,
+                        (jw, i) -> jw.jsonValue(models.get(i))));
+                writeReport(template, dataModel, filePath);
+                return processed;
+            }
+        } catch (IOException e) {
             throw new MaterialstoreException(e);
         }
+    }
 
-        String html;
+    /*
+     * write the report in progress: the MaterialProducts diffed, the exceeding ones first,
+     * then the ones pending
+     */
+    private void writeProgress(Template template,
+                               MaterialProductGroup source,
+                               List<MaterialProduct> ordered,
+                               double[] diffRatios,
+                               ReportFragments fragments,
+                               ReportFragments models,
+                               SortKeys sortKeys,
+                               Path filePath,
+                               long progressIntervalMillis)
+            throws MaterialstoreException {
+        List<Integer> exceeding = new ArrayList<>();
+        List<Integer> others = new ArrayList<>();
+        List<Map<String, Object>> pending = new ArrayList<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            if (models.contains(i)) {
+                if (diffRatios[i] > source.getThreshold()) {
+                    exceeding.add(i);
+                } else {
+                    others.add(i);
+                }
+            } else {
+                MaterialProduct mProduct = ordered.get(i);
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("fileTypeExtension", mProduct.getFileTypeExtension());
+                entry.put("identification", mProduct.getQueryIdentification(sortKeys).toString());
+                pending.add(entry);
+            }
+        }
+        List<Integer> displayed = new ArrayList<>(exceeding);
+        displayed.addAll(others);
+        // the model of the JavaScript is indexed by the position in the complete report
+        Map<String, Object> dataModel = createDataModel(
+                String.format("%s (%d of %d diffed)", getTitle(filePath), displayed.size(), ordered.size()),
+                sortKeys);
+        dataModel.put("mProductGroup",
+                ReportTemplateModels.of(source, ordered.size(), exceeding.size(), sortKeys));
+        try {
+            dataModel.put("fragments", fragments.insert(displayed));
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        dataModel.put("pending", pending);
+        dataModel.put("model", new MaterialProductGroupJsonDirective(source, ordered.size(), exceeding.size(),
+                (jw, i) -> {
+                    if (models.contains(i)) {
+                        jw.jsonValue(models.get(i));
+                    } else {
+                        MaterialProductGroupJsonDirective.writeProduct(jw, ordered.get(i));
+                    }
+                }));
+        dataModel.put("refreshSeconds", Math.max(1L, (progressIntervalMillis + 999) / 1000));
+        writeReport(template, dataModel, filePath);
+    }
 
-        /* pretty print the HTML using jsoup if required */
-        if (isPrettyPrintingEnabled()) {
-            Document doc = Jsoup.parse(sw.toString(), "", Parser.htmlParser());
-            doc.outputSettings().indentAmount(2);
-            html = doc.toString();
-        } else {
-            html = sw.toString();
+    @Override
+    public void reportSharded(MaterialProductGroup mpg, SortKeys sortKeys, int pageSize, Path filePath)
+            throws MaterialstoreException {
+        Objects.requireNonNull(mpg);
+        Objects.requireNonNull(sortKeys);
+        Objects.requireNonNull(filePath);
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
         }
+        if (! mpg.isReadyToReport()) {
+            throw new MaterialstoreException(
+                    "given MProductGroup is not ready to report. mProductGroup=" +
+                            mpg.toString());
+        }
+        mpg.order(sortKeys);
+        if (isThumbnailsEnabled()) {
+            new ThumbnailGenerator.Builder().build().generate(mpg);
+        }
+        final List<MaterialProduct> ordered = ReportTemplateModels.toList(mpg);
+        final String title = getTitle(filePath);
+        final Path summaryFile = filePath.toAbsolutePath().normalize();
+        final Path pagesDir = summaryFile.getParent().resolve(PAGES_DIR_PREFIX + title + PAGES_DIR_SUFFIX);
+        final Path root = store.getRoot().toAbsolutePath().normalize();
+        final int pageCount = Math.max(1, (ordered.size() + pageSize - 1) / pageSize);
 
+        final List<Path> pageFiles = new ArrayList<>();
+        for (int i = 0; i < pageCount; i++) {
+            pageFiles.add(pagesDir.resolve("page-" + (i + 1) + ".html"));
+        }
         try {
-            Files.write(filePath,
-                    html.getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.createDirectories(pagesDir);
+            deleteStalePages(pagesDir, pageFiles);
         } catch (IOException e) {
             throw new MaterialstoreException(e);
         }
+        final Template pageTemplate;
+        final Template summaryTemplate;
+        try {
+            pageTemplate = cfg.getTemplate(TEMPLATE_PATH);
+            summaryTemplate = cfg.getTemplate(SUMMARY_TEMPLATE_PATH);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+
+        /* the pages are independent of each other; render them in parallel */
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < pageCount; i++) {
+            final List<MaterialProduct> products =
+                    ordered.subList(i * pageSize, Math.min((i + 1) * pageSize, ordered.size()));
+            // a page has <base href> pointing to the store root, so that the Materials
+            // are found; the links among the pages are relative to the root as well
+            Map<String, Object> page = new HashMap<>();
+            page.put("baseHref", toHref(pagesDir.relativize(root)) + "/");
+            page.put("summary", toHref(root.relativize(summaryFile)));
+            page.put("number", i + 1);
+            page.put("count", pageCount);
+            if (i > 0) {
+                page.put("previous", toHref(root.relativize(pageFiles.get(i - 1))));
+            }
+            if (i < pageCount - 1) {
+                page.put("next", toHref(root.relativize(pageFiles.get(i + 1))));
+            }
+            Map<String, Object> dataModel = createDataModel(
+                    String.format("%s (page %d of %d)", title, i + 1, pageCount), sortKeys);
+            dataModel.put("mProductGroup", ReportTemplateModels.of(mpg, products, sortKeys));
+            dataModel.put("model", new MaterialProductGroupJsonDirective(mpg, products));
+            dataModel.put("page", page);
+            final Path pageFile = pageFiles.get(i);
+            tasks.add(() -> {
+                writeReport(pageTemplate, dataModel, pageFile);
+                return null;
+            });
+        }
+        renderInParallel(tasks);
+
+        /* the summary links to the pages completed */
+        List<String> pageHrefs = new ArrayList<>();
+        for (Path pageFile : pageFiles) {
+            pageHrefs.add(toHref(summaryFile.getParent().relativize(pageFile)));
+        }
+        Map<String, Object> dataModel = new HashMap<>();
+        dataModel.put("style", StyleHelper.loadStyleFromClasspath());
+        dataModel.put("title", title);
+        dataModel.put("store", store.getRoot().normalize().toString());
+        dataModel.put("sortKeys", sortKeys.toString());
+        dataModel.put("mProductGroup", ReportTemplateModels.of(mpg, ordered, sortKeys));
+        dataModel.put("pageSize", pageSize);
+        dataModel.put("pages", pageHrefs);
+        writeReport(summaryTemplate, dataModel, summaryFile);
+    }
+
+    @Override
+    public Path reportSharded(MaterialProductGroup mpg, SortKeys sortKeys, int pageSize, String fileName)
+            throws MaterialstoreException {
+        mpg.setThreshold(this.threshold);
+        Path reportFile = store.getRoot().resolve(fileName);
+        this.reportSharded(mpg, sortKeys, pageSize, reportFile);
+        return reportFile;
+    }
+
+    private static void renderInParallel(List<Callable<Void>> tasks) throws MaterialstoreException {
+        int nThreads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "MaterialProductGroupReporter-page");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaterialstoreException) {
+                throw (MaterialstoreException) e.getCause();
+            }
+            throw new MaterialstoreException(e.getCause());
+        } finally {
+            // stops the other pages if one failed
+            futures.forEach(future -> future.cancel(true));
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * remove the pages left by a previous report which had more pages
+     */
+    private static void deleteStalePages(Path pagesDir, List<Path> pageFiles) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pagesDir, "page-*.html")) {
+            for (Path p : stream) {
+                if (! pageFiles.contains(p)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    private static String toHref(Path relativePath) {
+        return relativePath.toString().replace(File.separatorChar, '/');
+    }
+
+    /*
+     * the properties of the MaterialProductGroup which the fragments refer to
+     */
+    private static Map<String, Object> createGroupModel(MaterialProductGroup mpg) {
+        Map<String, Object> groupModel = new HashMap<>();
+        groupModel.put("threshold", mpg.getThreshold());
+        groupModel.put("labelLeft", mpg.getLabelLeft());
+        groupModel.put("labelRight", mpg.getLabelRight());
+        return groupModel;
+    }
+
+    private Map<String, Object> createDataModel(String title, SortKeys sortKeys) throws MaterialstoreException {
+        Map<String, Object> dataModel = new HashMap<>();
+        dataModel.put("style", StyleHelper.loadStyleFromClasspath());
+        dataModel.put("accordionCustom",
+                StyleHelper.loadStyleFromClasspath("/com/kazurayam/materialstore/base/report/bootstrap-5-accordion-with-an-inline-checkbox.css"));
+        dataModel.put("js",
+                StyleHelper.loadStyleFromClasspath("/com/kazurayam/materialstore/base/report/model-manager.js"));
+        dataModel.put("title", title);
+        dataModel.put("store", store.getRoot().normalize().toString());
+        dataModel.put("threshold", threshold);
+        dataModel.put("sortKeys", sortKeys.toString());
+        return dataModel;
+    }
+
+    private void writeReport(Template template, Map<String, Object> dataModel, Path filePath)
+            throws MaterialstoreException {
+        ReportFileWriter.write(template, dataModel, filePath, isPrettyPrintingEnabled());
     }
 
     @Override
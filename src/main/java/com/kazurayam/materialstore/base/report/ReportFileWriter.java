@@ -0,0 +1,66 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * merges a data-model with a FreeMarker template straight into a report file.
+ * <p>
+ * The HTML is written as it is rendered; it is never held in memory as a whole.
+ * It goes into a temporary file which then replaces the report file,
+ * so that a browser reloading the report never sees it half written.
+ */
+final class ReportFileWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportFileWriter.class);
+
+    private ReportFileWriter() {}
+
+    /**
+     * @param tidy if true, the blank lines and the trailing spaces are removed by HTMLTidyingWriter
+     */
+    static void write(Template template, Map<String, Object> dataModel, Path filePath, boolean tidy)
+            throws MaterialstoreException {
+        Objects.requireNonNull(template);
+        Objects.requireNonNull(dataModel);
+        Objects.requireNonNull(filePath);
+        Path tmp = null;
+        try {
+            Path dir = filePath.toAbsolutePath().getParent();
+            tmp = Files.createTempFile(dir, filePath.getFileName().toString(), ".tmp");
+            try (Writer fw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+                 Writer w = tidy ? new HTMLTidyingWriter(fw) : fw) {
+                template.process(dataModel, w);
+            }
+            try {
+                Files.move(tmp, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException | TemplateException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    logger.warn("failed to delete " + tmp, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.freemarker.InsertFileDirective;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the fragments (HTML or JSON) of the MaterialProducts of a report, written into a temporary file
+ * one by one as they are rendered, in any order, to be inserted into the report later
+ * in the order of the indexes required.
+ */
+final class ReportFragments implements Closeable {
+
+    private final Path file;
+    private final OutputStream out;
+    private final long[] offsets;
+    private final int[] lengths;
+    private long size = 0;
+    private FileChannel reader = null;
+
+    ReportFragments(Path dir, String prefix, int count) throws IOException {
+        this.file = Files.createTempFile(dir, prefix, ".fragments");
+        this.out = new BufferedOutputStream(Files.newOutputStream(file));
+        this.offsets = new long[count];
+        this.lengths = new int[count];
+        Arrays.fill(lengths, -1);
+    }
+
+    void put(int index, String html) throws IOException {
+        if (contains(index)) {
+            throw new IllegalStateException("the fragment #" + index + " is already put");
+        }
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        offsets[index] = size;
+        lengths[index] = bytes.length;
+        size += bytes.length;
+    }
+
+    boolean contains(int index) {
+        return lengths[index] >= 0;
+    }
+
+    /**
+     * @return the fragment of the index read back from the file
+     */
+    String get(int index) throws IOException {
+        if (!contains(index)) {
+            throw new IllegalStateException("the fragment #" + index + " is not put yet");
+        }
+        out.flush();
+        if (reader == null) {
+            reader = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(lengths[index]);
+        long position = offsets[index];
+        while (bytes.hasRemaining()) {
+            int n = reader.read(bytes, position);
+            if (n < 0) {
+                throw new IOException("unexpected end of " + file + " at the fragment #" + index);
+            }
+            position += n;
+        }
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a directive which inserts the fragments of the indexes in the order given
+     */
+    InsertFileDirective insert(List<Integer> indexes) throws IOException {
+        out.flush();
+        List<InsertFileDirective.Range> ranges = new ArrayList<>();
+        for (int index : indexes) {
+            if (!contains(index)) {
+                throw new IllegalStateException("the fragment #" + index + " is not put yet");
+            }
+            ranges.add(new InsertFileDirective.Range(offsets[index], lengths[index]));
+        }
+        return new InsertFileDirective(file, ranges);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+            if (reader != null) {
+                reader.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The manifest of the report files in the store root, which IndexCreator#update(Path...)
+ * maintains so that the index is updated without looking up every report file again.
+ * <p>
+ * The manifest is persisted as a TSV file named ".reportindex" directly under the store root;
+ * a line per report file with the file name and the lastModified in milliseconds.
+ */
+final class ReportManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportManifest.class);
+
+    static final String FILE_NAME = ".reportindex";
+
+    private final Path dir;
+    private final Path manifestFile;
+    private final Map<String, Long> entries;
+    private int lookups = 0;
+    private boolean dirty = false;
+
+    ReportManifest(Path dir) {
+        this.dir = Objects.requireNonNull(dir);
+        this.manifestFile = dir.resolve(FILE_NAME);
+        this.entries = new LinkedHashMap<>();
+    }
+
+    static ReportManifest load(Path dir) throws MaterialstoreException {
+        ReportManifest manifest = new ReportManifest(dir);
+        manifest.deserialize();
+        return manifest;
+    }
+
+    Path getManifestFile() {
+        return manifestFile;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of the files of which attributes were read
+     */
+    int getLookups() {
+        return lookups;
+    }
+
+    /**
+     * forget all, and look up every report file
+     */
+    void rescan() throws MaterialstoreException {
+        entries.clear();
+        dirty = true;
+        try {
+            for (IndexCreator.ReportFile rf : IndexCreator.ReportFileList.scan(dir)) {
+                entries.put(rf.getFileName(), rf.getLastModified());
+                lookups += 1;
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * list the file names in the directory, and look up the files new to the manifest
+     * and the ones changed; drop the entries of the files no longer there
+     */
+    void refresh(Collection<Path> changed) throws MaterialstoreException {
+        Set<String> changedNames = new HashSet<>();
+        for (Path p : changed) {
+            changedNames.add(p.getFileName().toString());
+        }
+        Set<String> listed = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.html")) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (!IndexCreator.isReportFileName(name)) {
+                    continue;
+                }
+                if (entries.containsKey(name) && !changedNames.contains(name)) {
+                    listed.add(name);
+                    continue;
+                }
+                BasicFileAttributes attrs = readAttributes(p);
+                if (attrs != null && !attrs.isDirectory()) {
+                    listed.add(name);
+                    entries.put(name, attrs.lastModifiedTime().toMillis());
+                    dirty = true;
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        Iterator<String> iter = entries.keySet().iterator();
+        while (iter.hasNext()) {
+            if (!listed.contains(iter.next())) {
+                iter.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    List<IndexCreator.ReportFile> toReportFiles() {
+        List<IndexCreator.ReportFile> list = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> e : entries.entrySet()) {
+            list.add(new IndexCreator.ReportFile(dir.resolve(e.getKey()), e.getValue()));
+        }
+        return list;
+    }
+
+    /**
+     * write the entries into the ".reportindex" file if anything was changed since loaded
+     */
+    void save() throws MaterialstoreException {
+        if (!dirty) {
+            return;
+        }
+        Path tmp = manifestFile.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> e : entries.entrySet()) {
+                bw.write(e.getKey());
+                bw.write("\t");
+                bw.write(String.valueOf(e.getValue()));
+                bw.newLine();
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        try {
+            Files.move(tmp, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        dirty = false;
+    }
+
+    /*
+     * @return null if the file has gone since listed
+     */
+    private BasicFileAttributes readAttributes(Path p) throws IOException {
+        lookups += 1;
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void deserialize() throws MaterialstoreException {
+        if (!Files.exists(manifestFile)) {
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] items = line.split("\t", -1);
+                if (items.length != 2) {
+                    logger.warn(String.format("#deserialize ignored an invalid line: %s", line));
+                    continue;
+                }
+                try {
+                    entries.put(items[0], Long.valueOf(items[1]));
+                } catch (NumberFormatException e) {
+                    logger.warn(String.format("#deserialize ignored an invalid line: %s", line));
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroupJsonWriter;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.SortKeys;
+import com.kazurayam.materialstore.core.metadata.MetadataAttribute;
+import com.kazurayam.materialstore.core.metadata.SemanticVersionMatcherResult;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateSequenceModel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * FreeMarker template models which expose a MaterialProductGroup, MaterialProduct,
+ * MaterialList, Material and Metadata to the templates as they are.
+ * <p>
+ * The templates used to be given Maps which were made by parsing the JSON text of
+ * the objects with Gson; for a large MaterialProductGroup that meant building and
+ * parsing a huge string for every report. These adapters present the same
+ * properties under the same names, but each property is looked up in the object
+ * only when a template reads it.
+ */
+final class ReportTemplateModels {
+
+    private ReportTemplateModels() {}
+
+    /**
+     * @param sortKeys applied to the identification of the MaterialProducts
+     * @param withMaterialProductList if false, "materialProductList" is not exposed;
+     *                                as MaterialProductGroup#toSummary()
+     */
+    static TemplateHashModel of(MaterialProductGroup mpg, SortKeys sortKeys, boolean withMaterialProductList) {
+        List<MaterialProduct> mProducts = toList(mpg);
+        return new GroupModel(mpg, withMaterialProductList ? mProducts : null,
+                mProducts.size(), countWarning(mProducts, mpg.getThreshold()), sortKeys);
+    }
+
+    /**
+     * @param mProducts a part of the MaterialProducts in the group, e.g. a page of a sharded report;
+     *                  the counts are of these
+     */
+    static TemplateHashModel of(MaterialProductGroup mpg, List<MaterialProduct> mProducts, SortKeys sortKeys) {
+        return new GroupModel(mpg, mProducts,
+                mProducts.size(), countWarning(mProducts, mpg.getThreshold()), sortKeys);
+    }
+
+    /**
+     * @return the model of the group without the MaterialProducts, which are not held any longer
+     */
+    static TemplateHashModel of(MaterialProductGroup mpg, int countTotal, int countWarning, SortKeys sortKeys) {
+        return new GroupModel(mpg, null, countTotal, countWarning, sortKeys);
+    }
+
+    static TemplateHashModel of(MaterialProduct mProduct, SortKeys sortKeys) {
+        return new ProductModel(mProduct, sortKeys);
+    }
+
+    static TemplateHashModel of(MaterialList materialList, SortKeys sortKeys) {
+        return new ListModel(materialList, sortKeys);
+    }
+
+    static List<MaterialProduct> toList(MaterialProductGroup mpg) {
+        List<MaterialProduct> list = new ArrayList<>(mpg.size());
+        mpg.forEach(list::add);
+        return list;
+    }
+
+    static int countWarning(List<MaterialProduct> mProducts, Double threshold) {
+        int count = 0;
+        for (MaterialProduct mp : mProducts) {
+            if (mp.getDiffRatio() > threshold) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * the keys in the same order as the JSON of the MaterialProductGroup has
+     */
+    static List<String> orderKeys(Collection<String> keys, SortKeys sortKeys, Comparator<String> order) {
+        return MaterialProductGroupJsonWriter.orderKeys(keys, sortKeys, order);
+    }
+
+    /**
+     * a hash of which values are converted into TemplateModels as they are read
+     */
+    private abstract static class LazyHash implements TemplateHashModel {
+
+        /**
+         * @return a String, Number, Boolean, TemplateModel or null if the key is not there
+         */
+        abstract Object value(String key) throws MaterialstoreException;
+
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            try {
+                return wrap(value(key));
+            } catch (MaterialstoreException | RuntimeException e) {
+                throw new TemplateModelException("failed to get \"" + key + "\"", e);
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+    }
+
+    private static TemplateModel wrap(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof TemplateModel) {
+            return (TemplateModel) value;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        } else if (value instanceof Number) {
+            return new SimpleNumber((Number) value);
+        } else {
+            return new SimpleScalar(value.toString());
+        }
+    }
+
+    private static final class GroupModel extends LazyHash {
+        private final MaterialProductGroup mpg;
+        // null without the "materialProductList"
+        private final List<MaterialProduct> mProducts;
+        private final int countTotal;
+        private final int countWarning;
+        private final SortKeys sortKeys;
+
+        GroupModel(MaterialProductGroup mpg, List<MaterialProduct> mProducts,
+                   int countTotal, int countWarning, SortKeys sortKeys) {
+            this.mpg = Objects.requireNonNull(mpg);
+            this.mProducts = mProducts;
+            this.countTotal = countTotal;
+            this.countWarning = countWarning;
+            this.sortKeys = Objects.requireNonNull(sortKeys);
+        }
+
+        @Override
+        Object value(String key) {
+            switch (key) {
+                case "jobName": return mpg.getJobName().toString();
+                case "threshold": return mpg.getThreshold();
+                case "isReadyToReport": return mpg.isReadyToReport();
+                case "ignoreMetadataKeys":
+                    List<String> keys = new ArrayList<>(mpg.getIgnoreMetadataKeys().keySet());
+                    Collections.sort(keys);
+                    return new ListSequence<>(keys, SimpleScalar::new);
+                case "materialList0": return new ListSummaryModel(mpg.getMaterialListLeft());
+                case "materialList1": return new ListSummaryModel(mpg.getMaterialListRight());
+                case "materialProductList":
+                    if (mProducts == null) {
+                        return null;
+                    }
+                    return new IndexedSequence(mProducts.size(), i -> new ProductModel(mProducts.get(i), sortKeys));
+                case "countWarning": return countWarning;
+                case "countIgnorable": return mpg.getCountIgnorable();
+                case "countTotal": return countTotal;
+                case "labelLeft": return mpg.getLabelLeft();
+                case "labelRight": return mpg.getLabelRight();
+                default: return null;
+            }
+        }
+    }
+
+    /*
+     * the MaterialList of a MaterialProductGroup without its Materials
+     */
+    private static final class ListSummaryModel extends LazyHash {
+        private final MaterialList materialList;
+
+        ListSummaryModel(MaterialList materialList) {
+            this.materialList = Objects.requireNonNull(materialList);
+        }
+
+        @Override
+        Object value(String key) {
+            switch (key) {
+                case "jobTimestamp": return materialList.getJobTimestamp().toString();
+                case "queryOnMetadata": return new QueryModel(materialList.getQueryOnMetadata(), new SortKeys());
+                case "size": return materialList.size();
+                default: return null;
+            }
+        }
+    }
+
+    private static final class ListModel extends LazyHash {
+        private final MaterialList materialList;
+        private final SortKeys sortKeys;
+
+        ListModel(MaterialList materialList, SortKeys sortKeys) {
+            this.materialList = Objects.requireNonNull(materialList);
+            this.sortKeys = Objects.requireNonNull(sortKeys);
+        }
+
+        @Override
+        Object value(String key) {
+            switch (key) {
+                case "jobName": return materialList.getJobName().toString();
+                case "jobTimestamp": return materialList.getJobTimestamp().toString();
+                case "queryOnMetadata": return new QueryModel(materialList.getQueryOnMetadata(), new SortKeys());
+                case "materialList":
+                    return new IndexedSequence(materialList.size(),
+                            i -> new MaterialModel(materialList.get(i), sortKeys));
+                default: return null;
+            }
+        }
+    }
+
+    private static final class ProductModel extends LazyHash {
+        private final MaterialProduct mProduct;
+        private final SortKeys sortKeys;
+        private String identification = null;
+
+        ProductModel(MaterialProduct mProduct, SortKeys sortKeys) {
+            this.mProduct = Objects.requireNonNull(mProduct);
+            this.sortKeys = Objects.requireNonNull(sortKeys);
+        }
+
+        @Override
+        Object value(String key) {
+            switch (key) {
+                case "checked": return false;
+                case "isBachelor": return mProduct.isBachelor();
+                case "diffRatio": return mProduct.getDiffRatio();
+                case "fileTypeExtension": return mProduct.getFileTypeExtension();
+                case "fileTypeIsDiffable": return mProduct.getFileTypeDiffability().isDiffable();
+                case "queryOnMetadata": return new QueryModel(mProduct.getQueryOnMetadata(), sortKeys);
+                case "identification":
+                    // read a few times by the templates
+                    if (identification == null) {
+                        identification = mProduct.getQueryIdentification(sortKeys).toString();
+                    }
+                    return identification;
+                case "left": return new MaterialModel(mProduct.getLeft(), new SortKeys());
+                case "right": return new MaterialModel(mProduct.getRight(), new SortKeys());
+                case "withDiffColor": return mProduct.getWithDiffColor().toRGB();
+                case "diff": return new MaterialModel(mProduct.getDiff(), new SortKeys());
+                default: return null;
+            }
+        }
+    }
+
+    private static final class MaterialModel extends LazyHash {
+        private final Material material;
+        private final SortKeys sortKeys;
+
+        MaterialModel(Material material, SortKeys sortKeys) {
+            this.material = Objects.requireNonNull(material);
+            this.sortKeys = Objects.requireNonNull(sortKeys);
+        }
+
+        @Override
+        Object value(String key) throws MaterialstoreException {
+            switch (key) {
+                case "jobName": return material.getJobName().toString();
+                case "jobTimestamp": return material.getJobTimestamp().toString();
+                case "id": return material.getIndexEntry().getID().toString();
+                case "fileType": return material.getIndexEntry().getFileType().getExtension();
+                case "metadata": return new MetadataModel(material.getIndexEntry().getMetadata());
+                case "identification":
+                    return material.getIndexEntry().getMetadata()
+                            .getMetadataIdentification(sortKeys).toString();
+                case "metadataURL":
+                    Metadata metadata = material.getIndexEntry().getMetadata();
+                    return (metadata.toURL() != null) ? metadata.toURLAsString() : null;
+                case "relativeUrl": return material.getRelativeURL();
+                case "thumbnailUrl": return ThumbnailGenerator.getThumbnailURL(material);
+                case "diffability": return material.getDiffability().toString();
+                default: return null;
+            }
+        }
+    }
+
+    /**
+     * a hash of the MetadataAttributes which can be listed as key, value pairs
+     */
+    private static final class MetadataModel extends LazyHash implements TemplateHashModelEx2 {
+        private final Metadata metadata;
+        private List<String> orderedKeys = null;
+
+        MetadataModel(Metadata metadata) {
+            this.metadata = Objects.requireNonNull(metadata);
+        }
+
+        private List<String> orderedKeys() {
+            if (orderedKeys == null) {
+                orderedKeys = orderKeys(metadata.keySet(), new SortKeys(), String.CASE_INSENSITIVE_ORDER);
+            }
+            return orderedKeys;
+        }
+
+        @Override
+        Object value(String key) {
+            MetadataAttribute attribute = metadata.getMetadataAttribute(key);
+            return (attribute != null) ? new AttributeModel(attribute) : null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return metadata.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return metadata.size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return new ListSequence<>(orderedKeys(), SimpleScalar::new);
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return new ListSequence<>(orderedKeys(), key -> new AttributeModel(metadata.getMetadataAttribute(key)));
+        }
+
+        @Override
+        public KeyValuePairIterator keyValuePairIterator() {
+            Iterator<String> iterator = orderedKeys().iterator();
+            return new KeyValuePairIterator() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                @Override
+                public KeyValuePair next() {
+                    String key = iterator.next();
+                    return new KeyValuePair() {
+                        @Override
+                        public TemplateModel getKey() {
+                            return new SimpleScalar(key);
+                        }
+                        @Override
+                        public TemplateModel getValue() {
+                            return new AttributeModel(metadata.getMetadataAttribute(key));
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /*
+     * the flags are present only when true, as in MetadataAttribute#toJson()
+     */
+    private static final class AttributeModel extends LazyHash {
+        private final MetadataAttribute attribute;
+
+        AttributeModel(MetadataAttribute attribute) {
+            this.attribute = Objects.requireNonNull(attribute);
+        }
+
+        @Override
+        Object value(String key) {
+            switch (key) {
+                case "key": return attribute.getKey();
+                case "value": return attribute.getValue();
+                case "ignoredByKey": return trueOrNull(attribute.isIgnoredByKey());
+                case "identifiedByValue": return trueOrNull(attribute.isIdentifiedByValue());
+                case "matchedByAster": return trueOrNull(attribute.isMatchedByAster());
+                case "matchedIndividually": return trueOrNull(attribute.isMatchedIndividually());
+                case "paired": return trueOrNull(attribute.isPaired());
+                case "semanticVersionMatcherResult":
+                    SemanticVersionMatcherResult result = attribute.getSemanticVersionMatcherResult();
+                    return (result != null) ? new SemanticVersionModel(result) : null;
+                default: return null;
+            }
+        }
+
+        private static Boolean trueOrNull(boolean b) {
+            return b ? Boolean.TRUE : null;
+        }
+    }
+
+    private static final class SemanticVersionModel extends LazyHash {
+        private final SemanticVersionMatcherResult result;
+
+        SemanticVersionModel(SemanticVersionMatcherResult result) {
+            this.result = result;
+        }
+
+        @Override
+        Object value(String key) {
+            switch (key) {
+                case "matched": return result.matched();
+                case "fragments":
+                    // a missing fragment is an empty string, as in the JSON
+                    return new ListSequence<>(result.fragments(),
+                            fragment -> new SimpleScalar((fragment != null) ? fragment : ""));
+                default: return null;
+            }
+        }
+    }
+
+    /**
+     * the key, value pairs of a QueryOnMetadata; the values are the patterns as strings
+     */
+    private static final class QueryModel extends LazyHash implements TemplateHashModelEx2 {
+        private final QueryOnMetadata query;
+        private final SortKeys sortKeys;
+
+        QueryModel(QueryOnMetadata query, SortKeys sortKeys) {
+            this.query = Objects.requireNonNull(query);
+            this.sortKeys = Objects.requireNonNull(sortKeys);
+        }
+
+        private List<String> orderedKeys() {
+            return orderKeys(query.keySet(), sortKeys, Comparator.naturalOrder());
+        }
+
+        @Override
+        Object value(String key) {
+            return query.containsKey(key) ? query.getAsString(key) : null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return query.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return query.size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return new ListSequence<>(orderedKeys(), SimpleScalar::new);
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return new ListSequence<>(orderedKeys(), key -> new SimpleScalar(query.getAsString(key)));
+        }
+
+        @Override
+        public KeyValuePairIterator keyValuePairIterator() {
+            Iterator<String> iterator = orderedKeys().iterator();
+            return new KeyValuePairIterator() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                @Override
+                public KeyValuePair next() {
+                    String key = iterator.next();
+                    return new KeyValuePair() {
+                        @Override
+                        public TemplateModel getKey() {
+                            return new SimpleScalar(key);
+                        }
+                        @Override
+                        public TemplateModel getValue() {
+                            return new SimpleScalar(query.getAsString(key));
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * a sequence of which elements are made on demand out of their index
+     */
+    private static class IndexedSequence implements TemplateSequenceModel, TemplateCollectionModel {
+        private final int size;
+        private final Function<Integer, TemplateModel> element;
+
+        IndexedSequence(int size, Function<Integer, TemplateModel> element) {
+            this.size = size;
+            this.element = element;
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            return (index >= 0 && index < size) ? element.apply(index) : null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public TemplateModelIterator iterator() {
+            return new TemplateModelIterator() {
+                private int next = 0;
+                @Override
+                public TemplateModel next() {
+                    return element.apply(next++);
+                }
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+            };
+        }
+    }
+
+    private static final class ListSequence<T> extends IndexedSequence {
+        ListSequence(List<T> list, Function<T, TemplateModel> wrapper) {
+            super(list.size(), i -> wrapper.apply(list.get(i)));
+        }
+    }
+}
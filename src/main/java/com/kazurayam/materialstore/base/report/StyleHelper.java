@@ -6,9 +6,18 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class StyleHelper {
+
+    /*
+     * the resources in the CLASSPATH never change while the process runs,
+     * so each of them is loaded once and shared
+     */
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
     private StyleHelper() {
     }
 
@@ -30,10 +39,18 @@ public final class StyleHelper {
 
     public static String loadStyleFromClasspath(final String cssPath) throws MaterialstoreException {
         Objects.requireNonNull(cssPath);
+        String cached = CACHE.get(cssPath);
+        if (cached == null) {
+            cached = readFromClasspath(cssPath);
+            CACHE.putIfAbsent(cssPath, cached);
+        }
+        return cached;
+    }
+
+    private static String readFromClasspath(final String cssPath) throws MaterialstoreException {
         InputStream inputStream = StyleHelper.class.getResourceAsStream(cssPath);
         if (inputStream != null) {
-            try {
-                BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"))) {
                 StringBuilder sb = new StringBuilder();
                 String line;
                 while ((line = br.readLine()) != null) {
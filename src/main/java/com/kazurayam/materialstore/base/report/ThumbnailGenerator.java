@@ -0,0 +1,299 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.FileTypeDiffability;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * generates the downscaled thumbnails of the image Materials, which the reports show
+ * in place of the full-resolution images until a MaterialProduct is opened.
+ * <p>
+ * A thumbnail is a PNG no wider than MAX_WIDTH pixels, stored in the sidecar directory
+ * "&lt;JobName&gt;/&lt;JobTimestamp&gt;/thumbnails" next to the "objects" directory
+ * and named after the ID of the Material. As an ID identifies the content, a thumbnail
+ * once generated never gets stale; it is generated only once and goes away together with
+ * the JobTimestamp. The images narrow enough need no thumbnail; an empty file
+ * "&lt;ID&gt;.none" records it, so that they are not read again to find it out.
+ * A wide image is decoded with every n-th pixel only, still twice as wide as a thumbnail,
+ * and then downscaled. The images are downscaled in parallel on as many threads as
+ * the available processors.
+ */
+public final class ThumbnailGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailGenerator.class);
+
+    public static final String DIR_NAME = "thumbnails";
+
+    public static final int MAX_WIDTH = 480;
+
+    static final String NONE_SUFFIX = ".none";
+
+    private final int parallelism;
+
+    private ThumbnailGenerator(Builder builder) {
+        this.parallelism = builder.parallelism;
+    }
+
+    /**
+     * @return the path of the thumbnail of the Material, whether it has been generated or not
+     */
+    public static Path toThumbnailPath(Material material) {
+        return material.getStore().getRoot()
+                .resolve(material.getJobName().toString())
+                .resolve(material.getJobTimestamp().toString())
+                .resolve(DIR_NAME)
+                .resolve(material.getID().toString() + ".png");
+    }
+
+    /*
+     * the empty file which records that the Material needs no thumbnail
+     */
+    static Path toNoThumbnailPath(Material material) {
+        Path thumbnail = toThumbnailPath(material);
+        return thumbnail.resolveSibling(material.getID().toString() + NONE_SUFFIX);
+    }
+
+    /**
+     * @return the URL relative to the store root of the thumbnail if generated,
+     * otherwise the URL of the Material itself
+     */
+    public static String getThumbnailURL(Material material) {
+        if (material.getDiffability() == FileTypeDiffability.AS_IMAGE) {
+            Path thumbnail = toThumbnailPath(material);
+            if (Files.exists(thumbnail)) {
+                Path root = material.getStore().getRoot();
+                return root.relativize(thumbnail).toString().replace("\\", "/");
+            }
+        }
+        return material.getRelativeURL();
+    }
+
+    /**
+     * generate the thumbnails of the left, right and diff Materials of the MaterialProducts
+     *
+     * @return the number of the thumbnails newly generated
+     */
+    public int generate(MaterialProductGroup mpg) throws MaterialstoreException {
+        Objects.requireNonNull(mpg);
+        List<Material> materials = new ArrayList<>();
+        for (MaterialProduct mProduct : mpg) {
+            materials.add(mProduct.getLeft());
+            materials.add(mProduct.getRight());
+            materials.add(mProduct.getDiff());
+        }
+        return generate(materials);
+    }
+
+    /**
+     * generate the thumbnails of the image Materials which have none yet
+     *
+     * @return the number of the thumbnails newly generated
+     */
+    public int generate(Collection<Material> materials) throws MaterialstoreException {
+        Objects.requireNonNull(materials);
+        // a Material of the same ID is downscaled once, even if it is listed twice
+        Map<Path, Material> pending = new LinkedHashMap<>();
+        for (Material material : materials) {
+            if (material != null && !material.isEmpty()
+                    && material.getDiffability() == FileTypeDiffability.AS_IMAGE) {
+                Path thumbnail = toThumbnailPath(material);
+                if (!Files.exists(thumbnail) && !Files.exists(toNoThumbnailPath(material))) {
+                    pending.putIfAbsent(thumbnail, material);
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        int nThreads = Math.max(1, Math.min(parallelism, pending.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ThumbnailGenerator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Boolean>> futures = new ArrayList<>();
+        try {
+            for (Map.Entry<Path, Material> entry : pending.entrySet()) {
+                futures.add(executor.submit(() -> writeThumbnail(entry.getValue(), entry.getKey())));
+            }
+            int count = 0;
+            for (Future<Boolean> future : futures) {
+                if (future.get()) {
+                    count += 1;
+                }
+            }
+            logger.debug(String.format("#generate generated %d thumbnails", count));
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaterialstoreException) {
+                throw (MaterialstoreException) e.getCause();
+            }
+            throw new MaterialstoreException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * @return false if the image is narrow enough or is not readable as an image
+     */
+    private static boolean writeThumbnail(Material material, Path thumbnail) throws MaterialstoreException {
+        Path tmp = null;
+        try {
+            BufferedImage image = read(material.toPath(), MAX_WIDTH);
+            if (image == null) {
+                Files.createDirectories(thumbnail.getParent());
+                try {
+                    Files.createFile(toNoThumbnailPath(material));
+                } catch (FileAlreadyExistsException e) {
+                    // recorded by another process
+                }
+                return false;
+            }
+            BufferedImage scaled = downscale(image, MAX_WIDTH);
+            Files.createDirectories(thumbnail.getParent());
+            // other processes may be generating the same thumbnail; the one moved last wins
+            tmp = Files.createTempFile(thumbnail.getParent(), thumbnail.getFileName().toString(), ".tmp");
+            ImageIO.write(scaled, "png", tmp.toFile());
+            try {
+                Files.move(tmp, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, thumbnail, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+            return true;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    logger.warn("failed to delete " + tmp, e);
+                }
+            }
+        }
+    }
+
+    /*
+     * decode the image with every n-th pixel only in both directions, so that it is
+     * still no narrower than twice the maxWidth
+     *
+     * @return null if the image is not wider than the maxWidth, or is not readable as an image
+     */
+    static BufferedImage read(Path file, int maxWidth) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file.toFile())) {
+            if (iis == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                if (width <= maxWidth) {
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int period = width / (maxWidth * 2);
+                if (period > 1) {
+                    param.setSourceSubsampling(period, period, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /*
+     * halve the image step by step before the last bilinear scaling,
+     * which keeps the thin lines of a screenshot visible
+     */
+    static BufferedImage downscale(BufferedImage image, int maxWidth) {
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= maxWidth) {
+            current = resize(current, current.getWidth() / 2, Math.max(1, current.getHeight() / 2));
+        }
+        if (current.getWidth() > maxWidth) {
+            int height = (int) Math.max(1L,
+                    Math.round((double) image.getHeight() * maxWidth / image.getWidth()));
+            current = resize(current, maxWidth, height);
+        }
+        return current;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return resized;
+    }
+
+    /**
+     *
+     */
+    public static class Builder {
+
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        public Builder() {}
+
+        /**
+         * @param parallelism the maximum number of the images downscaled at once
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public ThumbnailGenerator build() {
+            return new ThumbnailGenerator(this);
+        }
+    }
+}
@@ -17,6 +17,11 @@ public enum FileType implements IFileType {
      */
     CSV  ("csv", FileTypeDiffability.AS_TEXT,  Arrays.asList("text/csv", "text/plain")),
 
+    /**
+     * ChangeMask of an image diff; the runs of differing pixels, in place of a marked up PNG
+     */
+    DIFFMASK ("diffmask", FileTypeDiffability.UNABLE, Arrays.asList(""), "Change mask of image diff"),
+
     /**
      * Microsoft Word document file
      */
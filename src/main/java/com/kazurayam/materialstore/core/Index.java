@@ -74,6 +74,13 @@ final class Index implements Iterable<IndexEntry> {
         return indexEntry;
     }
 
+    /**
+     * @return true if the entry was in the index
+     */
+    public boolean remove(IndexEntry indexEntry) {
+        return lines_.remove(indexEntry);
+    }
+
     public int size() {
         return lines_.size();
     }
@@ -85,8 +92,10 @@ final class Index implements Iterable<IndexEntry> {
     /**
      * write data int "index" file.
      * lines are sorted by the order of Metadata > FileType > ID
+     *
+     * @return the bytes written
      */
-    public void serialize(Path indexFile) throws MaterialstoreException {
+    public long serialize(Path indexFile) throws MaterialstoreException {
         Objects.requireNonNull(indexFile);
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -100,6 +109,7 @@ final class Index implements Iterable<IndexEntry> {
             pw.flush();
             pw.close();
             Files.write(indexFile, baos.toByteArray());
+            return baos.size();
         } catch (IOException e) {
             throw new MaterialstoreException(e);
         }
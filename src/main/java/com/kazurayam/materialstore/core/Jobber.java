@@ -18,6 +18,8 @@ public final class Jobber {
     private final JobTimestamp jobTimestamp;
     private final Path jobResultDir;
     private Index index;
+    // the bytes of the "index" file as last read or written
+    private long indexBytes = 0L;
 
     public enum DuplicationHandling {
         TERMINATE, CONTINUE
@@ -41,6 +43,7 @@ public final class Jobber {
         Path indexFile = Index.getIndexFile(jobResultDir);
         if (Files.exists(indexFile)) {
             index = Index.deserialize(indexFile);
+            indexBytes = sizeOf(indexFile);
         }
 
     }
@@ -185,21 +188,170 @@ public final class Jobber {
             // write the byte[] data into file if the MaterialIO is not yet there.
             ID id = new ID(MaterialIO.hashJDK(data));
             MaterialIO mio = new MaterialIO(id, fileType);
+            long objectBytes = 0L;
             if (!mio.existsInDir(this.getObjectsDir())) {
                 // save the "byte[] data" into disk
                 Path objectFile = this.getObjectsDir().resolve(mio.getFileName());
                 MaterialIO.serialize(data, objectFile);
+                objectBytes = data.length;
             }
 
             // insert a line into the "index" content on memory
             IndexEntry indexEntry = index.put(mio.getID(), fileType, metadata);
             // save the content of the "index" into a file on disk
-            index.serialize(Index.getIndexFile(jobResultDir));
+            serializeIndex(objectBytes);
             return new Material(store, this.getJobName(), this.getJobTimestamp(), indexEntry);
         }
 
     }
 
+    /*
+     * Move the file, which has been written outside the store (e.g, a diff image
+     * encoded incrementally by a streaming differ), into the objects directory
+     * and record it in the index. The file is hashed as a stream, so that
+     * a gigantic file does not have to be loaded into memory.
+     * The source file is removed.
+     */
+    public Material writeFile(final Path file, final IFileType fileType, final Metadata metadata,
+                              final DuplicationHandling duplicationHandling)
+            throws MaterialstoreException {
+        Objects.requireNonNull(file, "file must not be null");
+        Objects.requireNonNull(fileType, "filetype must not be null");
+        Objects.requireNonNull(metadata, "metadata must not be null");
+        Objects.requireNonNull(duplicationHandling, "duplicationHandling must not be null");
+        if (!Files.exists(file)) {
+            throw new MaterialstoreException(file + " is not found");
+        }
+        try {
+            if (index.containsKey(fileType, metadata)) {
+                String msg1 = "The combination of " +
+                        "fileType=" + fileType.getExtension() +
+                        " and metadata=" + metadata.getMetadataIdentification() +
+                        " is already there in the index";
+                if (duplicationHandling.equals(DuplicationHandling.TERMINATE)) {
+                    throw new DuplicatingMaterialException(msg1 + ".");
+                }
+                logger.info(msg1 + "; process skips one write and continue ...");
+                List<IndexEntry> indexEntries = index.indexEntriesOf(fileType, metadata);
+                assert indexEntries.size() > 0;
+                return new Material(store, this.getJobName(), this.getJobTimestamp(), indexEntries.get(0));
+            }
+            ID id = new ID(MaterialIO.hashJDK(file));
+            MaterialIO mio = new MaterialIO(id, fileType);
+            long objectBytes = 0L;
+            if (!mio.existsInDir(this.getObjectsDir())) {
+                objectBytes = Files.size(file);
+                Files.move(file, this.getObjectsDir().resolve(mio.getFileName()));
+            }
+            IndexEntry indexEntry = index.put(mio.getID(), fileType, metadata);
+            serializeIndex(objectBytes);
+            return new Material(store, this.getJobName(), this.getJobTimestamp(), indexEntry);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn(String.format("#writeFile failed to delete %s", file));
+            }
+        }
+    }
+
+    /*
+     * Link an existing Material (possibly located in another JobName/JobTimestamp)
+     * into this JobTimestamp with the given Metadata.
+     * The object file is copied as is; the SHA1 hash is not recalculated
+     * because the ID of the source Material is already known.
+     */
+    public Material link(final Material source, final Metadata metadata,
+                         final DuplicationHandling duplicationHandling)
+            throws MaterialstoreException {
+        Objects.requireNonNull(source, "source must not be null");
+        Objects.requireNonNull(metadata, "metadata must not be null");
+        Objects.requireNonNull(duplicationHandling, "duplicationHandling must not be null");
+        IFileType fileType = source.getFileType();
+        if (index.containsKey(fileType, metadata)) {
+            String msg1 = "The combination of " +
+                    "fileType=" + fileType.getExtension() +
+                    " and metadata=" + metadata.getMetadataIdentification() +
+                    " is already there in the index";
+            if (duplicationHandling.equals(DuplicationHandling.TERMINATE)) {
+                throw new DuplicatingMaterialException(msg1 + ".");
+            }
+            logger.info(msg1 + "; process skips one link and continue ...");
+            List<IndexEntry> indexEntries = index.indexEntriesOf(fileType, metadata);
+            assert indexEntries.size() > 0;
+            return new Material(store, this.getJobName(), this.getJobTimestamp(), indexEntries.get(0));
+        }
+        MaterialIO mio = new MaterialIO(source.getID(), fileType);
+        long objectBytes = 0L;
+        if (!mio.existsInDir(this.getObjectsDir())) {
+            Path sourceFile = source.toPath();
+            if (!Files.exists(sourceFile)) {
+                throw new MaterialstoreException(sourceFile + " is not found");
+            }
+            try {
+                Files.copy(sourceFile, this.getObjectsDir().resolve(mio.getFileName()));
+                objectBytes = Files.size(sourceFile);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        }
+        IndexEntry indexEntry = index.put(mio.getID(), fileType, metadata);
+        serializeIndex(objectBytes);
+        return new Material(store, this.getJobName(), this.getJobTimestamp(), indexEntry);
+    }
+
+    /*
+     * Remove the entry of the Material from the index, e.g. a placeholder which has been
+     * replaced. The object file is deleted unless another entry of the index refers to it.
+     * Returns false if the entry is not in the index.
+     */
+    public boolean remove(final Material material) throws MaterialstoreException {
+        Objects.requireNonNull(material, "material must not be null");
+        IndexEntry indexEntry = material.getIndexEntry();
+        if (!index.remove(indexEntry)) {
+            return false;
+        }
+        long objectBytes = 0L;
+        boolean referred = false;
+        for (IndexEntry other : index) {
+            if (other.getMaterialIO().equals(indexEntry.getMaterialIO())) {
+                referred = true;
+                break;
+            }
+        }
+        if (!referred) {
+            Path objectFile = this.getObjectsDir().resolve(indexEntry.getMaterialIO().getFileName());
+            try {
+                objectBytes = sizeOf(objectFile);
+                Files.deleteIfExists(objectFile);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        }
+        serializeIndex(-objectBytes);
+        return true;
+    }
+
+    /*
+     * write the "index" file, and add the bytes of the object file written (negative if deleted)
+     * and the growth of the "index" to the usage of the Store
+     */
+    private void serializeIndex(long objectBytes) throws MaterialstoreException {
+        long before = indexBytes;
+        indexBytes = index.serialize(Index.getIndexFile(jobResultDir));
+        store.getUsage().add(jobName, jobTimestamp, objectBytes + indexBytes - before);
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
     public static String getOBJECTS_DIR_NAME() {
         return OBJECTS_DIR_NAME;
     }
@@ -11,13 +11,20 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class Material implements Comparable<Material>, Jsonifiable, TemplateReady,
         Identifiable {
 
     private static final Logger logger = LoggerFactory.getLogger(Material.class.getName());
 
+    /*
+     * the bytes of the placeholder resources, loaded once from the CLASSPATH
+     */
+    private static final Map<String, byte[]> RESOURCE_CACHE = new ConcurrentHashMap<>();
+
     public static final Material NULL_OBJECT =
             new Material(Store.NULL_OBJECT, JobName.NULL_OBJECT, JobTimestamp.NULL_OBJECT, IndexEntry.NULL_OBJECT);
 
@@ -119,14 +126,51 @@ public final class Material implements Comparable<Material>, Jsonifiable, Templa
      * returns the byte array of the PNG file of "No Material is found"
      */
     public static byte[] loadNoCounterpartPng() throws MaterialstoreException {
-        return readInputStream(getNoCounterpartPngAsInputStream());
+        return loadResource("com/kazurayam/materialstore/core/NoCounterpart.png");
     }
 
     /*
      * returns the byte array of the HTML file of "No Materials is found"
      */
     public static byte[] loadNoCounterpartText() throws MaterialstoreException {
-        return readInputStream(getNoCounterpartTxtAsInputStream());
+        return loadResource("com/kazurayam/materialstore/core/NoCounterpart.txt");
+    }
+
+    /*
+     * returns the byte array of the PNG file of "Left and right are identical"
+     */
+    public static byte[] loadIdenticalPng() throws MaterialstoreException {
+        return loadResource("com/kazurayam/materialstore/core/Identical.png");
+    }
+
+    /*
+     * returns the byte array of the HTML file of "Left and right are identical"
+     */
+    public static byte[] loadIdenticalHtml() throws MaterialstoreException {
+        return loadResource("com/kazurayam/materialstore/core/Identical.html");
+    }
+
+    /*
+     * returns a copy of the cached bytes, as the callers may modify the array
+     */
+    private static byte[] loadResource(String resourcePath) throws MaterialstoreException {
+        byte[] bytes = RESOURCE_CACHE.get(resourcePath);
+        if (bytes == null) {
+            try (InputStream inputStream = getResourceAsInputStream(resourcePath)) {
+                bytes = readInputStream(inputStream);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+            RESOURCE_CACHE.putIfAbsent(resourcePath, bytes);
+        }
+        return bytes.clone();
+    }
+
+    private static InputStream getResourceAsInputStream(String resourcePath) {
+        ClassLoader cl = Material.class.getClassLoader();
+        InputStream inputStream = cl.getResourceAsStream(resourcePath);
+        assert inputStream != null : "failed to load " + resourcePath + " from CLASSPATH";
+        return inputStream;
     }
 
     public static InputStream getNoCounterpartPngAsInputStream() {
@@ -1,6 +1,7 @@
 package com.kazurayam.materialstore.core;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
@@ -24,7 +25,34 @@ public final class MaterialIO {
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException(e);
         }
-        byte[] digest = md.digest();
+        return toHexString(md.digest());
+    }
+
+    /*
+     * calculate SHA1 message digest of the content of the given file
+     * without loading the whole content into memory
+     */
+    public static String hashJDK(Path file) throws MaterialstoreException {
+        Objects.requireNonNull(file);
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] buff = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buff)) != -1) {
+                md.update(buff, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        return toHexString(md.digest());
+    }
+
+    private static String toHexString(byte[] digest) {
         StringBuilder sb = new StringBuilder();
         for (byte b : digest) {
             sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
@@ -100,6 +100,14 @@ public interface Store {
 
     Path getRoot();
 
+    /**
+     * @return the bytes used by the JobTimestamps, maintained as the Materials are written and deleted.
+     * By default a new StoreUsage, which reads the journal in the root as it is used; StoreImpl keeps one.
+     */
+    default StoreUsage getUsage() {
+        return new StoreUsage(getRoot());
+    }
+
     List<JobTimestamp> queryAllJobTimestamps(JobName jobName, QueryOnMetadata query)
             throws MaterialstoreException, JobNameNotFoundException;
 
@@ -33,8 +33,10 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -44,7 +46,9 @@ public final class StoreImpl implements Store {
     public static final Store NULL_OBJECT = new StoreImpl( null );
 
     private final Path root_;
-    private final Set<Jobber> jobberCache_;
+    // keyed by "<JobName>/<JobTimestamp>"; the Jobbers of different Jobs may be got concurrently
+    private final Map<String, Jobber> jobberCache_;
+    private final StoreUsage usage_;
     private static final int BUFFER_SIZE = 8000;
 
     public StoreImpl(Path root) {
@@ -57,7 +61,8 @@ public final class StoreImpl implements Store {
                 Files.createDirectories(root);
             }
             this.root_ = root;
-            this.jobberCache_ = new HashSet<>();
+            this.jobberCache_ = new ConcurrentHashMap<>();
+            this.usage_ = new StoreUsage(root);
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
@@ -102,6 +107,7 @@ public final class StoreImpl implements Store {
                 } catch (IOException e) {
                     throw new MaterialstoreException(e);
                 }
+                usage_.remove(jobName);
                 return 1;
             }
         } else {
@@ -136,6 +142,7 @@ public final class StoreImpl implements Store {
                     throw new MaterialstoreException(e);
                 }
             }
+            usage_.remove(jobName, jobTimestamp);
             return 1;
         } else {
             return 0;
@@ -166,6 +173,8 @@ public final class StoreImpl implements Store {
             return Files.list(root_)
                     .filter(Files::isDirectory)
                     .map(p -> p.getFileName().toString())
+                    // the dot-prefixed directories are not of JobNames, e.g. the pages of a sharded report
+                    .filter(name -> !name.startsWith("."))
                     .filter(JobName::isValid)
                     .map(JobName::new)
                     .sorted()
@@ -382,15 +391,7 @@ public final class StoreImpl implements Store {
     }
 
     public Jobber getCachedJobber(JobName jobName, JobTimestamp jobTimestamp) {
-        Jobber result = null;
-        for (Jobber cached : jobberCache_) {
-            if (cached.getJobName().equals(jobName) &&
-                    cached.getJobTimestamp().equals(jobTimestamp)) {
-                result = cached;
-                break;
-            }
-        }
-        return result;
+        return jobberCache_.get(jobberKey(jobName, jobTimestamp));
     }
 
     /**
@@ -406,13 +407,17 @@ public final class StoreImpl implements Store {
             return jobber;
         } else {
             Jobber newJob = new Jobber(this, jobName, jobTimestamp);
-            // put the new Job object in the cache
-            jobberCache_.add(newJob);
-            return newJob;
+            // put the new Job object in the cache, unless another thread has put one
+            Jobber cached = jobberCache_.putIfAbsent(jobberKey(jobName, jobTimestamp), newJob);
+            return (cached != null) ? cached : newJob;
         }
 
     }
 
+    private static String jobberKey(JobName jobName, JobTimestamp jobTimestamp) {
+        return jobName.toString() + "/" + jobTimestamp.toString();
+    }
+
     /*
      *
      * @param jobName
@@ -475,6 +480,11 @@ public final class StoreImpl implements Store {
         return root_;
     }
 
+    @Override
+    public StoreUsage getUsage() {
+        return usage_;
+    }
+
     @Override
     public List<JobTimestamp> queryAllJobTimestamps(final JobName jobName,
                                                     final QueryOnMetadata query)
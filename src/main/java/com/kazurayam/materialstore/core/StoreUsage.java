@@ -0,0 +1,390 @@
+package com.kazurayam.materialstore.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * the bytes used by each JobTimestamp of a Store, which the retention of the Store is based on.
+ * <p>
+ * The usage is maintained incrementally: Jobber adds the bytes as it writes a Material, and
+ * the Store and the StoreCleaner remove the JobTimestamps as they delete them. A JobTimestamp
+ * is measured by walking its directory only once, when it is first written since the usage is
+ * recorded, or when #refresh() finds it not recorded (e.g, imported).
+ * <p>
+ * The usage is persisted as a journal named ".usage" directly under the store root;
+ * a line per change, appended as it is made:
+ * <pre>
+ * =	&lt;JobName&gt;	&lt;JobTimestamp&gt;	&lt;bytes&gt;     the bytes measured
+ * +	&lt;JobName&gt;	&lt;JobTimestamp&gt;	&lt;bytes&gt;     the bytes added
+ * -	&lt;JobName&gt;	&lt;JobTimestamp&gt;             the JobTimestamp deleted
+ * -	&lt;JobName&gt;                            the JobName deleted
+ * </pre>
+ * A line is appended in a single write, so that the lines of processes do not interleave.
+ * The journal is compacted into a line per JobTimestamp as it is loaded or grows past a limit,
+ * and by #refresh(). The journal is read again just before it is compacted, so that the lines
+ * other processes have appended are kept.
+ * <p>
+ * A failure to record the usage never fails the write nor the delete; it is logged,
+ * and #rescan() measures the whole store again.
+ */
+public final class StoreUsage {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreUsage.class);
+
+    public static final String FILE_NAME = ".usage";
+
+    // the journal is compacted when it has more lines than this, or twice the JobTimestamps recorded
+    static final int COMPACT_LINES = 10000;
+
+    private final Path root;
+    private final Path journal;
+    private final Map<JobName, Map<JobTimestamp, Long>> usage = new TreeMap<>();
+    private boolean loaded = false;
+    // the lines in the journal
+    private int lines = 0;
+
+    public StoreUsage(Path root) {
+        this.root = Objects.requireNonNull(root);
+        this.journal = root.resolve(FILE_NAME);
+    }
+
+    public void add(JobName jobName, JobTimestamp jobTimestamp, long bytes) {
+        Objects.requireNonNull(jobName);
+        Objects.requireNonNull(jobTimestamp);
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                Map<JobTimestamp, Long> jobTimestamps = usage.get(jobName);
+                if (jobTimestamps != null && jobTimestamps.containsKey(jobTimestamp)) {
+                    jobTimestamps.merge(jobTimestamp, bytes, Long::sum);
+                    append(String.format("+\t%s\t%s\t%d", jobName, jobTimestamp, bytes));
+                    return;
+                }
+            }
+            // not recorded yet; the bytes written before are counted as well.
+            // The directory is walked out of the lock, not to hold up the writes into the other JobTimestamps
+            long measured = measure(root.resolve(jobName.toString()).resolve(jobTimestamp.toString()));
+            synchronized (this) {
+                // another thread may have measured it meanwhile; the larger is the later
+                long recorded = usage.computeIfAbsent(jobName, k -> new TreeMap<>())
+                        .merge(jobTimestamp, measured, Math::max);
+                append(String.format("=\t%s\t%s\t%d", jobName, jobTimestamp, recorded));
+            }
+        } catch (IOException e) {
+            logger.warn(String.format("#add failed to record the usage of %s/%s", jobName, jobTimestamp), e);
+        }
+    }
+
+    public synchronized void remove(JobName jobName, JobTimestamp jobTimestamp) {
+        Objects.requireNonNull(jobName);
+        Objects.requireNonNull(jobTimestamp);
+        try {
+            ensureLoaded();
+            Map<JobTimestamp, Long> jobTimestamps = usage.get(jobName);
+            if (jobTimestamps != null && jobTimestamps.remove(jobTimestamp) != null) {
+                append(String.format("-\t%s\t%s", jobName, jobTimestamp));
+            }
+        } catch (IOException e) {
+            logger.warn(String.format("#remove failed to record the usage of %s/%s", jobName, jobTimestamp), e);
+        }
+    }
+
+    public synchronized void remove(JobName jobName) {
+        Objects.requireNonNull(jobName);
+        try {
+            ensureLoaded();
+            if (usage.remove(jobName) != null) {
+                append(String.format("-\t%s", jobName));
+            }
+        } catch (IOException e) {
+            logger.warn(String.format("#remove failed to record the usage of %s", jobName), e);
+        }
+    }
+
+    /**
+     * @return the bytes of the JobTimestamp; 0 if not recorded
+     */
+    public synchronized long getBytes(JobName jobName, JobTimestamp jobTimestamp) throws MaterialstoreException {
+        loadOrThrow();
+        Map<JobTimestamp, Long> jobTimestamps = usage.get(jobName);
+        if (jobTimestamps == null) {
+            return 0L;
+        }
+        return jobTimestamps.getOrDefault(jobTimestamp, 0L);
+    }
+
+    public synchronized long getBytes(JobName jobName) throws MaterialstoreException {
+        loadOrThrow();
+        Map<JobTimestamp, Long> jobTimestamps = usage.get(jobName);
+        if (jobTimestamps == null) {
+            return 0L;
+        }
+        return jobTimestamps.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public synchronized long getTotalBytes() throws MaterialstoreException {
+        loadOrThrow();
+        long total = 0L;
+        for (Map<JobTimestamp, Long> jobTimestamps : usage.values()) {
+            for (long bytes : jobTimestamps.values()) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    public synchronized List<JobName> getJobNames() throws MaterialstoreException {
+        loadOrThrow();
+        return new ArrayList<>(usage.keySet());
+    }
+
+    /**
+     * @return the bytes of each JobTimestamp of the JobName, sorted by the JobTimestamp
+     */
+    public synchronized Map<JobTimestamp, Long> getJobTimestamps(JobName jobName) throws MaterialstoreException {
+        loadOrThrow();
+        Map<JobTimestamp, Long> jobTimestamps = usage.get(jobName);
+        if (jobTimestamps == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new TreeMap<>(jobTimestamps));
+    }
+
+    /**
+     * read the journal again, which other processes may have appended to; list the JobTimestamps
+     * in the store, measure the ones not recorded and forget the ones no longer there;
+     * then compact the journal
+     */
+    public synchronized void refresh() throws MaterialstoreException {
+        try {
+            usage.clear();
+            replay();
+            loaded = true;
+            // the JobTimestamps present, with the bytes of the ones not recorded
+            Map<JobName, Map<JobTimestamp, Long>> present = new TreeMap<>();
+            for (Path jobNameDir : listDirectories(root)) {
+                String name = jobNameDir.getFileName().toString();
+                if (!isJobName(name)) {
+                    continue;
+                }
+                JobName jobName = new JobName(name);
+                Map<JobTimestamp, Long> recorded = usage.getOrDefault(jobName, Collections.emptyMap());
+                Map<JobTimestamp, Long> jobTimestamps = new TreeMap<>();
+                for (Path dir : listDirectories(jobNameDir)) {
+                    String ts = dir.getFileName().toString();
+                    if (!JobTimestamp.isValid(ts)) {
+                        continue;
+                    }
+                    JobTimestamp jobTimestamp = new JobTimestamp(ts);
+                    jobTimestamps.put(jobTimestamp, recorded.containsKey(jobTimestamp) ? null : measure(dir));
+                }
+                present.put(jobName, jobTimestamps);
+            }
+            // the journal may have been appended by other processes while measuring
+            usage.clear();
+            replay();
+            for (Map.Entry<JobName, Map<JobTimestamp, Long>> job : present.entrySet()) {
+                Map<JobTimestamp, Long> recorded = usage.computeIfAbsent(job.getKey(), k -> new TreeMap<>());
+                for (Map.Entry<JobTimestamp, Long> jt : job.getValue().entrySet()) {
+                    if (jt.getValue() != null) {
+                        recorded.putIfAbsent(jt.getKey(), jt.getValue());
+                    }
+                }
+                recorded.keySet().retainAll(job.getValue().keySet());
+            }
+            usage.keySet().retainAll(present.keySet());
+            writeCompacted();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * forget all, and measure every JobTimestamp in the store
+     */
+    public synchronized void rescan() throws MaterialstoreException {
+        try {
+            Files.deleteIfExists(journal);
+            lines = 0;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        refresh();
+    }
+
+    private static boolean isJobName(String name) {
+        if (name.startsWith(".")) {
+            // e.g. the pages of a sharded report
+            return false;
+        }
+        try {
+            return JobName.isValid(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void loadOrThrow() throws MaterialstoreException {
+        try {
+            ensureLoaded();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (!loaded) {
+            replay();
+            loaded = true;
+            if (lines > compactionLimit()) {
+                writeCompacted();
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        lines = 0;
+        if (!Files.exists(journal)) {
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines += 1;
+                String[] items = line.split("\t", -1);
+                try {
+                    if (items.length == 4 && (items[0].equals("=") || items[0].equals("+"))) {
+                        Map<JobTimestamp, Long> jobTimestamps =
+                                usage.computeIfAbsent(new JobName(items[1]), k -> new TreeMap<>());
+                        JobTimestamp jobTimestamp = new JobTimestamp(items[2]);
+                        long bytes = Long.parseLong(items[3]);
+                        if (items[0].equals("=")) {
+                            jobTimestamps.put(jobTimestamp, bytes);
+                        } else {
+                            jobTimestamps.merge(jobTimestamp, bytes, Long::sum);
+                        }
+                    } else if (items.length == 3 && items[0].equals("-")) {
+                        Map<JobTimestamp, Long> jobTimestamps = usage.get(new JobName(items[1]));
+                        if (jobTimestamps != null) {
+                            jobTimestamps.remove(new JobTimestamp(items[2]));
+                        }
+                    } else if (items.length == 2 && items[0].equals("-")) {
+                        usage.remove(new JobName(items[1]));
+                    } else {
+                        logger.warn(String.format("#replay ignored an invalid line: %s", line));
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.warn(String.format("#replay ignored an invalid line: %s", line));
+                }
+            }
+        }
+    }
+
+    /*
+     * append the line to the journal, written as a whole as the writer is closed
+     */
+    private void append(String line) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            bw.write(line);
+            bw.newLine();
+        }
+        lines += 1;
+        if (lines > compactionLimit()) {
+            compact();
+        }
+    }
+
+    private int compactionLimit() {
+        int jobTimestamps = 0;
+        for (Map<JobTimestamp, Long> m : usage.values()) {
+            jobTimestamps += m.size();
+        }
+        return Math.max(COMPACT_LINES, 2 * jobTimestamps);
+    }
+
+    /*
+     * read the journal again, which other processes may have appended to, and compact it
+     */
+    synchronized void compact() throws IOException {
+        usage.clear();
+        replay();
+        writeCompacted();
+    }
+
+    /*
+     * write the usage in memory as the journal, a line per JobTimestamp
+     */
+    private void writeCompacted() throws IOException {
+        int count = 0;
+        // named uniquely, as other processes may compact at once
+        Path tmp = Files.createTempFile(root, FILE_NAME, ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<JobName, Map<JobTimestamp, Long>> job : usage.entrySet()) {
+                for (Map.Entry<JobTimestamp, Long> jt : job.getValue().entrySet()) {
+                    bw.write(String.format("=\t%s\t%s\t%d", job.getKey(), jt.getKey(), jt.getValue()));
+                    bw.newLine();
+                    count += 1;
+                }
+            }
+        }
+        Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING);
+        lines = count;
+    }
+
+    private static List<Path> listDirectories(Path dir) throws IOException {
+        List<Path> list = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            stream.forEach(list::add);
+        } catch (NoSuchFileException e) {
+            // gone since listed
+        }
+        return list;
+    }
+
+    /*
+     * @return the bytes of the files in the directory and its sub-directories; 0 if not there
+     */
+    static long measure(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return 0L;
+        }
+        final long[] total = { 0L };
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+        return total[0];
+    }
+}
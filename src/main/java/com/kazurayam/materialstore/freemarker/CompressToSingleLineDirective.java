@@ -40,7 +40,6 @@ public class CompressToSingleLineDirective implements TemplateDirectiveModel {
             BitGreedyCompressor compressor = new BitGreedyCompressor(env.getOut());
             body.render(compressor);
             compressor.flush();
-            compressor.close();
         } else {
             throw new RuntimeException("missing body");
         }
@@ -76,12 +75,15 @@ public class CompressToSingleLineDirective implements TemplateDirectiveModel {
 
         public void flush() throws IOException {
             String result = compress(buffer.toString());
+            buffer.setLength(0);
             out.write(result);
             out.flush();
         }
 
         public void close() throws IOException {
-            out.close();
+            // the out is the output of the Environment, which may be a file being written;
+            // it is not ours to close
+            flush();
         }
 
         private String compress(String source) throws IOException {
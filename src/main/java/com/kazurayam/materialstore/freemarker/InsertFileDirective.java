@@ -0,0 +1,114 @@
+package com.kazurayam.materialstore.freemarker;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * copies the content of a file, which is a piece of the output rendered beforehand,
+ * into the output as is. The file is streamed, not loaded into memory at once.
+ * Optionally only the given ranges of the file are copied, in the given order.
+ */
+public class InsertFileDirective implements TemplateDirectiveModel {
+
+    private final Path file;
+    private final List<Range> ranges;
+
+    public InsertFileDirective(Path file) {
+        Objects.requireNonNull(file);
+        this.file = file;
+        this.ranges = null;
+    }
+
+    /**
+     * @param ranges the ranges of bytes of the UTF-8 file; each of them must hold whole characters
+     */
+    public InsertFileDirective(Path file, List<Range> ranges) {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(ranges);
+        this.file = file;
+        this.ranges = new ArrayList<>(ranges);
+    }
+
+    @Override
+    public void execute(Environment env,
+                        Map params,
+                        TemplateModel[] loopVars,
+                        TemplateDirectiveBody body) throws TemplateException, IOException {
+        if (!params.isEmpty()) {
+            throw new TemplateModelException(
+                    "This directive doesn't allow parameters.");
+        }
+        if (loopVars.length != 0) {
+            throw new TemplateModelException(
+                    "This directive doesn't allow loop variables.");
+        }
+        if (body != null) {
+            throw new TemplateModelException(
+                    "This directive doesn't allow body.");
+        }
+        Writer out = env.getOut();
+        if (ranges == null) {
+            char[] buffer = new char[8192];
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                int n;
+                while ((n = reader.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (Range range : ranges) {
+                    ByteBuffer bytes = ByteBuffer.allocate(range.length);
+                    long position = range.offset;
+                    while (bytes.hasRemaining()) {
+                        int n = channel.read(bytes, position);
+                        if (n < 0) {
+                            throw new IOException("unexpected end of " + file + " in " + range);
+                        }
+                        position += n;
+                    }
+                    out.write(new String(bytes.array(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    /**
+     * a range of bytes in the file
+     */
+    public static final class Range {
+        private final long offset;
+        private final int length;
+
+        public Range(long offset, int length) {
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException("offset=" + offset + ", length=" + length);
+            }
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return "Range{offset=" + offset + ", length=" + length + "}";
+        }
+    }
+}
@@ -4,31 +4,52 @@ package com.kazurayam.materialstore.freemarker;
 import com.kazurayam.materialstore.core.FileSystemFactory;
 import freemarker.core.Environment;
 import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
 import freemarker.template.TemplateDirectiveBody;
 import freemarker.template.TemplateDirectiveModel;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
 import freemarker.template.TemplateScalarModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
+/**
+ * reads a text file line by line, and renders the body for each line:
+ * <pre>
+ * &lt;@readAllLines path="${material.relativeUrl}" maxLines=5000 maxBytes=1048576; line, truncated&gt;
+ *   ...
+ * &lt;/@readAllLines&gt;
+ * </pre>
+ * "path" is relative to the shared variable "baseDir". The lines are streamed;
+ * the file is never held in memory as a whole.
+ * <p>
+ * The optional "maxLines" and "maxBytes" cap the lines rendered. When capped, the body is rendered
+ * once more with a marker line "... truncated, N more lines" and the optional second loop variable
+ * (false for the lines of the file) set true.
+ */
 public class ReadAllLinesDirective implements TemplateDirectiveModel {
 
-    Logger logger = LoggerFactory.getLogger(ReadAllLinesDirective.class);
+    private static final Logger logger = LoggerFactory.getLogger(ReadAllLinesDirective.class);
 
     private static final String PARAM_NAME_PATH = "path";
+    private static final String PARAM_NAME_MAX_LINES = "maxLines";
+    private static final String PARAM_NAME_MAX_BYTES = "maxBytes";
     private static final String VARIABLE_NAME_BASEDIR = "baseDir";
 
+    // the key of the baseDir resolved once in a template Environment
+    private static final Object BASEDIR_STATE_KEY = new Object();
+
     @Override
     public void execute(Environment env,
                         Map params,
@@ -38,6 +59,8 @@ public class ReadAllLinesDirective implements TemplateDirectiveModel {
         // ------------------------------------------------------------
         // Processing the parameters
         String pathParam = null;
+        long maxLines = Long.MAX_VALUE;
+        long maxBytes = Long.MAX_VALUE;
 
         Iterator paramIter = params.entrySet().iterator();
         while (paramIter.hasNext()) {
@@ -46,37 +69,111 @@ public class ReadAllLinesDirective implements TemplateDirectiveModel {
             TemplateModel paramValue = (TemplateModel)ent.getValue();
 
             if (paramName.equals(PARAM_NAME_PATH)) {
-                if (!(paramValue instanceof SimpleScalar)) {
+                if (!(paramValue instanceof TemplateScalarModel)) {
                     throw new TemplateModelException(
                             "The \"" + PARAM_NAME_PATH + "\" parameter "
                             + "must be a string.");
                 }
+                pathParam = ((TemplateScalarModel)paramValue).getAsString();
+            } else if (paramName.equals(PARAM_NAME_MAX_LINES)) {
+                maxLines = getNonNegativeNumber(paramName, paramValue);
+            } else if (paramName.equals(PARAM_NAME_MAX_BYTES)) {
+                maxBytes = getNonNegativeNumber(paramName, paramValue);
+            } else {
+                throw new TemplateModelException(
+                        "Unsupported parameter: " + paramName);
             }
-            pathParam = ((TemplateScalarModel)paramValue).getAsString();
         }
         if (pathParam == null) {
             throw new TemplateModelException(
                     "The parameter \""+ PARAM_NAME_PATH + "\" is required."
             );
         }
-        if (loopVars.length > 1) {
+        if (loopVars.length > 2) {
             throw new TemplateModelException(
-                    "At most one loop variable is allowed."
+                    "At most two loop variables are allowed."
             );
         }
         //-------------------------------------------------------------
         // Do the actual directive execution.
         // 1. resolve tha path of the file to read
-        // 2. read all lines from a text file
-        // 3. put each line into the loop variable
+        // 2. read the lines from a text file one by one
+        // 3. put each line into the loop variable, until capped
+        Path file = resolveBaseDir(env).resolve(pathParam);
+        if (!Files.exists(file)) {
+            throw new TemplateModelException(
+                    "file \"" + file.toString() + "\" does not exist."
+            );
+        }
+        if (body == null) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long lineCount = 0;
+            long byteCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (lineCount >= maxLines || byteCount + lineBytes > maxBytes) {
+                    // count the rest without rendering
+                    long more = 1;
+                    while (reader.readLine() != null) {
+                        more += 1;
+                    }
+                    render(env, loopVars, body,
+                            String.format("... truncated, %d more line%s", more, (more > 1) ? "s" : ""),
+                            true);
+                    return;
+                }
+                render(env, loopVars, body, line, false);
+                lineCount += 1;
+                byteCount += lineBytes;
+            }
+        }
+    }
+
+    private static void render(Environment env, TemplateModel[] loopVars, TemplateDirectiveBody body,
+                               String line, boolean truncated) throws TemplateException, IOException {
+        if (loopVars.length > 0) {
+            loopVars[0] = new SimpleScalar(line);
+        }
+        if (loopVars.length > 1) {
+            loopVars[1] = truncated ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+        body.render(env.getOut());
+    }
+
+    private static long getNonNegativeNumber(String paramName, TemplateModel paramValue)
+            throws TemplateModelException {
+        if (!(paramValue instanceof TemplateNumberModel)) {
+            throw new TemplateModelException(
+                    "The \"" + paramName + "\" parameter must be a number.");
+        }
+        long value = ((TemplateNumberModel)paramValue).getAsNumber().longValue();
+        if (value < 0) {
+            throw new TemplateModelException(
+                    "The \"" + paramName + "\" parameter must not be negative.");
+        }
+        return value;
+    }
+
+    /*
+     * the baseDir is looked up and checked once in a template Environment,
+     * not for every file read
+     */
+    private static Path resolveBaseDir(Environment env) throws TemplateModelException, IOException {
+        Path baseDir = (Path) env.getCustomState(BASEDIR_STATE_KEY);
+        if (baseDir != null) {
+            return baseDir;
+        }
         if (env.getVariable(VARIABLE_NAME_BASEDIR) == null) {
             throw new TemplateModelException(VARIABLE_NAME_BASEDIR + " is not defined");
         }
         String sp = String.valueOf(env.getVariable(VARIABLE_NAME_BASEDIR));
         FileSystem fs = FileSystemFactory.newFileSystem();
-        Path baseDir = fs.getPath(sp);
+        baseDir = fs.getPath(sp);
 
-        logger.info("baseDir=" + baseDir);
+        logger.debug("baseDir=" + baseDir);
 
         if (!baseDir.isAbsolute()) {
             baseDir = fs.getPath(System.getProperty("user.dir")).resolve(sp);
@@ -86,22 +183,7 @@ public class ReadAllLinesDirective implements TemplateDirectiveModel {
                     VARIABLE_NAME_BASEDIR + " \"" + sp + "\" does not exist."
             );
         }
-        Path file = baseDir.resolve(pathParam);
-        if (!Files.exists(file)) {
-            throw new TemplateModelException(
-                    "file \"" + file.toString() + "\" does not exist."
-            );
-        }
-
-        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
-
-        if (body != null) {
-            for (String line : lines) {
-                if (loopVars.length > 0) {
-                    loopVars[0] = new SimpleScalar(line);
-                }
-                body.render(env.getOut());
-            }
-        }
+        env.setCustomState(BASEDIR_STATE_KEY, baseDir);
+        return baseDir;
     }
 }
@@ -25,7 +25,9 @@ $(document).ready(function() {
      * the <span class="ratio"> with appropriate class ("warning", "ignored" or none)
      * in sync with the current model
      */
-    $("input[id^='ignorable']").each(function(index, value) {
+    $("input[id^='ignorable']").each(function(position, value) {
+        // the items of a report in progress are not in the order of the model
+        const index = $(this).attr("data-index");
         const id = $(this).prop("id");
         const checked   = model.materialProductList[index].checked;
         const diffRatio = model.materialProductList[index].diffRatio;   // NOTE THIS!
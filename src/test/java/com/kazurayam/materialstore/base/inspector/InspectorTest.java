@@ -20,7 +20,11 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -109,6 +113,37 @@ public class InspectorTest {
         assertTrue(Files.exists(report));
     }
 
+    /*
+     * the JobNames are reduced and reported concurrently; the index is updated once
+     */
+    @Test
+    public void test_reportAll() throws IOException, MaterialstoreException {
+        JobName twins = new JobName("MyAdmin_visual_inspection_twins");
+        JobName copy = new JobName("MyAdmin_visual_inspection_twins_copy");
+        too.copyDir(store.getRoot().resolve(twins.toString()), store.getRoot().resolve(copy.toString()));
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("URL.query", "\\w{32}");
+        inspector.setParallelism(2);
+        inspector.setDecodedImageCacheBudget(64L * 1024 * 1024);
+        Map<JobName, Path> reports = inspector.reportAll(Arrays.asList(twins, copy),
+                jobName -> MaterialProductGroup.builder(
+                                store.select(jobName, new JobTimestamp("20220128_191320"),
+                                        QueryOnMetadata.builder(Collections.singletonMap(
+                                                "environment", "MyAdmin_ProductionEnv")).build()),
+                                store.select(jobName, new JobTimestamp("20220128_191342"),
+                                        QueryOnMetadata.builder(Collections.singletonMap(
+                                                "environment", "MyAdmin_DevelopmentEnv")).build()))
+                        .ignoreKeys("environment", "URL.host", "URL.port", "URL.protocol")
+                        .identifyWithRegex(map)
+                        .build(),
+                0.0D);
+        assertEquals(Arrays.asList(twins, copy), new ArrayList<>(reports.keySet()));
+        for (Path report : reports.values()) {
+            assertTrue(Files.exists(report));
+        }
+        assertTrue(Files.exists(store.getRoot().resolve("index.html")));
+    }
+
     /*
      * https://github.com/kazurayam/materialstore/issues/393
      * Even when the left MaterialList is empty, Inspector should work quietly
@@ -0,0 +1,147 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Jobber;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.SampleFixtureInjector;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OrphanCollectorTest {
+
+    private static final TestOutputOrganizer too = TestOutputOrganizerFactory.create(OrphanCollectorTest.class);
+    private static final String ORPHAN_ID = "0123456789abcdef0123456789abcdef01234567";
+    private Path classOutputDir;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    public void test_collect() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_collect").resolve("store"));
+        JobName jobName = new JobName("test_collect");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        Path objectsDir = objectsDirOf(store, jobName, jt);
+        Path orphan = Files.write(objectsDir.resolve(ORPHAN_ID + ".txt"), "orphan".getBytes(StandardCharsets.UTF_8));
+        //
+        OrphanCollector collector = OrphanCollector.newInstance(store);
+        collector.setGracePeriod(Duration.ZERO);
+        OrphanCollector.Result result = collector.collect();
+        assertEquals(1, result.getJobTimestampsScanned());
+        assertEquals(1, result.getOrphansDeleted());
+        assertEquals(6, result.getBytesReclaimed());
+        assertTrue(result.isPassCompleted());
+        assertFalse(Files.exists(orphan));
+        // the Materials in the index are left as they are
+        assertEquals(3, countFiles(objectsDir));
+        assertEquals(3, store.select(jobName, jt, QueryOnMetadata.ANY).size());
+    }
+
+    @Test
+    public void test_collect_sidecars_and_temporary_files() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_collect_sidecars_and_temporary_files").resolve("store"));
+        JobName jobName = new JobName("test_collect_sidecars_and_temporary_files");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        Path jobTimestampDir = store.getRoot().resolve(jobName.toString()).resolve(jt.toString());
+        String id = store.select(jobName, jt, QueryOnMetadata.ANY).get(0).getID().toString();
+        Path thumbnail = write(jobTimestampDir.resolve("thumbnails").resolve(id + ".png"));
+        Path[] orphans = {
+                write(jobTimestampDir.resolve("thumbnails").resolve(ORPHAN_ID + ".png")),
+                write(jobTimestampDir.resolve("thumbnails").resolve(ORPHAN_ID + ".none")),
+                write(jobTimestampDir.resolve("fragments").resolve(ORPHAN_ID + ".key.html")),
+                write(jobTimestampDir.resolve("signatures").resolve(ORPHAN_ID + ".16.sig")),
+                write(jobTimestampDir.resolve("thumbnails").resolve(id + ".png12345.tmp")),
+                write(objectsDirOf(store, jobName, jt).resolve("diff12345.tmp")),
+                write(store.getRoot().resolve(".diffcache12345.tmp"))
+        };
+        //
+        OrphanCollector collector = OrphanCollector.newInstance(store);
+        collector.setGracePeriod(Duration.ZERO);
+        OrphanCollector.Result result = collector.collect();
+        assertEquals(orphans.length, result.getOrphansDeleted());
+        assertEquals(6L * orphans.length, result.getBytesReclaimed());
+        for (Path orphan : orphans) {
+            assertFalse(Files.exists(orphan), orphan.toString());
+        }
+        // the sidecar of a Material in the index is left as it is
+        assertTrue(Files.exists(thumbnail));
+        assertEquals(3, countFiles(objectsDirOf(store, jobName, jt)));
+    }
+
+    @Test
+    public void test_collect_within_gracePeriod() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_collect_within_gracePeriod").resolve("store"));
+        JobName jobName = new JobName("test_collect_within_gracePeriod");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        Path orphan = Files.write(objectsDirOf(store, jobName, jt).resolve(ORPHAN_ID + ".txt"),
+                "orphan".getBytes(StandardCharsets.UTF_8));
+        // the object file just written may be a Material whose index is being written
+        OrphanCollector.Result result = OrphanCollector.newInstance(store).collect();
+        assertEquals(0, result.getOrphansDeleted());
+        assertTrue(Files.exists(orphan));
+    }
+
+    @Test
+    public void test_collect_in_time_slices() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_collect_in_time_slices").resolve("store"));
+        JobName jobName = new JobName("test_collect_in_time_slices");
+        JobTimestamp jtA = SampleFixtureInjector.create3TXTs(store, jobName, new JobTimestamp("20221026_205509"));
+        JobTimestamp jtB = SampleFixtureInjector.create3TXTs(store, jobName, new JobTimestamp("20221029_220401"));
+        JobTimestamp jtC = SampleFixtureInjector.create3TXTs(store, jobName, new JobTimestamp("20221101_081500"));
+        for (JobTimestamp jt : new JobTimestamp[]{ jtA, jtB, jtC }) {
+            Files.write(objectsDirOf(store, jobName, jt).resolve(ORPHAN_ID + ".txt"),
+                    "orphan".getBytes(StandardCharsets.UTF_8));
+        }
+        OrphanCollector collector = OrphanCollector.newInstance(store);
+        collector.setGracePeriod(Duration.ZERO);
+        collector.setParallelism(1);
+        // a slice processes a JobTimestamp at least
+        int slices = 0;
+        int scanned = 0;
+        int deleted = 0;
+        do {
+            OrphanCollector.Result result = collector.collect(Duration.ZERO);
+            slices += 1;
+            scanned += result.getJobTimestampsScanned();
+            deleted += result.getOrphansDeleted();
+        } while (!collector.isPassCompleted());
+        assertEquals(3, slices);
+        assertEquals(3, scanned);
+        assertEquals(3, deleted);
+    }
+
+    private static Path objectsDirOf(Store store, JobName jobName, JobTimestamp jt) {
+        return store.getRoot().resolve(jobName.toString()).resolve(jt.toString())
+                .resolve(Jobber.getOBJECTS_DIR_NAME());
+    }
+
+    private static Path write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, "orphan".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialLocator;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.Issue334FixtureDirCopier;
+import com.kazurayam.materialstore.zest.SampleFixtureInjector;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReferenceGraphTest {
+
+    private static final TestOutputOrganizer too = TestOutputOrganizerFactory.create(ReferenceGraphTest.class);
+    private final JobName jobName = new JobName("CURA");
+    private Path classOutputDir;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    public void test_build() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Issue334FixtureDirCopier.copyFixtureInto(classOutputDir.resolve("test_build"));
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, 2);
+        assertEquals(7, graph.getJobTimestamps().size());
+        assertEquals(7, graph.getIndexesRead());
+        assertEquals(Arrays.asList(
+                        new JobTimestamp("20221026_171633"),
+                        new JobTimestamp("20221026_171412"),
+                        new JobTimestamp("20221026_171216")),
+                graph.getDifferentiatingJobTimestamps());
+        assertEquals(Arrays.asList(
+                        new JobTimestamp("20221026_171607"),
+                        new JobTimestamp("20221026_171343")),
+                graph.getReferredBy(new JobTimestamp("20221026_171633")));
+        assertEquals(new HashSet<>(Arrays.asList(
+                        new JobTimestamp("20221026_171633"),
+                        new JobTimestamp("20221026_171607"),
+                        new JobTimestamp("20221026_171343"))),
+                graph.reachableFrom(Collections.singletonList(new JobTimestamp("20221026_171633"))));
+    }
+
+    @Test
+    public void test_build_with_the_diffs_in_the_JobTimestamp_referred()
+            throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_build_with_the_diffs_in_the_JobTimestamp_referred")
+                .resolve("store"));
+        JobName jobName = new JobName("test_build_with_the_diffs_in_the_JobTimestamp_referred");
+        JobTimestamp jobTimestamp = SampleFixtureInjector.create3TXTs(store, jobName, new JobTimestamp("20221026_205509"));
+        MaterialList materials = store.select(jobName, jobTimestamp, QueryOnMetadata.ANY);
+        // a diff stored in the JobTimestamp of its left and right, e.g. by JobTimestamp.laterThan within a second
+        Metadata metadata = new Metadata.Builder()
+                .put("category", "diff")
+                .put("left", new MaterialLocator(jobTimestamp, materials.get(0).getID()).toString())
+                .put("right", new MaterialLocator(jobTimestamp, materials.get(1).getID()).toString())
+                .build();
+        store.write(jobName, jobTimestamp, FileType.TXT, metadata, "diff");
+        //
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, 1);
+        assertEquals(Collections.singletonList(jobTimestamp), graph.getDifferentiatingJobTimestamps());
+        assertEquals(store.findDifferentiatingJobTimestamps(jobName), graph.getDifferentiatingJobTimestamps());
+        // a self-reference is no edge
+        assertTrue(graph.getReferredBy(jobTimestamp).isEmpty());
+        // the flag is cached as well
+        graph.save(Collections.emptyList());
+        ReferenceGraph cached = ReferenceGraph.build(store, jobName, 1);
+        assertEquals(0, cached.getIndexesRead());
+        assertEquals(Collections.singletonList(jobTimestamp), cached.getDifferentiatingJobTimestamps());
+    }
+
+    @Test
+    public void test_build_from_the_sidecar() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Issue334FixtureDirCopier.copyFixtureInto(classOutputDir.resolve("test_build_from_the_sidecar"));
+        ReferenceGraph graph = ReferenceGraph.build(store, jobName, 1);
+        graph.save(Collections.emptyList());
+        assertTrue(Files.exists(store.getRoot().resolve(jobName.toString()).resolve(ReferenceGraph.FILE_NAME)));
+        // the "index" files are not read again
+        ReferenceGraph cached = ReferenceGraph.build(store, jobName, 1);
+        assertEquals(0, cached.getIndexesRead());
+        assertEquals(graph.getDifferentiatingJobTimestamps(), cached.getDifferentiatingJobTimestamps());
+        assertEquals(graph.getReferredBy(new JobTimestamp("20221026_171412")),
+                cached.getReferredBy(new JobTimestamp("20221026_171412")));
+    }
+}
@@ -0,0 +1,103 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.zest.Issue334FixtureDirCopier;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetentionEngineTest {
+
+    private static final TestOutputOrganizer too = TestOutputOrganizerFactory.create(RetentionEngineTest.class);
+    private final JobName jobName = new JobName("CURA");
+    private Path classOutputDir;
+
+    /*
+     * in the fixture, 171633 refers to 171607 and 171343; 171412 refers to 171343 and 171150;
+     * 171216 refers to 171150 and 171020. So the JobTimestamps are evicted in this order,
+     * while 171633, the latest, and the ones it refers to are kept.
+     */
+    private final List<JobTimestamp> evictionOrder = Arrays.asList(
+            new JobTimestamp("20221026_171216"),
+            new JobTimestamp("20221026_171020"),
+            new JobTimestamp("20221026_171412"),
+            new JobTimestamp("20221026_171150"));
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    public void test_plan_maxTotalBytes() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Issue334FixtureDirCopier.copyFixtureInto(classOutputDir.resolve("test_plan_maxTotalBytes"));
+        RetentionPolicy policy = RetentionPolicy.builder().maxTotalBytes(1).build();
+        RetentionEngine.Plan plan = RetentionEngine.newInstance(store, policy).plan();
+        assertEquals(evictionOrder, jobTimestampsOf(plan));
+        for (RetentionEngine.Eviction eviction : plan.getEvictions()) {
+            assertEquals(RetentionEngine.Reason.TOTAL_QUOTA, eviction.getReason());
+        }
+        // the JobTimestamps left are all protected
+        assertFalse(plan.isSatisfied());
+        assertTrue(plan.getBytesReclaimed() > 0);
+        // the dry-run deletes nothing
+        for (JobTimestamp jt : evictionOrder) {
+            assertTrue(Files.exists(store.getRoot().resolve(jobName.toString()).resolve(jt.toString())));
+        }
+    }
+
+    @Test
+    public void test_plan_maxBytesPerJobName() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Issue334FixtureDirCopier.copyFixtureInto(classOutputDir.resolve("test_plan_maxBytesPerJobName"));
+        store.getUsage().refresh();
+        long total = store.getUsage().getBytes(jobName);
+        long oldest = store.getUsage().getBytes(jobName, evictionOrder.get(0));
+        RetentionPolicy policy = RetentionPolicy.builder().maxBytesPerJobName(total - oldest).build();
+        RetentionEngine.Plan plan = RetentionEngine.newInstance(store, policy).plan();
+        assertEquals(1, plan.getEvictions().size());
+        assertEquals(evictionOrder.get(0), plan.getEvictions().get(0).getJobTimestamp());
+        assertEquals(RetentionEngine.Reason.JOB_QUOTA, plan.getEvictions().get(0).getReason());
+        assertEquals(total - oldest, plan.getBytesAfter());
+        assertTrue(plan.isSatisfied());
+    }
+
+    @Test
+    public void test_execute_maxAge() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Issue334FixtureDirCopier.copyFixtureInto(classOutputDir.resolve("test_execute_maxAge"));
+        RetentionPolicy policy = RetentionPolicy.builder().maxAge(Duration.ofDays(1)).build();
+        RetentionEngine.Plan plan = RetentionEngine.newInstance(store, policy).execute();
+        assertEquals(evictionOrder, jobTimestampsOf(plan));
+        assertEquals(RetentionEngine.Reason.AGE, plan.getEvictions().get(0).getReason());
+        assertEquals(Arrays.asList(
+                        new JobTimestamp("20221026_171633"),
+                        new JobTimestamp("20221026_171607"),
+                        new JobTimestamp("20221026_171343")),
+                store.findAllJobTimestamps(jobName));
+        assertEquals(plan.getBytesAfter(), store.getUsage().getTotalBytes());
+    }
+
+    private static List<JobTimestamp> jobTimestampsOf(RetentionEngine.Plan plan) {
+        List<JobTimestamp> list = new ArrayList<>();
+        for (RetentionEngine.Eviction eviction : plan.getEvictions()) {
+            list.add(eviction.getJobTimestamp());
+        }
+        return list;
+    }
+}
@@ -21,6 +21,7 @@ import java.nio.file.Path;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class StoreCleanerTest {
@@ -164,10 +165,16 @@ public class StoreCleanerTest {
         Files.write(reportA, "<html><head><title>reportA</title></head></html>".getBytes());
         Path reportB = store.getRoot().resolve(store.resolveReportFileName(jobName, jtB));
         Files.write(reportB, "<html><head><title>reportB</title></head></html>".getBytes());
+        // the pages of reportA as sharded
+        String titleA = reportA.getFileName().toString().replace(".html", "");
+        Path pagesA = store.getRoot().resolve("." + titleA + "-pages");
+        Files.createDirectories(pagesA);
+        Files.write(pagesA.resolve("page-1.html"), "<html></html>".getBytes());
         // delete <JobName>-<JobTimestamp>.html files older than the one last 1 JobTimestamp
         StoreCleaner cleaner = StoreCleaner.newInstance(store);
         int deleted = cleaner.deleteReportsOlderThan(jobName, jtB);
         assertTrue(deleted >= 1);
         assertEquals(1, store.findAllReportsOf(jobName).size());
+        assertFalse(Files.exists(pagesA));
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.kazurayam.materialstore.base.manage;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobNameNotFoundException;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.Issue334FixtureDirCopier;
+import com.kazurayam.materialstore.zest.SampleFixtureInjector;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StoreSyncTest {
+
+    private static final TestOutputOrganizer too = TestOutputOrganizerFactory.create(StoreSyncTest.class);
+    private final JobName jobName = new JobName("CURA");
+    private final JobTimestamp latest = new JobTimestamp("20221026_171633");
+    private Path classOutputDir;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    public void test_sync_only_the_difference() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Path dir = classOutputDir.resolve("test_sync_only_the_difference");
+        Store local = Issue334FixtureDirCopier.copyFixtureInto(dir);
+        Store remote = Stores.newInstance(dir.resolve("remote"));
+        StoreSync sync = new StoreSync(local, remote, 2, true);
+        int copied = sync.sync(jobName, latest);
+        assertTrue(copied > 0);
+        assertEquals(3, remote.findAllJobTimestamps(jobName).size());
+        assertEquals(1, remote.findAllReportsOf(jobName).size());
+        // nothing to copy the next time; the manifests are taken from the cache
+        assertEquals(0, sync.sync(jobName, latest));
+        Path remoteDir = remote.getRoot().resolve(jobName.toString()).resolve(latest.toString());
+        assertTrue(StoreManifest.of(remoteDir).isCached());
+        assertTrue(StoreManifest.of(local.getRoot().resolve(jobName.toString()).resolve(latest.toString())).isCached());
+        assertEquals(StoreManifest.of(local.getRoot().resolve(jobName.toString()).resolve(latest.toString()))
+                .getEntries().keySet(), StoreManifest.of(remoteDir).getEntries().keySet());
+        assertTrue(remote.getUsage().getBytes(jobName, latest) > 0);
+    }
+
+    @Test
+    public void test_sync_a_file_added() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Path dir = classOutputDir.resolve("test_sync_a_file_added");
+        Store local = Issue334FixtureDirCopier.copyFixtureInto(dir);
+        Store remote = Stores.newInstance(dir.resolve("remote"));
+        StoreSync sync = new StoreSync(local, remote, 2, true);
+        sync.sync(jobName, latest);
+        Path thumbnails = local.getRoot().resolve(jobName.toString()).resolve(latest.toString()).resolve("thumbnails");
+        Files.createDirectories(thumbnails);
+        Files.write(thumbnails.resolve("a.png"), "a".getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, sync.sync(jobName, latest));
+        assertTrue(Files.exists(remote.getRoot().resolve(jobName.toString()).resolve(latest.toString())
+                .resolve("thumbnails").resolve("a.png")));
+    }
+
+    @Test
+    public void test_sync_into_the_JobTimestamp_written_on_both_sides()
+            throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Path dir = classOutputDir.resolve("test_sync_into_the_JobTimestamp_written_on_both_sides");
+        Store local = Stores.newInstance(dir.resolve("local"));
+        Store remote = Stores.newInstance(dir.resolve("remote"));
+        JobName jobName = new JobName("test_sync_into_the_JobTimestamp_written_on_both_sides");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(local, jobName, new JobTimestamp("20221026_205509"));
+        remote.write(jobName, jt, FileType.TXT,
+                new Metadata.Builder().put("step", "04").put("label", "it is yellow").build(), "Banana");
+        // the same metadata as a Material of the local, of another content
+        remote.write(jobName, jt, FileType.TXT,
+                new Metadata.Builder().put("step", "01").put("label", "it is red").build(), "Cherry");
+        new StoreSync(local, remote, 2, true).sync(jobName, jt);
+        // the Materials of both sides are there; the remote keeps its own of the same metadata
+        MaterialList merged = Stores.newInstance(remote.getRoot()).select(jobName, jt, QueryOnMetadata.ANY);
+        assertEquals(4, merged.size());
+        MaterialList red = Stores.newInstance(remote.getRoot()).select(jobName, jt,
+                QueryOnMetadata.builder().put("step", "01").build());
+        assertEquals(1, red.size());
+        assertEquals("Cherry", new String(remote.read(red.get(0)), StandardCharsets.UTF_8));
+        // the manifest of the source is cached too, so that the next sync does not walk it over again
+        assertTrue(Files.exists(local.getRoot().resolve(jobName.toString()).resolve(jt.toString())
+                .resolve(StoreManifest.FILE_NAME)));
+        assertEquals(3, local.select(jobName, jt, QueryOnMetadata.ANY).size());
+    }
+
+    @Test
+    public void test_sync_verifies_the_content() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Path dir = classOutputDir.resolve("test_sync_verifies_the_content");
+        Store local = Issue334FixtureDirCopier.copyFixtureInto(dir);
+        Store remote = Stores.newInstance(dir.resolve("remote"));
+        Path objects = local.getRoot().resolve(jobName.toString()).resolve(latest.toString()).resolve("objects");
+        // a file broken; its name is not the SHA1 of its content any longer
+        Path broken = objects.resolve("6aa7dab1b6cbb5ac92288fb9432ff5b378b76604.html");
+        Files.write(broken, "broken".getBytes(StandardCharsets.UTF_8));
+        StoreSync sync = new StoreSync(local, remote, 2, true);
+        assertThrows(MaterialstoreException.class, () -> sync.sync(jobName, latest));
+        Path target = remote.getRoot().resolve(jobName.toString()).resolve(latest.toString())
+                .resolve("objects").resolve(broken.getFileName().toString());
+        assertFalse(Files.exists(target));
+    }
+}
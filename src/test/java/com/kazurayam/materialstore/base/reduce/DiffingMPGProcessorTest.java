@@ -1,13 +1,19 @@
 package com.kazurayam.materialstore.base.reduce;
 
 import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.materialstore.base.reduce.differ.DecodedImageCache;
+import com.kazurayam.materialstore.base.reduce.differ.DiffCache;
 import com.kazurayam.materialstore.base.reduce.differ.ImageDiffStuffer;
+import com.kazurayam.materialstore.base.reduce.differ.VerdictPolicy;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.StoreImpl;
 import com.kazurayam.materialstore.zest.SampleFixtureInjector;
@@ -17,8 +23,11 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 public class DiffingMPGProcessorTest {
 
@@ -89,4 +98,235 @@ public class DiffingMPGProcessorTest {
         Assertions.assertNotNull(resolved);
         Assertions.assertEquals(2, resolved.size());
     }
+
+    @Test
+    public void test_decodedImageCache() throws MaterialstoreException {
+        JobName jobName = new JobName("test_decodedImageCache");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map).build());
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList right = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right).ignoreKeys("environment", "URL", "URL.host").build();
+        //
+        DiffingMPGProcessor differDriver = new DiffingMPGProcessor.Builder(store)
+                .decodedImageCacheBudget(64L * 1024 * 1024).build();
+        MaterialProductGroup resolved = differDriver.process(mpg);
+        Assertions.assertEquals(2, resolved.size());
+        // 2 left and 2 right images were decoded
+        Assertions.assertEquals(4, differDriver.getDecodedImageCacheStatistics().getMisses());
+        // the cache is opt-in
+        DiffingMPGProcessor uncached = new DiffingMPGProcessor.Builder(store).build();
+        uncached.process(mpg);
+        Assertions.assertNull(uncached.getDecodedImageCacheStatistics());
+        // a cache shared by 2 processors decodes the images once for both
+        DecodedImageCache shared = new DecodedImageCache(64L * 1024 * 1024);
+        new DiffingMPGProcessor.Builder(store).decodedImageCache(shared).build().process(mpg);
+        new DiffingMPGProcessor.Builder(store).decodedImageCache(shared).build().process(mpg);
+        Assertions.assertEquals(4, shared.getStatistics().getMisses());
+        Assertions.assertEquals(4, shared.getStatistics().getHits());
+        Assertions.assertEquals(4, shared.size());
+    }
+
+    @Test
+    public void test_imageDiffArtifact_CHANGE_MASK() throws MaterialstoreException {
+        JobName jobName = new JobName("test_imageDiffArtifact_CHANGE_MASK");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map).build());
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList right = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right).ignoreKeys("environment", "URL", "URL.host").build();
+        //
+        DiffingMPGProcessor differDriver = new DiffingMPGProcessor.Builder(store)
+                .imageDiffArtifact(ImageDiffStuffer.Artifact.CHANGE_MASK).build();
+        MaterialProductGroup resolved = differDriver.process(mpg);
+        Assertions.assertEquals(2, resolved.size());
+        for (MaterialProduct mp : resolved) {
+            Assertions.assertEquals(FileType.DIFFMASK, mp.getDiff().getFileType());
+        }
+    }
+
+    @Test
+    public void test_diffCache() throws MaterialstoreException {
+        JobName jobName = new JobName("test_diffCache");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, FileType.HTML, QueryOnMetadata.builder(map).build());
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList right = store.select(jobName, jobTimestamp, FileType.HTML, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right).ignoreKeys("environment", "URL", "URL.host").build();
+        // the 1st run computes the diff and records it in the cache
+        DiffCache cache1 = DiffCache.load(store);
+        MaterialProductGroup resolved1 =
+                new DiffingMPGProcessor.Builder(store).diffCache(cache1).build().process(mpg);
+        Assertions.assertEquals(0, cache1.getStatistics().getHits());
+        Assertions.assertEquals(1, cache1.size());
+        // the 2nd run with the cache reloaded from disk reuses the diff
+        DiffCache cache2 = DiffCache.load(store);
+        MaterialProductGroup resolved2 =
+                new DiffingMPGProcessor.Builder(store).diffCache(cache2).build().process(mpg);
+        Assertions.assertEquals(1, cache2.getStatistics().getHits());
+        MaterialProduct mp1 = resolved1.get(0);
+        MaterialProduct mp2 = resolved2.get(0);
+        Assertions.assertEquals(mp1.getDiff().getID(), mp2.getDiff().getID());
+        Assertions.assertEquals(mp1.getDiffRatio(), mp2.getDiffRatio());
+        Assertions.assertTrue(mp2.getDiff().getMetadata().containsKey("left"));
+        Assertions.assertTrue(mp2.getDiff().getMetadata().containsKey("right"));
+    }
+
+    @Test
+    public void test_verdictFirst() throws MaterialstoreException {
+        JobName jobName = new JobName("test_verdictFirst");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map).build());
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList right = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right)
+                .ignoreKeys("environment", "URL", "URL.host").build();
+        DiffingMPGProcessor processor = new DiffingMPGProcessor.Builder(store)
+                .verdictFirst(true)
+                .timeBudgetMillis(60_000)
+                .build();
+        MaterialProductGroup processed = processor.process(mpg);
+        int partials = 0;
+        for (MaterialProduct mp : processed) {
+            if (VerdictPolicy.isPartial(mp)) {
+                partials += 1;
+                Assertions.assertTrue(mp.getDiffRatio() > processed.getThreshold());
+            }
+        }
+        Assertions.assertTrue(partials > 0);
+        Assertions.assertEquals(partials, processed.getCountWarning());
+        // make the full diffs later
+        MaterialProductGroup completed = processor.completePartialDiffs(processed);
+        for (MaterialProduct mp : completed) {
+            Assertions.assertFalse(VerdictPolicy.isPartial(mp));
+        }
+        // the placeholders are removed
+        for (MaterialProduct mp : processed) {
+            if (VerdictPolicy.isPartial(mp)) {
+                Assertions.assertFalse(Files.exists(mp.getDiff().toPath()));
+            }
+        }
+        MaterialList diffs = store.select(jobName, jobTimestamp, FileType.HTML, QueryOnMetadata.ANY);
+        for (Material diff : diffs) {
+            Assertions.assertFalse(diff.getMetadata().containsKey(VerdictPolicy.METADATA_KEY_PARTIAL));
+        }
+        Assertions.assertEquals(processed.getCountWarning(), completed.getCountWarning());
+    }
+
+    @Test
+    public void test_process_pipelined() throws MaterialstoreException {
+        JobName jobName = new JobName("test_process_pipelined");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, QueryOnMetadata.builder(map).build());
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList right = store.select(jobName, jobTimestamp, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right)
+                .ignoreKeys("environment", "URL", "URL.host").build();
+        SortKeys sortKeys = new SortKeys("URL.path");
+        //
+        DiffingMPGProcessor processor = new DiffingMPGProcessor.Builder(store)
+                .pipelineCapacity(1)
+                .build();
+        MaterialProductGroup expected = processor.process(mpg);
+        expected.order(sortKeys);
+        List<Integer> indexes = new ArrayList<>();
+        List<MaterialProduct> received = new ArrayList<>();
+        MaterialProductGroup processed = processor.process(mpg, sortKeys, (index, mProduct) -> {
+            indexes.add(index);
+            received.add(mProduct);
+        });
+        Assertions.assertTrue(processed.isReadyToReport());
+        Assertions.assertEquals(expected.size(), processed.size());
+        Assertions.assertEquals(expected.size(), received.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(i, indexes.get(i).intValue());
+            Assertions.assertEquals(expected.get(i).getQueryOnMetadata(), processed.get(i).getQueryOnMetadata());
+            Assertions.assertEquals(expected.get(i).getDiffRatio(), processed.get(i).getDiffRatio());
+            Assertions.assertSame(received.get(i), processed.get(i));
+        }
+    }
+
+    @Test
+    public void test_process_pipelined_CHANGED_FIRST() throws MaterialstoreException {
+        JobName jobName = new JobName("test_process_pipelined_CHANGED_FIRST");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, QueryOnMetadata.builder(map).build());
+        // compare the ProductionEnv with itself, plus the DevelopmentEnv PNGs
+        MaterialList right = new MaterialList(left);
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList changed = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, changed)
+                .ignoreKeys("environment", "URL", "URL.host").build();
+        MaterialProductGroup same = MaterialProductGroup.builder(left, right).build();
+        same.forEach(mpg::add);
+        SortKeys sortKeys = new SortKeys("URL.path");
+        //
+        DiffingMPGProcessor processor = new DiffingMPGProcessor.Builder(store).build();
+        List<MaterialProduct> received = new ArrayList<>();
+        MaterialProductGroup processed = processor.process(mpg, sortKeys, DiffingMPGProcessor.CHANGED_FIRST,
+                (index, mProduct) -> received.add(mProduct));
+        Assertions.assertEquals(mpg.size(), received.size());
+        // the changed ones are diffed before the identical ones
+        boolean identicalSeen = false;
+        for (MaterialProduct mp : received) {
+            boolean identical = mp.getLeft().getID().equals(mp.getRight().getID());
+            Assertions.assertFalse(identicalSeen && !identical, "a changed one came after an identical one");
+            identicalSeen |= identical;
+        }
+        Assertions.assertTrue(identicalSeen);
+        // the result is in the order of the SortKeys all the same
+        MaterialProductGroup expected = processor.process(mpg);
+        expected.order(sortKeys);
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).getLeft(), processed.get(i).getLeft());
+            Assertions.assertEquals(expected.get(i).getRight(), processed.get(i).getRight());
+        }
+    }
+
+    @Test
+    public void test_process_pipelined_sink_fails() throws MaterialstoreException {
+        JobName jobName = new JobName("test_process_pipelined_sink_fails");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        LinkedHashMap<String, String> map = new LinkedHashMap<>(1);
+        map.put("environment", "ProductionEnv");
+        MaterialList left = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map).build());
+        LinkedHashMap<String, String> map1 = new LinkedHashMap<>(1);
+        map1.put("environment", "DevelopmentEnv");
+        MaterialList right = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.builder(map1).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right)
+                .ignoreKeys("environment", "URL", "URL.host").build();
+        DiffingMPGProcessor processor = new DiffingMPGProcessor.Builder(store)
+                .pipelineCapacity(1)
+                .build();
+        MaterialstoreException thrown = Assertions.assertThrows(MaterialstoreException.class, () ->
+                processor.process(mpg, new SortKeys(), (index, mProduct) -> {
+                    throw new MaterialstoreException("failed at " + index);
+                }));
+        Assertions.assertEquals("failed at 0", thrown.getMessage());
+    }
 }
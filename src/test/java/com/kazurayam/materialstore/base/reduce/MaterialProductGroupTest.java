@@ -1,5 +1,7 @@
 package com.kazurayam.materialstore.base.reduce;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
 import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
 import com.kazurayam.materialstore.core.FileType;
@@ -234,6 +236,10 @@ public class MaterialProductGroupTest {
         mpg.add(MaterialProduct.NULL_OBJECT);
         String s = mpg.toSummary();
         System.out.println(JsonUtil.prettyPrint(s));
+        JsonObject summary = JsonParser.parseString(s).getAsJsonObject();
+        Assertions.assertFalse(summary.has("materialProductList"));
+        assertEquals(mpg.size(), summary.get("countTotal").getAsInt());
+        assertEquals(mpg.getCountIgnorable(), summary.get("countIgnorable").getAsInt());
     }
 
 
@@ -20,6 +20,7 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.file.Path;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -81,6 +82,39 @@ public class ReducerTest {
     }
 
 
+    @Test
+    public void test_chronosSeries() throws MaterialstoreException, JobNameNotFoundException {
+        JobName jobName = new JobName("test_chronosSeries");
+        store.deleteJobName(jobName);
+        JobTimestamp jt1 = JobTimestamp.now();
+        writeRedApple(store, jobName, jt1);
+        writeMikan(store, jobName, jt1);
+        JobTimestamp jt2 = JobTimestamp.laterThan(jt1);
+        writeRedApple(store, jobName, jt2);
+        writeMikan(store, jobName, jt2);
+        JobTimestamp jt3 = JobTimestamp.laterThan(jt2);
+        writeRedApple(store, jobName, jt3);
+        writeMikan(store, jobName, jt3);
+        //
+        List<MaterialProductGroup> series = Reducer.chronosSeries(store, jobName, 2);
+        assertEquals(2, series.size());
+        // in chronological order
+        assertEquals(jt1, series.get(0).getJobTimestampLeft());
+        assertEquals(jt2, series.get(0).getJobTimestampRight());
+        assertEquals(jt2, series.get(1).getJobTimestampLeft());
+        assertEquals(jt3, series.get(1).getJobTimestampRight());
+        // the same as chronos does
+        MaterialProductGroup latest =
+                Reducer.chronos(store, store.select(jobName, jt3, QueryOnMetadata.ANY));
+        assertEquals(latest.getJobTimestampLeft(), series.get(1).getJobTimestampLeft());
+        assertEquals(latest.size(), series.get(1).size());
+        // the window is wider than the history
+        List<MaterialProductGroup> all = Reducer.chronosSeries(store, jobName, 10);
+        assertEquals(3, all.size());
+        assertEquals(jt1, all.get(0).getJobTimestampRight());
+        assertEquals(2, all.get(0).size());
+    }
+
 
     /*
      */
@@ -0,0 +1,104 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class ChangeMaskTest {
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        g.fillRect(10, 10, width / 2, height / 3);
+        g.dispose();
+        return image;
+    }
+
+    private static TiledImageDiff diff(BufferedImage left, BufferedImage right) {
+        return TiledImageDiffer.builder()
+                .tileHeight(64).diffColor(Color.MAGENTA).produceChangeMask(true).build()
+                .makeDiff(left, right);
+    }
+
+    @Test
+    public void test_runs() {
+        BufferedImage left = createImage(200, 300);
+        BufferedImage right = createImage(200, 300);
+        right.setRGB(5, 5, Color.BLACK.getRGB());
+        right.setRGB(6, 5, Color.BLACK.getRGB());
+        right.setRGB(199, 5, Color.BLACK.getRGB());
+        right.setRGB(100, 250, Color.BLACK.getRGB());
+        ChangeMask mask = diff(left, right).getChangeMask();
+        Assertions.assertNotNull(mask);
+        Assertions.assertEquals(3, mask.getNumberOfRuns());
+        Assertions.assertEquals(4, mask.getDiffSize());
+        Assertions.assertTrue(mask.isChanged(5, 5));
+        Assertions.assertTrue(mask.isChanged(6, 5));
+        Assertions.assertFalse(mask.isChanged(7, 5));
+        Assertions.assertTrue(mask.isChanged(199, 5));
+        Assertions.assertTrue(mask.isChanged(100, 250));
+        Assertions.assertFalse(mask.isChanged(100, 251));
+        Assertions.assertEquals(Color.MAGENTA, mask.getDiffColor());
+    }
+
+    @Test
+    public void test_serialization() throws IOException {
+        BufferedImage left = createImage(300, 500);
+        BufferedImage right = createImage(320, 450);
+        ChangeMask mask = diff(left, right).getChangeMask();
+        byte[] bytes = mask.toByteArray();
+        ChangeMask restored = ChangeMask.readFrom(new ByteArrayInputStream(bytes));
+        Assertions.assertEquals(mask.getWidth(), restored.getWidth());
+        Assertions.assertEquals(mask.getHeight(), restored.getHeight());
+        Assertions.assertEquals(mask.getNumberOfRuns(), restored.getNumberOfRuns());
+        Assertions.assertEquals(mask.getDiffSize(), restored.getDiffSize());
+        Assertions.assertEquals(mask.getDiffColor(), restored.getDiffColor());
+        Assertions.assertThrows(IOException.class,
+                () -> ChangeMask.readFrom(new ByteArrayInputStream(new byte[] { 'P', 'N', 'G', 0, 1 })));
+    }
+
+    @Test
+    public void test_renderOverlay_is_the_same_as_diffImage() {
+        BufferedImage left = createImage(300, 500);
+        BufferedImage right = createImage(320, 450);
+        Graphics2D g = right.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(200, 100, 30, 300);
+        g.dispose();
+        TiledImageDiff expected = TiledImageDiffer.builder()
+                .tileHeight(64).diffColor(Color.MAGENTA).build()
+                .makeDiff(left, right);
+        TiledImageDiff masked = TiledImageDiffer.builder()
+                .tileHeight(64).diffColor(Color.MAGENTA).produceDiffImage(false).produceChangeMask(true).build()
+                .makeDiff(left, right);
+        Assertions.assertNull(masked.getDiffImage());
+        Assertions.assertEquals(expected.getDiffSize(), masked.getChangeMask().getDiffSize());
+        BufferedImage overlay = masked.getChangeMask().renderOverlay(left);
+        Assertions.assertEquals(320, overlay.getWidth());
+        Assertions.assertEquals(500, overlay.getHeight());
+        for (int y = 0; y < 500; y++) {
+            for (int x = 0; x < 320; x++) {
+                Assertions.assertEquals(expected.getDiffImage().getRGB(x, y), overlay.getRGB(x, y),
+                        String.format("x=%d,y=%d", x, y));
+            }
+        }
+    }
+
+    @Test
+    public void test_no_difference() {
+        BufferedImage left = createImage(100, 100);
+        ChangeMask mask = diff(left, createImage(100, 100)).getChangeMask();
+        Assertions.assertTrue(mask.isEmpty());
+        Assertions.assertEquals(0, mask.getDiffSize());
+        // 100 rows of no run
+        Assertions.assertTrue(mask.toByteArray().length < 64);
+    }
+}
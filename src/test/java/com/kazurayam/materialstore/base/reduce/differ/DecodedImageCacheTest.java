@@ -0,0 +1,86 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.ID;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class DecodedImageCacheTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(DecodedImageCacheTest.class);
+
+    private static final ID ID_A = new ID("0123456789012345678901234567890123456789");
+    private static final ID ID_B = new ID("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+    private static final ID ID_C = new ID("9999999999999999999999999999999999999999");
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        too.cleanClassOutputDirectory();
+    }
+
+    /*
+     * a 100x100 TYPE_INT_RGB image weighs 40000 bytes when decoded
+     */
+    private static Path writePng(Path dir, String name, int width, int height) throws IOException {
+        Path file = dir.resolve(name);
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file.toFile());
+        return file;
+    }
+
+    @Test
+    public void test_hit_and_miss() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_hit_and_miss");
+        Path a = writePng(dir, "a.png", 100, 100);
+        DecodedImageCache cache = new DecodedImageCache(1024 * 1024);
+        BufferedImage first = cache.get(ID_A, a);
+        BufferedImage second = cache.get(ID_A, a);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(DecodedImageCache.weigh(first), cache.getTotalBytes());
+        DecodedImageCache.Statistics stats = cache.getStatistics();
+        Assertions.assertEquals(1, stats.getHits());
+        Assertions.assertEquals(1, stats.getMisses());
+        Assertions.assertEquals(0.5d, stats.getHitRate(), 0.0001d);
+    }
+
+    @Test
+    public void test_evicted_by_weight() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_evicted_by_weight");
+        Path a = writePng(dir, "a.png", 100, 100);
+        Path b = writePng(dir, "b.png", 100, 100);
+        Path c = writePng(dir, "c.png", 100, 100);
+        long weight = DecodedImageCache.weigh(ImageIO.read(a.toFile()));
+        // room for 2 images
+        DecodedImageCache cache = new DecodedImageCache(weight * 2 + weight / 2);
+        cache.get(ID_A, a);
+        cache.get(ID_B, b);
+        cache.get(ID_A, a);         // ID_B becomes the least recently used
+        cache.get(ID_C, c);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1, cache.getStatistics().getEvictions());
+        Assertions.assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+        cache.get(ID_A, a);
+        Assertions.assertEquals(2, cache.getStatistics().getHits());
+        cache.get(ID_B, b);
+        Assertions.assertEquals(4, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void test_image_heavier_than_budget_is_not_cached() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_image_heavier_than_budget_is_not_cached");
+        Path a = writePng(dir, "a.png", 100, 100);
+        DecodedImageCache cache = new DecodedImageCache(1000);
+        Assertions.assertNotNull(cache.get(ID_A, a));
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(0, cache.getTotalBytes());
+    }
+}
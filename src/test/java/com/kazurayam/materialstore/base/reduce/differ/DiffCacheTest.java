@@ -0,0 +1,152 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.ID;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.StoreImpl;
+import com.kazurayam.materialstore.zest.SampleFixtureInjector;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class DiffCacheTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(DiffCacheTest.class);
+    private static final JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+
+    private static final ID ID_A = new ID("0123456789012345678901234567890123456789");
+    private static final ID ID_B = new ID("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        too.cleanClassOutputDirectory();
+    }
+
+    private Store prepareStore(String methodName, JobName jobName)
+            throws IOException, MaterialstoreException {
+        Path root = too.cleanMethodOutputDirectory(methodName).resolve("store");
+        Store store = new StoreImpl(root);
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        return store;
+    }
+
+    private Material selectAnyPng(Store store, JobName jobName) throws MaterialstoreException {
+        MaterialList materialList = store.select(jobName, jobTimestamp, FileType.PNG, QueryOnMetadata.ANY);
+        Assertions.assertTrue(materialList.size() > 0);
+        return materialList.get(0);
+    }
+
+    private static DiffCache.Key key(ID left, ID right) {
+        return new DiffCache.Key(left, right, ImageDiffStuffer.class.getName(), "#FF0000", "");
+    }
+
+    @Test
+    public void test_get_put_statistics() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_get_put_statistics");
+        Store store = prepareStore("test_get_put_statistics", jobName);
+        Material diff = selectAnyPng(store, jobName);
+        DiffCache cache = DiffCache.load(store);
+        Assertions.assertNull(cache.get(key(ID_A, ID_B)));
+        cache.put(key(ID_A, ID_B), diff, 12.34d);
+        DiffCache.Entry entry = cache.get(key(ID_A, ID_B));
+        Assertions.assertNotNull(entry);
+        Assertions.assertEquals(diff.getID(), entry.getID());
+        Assertions.assertEquals(12.34d, entry.getDiffRatio().doubleValue());
+        // the key is directional
+        Assertions.assertNull(cache.get(key(ID_B, ID_A)));
+        DiffCache.Statistics stats = cache.getStatistics();
+        Assertions.assertEquals(1, stats.getHits());
+        Assertions.assertEquals(2, stats.getMisses());
+        Assertions.assertEquals(1.0d / 3, stats.getHitRate(), 0.0001d);
+    }
+
+    @Test
+    public void test_save_and_load() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_save_and_load");
+        Store store = prepareStore("test_save_and_load", jobName);
+        Material diff = selectAnyPng(store, jobName);
+        DiffCache cache = DiffCache.load(store);
+        cache.put(key(ID_A, ID_B), diff, 0.5d);
+        cache.save();
+        Assertions.assertTrue(Files.exists(store.getRoot().resolve(DiffCache.FILE_NAME)));
+        // the cache file should not be regarded as a JobName
+        Assertions.assertFalse(store.findAllJobNames().stream()
+                .anyMatch(jn -> jn.toString().equals(DiffCache.FILE_NAME)));
+        //
+        DiffCache reloaded = DiffCache.load(store);
+        Assertions.assertEquals(1, reloaded.size());
+        DiffCache.Entry entry = reloaded.get(key(ID_A, ID_B));
+        Assertions.assertNotNull(entry);
+        Assertions.assertEquals(diff.getID(), entry.getID());
+        Assertions.assertEquals(FileType.PNG, entry.getFileType());
+        Assertions.assertEquals(0.5d, entry.getDiffRatio().doubleValue());
+        // the sample PNG has no "regions" metadata
+        Assertions.assertEquals("", entry.getRegions());
+    }
+
+    @Test
+    public void test_LRU_eviction() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_LRU_eviction");
+        Store store = prepareStore("test_LRU_eviction", jobName);
+        Material diff = selectAnyPng(store, jobName);
+        DiffCache cache = DiffCache.load(store, 2);
+        cache.put(key(ID_A, ID_A), diff, 0.0d);
+        cache.put(key(ID_A, ID_B), diff, 1.0d);
+        // touch the first one so that the second becomes the eldest
+        Assertions.assertNotNull(cache.get(key(ID_A, ID_A)));
+        cache.put(key(ID_B, ID_B), diff, 2.0d);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1, cache.getStatistics().getEvictions());
+        Assertions.assertNotNull(cache.get(key(ID_A, ID_A)));
+        Assertions.assertNull(cache.get(key(ID_A, ID_B)));
+    }
+
+    @Test
+    public void test_stale_entry_is_evicted() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_stale_entry_is_evicted");
+        Store store = prepareStore("test_stale_entry_is_evicted", jobName);
+        Material diff = selectAnyPng(store, jobName);
+        DiffCache cache = DiffCache.load(store);
+        cache.put(key(ID_A, ID_B), diff, 3.0d);
+        Files.delete(diff.toPath());
+        Assertions.assertNull(cache.get(key(ID_A, ID_B)));
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(1, cache.getStatistics().getEvictions());
+    }
+
+    @Test
+    public void test_save_concurrently() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_save_concurrently");
+        Store store = prepareStore("test_save_concurrently", jobName);
+        Material diff = selectAnyPng(store, jobName);
+        // two processes load the cache, and put different entries
+        DiffCache one = DiffCache.load(store);
+        DiffCache another = DiffCache.load(store);
+        one.put(key(ID_A, ID_B), diff, 1.0d);
+        another.put(key(ID_B, ID_A), diff, 2.0d);
+        one.save();
+        another.save();
+        // neither update is lost
+        DiffCache loaded = DiffCache.load(store);
+        Assertions.assertEquals(2, loaded.size());
+        Assertions.assertNotNull(loaded.get(key(ID_A, ID_B)));
+        Assertions.assertNotNull(loaded.get(key(ID_B, ID_A)));
+        try (Stream<Path> files = Files.list(store.getRoot())) {
+            Assertions.assertEquals(0, files.filter(p -> p.getFileName().toString().endsWith(".tmp")).count());
+        }
+    }
+}
@@ -20,9 +20,12 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.LinkedHashMap;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
@@ -87,4 +90,205 @@ public class ImageDiffStufferTest {
         Assertions.assertNotEquals(Material.NULL_OBJECT, stuffed.getDiff());
     }
 
+    @Test
+    public void test_stuffDiff_identical() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffDiff_identical";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store = new StoreImpl(methodOutputDirectory.resolve("store"));
+        JobName jobName = new JobName(methodName);
+        //
+        MaterialProductGroup mpg = prepareFixture(store, jobName);
+        ImageDiffStuffer differ = new ImageDiffStuffer(store);
+        // make the left the same as the right
+        MaterialProduct identical0 = new MaterialProduct.Builder(mpg.get(0))
+                .setLeft(mpg.get(0).getRight()).build();
+        MaterialProduct identical1 = new MaterialProduct.Builder(mpg.get(1))
+                .setLeft(mpg.get(1).getRight()).build();
+        Assertions.assertTrue(differ.isIdentical(identical0));
+        Assertions.assertFalse(differ.isIdentical(mpg.get(0)));
+        //
+        MaterialProduct stuffed0 = differ.stuffDiff(identical0);
+        MaterialProduct stuffed1 = differ.stuffDiff(identical1);
+        Assertions.assertEquals(0.0d, stuffed0.getDiffRatio().doubleValue());
+        Assertions.assertEquals(FileType.PNG, stuffed0.getDiff().getFileType());
+        Assertions.assertEquals("0.00%", stuffed0.getDiff().getMetadata().get("ratio"));
+        // the precomputed artifact is shared by identical MaterialProducts
+        Assertions.assertEquals(stuffed0.getDiff().getID(), stuffed1.getDiff().getID());
+        Assertions.assertNotEquals(stuffed0.getDiff().getMetadata(), stuffed1.getDiff().getMetadata());
+    }
+
+    @Test
+    public void test_stuffDiff_ASHOT_engine() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffDiff_ASHOT_engine";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store = new StoreImpl(methodOutputDirectory.resolve("store"));
+        JobName jobName = new JobName(methodName);
+        //
+        MaterialProductGroup mpg = prepareFixture(store, jobName);
+        //
+        ImageDiffStuffer tiled = new ImageDiffStuffer(store);
+        Assertions.assertEquals(ImageDiffStuffer.Engine.TILED, tiled.getEngine());
+        ImageDiffStuffer ashot = new ImageDiffStuffer(store);
+        ashot.setEngine(ImageDiffStuffer.Engine.ASHOT);
+        Assertions.assertNotEquals(tiled.getDiffOptions(), ashot.getDiffOptions());
+        // the settings which may change the diff make different keys of DiffCache
+        ImageDiffStuffer noPrefilter = new ImageDiffStuffer(store);
+        noPrefilter.setPrefilter(!tiled.isPrefilter());
+        Assertions.assertNotEquals(tiled.getDiffOptions(), noPrefilter.getDiffOptions());
+        ImageDiffStuffer noStreaming = new ImageDiffStuffer(store);
+        noStreaming.setStreamingThreshold(tiled.getStreamingThreshold() + 1);
+        Assertions.assertNotEquals(tiled.getDiffOptions(), noStreaming.getDiffOptions());
+        MaterialProduct stuffedByTiled = tiled.stuffDiff(mpg.get(0));
+        MaterialProduct stuffedByAShot = ashot.stuffDiff(mpg.get(0));
+        // both engines should agree on the diff ratio
+        Assertions.assertEquals(stuffedByAShot.getDiffRatio(), stuffedByTiled.getDiffRatio());
+    }
+
+    @Test
+    public void test_stuffDiff_streaming() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffDiff_streaming";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store1 = new StoreImpl(methodOutputDirectory.resolve("store1"));
+        Store store2 = new StoreImpl(methodOutputDirectory.resolve("store2"));
+        JobName jobName = new JobName(methodName);
+        //
+        ImageDiffStuffer inMemory = new ImageDiffStuffer(store1);
+        // a full-page screenshot of 1920x30000 is diffed by TiledImageDiffer by default
+        Assertions.assertTrue(inMemory.getStreamingThreshold() >= 1920L * 30000L);
+        MaterialProduct expected = inMemory.stuffDiff(prepareFixture(store1, jobName).get(0));
+        //
+        ImageDiffStuffer streaming = new ImageDiffStuffer(store2);
+        streaming.setStreamingThreshold(0);
+        streaming.setBandHeight(100);
+        MaterialProduct actual = streaming.stuffDiff(prepareFixture(store2, jobName).get(0));
+        Assertions.assertEquals(expected.getDiffRatio(), actual.getDiffRatio());
+        Assertions.assertEquals(expected.getDiff().getMetadata().get("regions"),
+                actual.getDiff().getMetadata().get("regions"));
+        Assertions.assertEquals(FileType.PNG, actual.getDiff().getFileType());
+        Assertions.assertTrue(Files.exists(actual.getDiff().toPath()));
+        // no temporary file should be left in the objects directory
+        try (Stream<Path> files = Files.list(actual.getDiff().toPath().getParent())) {
+            Assertions.assertEquals(0, files.filter(p -> p.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    public void test_stuffDiff_regions_and_prefilter() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffDiff_regions_and_prefilter";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store1 = new StoreImpl(methodOutputDirectory.resolve("store1"));
+        Store store2 = new StoreImpl(methodOutputDirectory.resolve("store2"));
+        JobName jobName = new JobName(methodName);
+        //
+        ImageDiffStuffer prefiltered = new ImageDiffStuffer(store1);
+        prefiltered.setPrefilter(true);
+        MaterialProduct actual = prefiltered.stuffDiff(prepareFixture(store1, jobName).get(0));
+        // the signatures are persisted next to the objects
+        Path signature = TileSignature.toSignaturePath(actual.getLeft(), TiledImageDiffer.DEFAULT_TILE_HEIGHT);
+        Assertions.assertTrue(Files.exists(signature));
+        TileSignature persisted = TileSignature.read(signature);
+        Assertions.assertEquals(TiledImageDiffer.DEFAULT_TILE_HEIGHT, persisted.getTileHeight());
+        Assertions.assertTrue(persisted.getNumberOfTiles() > 0);
+        ImageDiffStuffer exhaustive = new ImageDiffStuffer(store2);
+        Assertions.assertFalse(exhaustive.isPrefilter());
+        MaterialProduct expected = exhaustive.stuffDiff(prepareFixture(store2, jobName).get(0));
+        // the prefilter should not change the result
+        Assertions.assertEquals(expected.getDiffRatio(), actual.getDiffRatio());
+        Assertions.assertEquals(expected.getDiff().getID(), actual.getDiff().getID());
+        String regions = actual.getDiff().getMetadata().get("regions");
+        Assertions.assertEquals(expected.getDiff().getMetadata().get("regions"), regions);
+        Assertions.assertFalse(DifferUtil.parseRegions(regions).isEmpty());
+        Assertions.assertEquals(regions, DifferUtil.formatRegions(DifferUtil.parseRegions(regions)));
+    }
+
+    @Test
+    public void test_stuffDiff_CHANGE_MASK() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffDiff_CHANGE_MASK";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store1 = new StoreImpl(methodOutputDirectory.resolve("store1"));
+        Store store2 = new StoreImpl(methodOutputDirectory.resolve("store2"));
+        JobName jobName = new JobName(methodName);
+        //
+        ImageDiffStuffer marked = new ImageDiffStuffer(store1);
+        Assertions.assertEquals(ImageDiffStuffer.Artifact.MARKED_PNG, marked.getArtifact());
+        MaterialProduct expected = marked.stuffDiff(prepareFixture(store1, jobName).get(0));
+        //
+        ImageDiffStuffer masked = new ImageDiffStuffer(store2);
+        masked.setArtifact(ImageDiffStuffer.Artifact.CHANGE_MASK);
+        Assertions.assertNotEquals(marked.getDiffOptions(), masked.getDiffOptions());
+        MaterialProduct actual = masked.stuffDiff(prepareFixture(store2, jobName).get(0));
+        Assertions.assertEquals(FileType.DIFFMASK, actual.getDiff().getFileType());
+        Assertions.assertEquals(expected.getDiffRatio(), actual.getDiffRatio());
+        Assertions.assertEquals(expected.getDiff().getMetadata().get("regions"),
+                actual.getDiff().getMetadata().get("regions"));
+        Assertions.assertTrue(Files.size(actual.getDiff().toPath()) < Files.size(expected.getDiff().toPath()));
+        // the overlay rendered on demand should be the same as the marked PNG
+        BufferedImage expectedImage = marked.renderOverlay(expected);
+        BufferedImage overlay = masked.renderOverlay(actual);
+        Assertions.assertEquals(expectedImage.getWidth(), overlay.getWidth());
+        Assertions.assertEquals(expectedImage.getHeight(), overlay.getHeight());
+        for (int y = 0; y < overlay.getHeight(); y += 5) {
+            for (int x = 0; x < overlay.getWidth(); x += 5) {
+                Assertions.assertEquals(expectedImage.getRGB(x, y) & 0xFFFFFF, overlay.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+        // the streaming mode writes the same mask
+        Store store3 = new StoreImpl(methodOutputDirectory.resolve("store3"));
+        ImageDiffStuffer streaming = new ImageDiffStuffer(store3);
+        streaming.setArtifact(ImageDiffStuffer.Artifact.CHANGE_MASK);
+        streaming.setStreamingThreshold(0);
+        MaterialProduct streamed = streaming.stuffDiff(prepareFixture(store3, jobName).get(0));
+        Assertions.assertEquals(actual.getDiff().getID(), streamed.getDiff().getID());
+    }
+
+    @Test
+    public void test_stuffVerdict() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffVerdict";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store = new StoreImpl(methodOutputDirectory.resolve("store"));
+        JobName jobName = new JobName(methodName);
+        MaterialProductGroup mpg = prepareFixture(store, jobName);
+        ImageDiffStuffer instance = new ImageDiffStuffer(store);
+        MaterialProduct full = instance.stuffDiff(mpg.get(0));
+        Assertions.assertTrue(full.getDiffRatio() > 0.0d);
+        // the threshold is not exceeded; the full diff is made
+        MaterialProduct passed = instance.stuffVerdict(mpg.get(0), VerdictPolicy.builder(100.0d).build());
+        Assertions.assertFalse(VerdictPolicy.isPartial(passed));
+        Assertions.assertEquals(full.getDiffRatio(), passed.getDiffRatio());
+        // the threshold is exceeded; the diff is stopped early
+        MaterialProduct exceeded = instance.stuffVerdict(mpg.get(0), VerdictPolicy.builder(0.0d).build());
+        Assertions.assertTrue(VerdictPolicy.isPartial(exceeded));
+        Assertions.assertEquals(VerdictPolicy.Partial.EXCEEDED.name(),
+                exceeded.getDiff().getMetadata().get(VerdictPolicy.METADATA_KEY_PARTIAL));
+        Assertions.assertEquals(FileType.PNG, exceeded.getDiff().getFileType());
+        Assertions.assertTrue(exceeded.getDiffRatio() > 0.0d);
+        Assertions.assertTrue(exceeded.getDiffRatio() <= full.getDiffRatio());
+    }
+
+    @Test
+    public void test_stuffVerdict_streaming() throws MaterialstoreException, IOException {
+        String methodName = "test_stuffVerdict_streaming";
+        Path methodOutputDirectory =
+                too.cleanMethodOutputDirectory(methodName);
+        Store store = new StoreImpl(methodOutputDirectory.resolve("store"));
+        JobName jobName = new JobName(methodName);
+        MaterialProductGroup mpg = prepareFixture(store, jobName);
+        ImageDiffStuffer instance = new ImageDiffStuffer(store);
+        instance.setStreamingThreshold(0);
+        MaterialProduct exceeded = instance.stuffVerdict(mpg.get(0), VerdictPolicy.builder(0.0d).build());
+        Assertions.assertTrue(VerdictPolicy.isPartial(exceeded));
+        Assertions.assertTrue(exceeded.getDiffRatio() > 0.0d);
+        // the unfinished PNG should not be left in the objects directory
+        try (Stream<Path> files = Files.list(exceeded.getDiff().toPath().getParent())) {
+            Assertions.assertEquals(0, files.filter(p -> p.toString().endsWith(".tmp")).count());
+        }
+        MaterialProduct passed = instance.stuffVerdict(mpg.get(0), VerdictPolicy.builder(100.0d).build());
+        Assertions.assertFalse(VerdictPolicy.isPartial(passed));
+    }
 }
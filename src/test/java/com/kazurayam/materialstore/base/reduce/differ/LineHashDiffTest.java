@@ -0,0 +1,86 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class LineHashDiffTest {
+
+    @Test
+    public void test_diff_identical() {
+        long[] a = { 1, 2, 3 };
+        Assertions.assertEquals(0, LineHashDiff.diff(a, a.clone()).size());
+    }
+
+    @Test
+    public void test_diff_small() {
+        long[] a = { 1, 2, 3, 4, 5 };
+        long[] b = { 1, 9, 3, 5, 6 };
+        List<LineHashDiff.Edit> edits = LineHashDiff.diff(a, b);
+        Assertions.assertEquals(3, edits.size());
+        assertEdit(edits.get(0), 1, 2, 1, 2);   // 2 -> 9
+        assertEdit(edits.get(1), 3, 4, 3, 3);   // 4 deleted
+        assertEdit(edits.get(2), 5, 5, 4, 5);   // 6 inserted
+    }
+
+    @Test
+    public void test_diff_empty() {
+        List<LineHashDiff.Edit> edits = LineHashDiff.diff(new long[0], new long[] { 1, 2 });
+        Assertions.assertEquals(1, edits.size());
+        assertEdit(edits.get(0), 0, 0, 0, 2);
+    }
+
+    /**
+     * a range too large for the LCS table is split at the unique lines
+     */
+    @Test
+    public void test_diff_large_with_anchors() {
+        int n = 3000;
+        long[] a = new long[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        long[] b = new long[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = i;
+        }
+        b[10] = -1;
+        b[n - 10] = -2;
+        List<LineHashDiff.Edit> edits = LineHashDiff.diff(a, b);
+        Assertions.assertEquals(2, edits.size());
+        assertEdit(edits.get(0), 10, 11, 10, 11);
+        assertEdit(edits.get(1), n - 10, n - 9, n - 10, n - 9);
+    }
+
+    @Test
+    public void test_diff_large_without_anchors() {
+        int n = 1000;
+        long[] a = new long[n];
+        long[] b = new long[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i % 2;        // no unique line
+            b[i] = 2 + i % 2;
+        }
+        List<LineHashDiff.Edit> edits = LineHashDiff.diff(a, b);
+        Assertions.assertEquals(1, edits.size());
+        assertEdit(edits.get(0), 0, n, 0, n);
+    }
+
+    @Test
+    public void test_hash() {
+        byte[] line = "hello".getBytes();
+        Assertions.assertEquals(LineHashDiff.hash(line, line.length),
+                LineHashDiff.hash("hello world".getBytes(), 5));
+        Assertions.assertNotEquals(LineHashDiff.hash(line, line.length),
+                LineHashDiff.hash("hellO".getBytes(), 5));
+    }
+
+    private static void assertEdit(LineHashDiff.Edit edit,
+                                   int leftStart, int leftEnd, int rightStart, int rightEnd) {
+        Assertions.assertEquals(leftStart, edit.leftStart, edit.toString());
+        Assertions.assertEquals(leftEnd, edit.leftEnd, edit.toString());
+        Assertions.assertEquals(rightStart, edit.rightStart, edit.toString());
+        Assertions.assertEquals(rightEnd, edit.rightEnd, edit.toString());
+    }
+}
@@ -0,0 +1,155 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class StreamingImageDifferTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(StreamingImageDifferTest.class);
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        too.cleanClassOutputDirectory();
+    }
+
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        for (int y = 0; y < height; y += 200) {
+            g.fillRect(10, y + 10, width / 2, 50);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static Path writePng(Path dir, String name, BufferedImage image) throws IOException {
+        Path file = dir.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+
+    @Test
+    public void test_same_result_as_TiledImageDiffer() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_same_result_as_TiledImageDiffer");
+        BufferedImage leftImage = createImage(300, 2500, BufferedImage.TYPE_INT_RGB);
+        BufferedImage rightImage = createImage(300, 2500, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rightImage.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(50, 1150, 100, 300);     // across the band boundary
+        g.dispose();
+        Path left = writePng(dir, "left.png", leftImage);
+        Path right = writePng(dir, "right.png", rightImage);
+        //
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TiledImageDiff streamed = StreamingImageDiffer.builder()
+                .bandHeight(400).build()
+                .makeDiff(left, right, baos);
+        TiledImageDiff tiled = TiledImageDiffer.builder().build()
+                .makeDiff(ImageIO.read(left.toFile()), ImageIO.read(right.toFile()));
+        Assertions.assertEquals(tiled.getDiffSize(), streamed.getDiffSize());
+        Assertions.assertEquals(tiled.getDiffRatioPercent(), streamed.getDiffRatioPercent());
+        Assertions.assertEquals(7, streamed.getNumberOfTiles());
+        Assertions.assertEquals(2, streamed.getNumberOfDifferingTiles());
+        Assertions.assertNull(streamed.getDiffImage());
+        // the streamed PNG should be decodable and equal to the diff image of TiledImageDiffer
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals(300, decoded.getWidth());
+        Assertions.assertEquals(2500, decoded.getHeight());
+        for (int y = 0; y < 2500; y += 7) {
+            for (int x = 0; x < 300; x += 3) {
+                Assertions.assertEquals(tiled.getDiffImage().getRGB(x, y), decoded.getRGB(x, y),
+                        String.format("x=%d,y=%d", x, y));
+            }
+        }
+    }
+
+    @Test
+    public void test_different_heights_with_alpha() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_different_heights_with_alpha");
+        Path left = writePng(dir, "left.png", createImage(200, 900, BufferedImage.TYPE_INT_ARGB));
+        Path right = writePng(dir, "right.png", createImage(200, 1000, BufferedImage.TYPE_INT_ARGB));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TiledImageDiff streamed = StreamingImageDiffer.builder()
+                .bandHeight(256).diffColor(Color.MAGENTA).build()
+                .makeDiff(left, right, baos);
+        Assertions.assertEquals(200 * 100, streamed.getDiffSize());
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+        Assertions.assertTrue(decoded.getColorModel().hasAlpha());
+        Assertions.assertEquals(Color.MAGENTA.getRGB(), decoded.getRGB(100, 950));
+        Assertions.assertEquals(Color.WHITE.getRGB(), decoded.getRGB(199, 899));
+    }
+
+    @Test
+    public void test_readDimension() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_readDimension");
+        Path file = writePng(dir, "image.png", createImage(123, 456, BufferedImage.TYPE_INT_RGB));
+        Assertions.assertEquals(new Dimension(123, 456), StreamingImageDiffer.readDimension(file));
+    }
+
+    @Test
+    public void test_PngStreamReader_decodes_as_ImageIO() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_PngStreamReader_decodes_as_ImageIO");
+        int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_BYTE_BINARY };
+        Random random = new Random(7);
+        for (int type : types) {
+            BufferedImage image = createImage(97, 301, type);
+            // noise, so that ImageIO chooses various filters
+            for (int i = 0; i < 2000; i++) {
+                image.setRGB(random.nextInt(97), random.nextInt(301), random.nextInt());
+            }
+            Path file = writePng(dir, "image" + type + ".png", image);
+            BufferedImage expected = ImageIO.read(file.toFile());
+            int[] row = new int[97];
+            try (PngStreamReader reader = PngStreamReader.open(file)) {
+                Assertions.assertNotNull(reader);
+                Assertions.assertEquals(expected.getColorModel().hasAlpha(), reader.hasAlpha(), "type=" + type);
+                for (int y = 0; y < 301; y++) {
+                    reader.readRow(row);
+                    for (int x = 0; x < 97; x++) {
+                        Assertions.assertEquals(expected.getRGB(x, y), row[x],
+                                String.format("type=%d,x=%d,y=%d", type, x, y));
+                    }
+                }
+            }
+        }
+        // not a PNG
+        Path jpg = dir.resolve("image.jpg");
+        ImageIO.write(createImage(97, 301, BufferedImage.TYPE_INT_RGB), "jpg", jpg.toFile());
+        Assertions.assertNull(PngStreamReader.open(jpg));
+    }
+
+    @Test
+    public void test_jpeg_read_band_by_band() throws IOException, MaterialstoreException {
+        Path dir = too.cleanMethodOutputDirectory("test_jpeg_read_band_by_band");
+        Path left = dir.resolve("left.jpg");
+        Path right = dir.resolve("right.jpg");
+        ImageIO.write(createImage(200, 900, BufferedImage.TYPE_INT_RGB), "jpg", left.toFile());
+        ImageIO.write(createImage(200, 900, BufferedImage.TYPE_INT_RGB), "jpg", right.toFile());
+        TiledImageDiff streamed = StreamingImageDiffer.builder()
+                .bandHeight(256).build()
+                .makeDiff(left, right, null);
+        Assertions.assertEquals(0, streamed.getDiffSize());
+        Assertions.assertEquals(900, streamed.getHeight());
+    }
+}
@@ -9,6 +9,7 @@ import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.QueryOnMetadata;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.StoreImpl;
@@ -19,9 +20,14 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 public class TextDifferToHTMLTest extends AbstractReporterTest {
 
@@ -77,4 +83,113 @@ public class TextDifferToHTMLTest extends AbstractReporterTest {
         Assertions.assertEquals(1, reducedMPG.size());
         return reducedMPG;
     }
+
+    @Test
+    public void test_stuffDiff_identical() throws MaterialstoreException {
+        JobName jobName = new JobName("test_stuffDiff_identical");
+        SampleFixtureInjector.injectSampleResults(store, jobName);
+        MaterialProductGroup reducedMPG = prepareMPG(store, jobName);
+        MaterialProduct identical = new MaterialProduct.Builder(reducedMPG.get(0))
+                .setLeft(reducedMPG.get(0).getRight()).build();
+        MaterialProduct stuffed = new TextDifferToHTML(store).stuffDiff(identical);
+        Assertions.assertEquals(0.0d, stuffed.getDiffRatio().doubleValue());
+        Assertions.assertEquals(FileType.HTML, stuffed.getDiff().getFileType());
+        Assertions.assertEquals("0.00%", stuffed.getDiff().getMetadata().get("ratio"));
+    }
+
+    @Test
+    public void test_stuffDiff_largeText() throws MaterialstoreException, IOException {
+        JobName jobName = new JobName("test_stuffDiff_largeText");
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        List<String> leftLines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            leftLines.add(String.format("<p id=\"%d\">line %d &amp; more</p>", i, i));
+        }
+        List<String> rightLines = new ArrayList<>(leftLines);
+        rightLines.set(500, "<p id=\"500\">line 500 was modified</p>");   // changed
+        rightLines.remove(1000);                                            // deleted
+        rightLines.add(1500, "inserted line a");                            // inserted
+        rightLines.add(1501, "inserted line b");
+        MaterialProduct mProduct = prepareTextMProduct(store, jobName, jobTimestamp,
+                String.join("\n", leftLines) + "\n",
+                String.join("\r\n", rightLines) + "\r\n");
+        TextDifferToHTML instance = new TextDifferToHTML(store);
+        instance.setLargeFileThreshold(0);
+        instance.setContextLines(2);
+        Assertions.assertEquals("charset=UTF-8,largeFileThreshold=0,contextLines=2",
+                instance.getDiffOptions());
+        MaterialProduct stuffed = instance.stuffDiff(mProduct);
+        Assertions.assertEquals(FileType.HTML, stuffed.getDiff().getFileType());
+        // rows: 1997 equal, 1 changed, 1 deleted, 2 inserted
+        Assertions.assertEquals(DifferUtil.roundUpTo2DecimalPlaces(4 * 100.0D / 2001).doubleValue(),
+                stuffed.getDiffRatio().doubleValue());
+        String html = new String(Files.readAllBytes(stuffed.getDiff().toPath()), StandardCharsets.UTF_8);
+        Assertions.assertTrue(html.contains("are DIFFERENT"));
+        Assertions.assertTrue(html.contains("<span class=\"code-insert\">2</span>"));
+        Assertions.assertTrue(html.contains("<span class=\"code-delete\">1</span>"));
+        Assertions.assertTrue(html.contains("<span class=\"code-change\">1</span>"));
+        Assertions.assertTrue(html.contains("498 equal rows (1 to 498) are not shown"));
+        Assertions.assertTrue(html.contains("inserted line b"));
+        // the lines are escaped
+        Assertions.assertTrue(html.contains("&lt;p id=&quot;501&quot;&gt;line 501 &amp;amp; more&lt;/p&gt;"));
+        // the rows far from the changes are not written
+        Assertions.assertFalse(html.contains("line 1800 "));
+        // no temporary file should be left in the objects directory
+        try (Stream<Path> files = Files.list(stuffed.getDiff().toPath().getParent())) {
+            Assertions.assertEquals(0, files.filter(p -> p.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    public void test_stuffDiff_smallText_is_not_streamed() throws MaterialstoreException {
+        JobName jobName = new JobName("test_stuffDiff_smallText_is_not_streamed");
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        MaterialProduct mProduct = prepareTextMProduct(store, jobName, jobTimestamp,
+                "a\nb\nc\n", "a\nB\nc\n");
+        TextDifferToHTML instance = new TextDifferToHTML(store);
+        Assertions.assertEquals(TextDifferToHTML.DEFAULT_LARGE_FILE_THRESHOLD, instance.getLargeFileThreshold());
+        Assertions.assertEquals("charset=UTF-8", instance.getDiffOptions());
+        MaterialProduct stuffed = instance.stuffDiff(mProduct);
+        Assertions.assertEquals(FileType.HTML, stuffed.getDiff().getFileType());
+        Assertions.assertTrue(stuffed.getDiffRatio() > 0);
+    }
+
+    @Test
+    public void test_stuffVerdict() throws MaterialstoreException {
+        JobName jobName = new JobName("test_stuffVerdict");
+        JobTimestamp jobTimestamp = new JobTimestamp("20210715_145922");
+        // 2 of 4 lines are not common; the ratio is at least 50%
+        MaterialProduct mProduct = prepareTextMProduct(store, jobName, jobTimestamp,
+                "a\nb\nc\nd\n", "a\nx\ny\nd\n");
+        TextDifferToHTML instance = new TextDifferToHTML(store);
+        MaterialProduct exceeded = instance.stuffVerdict(mProduct, VerdictPolicy.builder(10.0d).build());
+        Assertions.assertTrue(VerdictPolicy.isPartial(exceeded));
+        Assertions.assertEquals(50.0d, exceeded.getDiffRatio().doubleValue());
+        Assertions.assertEquals(FileType.HTML, exceeded.getDiff().getFileType());
+        //
+        MaterialProduct passed = instance.stuffVerdict(mProduct, VerdictPolicy.builder(60.0d).build());
+        Assertions.assertFalse(VerdictPolicy.isPartial(passed));
+    }
+
+    private static MaterialProduct prepareTextMProduct(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                                                       String leftText, String rightText)
+            throws MaterialstoreException {
+        LinkedHashMap<String, String> leftMap = new LinkedHashMap<>();
+        leftMap.put("file", "large");
+        leftMap.put("environment", "ProductionEnv");
+        store.write(jobName, jobTimestamp, FileType.TXT,
+                Metadata.builder(leftMap).build(), leftText.getBytes(StandardCharsets.UTF_8));
+        LinkedHashMap<String, String> rightMap = new LinkedHashMap<>();
+        rightMap.put("file", "large");
+        rightMap.put("environment", "DevelopmentEnv");
+        store.write(jobName, jobTimestamp, FileType.TXT,
+                Metadata.builder(rightMap).build(), rightText.getBytes(StandardCharsets.UTF_8));
+        MaterialList left = store.select(jobName, jobTimestamp, FileType.TXT,
+                QueryOnMetadata.builder(leftMap).build());
+        MaterialList right = store.select(jobName, jobTimestamp, FileType.TXT,
+                QueryOnMetadata.builder(rightMap).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right).ignoreKeys("environment").build();
+        Assertions.assertEquals(1, mpg.size());
+        return mpg.get(0);
+    }
 }
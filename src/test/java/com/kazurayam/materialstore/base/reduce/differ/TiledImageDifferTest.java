@@ -0,0 +1,204 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+public class TiledImageDifferTest {
+
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        g.fillRect(10, 10, width / 2, height / 3);
+        g.dispose();
+        return image;
+    }
+
+    @Test
+    public void test_identical() {
+        BufferedImage left = createImage(200, 1000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(200, 1000, BufferedImage.TYPE_INT_RGB);
+        TiledImageDiff diff = TiledImageDiffer.builder().tileHeight(64).build().makeDiff(left, right);
+        Assertions.assertFalse(diff.hasDiff());
+        Assertions.assertEquals(0, diff.getNumberOfDifferingTiles());
+        Assertions.assertEquals(16, diff.getNumberOfTiles());
+        Assertions.assertEquals(0.0d, diff.getDiffRatioPercent().doubleValue());
+        Assertions.assertEquals(left.getRGB(20, 20), diff.getDiffImage().getRGB(20, 20));
+    }
+
+    @Test
+    public void test_differing_pixels_are_marked() {
+        BufferedImage left = createImage(200, 1000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(200, 1000, BufferedImage.TYPE_INT_RGB);
+        right.setRGB(5, 5, Color.BLACK.getRGB());
+        right.setRGB(150, 900, Color.BLACK.getRGB());
+        TiledImageDiff diff = TiledImageDiffer.builder()
+                .tileHeight(100).diffColor(Color.GREEN).build()
+                .makeDiff(left, right);
+        Assertions.assertEquals(2, diff.getDiffSize());
+        Assertions.assertEquals(2, diff.getNumberOfDifferingTiles());
+        Assertions.assertTrue(diff.isTileDiffering(0));
+        Assertions.assertTrue(diff.isTileDiffering(9));
+        Assertions.assertFalse(diff.isTileDiffering(5));
+        BufferedImage marked = diff.getDiffImage();
+        Assertions.assertEquals(Color.GREEN.getRGB(), marked.getRGB(5, 5));
+        Assertions.assertEquals(Color.GREEN.getRGB(), marked.getRGB(150, 900));
+        Assertions.assertEquals(left.getRGB(6, 5), marked.getRGB(6, 5));
+    }
+
+    @Test
+    public void test_channelTolerance() {
+        BufferedImage left = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        right.setRGB(50, 50, new Color(250, 252, 255).getRGB());   // was WHITE
+        TiledImageDiff strict = TiledImageDiffer.builder().build().makeDiff(left, right);
+        Assertions.assertEquals(1, strict.getDiffSize());
+        TiledImageDiff tolerant = TiledImageDiffer.builder().channelTolerance(5).build().makeDiff(left, right);
+        Assertions.assertEquals(0, tolerant.getDiffSize());
+        TiledImageDiff lessTolerant = TiledImageDiffer.builder().channelTolerance(4).build().makeDiff(left, right);
+        Assertions.assertEquals(1, lessTolerant.getDiffSize());
+    }
+
+    @Test
+    public void test_different_sizes() {
+        BufferedImage left = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage taller = new BufferedImage(100, 120, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = taller.createGraphics();
+        g.drawImage(right, 0, 0, null);
+        g.dispose();
+        TiledImageDiff diff = TiledImageDiffer.builder().tileHeight(16).build().makeDiff(left, taller);
+        Assertions.assertEquals(100, diff.getWidth());
+        Assertions.assertEquals(120, diff.getHeight());
+        // the 20 rows out of the left image are regarded different
+        Assertions.assertEquals(100 * 20, diff.getDiffSize());
+        Assertions.assertEquals(120, diff.getDiffImage().getHeight());
+    }
+
+    @Test
+    public void test_byte_raster_and_int_raster_are_comparable() {
+        BufferedImage intImage = createImage(300, 300, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage byteImage = createImage(300, 300, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage bgrImage = createImage(300, 300, BufferedImage.TYPE_3BYTE_BGR);
+        TiledImageDiffer differ = TiledImageDiffer.builder().tileHeight(32).build();
+        Assertions.assertEquals(0, differ.makeDiff(intImage, byteImage).getDiffSize());
+        Assertions.assertEquals(0, differ.makeDiff(bgrImage, byteImage).getDiffSize());
+        bgrImage.setRGB(299, 299, Color.RED.getRGB());
+        Assertions.assertEquals(1, differ.makeDiff(intImage, bgrImage).getDiffSize());
+    }
+
+    @Test
+    public void test_parallel_and_serial_give_the_same_result() {
+        BufferedImage left = createImage(640, 3000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(640, 3000, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = right.createGraphics();
+        g.setColor(Color.YELLOW);
+        g.fillRect(100, 1200, 300, 700);
+        g.dispose();
+        TiledImageDiff parallel = TiledImageDiffer.builder().parallel(true).build().makeDiff(left, right);
+        TiledImageDiff serial = TiledImageDiffer.builder().parallel(false).build().makeDiff(left, right);
+        Assertions.assertEquals(serial.getDiffSize(), parallel.getDiffSize());
+        Assertions.assertTrue(parallel.getDiffSize() > 0);
+        Assertions.assertEquals(serial.getDiffImage().getRGB(200, 1500), parallel.getDiffImage().getRGB(200, 1500));
+    }
+
+    @Test
+    public void test_produceDiffImage_false() {
+        BufferedImage left = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        right.setRGB(1, 1, Color.BLACK.getRGB());
+        TiledImageDiff diff = TiledImageDiffer.builder().produceDiffImage(false).build().makeDiff(left, right);
+        Assertions.assertEquals(1, diff.getDiffSize());
+        Assertions.assertNull(diff.getDiffImage());
+    }
+
+    @Test
+    public void test_changedRegions() {
+        BufferedImage left = createImage(400, 1000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(400, 1000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = right.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(300, 240, 50, 40);     // across the tile boundary at y=256
+        g.fillRect(20, 800, 10, 10);
+        g.dispose();
+        TiledImageDiff diff = TiledImageDiffer.builder().build().makeDiff(left, right);
+        List<Rectangle> regions = diff.getChangedRegions();
+        Assertions.assertEquals(
+                Arrays.asList(new Rectangle(300, 240, 50, 40), new Rectangle(20, 800, 10, 10)),
+                regions);
+        // no difference, no region
+        TiledImageDiff same = TiledImageDiffer.builder().build().makeDiff(left, left);
+        Assertions.assertTrue(same.getChangedRegions().isEmpty());
+        // maxRegions keeps the larger ones
+        TiledImageDiff limited = TiledImageDiffer.builder().maxRegions(1).build().makeDiff(left, right);
+        Assertions.assertEquals(Arrays.asList(new Rectangle(300, 240, 50, 40)), limited.getChangedRegions());
+    }
+
+    @Test
+    public void test_changedRegions_different_sizes() {
+        BufferedImage left = createImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(120, 150, BufferedImage.TYPE_INT_RGB);
+        TiledImageDiff diff = TiledImageDiffer.builder().tileHeight(64).build().makeDiff(left, right);
+        // the rows and the columns out of the left image are regarded different
+        Rectangle union = new Rectangle();
+        for (Rectangle r : diff.getChangedRegions()) {
+            union = union.isEmpty() ? r : union.union(r);
+        }
+        Assertions.assertEquals(new Rectangle(0, 0, 120, 150), union);
+    }
+
+    @Test
+    public void test_prefilter_by_TileSignature() {
+        BufferedImage left = createImage(200, 1000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = createImage(200, 1000, BufferedImage.TYPE_INT_RGB);
+        right.setRGB(150, 900, Color.BLACK.getRGB());
+        TiledImageDiffer differ = TiledImageDiffer.builder().tileHeight(100).build();
+        TiledImageDiff diff = differ.makeDiff(left, right,
+                TileSignature.of(left, 100), TileSignature.of(right, 100));
+        Assertions.assertEquals(9, diff.getNumberOfSkippedTiles());
+        Assertions.assertEquals(1, diff.getDiffSize());
+        Assertions.assertTrue(diff.isTileDiffering(9));
+        Assertions.assertEquals(Arrays.asList(new Rectangle(150, 900, 1, 1)), diff.getChangedRegions());
+        // the skipped tiles are copied from the left image
+        TiledImageDiff full = differ.makeDiff(left, right);
+        Assertions.assertEquals(0, full.getNumberOfSkippedTiles());
+        for (int y = 0; y < 1000; y += 3) {
+            for (int x = 0; x < 200; x += 3) {
+                Assertions.assertEquals(full.getDiffImage().getRGB(x, y), diff.getDiffImage().getRGB(x, y));
+            }
+        }
+        // a signature made with another tileHeight is ignored
+        TiledImageDiff ignored = differ.makeDiff(left, right,
+                TileSignature.of(left, 64), TileSignature.of(right, 64));
+        Assertions.assertEquals(0, ignored.getNumberOfSkippedTiles());
+        Assertions.assertEquals(1, ignored.getDiffSize());
+    }
+
+    @Test
+    public void test_TileSignature_different_heights() {
+        BufferedImage left = createImage(100, 250, BufferedImage.TYPE_INT_RGB);
+        BufferedImage right = new BufferedImage(100, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = right.createGraphics();
+        g.drawImage(left, 0, 0, null);
+        g.dispose();
+        TileSignature ls = TileSignature.of(left, 100);
+        TileSignature rs = TileSignature.of(right, 100);
+        Assertions.assertEquals(3, ls.getNumberOfTiles());
+        Assertions.assertTrue(ls.isTileSame(rs, 0));
+        Assertions.assertTrue(ls.isTileSame(rs, 1));
+        // the last tile of the left is partial
+        Assertions.assertFalse(ls.isTileSame(rs, 2));
+        TiledImageDiff diff = TiledImageDiffer.builder().tileHeight(100).build().makeDiff(left, right, ls, rs);
+        Assertions.assertEquals(2, diff.getNumberOfSkippedTiles());
+        Assertions.assertEquals(100 * 50, diff.getDiffSize());
+    }
+}
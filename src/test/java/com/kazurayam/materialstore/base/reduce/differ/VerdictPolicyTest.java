@@ -0,0 +1,40 @@
+package com.kazurayam.materialstore.base.reduce.differ;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class VerdictPolicyTest {
+
+    @Test
+    public void test_Monitor_exceeded() {
+        VerdictPolicy.Monitor monitor = VerdictPolicy.builder(10.0d).build().start();
+        monitor.begin(1000);
+        Assertions.assertTrue(monitor.record(100, 50));     // 5% so far
+        Assertions.assertTrue(monitor.record(100, 50));     // 10%, not greater than the threshold
+        Assertions.assertFalse(monitor.record(100, 1));     // 10.1%
+        Assertions.assertTrue(monitor.isAborted());
+        Assertions.assertEquals(VerdictPolicy.Partial.EXCEEDED, monitor.getPartial());
+        Assertions.assertEquals(10.1d, monitor.getBoundOfDiffRatio().doubleValue());
+        // stays aborted
+        Assertions.assertFalse(monitor.record(100, 0));
+    }
+
+    @Test
+    public void test_Monitor_timedOut() throws InterruptedException {
+        VerdictPolicy.Monitor monitor = VerdictPolicy.builder(10.0d).timeBudgetMillis(1).build().start();
+        monitor.begin(1000);
+        Thread.sleep(20);
+        Assertions.assertFalse(monitor.record(200, 10));
+        Assertions.assertEquals(VerdictPolicy.Partial.TIMED_OUT, monitor.getPartial());
+        // the upper bound: 10 differing + 800 unchecked out of 1000
+        Assertions.assertEquals(81.0d, monitor.getBoundOfDiffRatio().doubleValue());
+    }
+
+    @Test
+    public void test_Monitor_checkLowerBound() {
+        VerdictPolicy.Monitor monitor = VerdictPolicy.builder(10.0d).build().start();
+        Assertions.assertTrue(monitor.checkLowerBound(10.0d));
+        Assertions.assertFalse(monitor.checkLowerBound(33.333d));
+        Assertions.assertEquals(33.33d, monitor.getBoundOfDiffRatio().doubleValue());
+    }
+}
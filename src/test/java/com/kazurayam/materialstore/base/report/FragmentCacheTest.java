@@ -0,0 +1,134 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.base.inspector.Inspector;
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.SortKeys;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.FixtureDirectory;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import freemarker.template.Template;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FragmentCacheTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(FragmentCacheTest.class);
+    private static final String FRAGMENT_TEMPLATE_PATH =
+            "com/kazurayam/materialstore/report/MaterialProductFragmentTemplate.ftlh";
+    private static Store store;
+    private static List<MaterialProduct> mProducts;
+    private static Map<String, Object> groupModel;
+    private static Template fragmentTemplate;
+    private final SortKeys sortKeys = new SortKeys("URL.path");
+
+    @BeforeAll
+    public static void beforeAll() throws IOException, MaterialstoreException {
+        Path root = too.cleanClassOutputDirectory().resolve("store");
+        store = Stores.newInstance(root);
+        JobName jobName = new JobName("FragmentCacheTest");
+        FixtureDirectory fixtureDir = new FixtureDirectory("issue#80");
+        too.copyDir(fixtureDir.getPath().resolve("MyAdmin_visual_inspection_twins"),
+                store.getRoot().resolve(jobName.toString()));
+        MaterialList left = store.select(jobName, new JobTimestamp("20220128_191320"),
+                QueryOnMetadata.builder(Collections.singletonMap("environment", "MyAdmin_ProductionEnv")).build());
+        MaterialList right = store.select(jobName, new JobTimestamp("20220128_191342"),
+                QueryOnMetadata.builder(Collections.singletonMap("environment", "MyAdmin_DevelopmentEnv")).build());
+        MaterialProductGroup mpg = Inspector.newInstance(store).reduceAndSort(
+                MaterialProductGroup.builder(left, right)
+                        .ignoreKeys("environment", "URL.host", "URL.protocol", "URL.port")
+                        .build());
+        mProducts = ReportTemplateModels.toList(mpg);
+        assertFalse(mProducts.isEmpty());
+        groupModel = new HashMap<>();
+        groupModel.put("threshold", mpg.getThreshold());
+        groupModel.put("labelLeft", mpg.getLabelLeft());
+        groupModel.put("labelRight", mpg.getLabelRight());
+        fragmentTemplate = FreeMarkerConfigurator.configureFreeMarker(store).getTemplate(FRAGMENT_TEMPLATE_PATH);
+    }
+
+    @Test
+    public void test_render_reuses_the_fragments_cached() throws MaterialstoreException {
+        FragmentCache first = new FragmentCache(fragmentTemplate, true);
+        String[] rendered = new String[mProducts.size()];
+        for (int i = 0; i < mProducts.size(); i++) {
+            rendered[i] = first.render(mProducts.get(i), i, groupModel, "test", 0.0d, sortKeys);
+        }
+        // a new FragmentCache finds the fragments in the store, in whatever order they are asked
+        FragmentCache second = new FragmentCache(fragmentTemplate, true);
+        for (int i = mProducts.size() - 1; i >= 0; i--) {
+            assertEquals(rendered[i],
+                    second.render(mProducts.get(i), i, groupModel, "test", 0.0d, sortKeys));
+        }
+        assertEquals(0, second.getMisses());
+        assertEquals(mProducts.size(), second.getHits());
+    }
+
+    @Test
+    public void test_render_replaces_the_index() throws MaterialstoreException {
+        FragmentCache cache = new FragmentCache(fragmentTemplate, false);
+        String html = cache.render(mProducts.get(0), 1234, groupModel, "test", 0.0d, sortKeys);
+        assertTrue(html.contains("accordion1234"));
+        assertFalse(html.contains(FragmentCache.INDEX_PLACEHOLDER));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void test_render_prunes_the_other_fragments_of_the_product() throws MaterialstoreException, IOException {
+        MaterialProduct mProduct = mProducts.get(0);
+        String productKey = FragmentCache.productKeyOf(mProduct);
+        FragmentCache cache = new FragmentCache(fragmentTemplate, true);
+        cache.render(mProduct, 0, groupModel, "first title", 0.0d, sortKeys);
+        assertEquals(1, countFragmentsOf(productKey));
+        cache.render(mProduct, 0, groupModel, "second title", 0.0d, sortKeys);
+        assertEquals(1, countFragmentsOf(productKey));
+        assertEquals(2, cache.getMisses());
+    }
+
+    private static long countFragmentsOf(String productKey) throws IOException {
+        try (Stream<Path> files = Files.walk(store.getRoot())) {
+            return files.filter(p -> p.getParent().getFileName().toString().equals(FragmentCache.DIR_NAME))
+                    .filter(p -> p.getFileName().toString().contains("." + productKey + "."))
+                    .count();
+        }
+    }
+
+    @Test
+    public void test_keyOf() throws MaterialstoreException {
+        MaterialProduct mProduct = null;
+        for (MaterialProduct mp : mProducts) {
+            if (mp.getDiffRatio() > 0.0d) {
+                mProduct = mp;
+                break;
+            }
+        }
+        assertTrue(mProduct != null, "no MaterialProduct differs");
+        String key = FragmentCache.keyOf(mProduct, groupModel, "test", 0.0d, sortKeys);
+        assertEquals(key, FragmentCache.keyOf(mProduct, groupModel, "test", 0.0d, sortKeys));
+        // the warning depends on the threshold
+        assertNotEquals(key, FragmentCache.keyOf(mProduct, groupModel, "test", 100.0d, sortKeys));
+        assertNotEquals(key, FragmentCache.keyOf(mProduct, groupModel, "another", 0.0d, sortKeys));
+    }
+}
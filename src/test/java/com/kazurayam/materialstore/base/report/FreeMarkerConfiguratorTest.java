@@ -0,0 +1,46 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import freemarker.template.Configuration;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class FreeMarkerConfiguratorTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(FreeMarkerConfiguratorTest.class);
+    private static Path dir;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        dir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    public void test_configureFreeMarker_shared_per_root() throws MaterialstoreException {
+        Store store = Stores.newInstance(dir.resolve("store"));
+        Store sameRoot = Stores.newInstance(dir.resolve("store/../store"));
+        Store another = Stores.newInstance(dir.resolve("another"));
+        Configuration cfg = FreeMarkerConfigurator.configureFreeMarker(store);
+        assertSame(cfg, FreeMarkerConfigurator.configureFreeMarker(sameRoot));
+        assertNotSame(cfg, FreeMarkerConfigurator.configureFreeMarker(another));
+    }
+
+    @Test
+    public void test_clearCache() throws MaterialstoreException {
+        Store store = Stores.newInstance(dir.resolve("store"));
+        Configuration cfg = FreeMarkerConfigurator.configureFreeMarker(store);
+        FreeMarkerConfigurator.clearCache();
+        assertNotSame(cfg, FreeMarkerConfigurator.configureFreeMarker(store));
+    }
+}
@@ -0,0 +1,42 @@
+package com.kazurayam.materialstore.base.report;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HTMLTidyingWriterTest {
+
+    @Test
+    public void test_blank_lines_and_trailing_spaces_are_removed() throws IOException {
+        StringWriter sw = new StringWriter();
+        try (Writer w = new HTMLTidyingWriter(sw)) {
+            w.write("<div>   \n");
+            w.write("      \n\n");
+            w.write("  <span>Hello,");
+            w.write(" world!</span>  \n</div>");
+        }
+        assertEquals("<div>\n  <span>Hello, world!</span>\n</div>", sw.toString());
+    }
+
+    @Test
+    public void test_pre_is_preserved() throws IOException {
+        StringWriter sw = new StringWriter();
+        try (Writer w = new HTMLTidyingWriter(sw)) {
+            w.write("<PRE class=\"x\">a  \n\n  b  \n</pre>  \n\n<p>c</p>  \n");
+        }
+        assertEquals("<PRE class=\"x\">a  \n\n  b  \n</pre>  \n<p>c</p>\n", sw.toString());
+    }
+
+    @Test
+    public void test_prefix_of_tag_name_is_not_preserved() throws IOException {
+        StringWriter sw = new StringWriter();
+        try (Writer w = new HTMLTidyingWriter(sw)) {
+            w.write("<preview>  \n\n</preview>\n");
+        }
+        assertEquals("<preview>\n</preview>\n", sw.toString());
+    }
+}
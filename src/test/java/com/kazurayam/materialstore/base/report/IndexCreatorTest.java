@@ -18,9 +18,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -60,6 +64,53 @@ public class IndexCreatorTest {
         assertTrue(Files.exists(indexFile));
     }
 
+    @Test
+    public void test_ReportFileList_sorted_by_lastModified() throws IOException {
+        Path older = writeReportFile("older.html", 1_600_000_000_000L);
+        Path newer = writeReportFile("newer.html", 1_700_000_000_000L);
+        Files.createDirectories(store.getRoot().resolve("dir.html"));
+        IndexCreator.ReportFileList rfl = new IndexCreator.ReportFileList(store);
+        List<IndexCreator.ReportFile> files = rfl.getFiles();
+        assertEquals(2, files.size());
+        assertEquals(newer.getFileName().toString(), files.get(0).getFileName());
+        assertEquals(older.getFileName().toString(), files.get(1).getFileName());
+    }
+
+    /*
+     * the report files known by the manifest are not looked up again unless changed
+     */
+    @Test
+    public void test_ReportManifest_refresh() throws IOException, MaterialstoreException {
+        writeReportFile("a.html", 1_600_000_000_000L);
+        Path b = writeReportFile("b.html", 1_600_000_001_000L);
+        ReportManifest manifest = new ReportManifest(store.getRoot());
+        manifest.rescan();
+        manifest.save();
+        assertTrue(Files.exists(manifest.getManifestFile()));
+        //
+        writeReportFile("c.html", 1_600_000_002_000L);
+        Files.delete(b);
+        ReportManifest loaded = ReportManifest.load(store.getRoot());
+        assertEquals(2, loaded.size());
+        loaded.refresh(Collections.emptyList());
+        assertEquals(1, loaded.getLookups());   // c.html only
+        assertEquals(2, loaded.size());         // a.html, c.html
+        //
+        Path a = writeReportFile("a.html", 1_700_000_000_000L);
+        loaded.refresh(Collections.singletonList(a));
+        assertEquals(2, loaded.getLookups());
+        IndexCreator.ReportFileList rfl = new IndexCreator.ReportFileList(store, loaded.toReportFiles());
+        assertEquals("a.html", rfl.getFiles().get(0).getFileName());
+    }
+
+    private Path writeReportFile(String fileName, long lastModified) throws IOException {
+        Path p = store.getRoot().resolve(fileName);
+        Files.createDirectories(p.getParent());
+        Files.write(p, "<html></html>".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(p, FileTime.fromMillis(lastModified));
+        return p;
+    }
+
     @Test
     public void test_makeTitle() throws IOException {
         Map<String, Object> model = new HashMap<>();
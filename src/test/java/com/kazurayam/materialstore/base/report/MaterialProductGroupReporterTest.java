@@ -3,6 +3,7 @@ package com.kazurayam.materialstore.base.report;
 import com.kazurayam.materialstore.zest.FixtureDirectory;
 import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
 import com.kazurayam.materialstore.base.inspector.Inspector;
+import com.kazurayam.materialstore.base.reduce.DiffingMPGProcessor;
 import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
@@ -20,7 +21,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 //@Disabled   // https://github.com/kazurayam/materialstore/issues/352
@@ -74,7 +79,131 @@ public class MaterialProductGroupReporterTest extends AbstractReporterTest {
                 "expected a string 'class=\"identification\"' in the report but not found");
     }
 
+    /*
+     * the report compiled while diffing is the same as the one compiled after diffing
+     */
+    @Test
+    public void test_processAndReport() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_processAndReport");
+        SortKeys sortKeys = new SortKeys("URL.path");
+        MaterialProductGroupReporterImpl reporter = new MaterialProductGroupReporterImpl(store);
+        reporter.setThreshold(15.0d);
+        DiffingMPGProcessor processor = new DiffingMPGProcessor.Builder(store).build();
+        //
+        MaterialProductGroup mpg = prepareMaterialProductGroup(jobName);
+        Path pipelined = too.resolveClassOutputDirectory().resolve("pipelined").resolve(jobName + "-index.html");
+        MaterialProductGroup processed = reporter.processAndReport(mpg, processor, sortKeys, pipelined);
+        assertTrue(Files.exists(pipelined));
+        assertTrue(processed.isReadyToReport());
+        //
+        MaterialProductGroup expected = processor.process(mpg);
+        Path afterwards = too.resolveClassOutputDirectory().resolve("afterwards").resolve(jobName + "-index.html");
+        Files.createDirectories(afterwards.getParent());
+        reporter.report(expected, sortKeys, afterwards);
+        assertEquals(readString(afterwards), readString(pipelined));
+    }
+
+    /*
+     * the report compiled again out of the fragments cached is the same as the one rendered at all
+     */
+    @Test
+    public void test_report_with_fragmentCache() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_report_with_fragmentCache");
+        SortKeys sortKeys = new SortKeys("URL.path");
+        MaterialProductGroup reduced = prepareFixture(jobName);
+        MaterialProductGroupReporterImpl reporter = new MaterialProductGroupReporterImpl(store);
+        reporter.setThreshold(15.0d);
+        Path rendered = too.resolveClassOutputDirectory().resolve("rendered").resolve(jobName + "-index.html");
+        Files.createDirectories(rendered.getParent());
+        reporter.report(reduced, sortKeys, rendered);
+        //
+        reporter.enableFragmentCache(true);
+        Path first = too.resolveClassOutputDirectory().resolve("first").resolve(jobName + "-index.html");
+        Files.createDirectories(first.getParent());
+        reporter.report(reduced, sortKeys, first);
+        Path second = too.resolveClassOutputDirectory().resolve("second").resolve(jobName + "-index.html");
+        Files.createDirectories(second.getParent());
+        reporter.report(reduced, sortKeys, second);
+        assertEquals(readString(rendered), readString(first));
+        assertEquals(readString(first), readString(second));
+        // the fragments are cached in the JobTimestamps of the diffs
+        Path fragmentsDir = reduced.get(0).getDiff().toPath().getParent().getParent().resolve(FragmentCache.DIR_NAME);
+        try (Stream<Path> files = Files.list(fragmentsDir)) {
+            assertTrue(files.count() > 0);
+        }
+    }
+
+    /*
+     * the progressive report ends up the same as the one compiled after diffing
+     */
+    @Test
+    public void test_processAndReportProgressively() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_processAndReportProgressively");
+        SortKeys sortKeys = new SortKeys("URL.path");
+        MaterialProductGroupReporterImpl reporter = new MaterialProductGroupReporterImpl(store);
+        reporter.setThreshold(15.0d);
+        DiffingMPGProcessor processor = new DiffingMPGProcessor.Builder(store).build();
+        //
+        MaterialProductGroup mpg = prepareMaterialProductGroup(jobName);
+        Path progressive = too.resolveClassOutputDirectory().resolve("progressive").resolve(jobName + "-index.html");
+        MaterialProductGroup processed =
+                reporter.processAndReportProgressively(mpg, processor, sortKeys, progressive, 0);
+        assertTrue(processed.isReadyToReport());
+        String reportText = readString(progressive);
+        assertFalse(reportText.contains("http-equiv=\"refresh\""), "the report in progress remains");
+        //
+        MaterialProductGroup expected = processor.process(mpg);
+        Path afterwards = too.resolveClassOutputDirectory().resolve("afterwards").resolve(jobName + "-index.html");
+        Files.createDirectories(afterwards.getParent());
+        reporter.report(expected, sortKeys, afterwards);
+        assertEquals(readString(afterwards), reportText);
+        // no temporary file is left
+        try (Stream<Path> files = Files.list(progressive.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    /*
+     * a summary with the links to the pages, which detail pageSize MaterialProducts each
+     */
+    @Test
+    public void test_reportSharded() throws IOException, MaterialstoreException {
+        JobName jobName = new JobName("test_reportSharded");
+        MaterialProductGroup reduced = prepareFixture(jobName);
+        MaterialProductGroupReporterImpl reporter = new MaterialProductGroupReporterImpl(store);
+        reporter.setThreshold(15.0d);
+        int pageSize = 2;
+        List<JobName> jobNames = store.findAllJobNames();
+        Path summary = reporter.reportSharded(reduced, new SortKeys("URL.path"), pageSize,
+                jobName + "-index.html");
+        assertTrue(Files.exists(summary));
+        int pageCount = (reduced.size() + pageSize - 1) / pageSize;
+        Path pagesDir = summary.getParent().resolve("." + jobName + "-index-pages");
+        // the pages directory is not taken for a JobName
+        assertEquals(jobNames, store.findAllJobNames());
+        try (Stream<Path> files = Files.list(pagesDir)) {
+            assertEquals(pageCount, files.count());
+        }
+        String summaryText = readString(summary);
+        assertTrue(summaryText.contains("href=\"." + jobName + "-index-pages/page-" + pageCount + ".html\""));
+        // a page refers to the Materials relative to the store root
+        String pageText = readString(pagesDir.resolve("page-1.html"));
+        assertTrue(pageText.contains("<base href=\"../\""));
+        assertTrue(pageText.contains("class=\"identification\""));
+        // the pages no longer needed are removed when reported again
+        reporter.reportSharded(reduced, new SortKeys("URL.path"), reduced.size(), summary);
+        try (Stream<Path> files = Files.list(pagesDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
     private MaterialProductGroup prepareFixture(JobName jobName) throws IOException, MaterialstoreException {
+        Inspector inspector = Inspector.newInstance(store);
+        // make diff of the 2 MaterialList objects
+        return inspector.reduceAndSort(prepareMaterialProductGroup(jobName));
+    }
+
+    private MaterialProductGroup prepareMaterialProductGroup(JobName jobName) throws IOException, MaterialstoreException {
         // stuff the Job directory with a fixture
         Path jobNameDir = store.getRoot().resolve(jobName.toString());
         FixtureDirectory fixtureDir = new FixtureDirectory("issue#80");
@@ -84,10 +213,8 @@ public class MaterialProductGroupReporterTest extends AbstractReporterTest {
         JobTimestamp timestamp1 = new JobTimestamp("20220128_191342");
         MaterialList left = createMaterialList(jobName, timestamp0, "MyAdmin_ProductionEnv");
         MaterialList right = createMaterialList(jobName, timestamp1, "MyAdmin_DevelopmentEnv");
-        Inspector inspector = Inspector.newInstance(store);
-        // make diff of the 2 MaterialList objects
-        MaterialProductGroup mpg =
-                MaterialProductGroup.builder(left, right)
+        // zip the 2 MaterialList objects
+        return MaterialProductGroup.builder(left, right)
                         .ignoreKeys("environment", "URL.host", "URL.protocol", "URL.port")
                         .identifyWithRegex(
                                 Collections.singletonMap(
@@ -95,7 +222,6 @@ public class MaterialProductGroupReporterTest extends AbstractReporterTest {
                         .labelLeft("ProductionEnv")
                         .labelRight("DevelopmentEnv")
                         .build();
-        return inspector.reduceAndSort(mpg);
     }
 
     private MaterialList createMaterialList(JobName jobName, JobTimestamp timestamp, String profileName)
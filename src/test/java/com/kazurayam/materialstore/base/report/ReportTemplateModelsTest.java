@@ -0,0 +1,152 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.google.gson.JsonParser;
+import com.kazurayam.materialstore.base.inspector.Inspector;
+import com.kazurayam.materialstore.base.reduce.MaterialProductGroup;
+import com.kazurayam.materialstore.base.reduce.zipper.MaterialProduct;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.SortKeys;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.FixtureDirectory;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReportTemplateModelsTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ReportTemplateModelsTest.class);
+    private static MaterialProductGroup reduced;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException, MaterialstoreException {
+        Path root = too.cleanClassOutputDirectory().resolve("store");
+        Store store = Stores.newInstance(root);
+        JobName jobName = new JobName("ReportTemplateModelsTest");
+        Path jobNameDir = store.getRoot().resolve(jobName.toString());
+        FixtureDirectory fixtureDir = new FixtureDirectory("issue#80");
+        too.copyDir(fixtureDir.getPath().resolve("MyAdmin_visual_inspection_twins"), jobNameDir);
+        MaterialList left = store.select(jobName, new JobTimestamp("20220128_191320"),
+                QueryOnMetadata.builder(Collections.singletonMap("environment", "MyAdmin_ProductionEnv")).build());
+        MaterialList right = store.select(jobName, new JobTimestamp("20220128_191342"),
+                QueryOnMetadata.builder(Collections.singletonMap("environment", "MyAdmin_DevelopmentEnv")).build());
+        MaterialProductGroup mpg = MaterialProductGroup.builder(left, right)
+                .ignoreKeys("environment", "URL.host", "URL.protocol", "URL.port")
+                .labelLeft("ProductionEnv")
+                .labelRight("DevelopmentEnv")
+                .build();
+        reduced = Inspector.newInstance(store).reduceAndSort(mpg);
+    }
+
+    @Test
+    public void test_of_page_of_MaterialProductGroup() throws TemplateModelException, IOException, MaterialstoreException {
+        SortKeys sortKeys = new SortKeys("URL.path");
+        List<MaterialProduct> page = ReportTemplateModels.toList(reduced).subList(1, 3);
+        TemplateHashModel model = ReportTemplateModels.of(reduced, page, sortKeys);
+        TemplateSequenceModel products = (TemplateSequenceModel) model.get("materialProductList");
+        assertEquals(2, products.size());
+        assertEquals(page.get(0).getQueryIdentification(sortKeys).toString(),
+                asString((TemplateHashModel) products.get(0), "identification"));
+        assertEquals(2, ((TemplateNumberModel) model.get("countTotal")).getAsNumber().intValue());
+        // the JSON of the page has the MaterialProducts of the page only
+        StringWriter sw = new StringWriter();
+        new MaterialProductGroupJsonDirective(reduced, page).write(sw);
+        assertEquals(2, JsonParser.parseString(sw.toString()).getAsJsonObject()
+                .getAsJsonArray("materialProductList").size());
+    }
+
+    @Test
+    public void test_of_MaterialProductGroup() throws TemplateModelException {
+        SortKeys sortKeys = new SortKeys("URL.path");
+        TemplateHashModel model = ReportTemplateModels.of(reduced, sortKeys, true);
+        assertEquals(reduced.getJobName().toString(), asString(model, "jobName"));
+        assertEquals("ProductionEnv", asString(model, "labelLeft"));
+        TemplateSequenceModel products = (TemplateSequenceModel) model.get("materialProductList");
+        assertEquals(reduced.size(), products.size());
+        MaterialProduct first = reduced.get(0);
+        TemplateHashModel mProduct = (TemplateHashModel) products.get(0);
+        assertEquals(first.getQueryIdentification(sortKeys).toString(),
+                asString(mProduct, "identification"));
+        TemplateHashModel leftModel = (TemplateHashModel) mProduct.get("left");
+        assertEquals(first.getLeft().getRelativeURL(), asString(leftModel, "relativeUrl"));
+        // the attributes of the Metadata are listed as key, value pairs
+        TemplateHashModelEx2 metadata = (TemplateHashModelEx2) leftModel.get("metadata");
+        assertEquals(first.getLeft().getMetadata().size(), metadata.size());
+        TemplateHashModelEx2.KeyValuePairIterator iterator = metadata.keyValuePairIterator();
+        assertTrue(iterator.hasNext());
+        TemplateHashModelEx2.KeyValuePair pair = iterator.next();
+        String key = ((TemplateScalarModel) pair.getKey()).getAsString();
+        assertEquals(first.getLeft().getMetadata().get(key),
+                asString((TemplateHashModel) pair.getValue(), "value"));
+        // "environment" is ignored
+        TemplateHashModel environment = (TemplateHashModel) metadata.get("environment");
+        assertNotNull(environment.get("ignoredByKey"));
+        assertNull(environment.get("identifiedByValue"));
+        // unknown keys are missing
+        assertNull(mProduct.get("no such key"));
+    }
+
+    @Test
+    public void test_of_MaterialProductGroup_summary() throws TemplateModelException {
+        TemplateHashModel model = ReportTemplateModels.of(reduced, new SortKeys(), false);
+        assertNull(model.get("materialProductList"));
+        assertNotNull(model.get("countTotal"));
+    }
+
+    /*
+     * the JSON written by the JsonWriter has the same content as MaterialProductGroup#toJson()
+     */
+    @Test
+    public void test_MaterialProductGroupJsonDirective() throws IOException, MaterialstoreException {
+        StringWriter sw = new StringWriter();
+        new MaterialProductGroupJsonDirective(reduced).write(sw);
+        assertEquals(JsonParser.parseString(reduced.toJson()), JsonParser.parseString(sw.toString()));
+    }
+
+    /*
+     * the JSON of the MaterialProducts written beforehand one by one makes the same JSON
+     */
+    @Test
+    public void test_MaterialProductGroupJsonDirective_of_products_written_beforehand()
+            throws IOException, MaterialstoreException {
+        List<MaterialProduct> mProducts = ReportTemplateModels.toList(reduced);
+        Path dir = too.cleanMethodOutputDirectory("test_MaterialProductGroupJsonDirective_of_products_written_beforehand");
+        StringWriter sw = new StringWriter();
+        try (ReportFragments models = new ReportFragments(dir, "model", mProducts.size())) {
+            // in any order
+            for (int i = mProducts.size() - 1; i >= 0; i--) {
+                models.put(i, MaterialProductGroupJsonDirective.toJson(mProducts.get(i)));
+            }
+            new MaterialProductGroupJsonDirective(reduced, mProducts.size(), reduced.getCountWarning(),
+                    (jw, i) -> jw.jsonValue(models.get(i))).write(sw);
+        }
+        assertEquals(JsonParser.parseString(reduced.toJson()), JsonParser.parseString(sw.toString()));
+    }
+
+    private static String asString(TemplateHashModel hash, String key) throws TemplateModelException {
+        return ((TemplateScalarModel) hash.get(key)).getAsString();
+    }
+}
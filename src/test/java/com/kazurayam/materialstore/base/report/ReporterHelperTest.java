@@ -14,4 +14,10 @@ public class ReporterHelperTest {
         Assertions.assertTrue(!style.isEmpty());
     }
 
+    @Test
+    public void test_getStyleFromClasspath_cached() throws MaterialstoreException {
+        Assertions.assertSame(StyleHelper.loadStyleFromClasspath(),
+                StyleHelper.loadStyleFromClasspath(StyleHelper.getCSS_PATH()));
+    }
+
 }
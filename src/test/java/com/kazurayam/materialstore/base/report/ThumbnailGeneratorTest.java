@@ -0,0 +1,98 @@
+package com.kazurayam.materialstore.base.report;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.zest.FixtureDirectory;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ThumbnailGeneratorTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ThumbnailGeneratorTest.class);
+    private static Store store;
+    private static List<Material> pngs;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException, MaterialstoreException {
+        Path root = too.cleanClassOutputDirectory().resolve("store");
+        store = Stores.newInstance(root);
+        JobName jobName = new JobName("ThumbnailGeneratorTest");
+        FixtureDirectory fixtureDir = new FixtureDirectory("issue#80");
+        too.copyDir(fixtureDir.getPath().resolve("MyAdmin_visual_inspection_twins"),
+                store.getRoot().resolve(jobName.toString()));
+        MaterialList materialList = store.select(jobName, new JobTimestamp("20220128_191320"),
+                FileType.PNG, QueryOnMetadata.ANY);
+        pngs = new ArrayList<>();
+        materialList.forEach(pngs::add);
+        assertFalse(pngs.isEmpty());
+    }
+
+    @Test
+    public void test_generate() throws IOException, MaterialstoreException {
+        ThumbnailGenerator generator = new ThumbnailGenerator.Builder().parallelism(2).build();
+        generator.generate(pngs);
+        for (Material material : pngs) {
+            BufferedImage original = ImageIO.read(material.toPath().toFile());
+            Path thumbnail = ThumbnailGenerator.toThumbnailPath(material);
+            if (original.getWidth() > ThumbnailGenerator.MAX_WIDTH) {
+                assertTrue(Files.exists(thumbnail));
+                BufferedImage image = ImageIO.read(thumbnail.toFile());
+                assertEquals(ThumbnailGenerator.MAX_WIDTH, image.getWidth());
+                assertTrue(ThumbnailGenerator.getThumbnailURL(material)
+                        .endsWith(ThumbnailGenerator.DIR_NAME + "/" + material.getID() + ".png"));
+            } else {
+                assertFalse(Files.exists(thumbnail));
+                // recorded not to be read again
+                assertTrue(Files.exists(ThumbnailGenerator.toNoThumbnailPath(material)));
+                assertEquals(material.getRelativeURL(), ThumbnailGenerator.getThumbnailURL(material));
+            }
+        }
+        // generated once; never again
+        assertEquals(0, generator.generate(pngs));
+    }
+
+    @Test
+    public void test_read_subsampled() throws IOException {
+        Path dir = too.cleanMethodOutputDirectory("test_read_subsampled");
+        Path wide = dir.resolve("wide.png");
+        ImageIO.write(new BufferedImage(4000, 1000, BufferedImage.TYPE_INT_RGB), "png", wide.toFile());
+        BufferedImage image = ThumbnailGenerator.read(wide, 480);
+        // every 4th pixel
+        assertEquals(1000, image.getWidth());
+        assertEquals(250, image.getHeight());
+        Path narrow = dir.resolve("narrow.png");
+        ImageIO.write(new BufferedImage(480, 1000, BufferedImage.TYPE_INT_RGB), "png", narrow.toFile());
+        assertNull(ThumbnailGenerator.read(narrow, 480));
+    }
+
+    @Test
+    public void test_downscale_keeps_aspect_ratio() {
+        BufferedImage image = new BufferedImage(2000, 5000, BufferedImage.TYPE_INT_RGB);
+        BufferedImage scaled = ThumbnailGenerator.downscale(image, 480);
+        assertEquals(480, scaled.getWidth());
+        assertEquals(1200, scaled.getHeight());
+    }
+}
@@ -140,6 +140,17 @@ public class MaterialTest {
         assertTrue(bytes.length > 0);
     }
 
+    @Test
+    public void test_loadNoCounterpartPng_cached_but_not_shared() throws MaterialstoreException {
+        byte[] first = Material.loadNoCounterpartPng();
+        byte[] second = Material.loadNoCounterpartPng();
+        Assertions.assertArrayEquals(first, second);
+        Assertions.assertNotSame(first, second);
+        // modifying the returned array must not spoil the cache
+        first[0] = (byte) ~first[0];
+        Assertions.assertArrayEquals(second, Material.loadNoCounterpartPng());
+    }
+
     @Test
     public void test_toPath() throws MaterialstoreException {
         JobName jobName = new JobName("test_toPath");
@@ -0,0 +1,118 @@
+package com.kazurayam.materialstore.core;
+
+import com.kazurayam.materialstore.zest.SampleFixtureInjector;
+import com.kazurayam.materialstore.zest.TestOutputOrganizerFactory;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StoreUsageTest {
+
+    private static final TestOutputOrganizer too = TestOutputOrganizerFactory.create(StoreUsageTest.class);
+    private Path classOutputDir;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    public void test_add_as_written() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_add_as_written").resolve("store"));
+        JobName jobName = new JobName("test_add_as_written");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        long measured = StoreUsage.measure(store.getRoot().resolve(jobName.toString()).resolve(jt.toString()));
+        assertTrue(measured > 0);
+        assertEquals(measured, store.getUsage().getBytes(jobName, jt));
+        assertEquals(measured, store.getUsage().getBytes(jobName));
+        assertEquals(measured, store.getUsage().getTotalBytes());
+        assertTrue(Files.exists(store.getRoot().resolve(StoreUsage.FILE_NAME)));
+        // another instance replays the journal
+        StoreUsage replayed = new StoreUsage(store.getRoot());
+        assertEquals(measured, replayed.getBytes(jobName, jt));
+    }
+
+    @Test
+    public void test_remove_as_deleted() throws IOException, MaterialstoreException, JobNameNotFoundException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_remove_as_deleted").resolve("store"));
+        JobName jobName = new JobName("test_remove_as_deleted");
+        JobTimestamp jtA = SampleFixtureInjector.create3TXTs(store, jobName, new JobTimestamp("20221026_205509"));
+        JobTimestamp jtB = SampleFixtureInjector.create3TXTs(store, jobName, new JobTimestamp("20221029_220401"));
+        long bytesB = store.getUsage().getBytes(jobName, jtB);
+        store.deleteJobTimestamp(jobName, jtA);
+        assertEquals(0, store.getUsage().getBytes(jobName, jtA));
+        assertEquals(bytesB, store.getUsage().getTotalBytes());
+        store.deleteJobName(jobName);
+        assertEquals(0, store.getUsage().getTotalBytes());
+        assertEquals(0, new StoreUsage(store.getRoot()).getTotalBytes());
+    }
+
+    @Test
+    public void test_compact_as_loaded() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_compact_as_loaded").resolve("store"));
+        JobName jobName = new JobName("test_compact_as_loaded");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        long bytes = store.getUsage().getBytes(jobName, jt);
+        // a journal grown past the limit
+        Path journal = store.getRoot().resolve(StoreUsage.FILE_NAME);
+        List<String> lines = new ArrayList<>(Files.readAllLines(journal, StandardCharsets.UTF_8));
+        for (int i = 0; i < StoreUsage.COMPACT_LINES; i++) {
+            lines.add(String.format("+\t%s\t%s\t%d", jobName, jt, 1));
+        }
+        Files.write(journal, lines, StandardCharsets.UTF_8);
+        StoreUsage usage = new StoreUsage(store.getRoot());
+        assertEquals(bytes + StoreUsage.COMPACT_LINES, usage.getBytes(jobName, jt));
+        assertEquals(1, Files.readAllLines(journal, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void test_compact_keeps_the_lines_of_others() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_compact_keeps_the_lines_of_others").resolve("store"));
+        JobName jobName = new JobName("test_compact_keeps_the_lines_of_others");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        long bytes = store.getUsage().getBytes(jobName, jt);
+        // another process appends to the journal
+        new StoreUsage(store.getRoot()).add(jobName, jt, 100L);
+        store.getUsage().compact();
+        assertEquals(bytes + 100L, store.getUsage().getBytes(jobName, jt));
+        assertEquals(bytes + 100L, new StoreUsage(store.getRoot()).getBytes(jobName, jt));
+        assertEquals(1, Files.readAllLines(store.getRoot().resolve(StoreUsage.FILE_NAME), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void test_root_recreated() throws IOException, MaterialstoreException {
+        Path root = classOutputDir.resolve("test_root_recreated").resolve("store");
+        Store store = Stores.newInstance(root);
+        JobName jobName = new JobName("test_root_recreated");
+        SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        assertTrue(store.getUsage().getTotalBytes() > 0);
+        too.deleteDir(root);
+        // a Store of the root created again knows nothing of the former
+        assertEquals(0, Stores.newInstance(root).getUsage().getTotalBytes());
+    }
+
+    @Test
+    public void test_refresh() throws IOException, MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("test_refresh").resolve("store"));
+        JobName jobName = new JobName("test_refresh");
+        JobTimestamp jt = SampleFixtureInjector.create3TXTs(store, jobName, JobTimestamp.now());
+        long bytes = store.getUsage().getBytes(jobName, jt);
+        // the journal lost; e.g, the store was copied without it
+        Files.delete(store.getRoot().resolve(StoreUsage.FILE_NAME));
+        StoreUsage usage = new StoreUsage(store.getRoot());
+        assertEquals(0, usage.getTotalBytes());
+        usage.refresh();
+        assertEquals(bytes, usage.getBytes(jobName, jt));
+        assertEquals(1, usage.getJobTimestamps(jobName).size());
+    }
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -31,4 +32,26 @@ public class ReadAllLinesDirectiveTest extends TestBase {
         assertTrue(output.contains("<tr><td>0</td><td>publishedDate,uri,title,link,description,author</td></tr>"));
         System.out.println(output);
     }
+
+    @Test
+    public void test_execute_maxLines() throws IOException, TemplateException {
+        Template temp = cfg.getTemplate("readAllLinesTruncatedDemo.ftlh");
+        Writer out = new StringWriter();
+        temp.process(model, out);
+        String output = out.toString();
+        assertTrue(output.contains("<tr><td>2</td>"));
+        assertFalse(output.contains("<tr><td>3</td>"));
+        assertTrue(output.contains("<tr><td colspan=\"2\">... truncated, 8 more lines</td></tr>"),
+                output);
+    }
+
+    @Test
+    public void test_execute_maxBytes() throws IOException, TemplateException {
+        Template temp = cfg.getTemplate("readAllLinesMaxBytesDemo.ftlh");
+        Writer out = new StringWriter();
+        temp.process(model, out);
+        String output = out.toString();
+        assertFalse(output.contains("publishedDate"));
+        assertTrue(output.contains("<p>... truncated, 11 more lines</p>"), output);
+    }
 }